@@ -232,7 +232,17 @@ public class FileChannel extends BasicChannelSemantics {
     } catch (Throwable t) {
       open = false;
       LOG.error("Failed to start the file channel " + channelNameDescriptor, t);
+      // Release the directories, so that the start can be retried.
+      if (log != null) {
+        try {
+          log.close();
+        } catch (Throwable t1) {
+          LOG.warn("Failed to close the log " + channelNameDescriptor, t1);
+        }
+        log = null;
+      }
       if (t instanceof Error) {
+        fail();
         throw (Error) t;
       }
     }
@@ -240,8 +250,10 @@ public class FileChannel extends BasicChannelSemantics {
       channelCounter.start();
       channelCounter.setChannelSize(getDepth());
       channelCounter.setChannelCapacity(capacity);
+      super.start();
+    } else {
+      fail();
     }
-    super.start();
   }
 
   @Override
@@ -19,8 +19,15 @@
 package org.apache.flume.clients.log4jappender;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
@@ -31,6 +38,7 @@ import org.apache.flume.event.EventBuilder;
 
 import org.apache.log4j.AppenderSkeleton;
 import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.Filter;
 import org.apache.log4j.spi.LoggingEvent;
 
 /**
@@ -55,15 +63,51 @@ import org.apache.log4j.spi.LoggingEvent;
  *do the appending.For example if classes from the package
  *com.bar.foo are appending, the last line would be:</i></p>
  *<pre><p>log4j.logger.com.bar.foo = DEBUG,out2</p></pre>
- *
+ *<p>
+ *By default every log statement is sent to Flume before <tt>append()</tt>
+ *returns. With <strong>Async</strong> set to <tt>true</tt>, log statements
+ *are instead put in a bounded buffer of <strong>BufferSize</strong> events
+ *(default 1000), and a background thread sends them in batches of up to
+ *<strong>BatchSize</strong> events (default 100). When the buffer is full,
+ *<strong>OverflowPolicy</strong> decides what happens:
+ *<tt>DROP_NEWEST</tt> (the default) discards the new event,
+ *<tt>DROP_OLDEST</tt> discards the oldest buffered event and <tt>BLOCK</tt>
+ *waits for room. <strong>Use <tt>BLOCK</tt> with care:</strong> while the
+ *agent is down or slow every logging thread of the application stalls in
+ *the log statement until the buffer drains.
+ *Events of a batch that cannot be delivered are discarded as well. The
+ *number of events sent, dropped and failed is available from
+ *{@link #getSentCount()}, {@link #getDroppedCount()} and
+ *{@link #getFailedCount()}.
+ *</p>
+ *<pre><p>
+ *log4j.appender.out2.Async = true
+ *log4j.appender.out2.OverflowPolicy = DROP_OLDEST</p></pre>
  *
  */
 public class Log4jAppender extends AppenderSkeleton {
 
+  private static final int defaultBufferSize = 1000;
+  private static final int defaultBatchSize = 100;
+  private static final OverflowPolicy defaultOverflowPolicy =
+      OverflowPolicy.DROP_NEWEST;
+  private static final long idleWaitNanos = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long retryIntervalMillis = 1000;
+
   private String hostname;
   private int port;
   private RpcClient rpcClient = null;
 
+  private boolean async = false;
+  private int bufferSize = defaultBufferSize;
+  private int batchSize = defaultBatchSize;
+  private OverflowPolicy overflowPolicy = defaultOverflowPolicy;
+  private volatile AsyncSender sender = null;
+
+  private final AtomicLong sentCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+
 
   /**
    * If this constructor is used programmatically rather than from a log4j conf
@@ -86,6 +130,37 @@ public class Log4jAppender extends AppenderSkeleton {
     this.port = port;
   }
 
+  /**
+   * In async mode, applies the threshold and filters like
+   * <tt>AppenderSkeleton</tt> does and buffers the event without taking the
+   * appender lock, so logging threads don't queue up behind each other.
+   */
+  @Override
+  public void doAppend(LoggingEvent event) {
+    AsyncSender asyncSender = sender;
+    if (asyncSender == null) {
+      super.doAppend(event);
+      return;
+    }
+
+    if (!isAsSevereAsThreshold(event.getLevel())) {
+      return;
+    }
+    Filter filter = getFilter();
+    FILTER_LOOP:
+    while (filter != null) {
+      switch (filter.decide(event)) {
+      case Filter.DENY:
+        return;
+      case Filter.ACCEPT:
+        break FILTER_LOOP;
+      default:
+        filter = filter.getNext();
+      }
+    }
+    asyncSender.enqueue(toFlumeEvent(event));
+  }
+
   /**
    * Append the LoggingEvent, to send to the first Flume hop.
    * @param event The LoggingEvent to be appended to the flume.
@@ -94,7 +169,18 @@ public class Log4jAppender extends AppenderSkeleton {
    * was a connection error.
    */
   @Override
-  public synchronized void append(LoggingEvent event) throws FlumeException{
+  public void append(LoggingEvent event) throws FlumeException{
+    AsyncSender asyncSender = sender;
+    if (asyncSender != null) {
+      asyncSender.enqueue(toFlumeEvent(event));
+      return;
+    }
+    synchronized (this) {
+      appendNow(event);
+    }
+  }
+
+  private void appendNow(LoggingEvent event) throws FlumeException {
     //If rpcClient is null, it means either this appender object was never
     //setup by setting hostname and port and then calling activateOptions
     //or this appender object was closed by calling close(), so we throw an
@@ -108,6 +194,20 @@ public class Log4jAppender extends AppenderSkeleton {
       reconnect();
     }
 
+    Event flumeEvent = toFlumeEvent(event);
+
+    try {
+      rpcClient.append(flumeEvent);
+      sentCount.incrementAndGet();
+    } catch (EventDeliveryException e) {
+      failedCount.incrementAndGet();
+      String msg = "Flume append() failed.";
+      LogLog.error(msg);
+      throw new FlumeException(msg + " Exception follows.", e);
+    }
+  }
+
+  private Event toFlumeEvent(LoggingEvent event) {
     //Client created first time append is called.
     Map<String, String> hdrs = new HashMap<String, String>();
     hdrs.put(Log4jAvroHeaders.LOGGER_NAME.toString(), event.getLoggerName());
@@ -121,16 +221,8 @@ public class Log4jAppender extends AppenderSkeleton {
         String.valueOf(event.getLevel().toInt()));
     hdrs.put(Log4jAvroHeaders.MESSAGE_ENCODING.toString(), "UTF8");
 
-    Event flumeEvent = EventBuilder.withBody(event.getMessage().toString(),
+    return EventBuilder.withBody(event.getMessage().toString(),
         Charset.forName("UTF8"), hdrs);
-
-    try {
-      rpcClient.append(flumeEvent);
-    } catch (EventDeliveryException e) {
-      String msg = "Flume append() failed.";
-      LogLog.error(msg);
-      throw new FlumeException(msg + " Exception follows.", e);
-    }
   }
 
   //This function should be synchronized to make sure one thread
@@ -145,6 +237,11 @@ public class Log4jAppender extends AppenderSkeleton {
   @Override
   public synchronized void close() throws FlumeException{
     //Any append calls after this will result in an Exception.
+    AsyncSender asyncSender = sender;
+    if (asyncSender != null) {
+      sender = null;
+      asyncSender.stop();
+    }
     if (rpcClient != null) {
       rpcClient.close();
       rpcClient = null;
@@ -181,13 +278,93 @@ public class Log4jAppender extends AppenderSkeleton {
   @Override
   public void activateOptions() throws FlumeException{
     try {
-      rpcClient = RpcClientFactory.getDefaultInstance(hostname, port);
+      rpcClient = RpcClientFactory.getDefaultInstance(hostname, port,
+          batchSize);
     } catch (FlumeException e) {
       String errormsg = "RPC client creation failed! " +
           e.getMessage();
       LogLog.error(errormsg);
       throw e;
     }
+    if (async) {
+      sender = new AsyncSender();
+      sender.start();
+    }
+  }
+
+  /**
+   * Send log statements from a background thread instead of the logging
+   * thread.
+   * @param async <tt>true</tt> to buffer log statements
+   */
+  public void setAsync(boolean async) {
+    this.async = async;
+  }
+
+  /**
+   * Set the number of log statements buffered in async mode.
+   * @param bufferSize The maximum number of buffered events.
+   */
+  public void setBufferSize(int bufferSize) {
+    if (bufferSize < 1) {
+      LogLog.warn("Invalid buffer size " + bufferSize + ", using " +
+          defaultBufferSize);
+      bufferSize = defaultBufferSize;
+    }
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * Set the maximum number of events sent in one RPC.
+   * @param batchSize The batch size.
+   */
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      LogLog.warn("Invalid batch size " + batchSize + ", using " +
+          defaultBatchSize);
+      batchSize = defaultBatchSize;
+    }
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Set what to do with a log statement when the async buffer is full.
+   * <tt>BLOCK</tt> stalls the logging threads while the agent is
+   * unreachable.
+   * @param overflowPolicy One of <tt>DROP_NEWEST</tt> (the default),
+   * <tt>DROP_OLDEST</tt> or <tt>BLOCK</tt>.
+   */
+  public void setOverflowPolicy(String overflowPolicy) {
+    try {
+      this.overflowPolicy =
+          OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      LogLog.warn("Unknown overflow policy " + overflowPolicy + ", using " +
+          defaultOverflowPolicy);
+      this.overflowPolicy = defaultOverflowPolicy;
+    }
+  }
+
+  /**
+   * Returns the number of events acknowledged by Flume.
+   */
+  public long getSentCount() {
+    return sentCount.get();
+  }
+
+  /**
+   * Returns the number of events discarded because the async buffer was
+   * full.
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Returns the number of events that could not be delivered.
+   */
+  public long getFailedCount() {
+    return failedCount.get();
   }
 
   /**
@@ -198,5 +375,144 @@ public class Log4jAppender extends AppenderSkeleton {
     close();
     activateOptions();
   }
+
+  /**
+   * What to do with a log statement when the async buffer is full.
+   */
+  public static enum OverflowPolicy {
+    BLOCK, DROP_NEWEST, DROP_OLDEST
+  }
+
+  /**
+   * Buffers events in a lock-free queue bounded by a semaphore, and sends
+   * them in batches from a daemon thread. Only this thread uses the RPC
+   * client until the sender is stopped.
+   */
+  private class AsyncSender implements Runnable {
+
+    private final ConcurrentLinkedQueue<Event> queue =
+        new ConcurrentLinkedQueue<Event>();
+    private final Semaphore capacity = new Semaphore(bufferSize);
+    private final Thread thread;
+
+    private volatile boolean stopped = false;
+    private volatile boolean idle = false;
+
+    private AsyncSender() {
+      thread = new Thread(this, "Flume Log4jAppender Sender");
+      thread.setDaemon(true);
+    }
+
+    private void start() {
+      thread.start();
+    }
+
+    private void enqueue(Event event) {
+      switch (overflowPolicy) {
+      case DROP_NEWEST:
+        if (!capacity.tryAcquire()) {
+          droppedCount.incrementAndGet();
+          return;
+        }
+        break;
+      case DROP_OLDEST:
+        while (!capacity.tryAcquire()) {
+          if (queue.poll() != null) {
+            droppedCount.incrementAndGet();
+            capacity.release();
+          }
+        }
+        break;
+      default:
+        try {
+          capacity.acquire();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          droppedCount.incrementAndGet();
+          return;
+        }
+      }
+
+      queue.offer(event);
+      if (idle) {
+        LockSupport.unpark(thread);
+      }
+    }
+
+    @Override
+    public void run() {
+      List<Event> batch = new ArrayList<Event>(batchSize);
+      while (!stopped || !queue.isEmpty()) {
+        Event event;
+        while (batch.size() < batchSize && (event = queue.poll()) != null) {
+          capacity.release();
+          batch.add(event);
+        }
+
+        if (batch.isEmpty()) {
+          idle = true;
+          if (queue.isEmpty() && !stopped) {
+            LockSupport.parkNanos(this, idleWaitNanos);
+          }
+          idle = false;
+          continue;
+        }
+
+        boolean sent = send(batch);
+        batch.clear();
+
+        if (!sent && stopped) {
+          // Don't hold up close() on an unreachable agent.
+          long discarded = 0;
+          while (queue.poll() != null) {
+            capacity.release();
+            discarded++;
+          }
+          failedCount.addAndGet(discarded);
+          break;
+        }
+      }
+    }
+
+    private boolean send(List<Event> batch) {
+      try {
+        if (!rpcClient.isActive()) {
+          rpcClient.close();
+          rpcClient = RpcClientFactory.getDefaultInstance(hostname, port,
+              batchSize);
+        }
+        rpcClient.appendBatch(batch);
+        sentCount.addAndGet(batch.size());
+        return true;
+      } catch (Exception e) {
+        failedCount.addAndGet(batch.size());
+        LogLog.error("Flume appendBatch() failed, dropped " + batch.size() +
+            " events.", e);
+        if (!stopped) {
+          // Don't spin on an unreachable agent.
+          try {
+            Thread.sleep(retryIntervalMillis);
+          } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            stopped = true;
+          }
+        }
+        return false;
+      }
+    }
+
+    /**
+     * Sends the buffered events and stops the thread.
+     */
+    private void stop() {
+      stopped = true;
+      LockSupport.unpark(thread);
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
 }
 
@@ -25,6 +25,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.Assert;
 
@@ -119,8 +121,86 @@ public class TestLog4jAppender{
 
   }
 
+  @Test
+  public void testLog4jAppenderAsync() throws IOException {
+    Log4jAppender appender = new Log4jAppender("localhost", 25430);
+    appender.setAsync(true);
+    appender.setBatchSize(10);
+    appender.activateOptions();
+
+    Logger logger = LogManager.getLogger("flume.log4jappender.async");
+    logger.setAdditivity(false);
+    logger.addAppender(appender);
+    for(int count = 0; count < 100; count++){
+      logger.info("This is async log message number" + count);
+    }
+
+    // Closing the appender sends the buffered events.
+    logger.removeAppender(appender);
+    appender.close();
+
+    Assert.assertEquals(100, appender.getSentCount());
+    Assert.assertEquals(0, appender.getDroppedCount());
+    Assert.assertEquals(0, appender.getFailedCount());
+
+    Transaction transaction = ch.getTransaction();
+    transaction.begin();
+    for(int count = 0; count < 100; count++){
+      Event event = ch.take();
+      Assert.assertNotNull(event);
+      Assert.assertEquals("This is async log message number" + count,
+          new String(event.getBody(), "UTF8"));
+    }
+    transaction.commit();
+    transaction.close();
+  }
+
+  @Test
+  public void testLog4jAppenderAsyncSkipsAppenderLock() throws Exception {
+    final Log4jAppender appender = new Log4jAppender("localhost", 25430);
+    appender.setAsync(true);
+    appender.activateOptions();
+
+    Logger logger = LogManager.getLogger("flume.log4jappender.async.lock");
+    logger.setAdditivity(false);
+    logger.addAppender(appender);
+
+    // Hold the appender lock, as a stalled synchronous append would.
+    final CountDownLatch locked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Thread holder = new Thread() {
+      @Override
+      public void run() {
+        synchronized (appender) {
+          locked.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+    holder.start();
+    Assert.assertTrue(locked.await(5, TimeUnit.SECONDS));
+    try {
+      for(int count = 0; count < 10; count++){
+        logger.info("This is async log message number" + count);
+      }
+      Assert.assertTrue(holder.isAlive());
+    } finally {
+      release.countDown();
+      holder.join();
+    }
+
+    logger.removeAppender(appender);
+    appender.close();
+    Assert.assertEquals(10, appender.getSentCount());
+  }
+
   @After
   public void cleanUp(){
+    source.stop();
   }
 
 }
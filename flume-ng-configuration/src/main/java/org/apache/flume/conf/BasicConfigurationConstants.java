@@ -21,6 +21,7 @@ public final class BasicConfigurationConstants {
   public static final String CONFIG_SOURCES = "sources";
   public static final String CONFIG_SOURCES_PREFIX = CONFIG_SOURCES + ".";
   public static final String CONFIG_SOURCE_CHANNELSELECTOR_PREFIX = "selector.";
+  public static final String CONFIG_SOURCE_RUNNER_PREFIX = "runner.";
 
 
   public static final String CONFIG_SINKS = "sinks";
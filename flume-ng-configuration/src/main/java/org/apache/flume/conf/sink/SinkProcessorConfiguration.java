@@ -61,7 +61,14 @@ public class SinkProcessorConfiguration extends ComponentConfiguration {
      *
      * @see DefaultSinkProcessor
      */
-    DEFAULT(null);
+    DEFAULT(null),
+
+    /**
+     * Parallel processor
+     *
+     * @see ParallelSinkProcessor
+     */
+    PARALLEL(null);
     private final String processorClassName;
 
     private SinkProcessorConfigurationType(String processorClassName) {
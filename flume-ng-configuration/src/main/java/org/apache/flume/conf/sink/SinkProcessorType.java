@@ -44,7 +44,14 @@ public enum SinkProcessorType {
    *
    * @see org.apache.flume.sink.LoadBalancingSinkProcessor
    */
-  LOAD_BALANCE("org.apache.flume.sink.LoadBalancingSinkProcessor");
+  LOAD_BALANCE("org.apache.flume.sink.LoadBalancingSinkProcessor"),
+
+  /**
+   * Processor driving all sinks of the group concurrently
+   *
+   * @see org.apache.flume.sink.ParallelSinkProcessor
+   */
+  PARALLEL("org.apache.flume.sink.ParallelSinkProcessor");
 
   private final String processorClassName;
 
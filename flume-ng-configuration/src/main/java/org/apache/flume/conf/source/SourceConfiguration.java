@@ -37,6 +37,7 @@ import org.apache.flume.conf.channel.ChannelSelectorType;
 public class SourceConfiguration extends ComponentConfiguration {
   protected Set<String> channels;
   protected ChannelSelectorConfiguration selectorConf;
+  protected Context runnerContext;
 
   public SourceConfiguration(String componentName) {
     super(componentName);
@@ -50,6 +51,14 @@ public class SourceConfiguration extends ComponentConfiguration {
     return selectorConf;
   }
 
+  /**
+   * @return the <tt>runner.</tt> properties of the source, used to configure
+   * its source runner
+   */
+  public Context getRunnerContext() {
+    return runnerContext;
+  }
+
   public void configure(Context context) throws ConfigurationException {
     super.configure(context);
     try {
@@ -67,6 +76,8 @@ public class SourceConfiguration extends ComponentConfiguration {
         throw new ConfigurationException("No channels set for "
             + this.getComponentName());
       }
+      runnerContext = new Context(context.getSubProperties(
+          BasicConfigurationConstants.CONFIG_SOURCE_RUNNER_PREFIX));
       Map<String, String> selectorParams = context.getSubProperties(
               BasicConfigurationConstants.CONFIG_SOURCE_CHANNELSELECTOR_PREFIX);
       String selType;
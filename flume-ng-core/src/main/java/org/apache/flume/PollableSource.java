@@ -37,7 +37,7 @@ public interface PollableSource extends Source {
    * When driven by an {@link EventDrivenSourceRunner} process is guaranteed
    * to be called only by a single thread at a time, with no concurrency.
    * Any other mechanism driving a pollable source must follow the same
-   * semantics.
+   * semantics, unless the source is a {@link ConcurrentPollableSource}.
    * </p>
    * @return {@code READY} if one or more events were created from the source.
    * {@code BACKOFF} if no events could be created from the source.
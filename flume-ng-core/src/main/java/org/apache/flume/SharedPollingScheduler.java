@@ -0,0 +1,325 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.flume;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.flume.instrumentation.SchedulerCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * <p>
+ * A fixed-size pool of threads that multiplexes the polling loops of many
+ * {@linkplain SinkRunner sink runners} and
+ * {@linkplain org.apache.flume.source.PollableSourceRunner pollable source
+ * runners}, instead of each runner owning a dedicated thread.
+ * </p>
+ * <p>
+ * A registered component has at most one invocation pending or running at any
+ * time, so the single-threaded {@code process()} contract of sinks and
+ * pollable sources is preserved. A component that asks to back off is parked
+ * on a timer rather than holding a thread in {@link Thread#sleep(long)}. A
+ * component that keeps reporting work yields its thread after a bounded
+ * number of consecutive invocations (see {@value #CONF_MAX_CONSECUTIVE_POLLS})
+ * so that other components get a turn.
+ * </p>
+ * <p>
+ * The scheduler is disabled by default. It is enabled for the whole agent by
+ * setting the system property {@value #CONF_THREADS} to a positive number of
+ * threads. Per-component time spent waiting for a thread and time spent
+ * polling are kept in the counter group of each runner, and totals across all
+ * components are published as a {@link SchedulerCounter} named
+ * {@code SharedPollingScheduler}.
+ * </p>
+ */
+public class SharedPollingScheduler {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(SharedPollingScheduler.class);
+
+  public static final String CONF_THREADS = "flume.runner.shared.threads";
+  public static final String CONF_MAX_CONSECUTIVE_POLLS =
+      "flume.runner.shared.maxConsecutivePolls";
+
+  private static final int defaultMaxConsecutivePolls = 16;
+  private static final long backoffSleepIncrement = 1000;
+  private static final long maxBackoffSleep = 5000;
+
+  private static SharedPollingScheduler instance;
+
+  private final ScheduledThreadPoolExecutor executor;
+  private final int maxConsecutivePolls;
+  private final SchedulerCounter schedulerCounter;
+
+  /**
+   * Returns the agent wide scheduler, creating it on first use.
+   *
+   * @return the shared scheduler, or {@code null} if {@value #CONF_THREADS}
+   * is not set to a positive value
+   */
+  public static synchronized SharedPollingScheduler getInstance() {
+    if (instance == null) {
+      int threads = Integer.getInteger(CONF_THREADS, 0);
+      if (threads > 0) {
+        instance = new SharedPollingScheduler(threads, Integer.getInteger(
+            CONF_MAX_CONSECUTIVE_POLLS, defaultMaxConsecutivePolls));
+        logger.info("Shared polling scheduler created with {} threads",
+            threads);
+      }
+    }
+    return instance;
+  }
+
+  public SharedPollingScheduler(int threads, int maxConsecutivePolls) {
+    Preconditions.checkArgument(threads > 0,
+        "Scheduler thread count must be positive");
+    Preconditions.checkArgument(maxConsecutivePolls > 0,
+        "Maximum consecutive polls must be positive");
+
+    this.maxConsecutivePolls = maxConsecutivePolls;
+    schedulerCounter = new SchedulerCounter("SharedPollingScheduler");
+    schedulerCounter.start();
+    executor = new ScheduledThreadPoolExecutor(threads,
+        new ThreadFactoryBuilder().setNameFormat("SharedPollingScheduler-%d")
+            .setDaemon(true).build());
+  }
+
+  /**
+   * Starts polling a component. The first invocation happens as soon as a
+   * scheduler thread is free.
+   *
+   * @param name the name used in log messages
+   * @param task the component to poll
+   * @param runnerCounters counter group of the owning runner
+   * @return a handle used to stop polling the component
+   */
+  public Registration register(String name, PollingTask task,
+      CounterGroup runnerCounters) {
+    return register(name, task, runnerCounters,
+        "runner.backoffs.consecutive");
+  }
+
+  /**
+   * Starts polling a component, tracking its consecutive backoffs under the
+   * given counter. Used when several registrations share a counter group.
+   *
+   * @param name the name used in log messages
+   * @param task the component to poll
+   * @param runnerCounters counter group of the owning runner
+   * @param backoffCounter name of the consecutive backoff counter
+   * @return a handle used to stop polling the component
+   */
+  public Registration register(String name, PollingTask task,
+      CounterGroup runnerCounters, String backoffCounter) {
+    Registration registration = new Registration(name, task, runnerCounters,
+        backoffCounter);
+
+    logger.debug("Registering {} with shared polling scheduler", name);
+    registration.schedule(0);
+
+    return registration;
+  }
+
+  /**
+   * Stops the scheduler threads. Registered components are not polled again.
+   */
+  public void shutdown() {
+    executor.shutdown();
+    schedulerCounter.stop();
+  }
+
+  public SchedulerCounter getSchedulerCounter() {
+    return schedulerCounter;
+  }
+
+  @Override
+  public String toString() {
+    return "SharedPollingScheduler: { threads:" + executor.getCorePoolSize()
+        + " counters:" + schedulerCounter + " }";
+  }
+
+  /**
+   * A single invocation of a polled component.
+   */
+  public interface PollingTask {
+
+    /**
+     * Invokes the component once.
+     *
+     * @return {@code true} if the component asked to back off
+     * @throws Exception if the invocation failed; an
+     * {@link EventDeliveryException} is counted as a delivery error
+     */
+    public boolean poll() throws Exception;
+
+  }
+
+  /**
+   * A component registered with the scheduler.
+   */
+  public final class Registration implements Runnable {
+
+    private final String name;
+    private final PollingTask task;
+    private final CounterGroup runnerCounters;
+    private final String backoffCounter;
+    private final Object lock;
+
+    private volatile boolean cancelled;
+    private boolean running;
+    private ScheduledFuture<?> pending;
+    private long readyAt;
+
+    private Registration(String name, PollingTask task,
+        CounterGroup runnerCounters, String backoffCounter) {
+      this.name = name;
+      this.task = task;
+      this.runnerCounters = runnerCounters;
+      this.backoffCounter = backoffCounter;
+      lock = new Object();
+    }
+
+    private void schedule(long delay) {
+      synchronized (lock) {
+        if (cancelled) {
+          return;
+        }
+        readyAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        pending = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    @Override
+    public void run() {
+      synchronized (lock) {
+        if (cancelled) {
+          return;
+        }
+        running = true;
+        pending = null;
+      }
+
+      long startTime = System.nanoTime();
+      long waitMicros = TimeUnit.NANOSECONDS.toMicros(
+          Math.max(0L, startTime - readyAt));
+      long delay = maxBackoffSleep;
+
+      runnerCounters.addAndGet("runner.scheduler.waitMicros", waitMicros);
+      if (waitMicros > runnerCounters.get("runner.scheduler.waitMicros.max")) {
+        runnerCounters.set("runner.scheduler.waitMicros.max", waitMicros);
+      }
+      schedulerCounter.incrementSliceCount();
+      schedulerCounter.addToWaitTimeMicros(waitMicros);
+
+      try {
+        delay = pollUntilIdle();
+      } finally {
+        long runMicros = TimeUnit.NANOSECONDS.toMicros(
+            System.nanoTime() - startTime);
+        runnerCounters.incrementAndGet("runner.scheduler.slices");
+        runnerCounters.addAndGet("runner.scheduler.runMicros", runMicros);
+        schedulerCounter.addToRunTimeMicros(runMicros);
+
+        synchronized (lock) {
+          running = false;
+          lock.notifyAll();
+        }
+        schedule(delay);
+      }
+    }
+
+    /**
+     * Polls the component until it backs off, fails, or has used up its
+     * share of consecutive polls.
+     *
+     * @return the delay in milliseconds before the next invocation
+     */
+    private long pollUntilIdle() {
+      for (int polls = 1; !cancelled; polls++) {
+        runnerCounters.incrementAndGet("runner.polls");
+
+        try {
+          if (task.poll()) {
+            runnerCounters.incrementAndGet("runner.backoffs");
+            schedulerCounter.incrementBackoffCount();
+
+            return Math.min(
+                runnerCounters.incrementAndGet(backoffCounter)
+                * backoffSleepIncrement, maxBackoffSleep);
+          }
+          runnerCounters.set(backoffCounter, 0L);
+        } catch (EventDeliveryException e) {
+          logger.error("Unable to deliver event. Exception follows.", e);
+          runnerCounters.incrementAndGet("runner.deliveryErrors");
+          return maxBackoffSleep;
+        } catch (Exception e) {
+          runnerCounters.incrementAndGet("runner.errors");
+          logger.error("Unhandled exception polling " + name
+              + ", backing off for " + maxBackoffSleep + "ms", e);
+          return maxBackoffSleep;
+        }
+
+        if (polls >= maxConsecutivePolls) {
+          runnerCounters.incrementAndGet("runner.scheduler.yields");
+          schedulerCounter.incrementYieldCount();
+          return 0L;
+        }
+      }
+
+      return 0L;
+    }
+
+    /**
+     * Stops polling the component, waiting for an invocation in progress to
+     * complete.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void cancel() throws InterruptedException {
+      logger.debug("Unregistering {} from shared polling scheduler", name);
+
+      synchronized (lock) {
+        cancelled = true;
+        if (pending != null) {
+          pending.cancel(false);
+          pending = null;
+        }
+        while (running) {
+          logger.debug("Waiting for {} to finish polling", name);
+          lock.wait(500);
+        }
+      }
+      executor.purge();
+    }
+
+    @Override
+    public String toString() {
+      return "{ name:" + name + " cancelled:" + cancelled + " }";
+    }
+
+  }
+
+}
@@ -21,8 +21,8 @@ package org.apache.flume;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.apache.flume.lifecycle.LifecycleAware;
 import org.apache.flume.lifecycle.LifecycleState;
+import org.apache.flume.lifecycle.LifecycleStateReporter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,10 +37,16 @@ import org.slf4j.LoggerFactory;
  * Note that, unlike {@linkplain Source sources}, all sinks are polled.
  * </p>
  *
+ * <p>
+ * The runner moves to {@link LifecycleState#ERROR} and reports it if its
+ * polling thread dies or it fails to start or stop. Starting it again from
+ * that state stops what is left of the previous run first.
+ * </p>
+ *
  * @see org.apache.flume.Sink
  * @see org.apache.flume.SourceRunner
  */
-public class SinkRunner implements LifecycleAware {
+public class SinkRunner implements LifecycleStateReporter {
 
   private static final Logger logger = LoggerFactory
       .getLogger(SinkRunner.class);
@@ -50,13 +56,19 @@ public class SinkRunner implements LifecycleAware {
   private CounterGroup counterGroup;
   private PollingRunner runner;
   private Thread runnerThread;
-  private LifecycleState lifecycleState;
+  private volatile LifecycleState lifecycleState;
+  private volatile LifecycleStateReporter.Listener stateListener;
 
   private SinkProcessor policy;
+  private String name;
+
+  private SharedPollingScheduler scheduler;
+  private SharedPollingScheduler.Registration registration;
 
   public SinkRunner() {
     counterGroup = new CounterGroup();
     lifecycleState = LifecycleState.IDLE;
+    scheduler = SharedPollingScheduler.getInstance();
   }
 
   public SinkRunner(SinkProcessor policy) {
@@ -72,17 +84,97 @@ public class SinkRunner implements LifecycleAware {
     this.policy = policy;
   }
 
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Sets the name of the sink or sink group driven by this runner, used to
+   * name its registration with the shared polling scheduler.
+   */
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  private String getRunnerName() {
+    if (name != null) {
+      return name;
+    }
+    return policy.getClass().getSimpleName() + "@"
+        + Integer.toHexString(System.identityHashCode(policy));
+  }
+
+  public SharedPollingScheduler getScheduler() {
+    return scheduler;
+  }
+
+  /**
+   * Sets the scheduler used to drive the sink processor. When {@code null},
+   * the runner drives the processor from a dedicated thread.
+   */
+  public void setScheduler(SharedPollingScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  @Override
+  public void setLifecycleStateListener(
+      LifecycleStateReporter.Listener listener) {
+    stateListener = listener;
+  }
+
+  /**
+   * Moves the runner to {@link LifecycleState#ERROR} and reports it.
+   */
+  private void fail() {
+    lifecycleState = LifecycleState.ERROR;
+    LifecycleStateReporter.Listener listener = stateListener;
+    if (listener != null) {
+      listener.lifecycleStateChanged(this);
+    }
+  }
+
   @Override
   public void start() {
-    SinkProcessor policy = getPolicy();
+    if (lifecycleState == LifecycleState.ERROR) {
+      logger.info("Stopping {} before restarting it", this);
+      stop();
+    }
+
+    boolean started = false;
+    try {
+      startPolling();
+      started = true;
+    } finally {
+      if (!started) {
+        fail();
+      }
+    }
+  }
+
+  private void startPolling() {
+    final SinkProcessor policy = getPolicy();
 
     policy.start();
 
+    if (scheduler != null) {
+      registration = scheduler.register("SinkRunner-" + getRunnerName(),
+          new SharedPollingScheduler.PollingTask() {
+            @Override
+            public boolean poll() throws Exception {
+              return policy.process().equals(Sink.Status.BACKOFF);
+            }
+          }, counterGroup);
+
+      lifecycleState = LifecycleState.START;
+      return;
+    }
+
     runner = new PollingRunner();
 
     runner.policy = policy;
     runner.counterGroup = counterGroup;
     runner.shouldStop = new AtomicBoolean();
+    runner.sinkRunner = this;
 
     runnerThread = new Thread(runner);
     runnerThread.setName("SinkRunner-PollingRunner-" +
@@ -95,6 +187,16 @@ public class SinkRunner implements LifecycleAware {
   @Override
   public void stop() {
 
+    if (registration != null) {
+      try {
+        registration.cancel();
+      } catch (InterruptedException e) {
+        logger.debug("Interrupted while waiting for scheduled sink to stop");
+        Thread.currentThread().interrupt();
+      }
+      registration = null;
+    }
+
     if (runnerThread != null) {
       runner.shouldStop.set(true);
       runnerThread.interrupt();
@@ -110,9 +212,18 @@ public class SinkRunner implements LifecycleAware {
               e);
         }
       }
+      runnerThread = null;
     }
 
-    getPolicy().stop();
+    boolean stopped = false;
+    try {
+      getPolicy().stop();
+      stopped = true;
+    } finally {
+      if (!stopped) {
+        fail();
+      }
+    }
     lifecycleState = LifecycleState.STOP;
   }
 
@@ -137,11 +248,25 @@ public class SinkRunner implements LifecycleAware {
     private SinkProcessor policy;
     private AtomicBoolean shouldStop;
     private CounterGroup counterGroup;
+    private SinkRunner sinkRunner;
 
     @Override
     public void run() {
       logger.debug("Polling sink runner starting");
 
+      try {
+        poll();
+      } catch (Error e) {
+        if (!shouldStop.get()) {
+          logger.error("Polling sink runner died. Exception follows.", e);
+          sinkRunner.fail();
+        }
+        throw e;
+      }
+      logger.debug("Polling runner exiting. Metrics:{}", counterGroup);
+    }
+
+    private void poll() {
       while (!shouldStop.get()) {
         try {
           if (policy.process().equals(Sink.Status.BACKOFF)) {
@@ -170,7 +295,6 @@ public class SinkRunner implements LifecycleAware {
           }
         }
       }
-      logger.debug("Polling runner exiting. Metrics:{}", counterGroup);
     }
 
   }
@@ -23,14 +23,17 @@ import org.apache.flume.Context;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.lifecycle.LifecycleAware;
 import org.apache.flume.lifecycle.LifecycleState;
+import org.apache.flume.lifecycle.LifecycleStateReporter;
 
 public abstract class AbstractChannel
-    implements Channel, LifecycleAware, Configurable {
+    implements Channel, LifecycleAware, LifecycleStateReporter, Configurable {
 
   private String name;
 
   private LifecycleState lifecycleState;
 
+  private volatile LifecycleStateReporter.Listener stateListener;
+
   public AbstractChannel() {
     lifecycleState = LifecycleState.IDLE;
   }
@@ -50,6 +53,24 @@ public abstract class AbstractChannel
     lifecycleState = LifecycleState.STOP;
   }
 
+  /**
+   * Moves the channel to {@link LifecycleState#ERROR} and reports it. Called
+   * by channels that fail to start, instead of {@link #start()}.
+   */
+  protected synchronized void fail() {
+    lifecycleState = LifecycleState.ERROR;
+    LifecycleStateReporter.Listener listener = stateListener;
+    if (listener != null) {
+      listener.lifecycleStateChanged(this);
+    }
+  }
+
+  @Override
+  public void setLifecycleStateListener(
+      LifecycleStateReporter.Listener listener) {
+    stateListener = listener;
+  }
+
   @Override
   public synchronized LifecycleState getLifecycleState() {
     return lifecycleState;
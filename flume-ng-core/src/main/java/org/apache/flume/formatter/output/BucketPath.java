@@ -155,85 +155,81 @@ public class BucketPath {
       ts = roundDown(roundDown, unit, ts);
     }
 
-    // It's a date
-    String formatString = "";
     switch (c) {
     case '%':
       return "%";
-    case 'a':
-      formatString = "EEE";
+    case 's':
+      return "" + (ts/1000);
+    case 't':
+      // This is different from unix date (which would insert a tab character
+      // here)
+      return timestampHeader;
+    default:
       break;
+    }
+
+    // It's a date
+    String formatString = getDateFormatPattern(c);
+    if (formatString == null) {
+//      LOG.warn("Unrecognized escape in event format string: %" + c);
+      return "";
+    }
+
+    SimpleDateFormat format = new SimpleDateFormat(formatString);
+    Date date = new Date(ts);
+    return format.format(date);
+  }
+
+  /**
+   * Returns the {@link SimpleDateFormat} pattern for a date shorthand, or null
+   * if the shorthand is not a date.
+   */
+  static String getDateFormatPattern(char c) {
+    switch (c) {
+    case 'a':
+      return "EEE";
     case 'A':
-      formatString = "EEEE";
-      break;
+      return "EEEE";
     case 'b':
-      formatString = "MMM";
-      break;
+      return "MMM";
     case 'B':
-      formatString = "MMMM";
-      break;
+      return "MMMM";
     case 'c':
-      formatString = "EEE MMM d HH:mm:ss yyyy";
-      break;
+      return "EEE MMM d HH:mm:ss yyyy";
     case 'd':
-      formatString = "dd";
-      break;
+      return "dd";
     case 'D':
-      formatString = "MM/dd/yy";
-      break;
+      return "MM/dd/yy";
     case 'H':
-      formatString = "HH";
-      break;
+      return "HH";
     case 'I':
-      formatString = "hh";
-      break;
+      return "hh";
     case 'j':
-      formatString = "DDD";
-      break;
+      return "DDD";
     case 'k':
-      formatString = "H";
-      break;
+      return "H";
     case 'l':
-      formatString = "h";
-      break;
+      return "h";
     case 'm':
-      formatString = "MM";
-      break;
+      return "MM";
     case 'M':
-      formatString = "mm";
-      break;
+      return "mm";
     case 'p':
-      formatString = "a";
-      break;
-    case 's':
-      return "" + (ts/1000);
+      return "a";
     case 'S':
-      formatString = "ss";
-      break;
-    case 't':
-      // This is different from unix date (which would insert a tab character
-      // here)
-      return timestampHeader;
+      return "ss";
     case 'y':
-      formatString = "yy";
-      break;
+      return "yy";
     case 'Y':
-      formatString = "yyyy";
-      break;
+      return "yyyy";
     case 'z':
-      formatString = "ZZZ";
-      break;
+      return "ZZZ";
     default:
-//      LOG.warn("Unrecognized escape in event format string: %" + c);
-      return "";
+      return null;
     }
-
-    SimpleDateFormat format = new SimpleDateFormat(formatString);
-    Date date = new Date(ts);
-    return format.format(date);
   }
 
-  private static long roundDown(int roundDown, int unit, long ts){
+  static long roundDown(int roundDown, int unit, long ts){
     long timestamp = ts;
     if(roundDown <= 0){
       roundDown = 1;
@@ -0,0 +1,344 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.flume.formatter.output;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A path template that is parsed once into a sequence of literal, header and
+ * time tokens, for components that resolve the same template for every event.
+ * {@link #escapeString(Map)} gives the same result as
+ * {@link BucketPath#escapeString(String, Map, boolean, int, int)} with the
+ * template and rounding settings given at construction.
+ * <p>
+ * Formatted date components are cached for the time window they are valid
+ * for (the second, minute, hour or day, depending on the finest escape used
+ * in the template), so a date format is only applied when an event falls
+ * outside the window of the previous one.
+ * <p>
+ * This class is thread safe.
+ */
+public class BucketPathTemplate {
+
+  private static final int LITERAL = 0;
+  private static final int HEADER = 1;
+  private static final int UNIX_SECONDS = 2;
+  private static final int UNIX_MILLIS = 3;
+  private static final int DATE = 4;
+
+  private final String template;
+  private final boolean needRounding;
+  private final int unit;
+  private final int roundDown;
+
+  private final Token[] tokens;
+  private final SimpleDateFormat[] dateFormats;
+  private final boolean needTimestamp;
+  private final int windowUnit;
+  private final int literalLength;
+
+  private volatile TimeWindow window;
+
+  /**
+   * Compiles a template without timestamp rounding.
+   */
+  public BucketPathTemplate(String template) {
+    this(template, false, 0, 0);
+  }
+
+  /**
+   * Compiles a template.
+   *
+   * @param template - The string containing %{tagname} and %x escapes.
+   * @param needRounding - Should the timestamp be rounded down?
+   * @param unit - if needRounding is true, what unit to round down to. This
+   * must be one of the units specified by {@link java.util.Calendar} -
+   * HOUR, MINUTE or SECOND. Defaults to second, if none of these are present.
+   * Ignored if needRounding is false.
+   * @param roundDown - if needRounding is true,
+   * The time should be rounded to the largest multiple of this
+   * value, smaller than the time supplied, defaults to 1, if <= 0(rounds off
+   * to the second/minute/hour immediately lower than the timestamp supplied.
+   * Ignored if needRounding is false.
+   */
+  public BucketPathTemplate(String template, boolean needRounding, int unit,
+      int roundDown) {
+    this.template = Preconditions.checkNotNull(template,
+        "template must not be null");
+    this.needRounding = needRounding;
+    this.unit = unit;
+    this.roundDown = roundDown;
+
+    List<Token> tokenList = new ArrayList<Token>();
+    List<SimpleDateFormat> formatList = new ArrayList<SimpleDateFormat>();
+    boolean timestampUsed = false;
+    int finestUnit = -1;
+    int literals = 0;
+
+    Matcher matcher = BucketPath.tagPattern.matcher(template);
+    int last = 0;
+    while (matcher.find()) {
+      if (matcher.start() > last) {
+        tokenList.add(new Token(LITERAL, template.substring(last,
+            matcher.start()), -1));
+      }
+      last = matcher.end();
+
+      // Group 2 is the %{...} pattern
+      if (matcher.group(2) != null) {
+        tokenList.add(new Token(HEADER, matcher.group(2), -1));
+        continue;
+      }
+
+      // The %x pattern.
+      Preconditions.checkState(matcher.group(1) != null
+          && matcher.group(1).length() == 1,
+          "Expected to match single character tag in string " + template);
+      char c = matcher.group(1).charAt(0);
+      String pattern = BucketPath.getDateFormatPattern(c);
+      if (c == 's') {
+        tokenList.add(new Token(UNIX_SECONDS, null, -1));
+        timestampUsed = true;
+      } else if (c == 't') {
+        tokenList.add(new Token(UNIX_MILLIS, null, -1));
+        timestampUsed = true;
+      } else if (pattern != null) {
+        tokenList.add(new Token(DATE, null, formatList.size()));
+        formatList.add(new SimpleDateFormat(pattern));
+        finestUnit = finerUnit(finestUnit, getWindowUnit(c));
+        timestampUsed = true;
+      } else {
+        // %% and unrecognized escapes
+        tokenList.add(new Token(LITERAL, c == '%' ? "%" : "", -1));
+      }
+    }
+    if (last < template.length()) {
+      tokenList.add(new Token(LITERAL, template.substring(last), -1));
+    }
+
+    for (Token token : tokenList) {
+      if (token.type == LITERAL) {
+        literals += token.text.length();
+      }
+    }
+
+    tokens = tokenList.toArray(new Token[tokenList.size()]);
+    dateFormats = formatList.toArray(new SimpleDateFormat[formatList.size()]);
+    needTimestamp = timestampUsed;
+    windowUnit = finestUnit;
+    literalLength = literals;
+  }
+
+  public String getTemplate() {
+    return template;
+  }
+
+  /**
+   * Replace all substrings of form %{tagname} with get(tagname).toString() and
+   * all shorthand substrings of form %x with a special value.
+   *
+   * Any unrecognized / not found tags will be replaced with the empty string.
+   *
+   * @return Escaped string.
+   */
+  public String escapeString(Map<String, String> headers) {
+    String timestampHeader = null;
+    long ts = 0;
+    if (needTimestamp) {
+      timestampHeader = headers.get("timestamp");
+      try {
+        ts = Long.parseLong(timestampHeader);
+      } catch (NumberFormatException e) {
+        throw new RuntimeException("Flume wasn't able to parse timestamp "
+          + "header in the event to resolve time based bucketing. Please check"
+          + " that you're correctly populating timestamp header (for example"
+          + " using TimestampInterceptor source interceptor).", e);
+      }
+      if (needRounding) {
+        ts = BucketPath.roundDown(roundDown, unit, ts);
+      }
+    }
+
+    String[] dateValues = null;
+    if (dateFormats.length > 0) {
+      dateValues = getDateValues(ts);
+    }
+
+    StringBuilder sb = new StringBuilder(literalLength + 32);
+    for (Token token : tokens) {
+      switch (token.type) {
+      case LITERAL:
+        sb.append(token.text);
+        break;
+      case HEADER:
+        String value = headers.get(token.text);
+        if (value != null) {
+          sb.append(value);
+        }
+        break;
+      case UNIX_SECONDS:
+        sb.append(ts / 1000);
+        break;
+      case UNIX_MILLIS:
+        // This is different from unix date (which would insert a tab
+        // character here)
+        sb.append(timestampHeader);
+        break;
+      case DATE:
+        sb.append(dateValues[token.dateIndex]);
+        break;
+      default:
+        throw new IllegalStateException("Unknown token type " + token.type);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the formatted date components for the timestamp, reusing those of
+   * the previous call if the timestamp falls in the same window.
+   */
+  private String[] getDateValues(long ts) {
+    TimeWindow current = window;
+    if (current != null && ts >= current.start && ts < current.end) {
+      return current.values;
+    }
+    return formatDateValues(ts);
+  }
+
+  private synchronized String[] formatDateValues(long ts) {
+    TimeWindow current = window;
+    if (current != null && ts >= current.start && ts < current.end) {
+      return current.values;
+    }
+
+    Date date = new Date(ts);
+    String[] values = new String[dateFormats.length];
+    for (int i = 0; i < dateFormats.length; i++) {
+      values[i] = dateFormats[i].format(date);
+    }
+
+    Calendar cal = Calendar.getInstance();
+    cal.setTimeInMillis(ts);
+    switch (windowUnit) {
+    case Calendar.DAY_OF_MONTH:
+      cal.set(Calendar.HOUR_OF_DAY, 0);
+      // fall through
+    case Calendar.HOUR_OF_DAY:
+      cal.set(Calendar.MINUTE, 0);
+      // fall through
+    case Calendar.MINUTE:
+      cal.set(Calendar.SECOND, 0);
+      // fall through
+    default:
+      cal.set(Calendar.MILLISECOND, 0);
+    }
+    long start = cal.getTimeInMillis();
+    cal.add(windowUnit, 1);
+    long end = cal.getTimeInMillis();
+
+    // only cache windows that are known to contain the timestamp
+    if (start <= ts && ts < end) {
+      window = new TimeWindow(start, end, values);
+    }
+    return values;
+  }
+
+  /**
+   * Returns the Calendar field a date shorthand depends on, in the sense that
+   * its formatted value is constant within one unit of that field.
+   */
+  private static int getWindowUnit(char c) {
+    switch (c) {
+    case 'c':
+    case 'S':
+      return Calendar.SECOND;
+    case 'M':
+      return Calendar.MINUTE;
+    case 'H':
+    case 'I':
+    case 'k':
+    case 'l':
+    case 'p':
+    case 'z':
+      return Calendar.HOUR_OF_DAY;
+    default:
+      return Calendar.DAY_OF_MONTH;
+    }
+  }
+
+  private static int finerUnit(int current, int candidate) {
+    if (current == -1) {
+      return candidate;
+    }
+    return rank(candidate) < rank(current) ? candidate : current;
+  }
+
+  private static int rank(int calendarUnit) {
+    switch (calendarUnit) {
+    case Calendar.SECOND:
+      return 0;
+    case Calendar.MINUTE:
+      return 1;
+    case Calendar.HOUR_OF_DAY:
+      return 2;
+    default:
+      return 3;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "{ template:" + template + " needRounding:" + needRounding + " }";
+  }
+
+  private static final class Token {
+    private final int type;
+    private final String text;
+    private final int dateIndex;
+
+    private Token(int type, String text, int dateIndex) {
+      this.type = type;
+      this.text = text;
+      this.dateIndex = dateIndex;
+    }
+  }
+
+  private static final class TimeWindow {
+    private final long start;
+    private final long end;
+    private final String[] values;
+
+    private TimeWindow(long start, long end, String[] values) {
+      this.start = start;
+      this.end = end;
+      this.values = values;
+    }
+  }
+
+}
@@ -137,7 +137,9 @@ public abstract class MonitoredCounterGroup {
     CHANNEL_PROCESSOR,
     CHANNEL,
     SINK_PROCESSOR,
-    SINK
+    SINK,
+    SCHEDULER,
+    SUPERVISOR
   };
 
   public String getType(){
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.instrumentation;
+
+/**
+ * Counts the work of a {@linkplain org.apache.flume.SharedPollingScheduler
+ * shared polling scheduler} across all of its registered components. A slice
+ * is one turn of a component on a scheduler thread, which may poll the
+ * component several times before it backs off or yields.
+ */
+public class SchedulerCounter extends MonitoredCounterGroup implements
+    SchedulerCounterMBean {
+
+  private static final String COUNTER_SLICES = "scheduler.slices";
+
+  private static final String COUNTER_WAIT_TIME =
+      "scheduler.wait.time.micros";
+
+  private static final String COUNTER_RUN_TIME = "scheduler.run.time.micros";
+
+  private static final String COUNTER_BACKOFFS = "scheduler.backoffs";
+
+  private static final String COUNTER_YIELDS = "scheduler.yields";
+
+  private static final String[] ATTRIBUTES = {
+    COUNTER_SLICES, COUNTER_WAIT_TIME, COUNTER_RUN_TIME, COUNTER_BACKOFFS,
+    COUNTER_YIELDS
+  };
+
+  public SchedulerCounter(String name) {
+    super(MonitoredCounterGroup.Type.SCHEDULER, name, ATTRIBUTES);
+  }
+
+  @Override
+  public long getSliceCount() {
+    return get(COUNTER_SLICES);
+  }
+
+  public long incrementSliceCount() {
+    return increment(COUNTER_SLICES);
+  }
+
+  @Override
+  public long getWaitTimeMicros() {
+    return get(COUNTER_WAIT_TIME);
+  }
+
+  public long addToWaitTimeMicros(long delta) {
+    return addAndGet(COUNTER_WAIT_TIME, delta);
+  }
+
+  @Override
+  public long getRunTimeMicros() {
+    return get(COUNTER_RUN_TIME);
+  }
+
+  public long addToRunTimeMicros(long delta) {
+    return addAndGet(COUNTER_RUN_TIME, delta);
+  }
+
+  @Override
+  public long getBackoffCount() {
+    return get(COUNTER_BACKOFFS);
+  }
+
+  public long incrementBackoffCount() {
+    return increment(COUNTER_BACKOFFS);
+  }
+
+  @Override
+  public long getYieldCount() {
+    return get(COUNTER_YIELDS);
+  }
+
+  public long incrementYieldCount() {
+    return increment(COUNTER_YIELDS);
+  }
+
+}
@@ -44,11 +44,35 @@ public class SinkCounter extends MonitoredCounterGroup implements
   private static final String COUNTER_EVENT_DRAIN_SUCCESS =
       "sink.event.drain.sucess";
 
+  private static final String COUNTER_BYTES_SENT =
+      "sink.bytes.sent";
+
+  private static final String COUNTER_WIRE_BYTES_SENT =
+      "sink.bytes.sent.wire";
+
+  private static final String COUNTER_BYTES_RECEIVED =
+      "sink.bytes.received";
+
+  private static final String COUNTER_WIRE_BYTES_RECEIVED =
+      "sink.bytes.received.wire";
+
+  private static final String COUNTER_FLUSH =
+      "sink.flush.count";
+
+  private static final String COUNTER_FLUSH_TIME =
+      "sink.flush.time.micros";
+
+  private static final String COUNTER_FLUSH_TIME_MAX =
+      "sink.flush.time.micros.max";
+
   private static final String[] ATTRIBUTES = {
     COUNTER_CONNECTION_CREATED, COUNTER_CONNECTION_CLOSED,
     COUNTER_CONNECTION_FAILED, COUNTER_BATCH_EMPTY,
     COUNTER_BATCH_UNDERFLOW, COUNTER_BATCH_COMPLETE,
-    COUNTER_EVENT_DRAIN_ATTEMPT, COUNTER_EVENT_DRAIN_SUCCESS
+    COUNTER_EVENT_DRAIN_ATTEMPT, COUNTER_EVENT_DRAIN_SUCCESS,
+    COUNTER_BYTES_SENT, COUNTER_WIRE_BYTES_SENT,
+    COUNTER_BYTES_RECEIVED, COUNTER_WIRE_BYTES_RECEIVED,
+    COUNTER_FLUSH, COUNTER_FLUSH_TIME, COUNTER_FLUSH_TIME_MAX
   };
 
 
@@ -135,4 +159,67 @@ public class SinkCounter extends MonitoredCounterGroup implements
   public long addToEventDrainSuccessCount(long delta) {
     return addAndGet(COUNTER_EVENT_DRAIN_SUCCESS, delta);
   }
+
+  @Override
+  public long getBytesSentCount() {
+    return get(COUNTER_BYTES_SENT);
+  }
+
+  public long addToBytesSentCount(long delta) {
+    return addAndGet(COUNTER_BYTES_SENT, delta);
+  }
+
+  @Override
+  public long getWireBytesSentCount() {
+    return get(COUNTER_WIRE_BYTES_SENT);
+  }
+
+  public long addToWireBytesSentCount(long delta) {
+    return addAndGet(COUNTER_WIRE_BYTES_SENT, delta);
+  }
+
+  @Override
+  public long getBytesReceivedCount() {
+    return get(COUNTER_BYTES_RECEIVED);
+  }
+
+  public long addToBytesReceivedCount(long delta) {
+    return addAndGet(COUNTER_BYTES_RECEIVED, delta);
+  }
+
+  @Override
+  public long getWireBytesReceivedCount() {
+    return get(COUNTER_WIRE_BYTES_RECEIVED);
+  }
+
+  public long addToWireBytesReceivedCount(long delta) {
+    return addAndGet(COUNTER_WIRE_BYTES_RECEIVED, delta);
+  }
+
+  @Override
+  public long getFlushCount() {
+    return get(COUNTER_FLUSH);
+  }
+
+  @Override
+  public long getFlushTimeMicros() {
+    return get(COUNTER_FLUSH_TIME);
+  }
+
+  @Override
+  public long getFlushTimeMaxMicros() {
+    return get(COUNTER_FLUSH_TIME_MAX);
+  }
+
+  /**
+   * Records one flush of a sink destination, such as an HDFS bucket, that
+   * took the given time to complete.
+   */
+  public synchronized void addFlushTimeMicros(long micros) {
+    increment(COUNTER_FLUSH);
+    addAndGet(COUNTER_FLUSH_TIME, micros);
+    if (micros > get(COUNTER_FLUSH_TIME_MAX)) {
+      set(COUNTER_FLUSH_TIME_MAX, micros);
+    }
+  }
 }
@@ -43,6 +43,20 @@ public interface SinkCounterMBean {
 
   long getEventDrainSuccessCount();
 
+  long getBytesSentCount();
+
+  long getWireBytesSentCount();
+
+  long getBytesReceivedCount();
+
+  long getWireBytesReceivedCount();
+
+  long getFlushCount();
+
+  long getFlushTimeMicros();
+
+  long getFlushTimeMaxMicros();
+
   long getStartTime();
 
   long getStopTime();
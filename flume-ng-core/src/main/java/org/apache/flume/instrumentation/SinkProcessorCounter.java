@@ -18,10 +18,120 @@
  */
 package org.apache.flume.instrumentation;
 
-public class SinkProcessorCounter extends MonitoredCounterGroup {
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Counts the invocations of the sinks of a sink processor. Each counter is
+ * kept for the whole group and, when the sink names are given, for every
+ * sink under <tt>processor.sink.&lt;name&gt;.</tt>. A ready invocation is
+ * one where the sink processed a batch of events, an empty one is where it
+ * found no events to process.
+ */
+public class SinkProcessorCounter extends MonitoredCounterGroup implements
+    SinkProcessorCounterMBean {
+
+  private static final String COUNTER_BATCH_READY =
+      "processor.batch.ready";
+
+  private static final String COUNTER_BATCH_EMPTY =
+      "processor.batch.empty";
+
+  private static final String COUNTER_BATCH_FAILED =
+      "processor.batch.failed";
+
+  private static final String COUNTER_PROCESS_TIME =
+      "processor.process.time.micros";
+
+  private static final String SINK_PREFIX = "processor.sink.";
+
+  private static final String[] GROUP_ATTRIBUTES = {
+    COUNTER_BATCH_READY, COUNTER_BATCH_EMPTY, COUNTER_BATCH_FAILED,
+    COUNTER_PROCESS_TIME
+  };
 
   protected SinkProcessorCounter(String name) {
-    super(MonitoredCounterGroup.Type.SINK_PROCESSOR, name);
+    this(name, Collections.<String>emptyList());
+  }
+
+  public SinkProcessorCounter(String name, List<String> sinkNames) {
+    super(MonitoredCounterGroup.Type.SINK_PROCESSOR, name,
+        getAttributes(sinkNames));
+  }
+
+  private static String[] getAttributes(List<String> sinkNames) {
+    List<String> attributes = new ArrayList<String>();
+    for (String attribute : GROUP_ATTRIBUTES) {
+      attributes.add(attribute);
+    }
+    for (String sinkName : sinkNames) {
+      for (String attribute : GROUP_ATTRIBUTES) {
+        attributes.add(getSinkAttribute(sinkName, attribute));
+      }
+    }
+    return attributes.toArray(new String[attributes.size()]);
+  }
+
+  private static String getSinkAttribute(String sinkName, String attribute) {
+    return SINK_PREFIX + sinkName + attribute.substring(
+        attribute.indexOf('.'));
+  }
+
+  @Override
+  public long getBatchReadyCount() {
+    return get(COUNTER_BATCH_READY);
+  }
+
+  public long getBatchReadyCount(String sinkName) {
+    return get(getSinkAttribute(sinkName, COUNTER_BATCH_READY));
+  }
+
+  public long incrementBatchReadyCount(String sinkName) {
+    increment(getSinkAttribute(sinkName, COUNTER_BATCH_READY));
+    return increment(COUNTER_BATCH_READY);
+  }
+
+  @Override
+  public long getBatchEmptyCount() {
+    return get(COUNTER_BATCH_EMPTY);
+  }
+
+  public long getBatchEmptyCount(String sinkName) {
+    return get(getSinkAttribute(sinkName, COUNTER_BATCH_EMPTY));
+  }
+
+  public long incrementBatchEmptyCount(String sinkName) {
+    increment(getSinkAttribute(sinkName, COUNTER_BATCH_EMPTY));
+    return increment(COUNTER_BATCH_EMPTY);
+  }
+
+  @Override
+  public long getBatchFailedCount() {
+    return get(COUNTER_BATCH_FAILED);
+  }
+
+  public long getBatchFailedCount(String sinkName) {
+    return get(getSinkAttribute(sinkName, COUNTER_BATCH_FAILED));
+  }
+
+  public long incrementBatchFailedCount(String sinkName) {
+    increment(getSinkAttribute(sinkName, COUNTER_BATCH_FAILED));
+    return increment(COUNTER_BATCH_FAILED);
+  }
+
+  @Override
+  public long getProcessTimeMicros() {
+    return get(COUNTER_PROCESS_TIME);
+  }
+
+  public long getProcessTimeMicros(String sinkName) {
+    return get(getSinkAttribute(sinkName, COUNTER_PROCESS_TIME));
+  }
+
+  public long addToProcessTimeMicros(String sinkName, long delta) {
+    addAndGet(getSinkAttribute(sinkName, COUNTER_PROCESS_TIME), delta);
+    return addAndGet(COUNTER_PROCESS_TIME, delta);
   }
 
 }
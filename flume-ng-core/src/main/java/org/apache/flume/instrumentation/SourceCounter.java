@@ -36,12 +36,22 @@ public class SourceCounter extends MonitoredCounterGroup implements
   private static final String COUNTER_APPEND_BATCH_ACCEPTED =
       "src.append-batch.accepted";
 
+  private static final String COUNTER_BYTES_RECEIVED =
+      "src.bytes.received";
+  private static final String COUNTER_WIRE_BYTES_RECEIVED =
+      "src.bytes.received.wire";
+  private static final String COUNTER_BYTES_SENT =
+      "src.bytes.sent";
+  private static final String COUNTER_WIRE_BYTES_SENT =
+      "src.bytes.sent.wire";
 
   private static final String[] ATTRIBUTES =
     {
       COUNTER_EVENTS_RECEIVED, COUNTER_EVENTS_ACCEPTED,
       COUNTER_APPEND_RECEIVED, COUNTER_APPEND_ACCEPTED,
-      COUNTER_APPEND_BATCH_RECEIVED, COUNTER_APPEND_BATCH_ACCEPTED
+      COUNTER_APPEND_BATCH_RECEIVED, COUNTER_APPEND_BATCH_ACCEPTED,
+      COUNTER_BYTES_RECEIVED, COUNTER_WIRE_BYTES_RECEIVED,
+      COUNTER_BYTES_SENT, COUNTER_WIRE_BYTES_SENT
     };
 
 
@@ -110,4 +120,40 @@ public class SourceCounter extends MonitoredCounterGroup implements
   public long incrementAppendBatchAcceptedCount() {
     return increment(COUNTER_APPEND_BATCH_ACCEPTED);
   }
+
+  @Override
+  public long getBytesReceivedCount() {
+    return get(COUNTER_BYTES_RECEIVED);
+  }
+
+  public long addToBytesReceivedCount(long delta) {
+    return addAndGet(COUNTER_BYTES_RECEIVED, delta);
+  }
+
+  @Override
+  public long getWireBytesReceivedCount() {
+    return get(COUNTER_WIRE_BYTES_RECEIVED);
+  }
+
+  public long addToWireBytesReceivedCount(long delta) {
+    return addAndGet(COUNTER_WIRE_BYTES_RECEIVED, delta);
+  }
+
+  @Override
+  public long getBytesSentCount() {
+    return get(COUNTER_BYTES_SENT);
+  }
+
+  public long addToBytesSentCount(long delta) {
+    return addAndGet(COUNTER_BYTES_SENT, delta);
+  }
+
+  @Override
+  public long getWireBytesSentCount() {
+    return get(COUNTER_WIRE_BYTES_SENT);
+  }
+
+  public long addToWireBytesSentCount(long delta) {
+    return addAndGet(COUNTER_WIRE_BYTES_SENT, delta);
+  }
 }
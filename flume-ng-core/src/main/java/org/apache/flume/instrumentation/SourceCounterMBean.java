@@ -38,6 +38,14 @@ public interface SourceCounterMBean {
 
   long getAppendBatchAcceptedCount();
 
+  long getBytesReceivedCount();
+
+  long getWireBytesReceivedCount();
+
+  long getBytesSentCount();
+
+  long getWireBytesSentCount();
+
   long getStartTime();
 
   long getStopTime();
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.instrumentation;
+
+/**
+ * Counts the actions of a {@linkplain
+ * org.apache.flume.lifecycle.LifecycleSupervisor lifecycle supervisor}. A
+ * restart is a component brought back to its desired state after having
+ * left it, and its latency runs from when the supervisor first saw the
+ * component out of its desired state.
+ */
+public class SupervisorCounter extends MonitoredCounterGroup implements
+    SupervisorCounterMBean {
+
+  private static final String COUNTER_CHECKS = "supervisor.checks";
+
+  private static final String COUNTER_STARTS = "supervisor.starts";
+
+  private static final String COUNTER_START_FAILURES =
+      "supervisor.start.failures";
+
+  private static final String COUNTER_STOPS = "supervisor.stops";
+
+  private static final String COUNTER_STOP_FAILURES =
+      "supervisor.stop.failures";
+
+  private static final String COUNTER_NOTIFICATIONS =
+      "supervisor.notifications";
+
+  private static final String COUNTER_RETRIES = "supervisor.retries";
+
+  private static final String COUNTER_RESTARTS = "supervisor.restarts";
+
+  private static final String COUNTER_RESTART_LATENCY =
+      "supervisor.restart.latency.millis";
+
+  private static final String COUNTER_RESTART_LATENCY_MAX =
+      "supervisor.restart.latency.max.millis";
+
+  private static final String[] ATTRIBUTES = {
+    COUNTER_CHECKS, COUNTER_STARTS, COUNTER_START_FAILURES, COUNTER_STOPS,
+    COUNTER_STOP_FAILURES, COUNTER_NOTIFICATIONS, COUNTER_RETRIES,
+    COUNTER_RESTARTS, COUNTER_RESTART_LATENCY, COUNTER_RESTART_LATENCY_MAX
+  };
+
+  public SupervisorCounter(String name) {
+    super(MonitoredCounterGroup.Type.SUPERVISOR, name, ATTRIBUTES);
+  }
+
+  @Override
+  public long getCheckCount() {
+    return get(COUNTER_CHECKS);
+  }
+
+  public long incrementCheckCount() {
+    return increment(COUNTER_CHECKS);
+  }
+
+  @Override
+  public long getStartCount() {
+    return get(COUNTER_STARTS);
+  }
+
+  public long incrementStartCount() {
+    return increment(COUNTER_STARTS);
+  }
+
+  @Override
+  public long getStartFailureCount() {
+    return get(COUNTER_START_FAILURES);
+  }
+
+  public long incrementStartFailureCount() {
+    return increment(COUNTER_START_FAILURES);
+  }
+
+  @Override
+  public long getStopCount() {
+    return get(COUNTER_STOPS);
+  }
+
+  public long incrementStopCount() {
+    return increment(COUNTER_STOPS);
+  }
+
+  @Override
+  public long getStopFailureCount() {
+    return get(COUNTER_STOP_FAILURES);
+  }
+
+  public long incrementStopFailureCount() {
+    return increment(COUNTER_STOP_FAILURES);
+  }
+
+  @Override
+  public long getNotificationCount() {
+    return get(COUNTER_NOTIFICATIONS);
+  }
+
+  public long incrementNotificationCount() {
+    return increment(COUNTER_NOTIFICATIONS);
+  }
+
+  @Override
+  public long getRetryCount() {
+    return get(COUNTER_RETRIES);
+  }
+
+  public long incrementRetryCount() {
+    return increment(COUNTER_RETRIES);
+  }
+
+  @Override
+  public long getRestartCount() {
+    return get(COUNTER_RESTARTS);
+  }
+
+  @Override
+  public long getRestartLatencyMillis() {
+    return get(COUNTER_RESTART_LATENCY);
+  }
+
+  @Override
+  public long getMaxRestartLatencyMillis() {
+    return get(COUNTER_RESTART_LATENCY_MAX);
+  }
+
+  /**
+   * Records a restart that took the given time.
+   */
+  public synchronized void addRestart(long latencyMillis) {
+    increment(COUNTER_RESTARTS);
+    addAndGet(COUNTER_RESTART_LATENCY, latencyMillis);
+    if (latencyMillis > get(COUNTER_RESTART_LATENCY_MAX)) {
+      set(COUNTER_RESTART_LATENCY_MAX, latencyMillis);
+    }
+  }
+
+}
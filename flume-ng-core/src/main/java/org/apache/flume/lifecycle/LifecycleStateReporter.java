@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.lifecycle;
+
+/**
+ * <p>
+ * A {@link LifecycleAware} component that reports when its state changes by
+ * itself, for example because a thread driving it died, rather than only when
+ * it is started or stopped. The {@link LifecycleSupervisor} registers a
+ * {@link Listener} with every reporter it supervises, so that such changes
+ * are acted on right away instead of on its next periodic check.
+ * </p>
+ */
+public interface LifecycleStateReporter extends LifecycleAware {
+
+  /**
+   * Sets the listener told about state changes, replacing any previous one.
+   *
+   * @param listener the listener, or {@code null} to stop reporting
+   */
+  public void setLifecycleStateListener(Listener listener);
+
+  /**
+   * Callback for the state changes of a {@link LifecycleStateReporter}.
+   * Implementations must not block, and may be called with the reporter's
+   * own lock held.
+   */
+  public static interface Listener {
+
+    /**
+     * @param lifecycleAware the component whose state changed
+     */
+    public void lifecycleStateChanged(LifecycleAware lifecycleAware);
+
+  }
+
+}
@@ -22,22 +22,67 @@ package org.apache.flume.lifecycle;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.flume.instrumentation.SupervisorCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+/**
+ * <p>
+ * Drives supervised components towards their desired lifecycle state.
+ * </p>
+ * <p>
+ * By default every component is checked every three seconds, and a component
+ * that failed to reach its desired state is retried on the next check. When
+ * the system property {@value #CONF_EVENT_DRIVEN} is set to {@code true}, a
+ * component is instead checked as soon as it is supervised, its desired state
+ * changes or a state change is reported, either by the component itself as a
+ * {@link LifecycleStateReporter} or through
+ * {@link #notifyStateChanged(LifecycleAware)}. Failed transitions are then
+ * retried with an exponential backoff that never exceeds the three second
+ * poll, so a component is never restored later than it would be by polling.
+ * </p>
+ * <p>
+ * The periodic check keeps running in event driven mode as a safety net.
+ * Components that do not report their state changes are still checked every
+ * three seconds. Only {@linkplain LifecycleStateReporter reporters} are
+ * checked less often, every {@value #CONF_RECONCILE_INTERVAL} seconds,
+ * which defaults to 30.
+ * </p>
+ * <p>
+ * Supervisor actions and the time taken to bring a component back to its
+ * desired state are counted in both modes, and published to monitoring as a
+ * {@link SupervisorCounter} named <tt>LifecycleSupervisor-&lt;n&gt;</tt>.
+ * </p>
+ */
 public class LifecycleSupervisor implements LifecycleAware {
 
   private static final Logger logger = LoggerFactory
       .getLogger(LifecycleSupervisor.class);
 
+  public static final String CONF_EVENT_DRIVEN = "flume.supervisor.eventDriven";
+  public static final String CONF_RECONCILE_INTERVAL =
+      "flume.supervisor.reconcileInterval";
+
+  private static final long pollInterval = 3;
+  private static final long defaultReconcileInterval = 30;
+  private static final long retryBackoffBase = 1000;
+
+  private final boolean eventDriven;
+  private final long reconcileInterval;
+  private final SupervisorCounter supervisorCounter;
+
+  private static final AtomicInteger instances = new AtomicInteger();
+
   private Map<LifecycleAware, Supervisoree> supervisedProcesses;
   private Map<LifecycleAware, ScheduledFuture<?>> monitorFutures;
 
@@ -48,6 +93,19 @@ public class LifecycleSupervisor implements LifecycleAware {
   private boolean needToPurge;
 
   public LifecycleSupervisor() {
+    this(Boolean.getBoolean(CONF_EVENT_DRIVEN));
+  }
+
+  /**
+   * @param eventDriven whether components are checked when their state is
+   * known to have changed, rather than on a fixed three second schedule
+   */
+  public LifecycleSupervisor(boolean eventDriven) {
+    this.eventDriven = eventDriven;
+    reconcileInterval = eventDriven ? Long.getLong(CONF_RECONCILE_INTERVAL,
+        defaultReconcileInterval) : pollInterval;
+    supervisorCounter = new SupervisorCounter("LifecycleSupervisor-"
+        + instances.incrementAndGet());
     lifecycleState = LifecycleState.IDLE;
     supervisedProcesses = new HashMap<LifecycleAware, Supervisoree>();
     monitorFutures = new HashMap<LifecycleAware, ScheduledFuture<?>>();
@@ -67,6 +125,7 @@ public class LifecycleSupervisor implements LifecycleAware {
     logger.info("Starting lifecycle supervisor {}", Thread.currentThread()
         .getId());
     monitorService.scheduleWithFixedDelay(purger, 2, 2, TimeUnit.HOURS);
+    supervisorCounter.start();
     lifecycleState = LifecycleState.START;
 
     logger.debug("Lifecycle supervisor started");
@@ -94,6 +153,10 @@ public class LifecycleSupervisor implements LifecycleAware {
     for (final Entry<LifecycleAware, Supervisoree> entry : supervisedProcesses
         .entrySet()) {
 
+      if (entry.getKey() instanceof LifecycleStateReporter) {
+        ((LifecycleStateReporter) entry.getKey())
+            .setLifecycleStateListener(null);
+      }
       if (entry.getKey().getLifecycleState().equals(LifecycleState.START)) {
         entry.getKey().stop();
       }
@@ -105,6 +168,7 @@ public class LifecycleSupervisor implements LifecycleAware {
     }
     supervisedProcesses.clear();
     monitorFutures.clear();
+    supervisorCounter.stop();
     logger.debug("Lifecycle supervisor stopped");
   }
 
@@ -115,6 +179,18 @@ public class LifecycleSupervisor implements LifecycleAware {
   public synchronized void supervise(LifecycleAware lifecycleAware,
       SupervisorPolicy policy, LifecycleState desiredState) {
 
+    supervise(lifecycleAware, policy, desiredState, null);
+  }
+
+  /**
+   * Supervise a component, notifying {@code listener} once the component has
+   * settled. A component has settled when it reaches its desired state for
+   * the first time or when the supervisor gives up on it.
+   */
+  public synchronized void supervise(LifecycleAware lifecycleAware,
+      SupervisorPolicy policy, LifecycleState desiredState,
+      SettledListener listener) {
+
     Preconditions.checkState(!supervisedProcesses.containsKey(lifecycleAware),
         "Refusing to supervise " + lifecycleAware + " more than once");
 
@@ -127,6 +203,7 @@ public class LifecycleSupervisor implements LifecycleAware {
     process.status = new Status();
 
     process.policy = policy;
+    process.listener = listener;
     process.status.desiredState = desiredState;
     process.status.error = false;
 
@@ -134,11 +211,23 @@ public class LifecycleSupervisor implements LifecycleAware {
     monitorRunnable.lifecycleAware = lifecycleAware;
     monitorRunnable.supervisoree = process;
     monitorRunnable.monitorService = monitorService;
+    monitorRunnable.counter = supervisorCounter;
+    monitorRunnable.eventDriven = eventDriven;
+    process.monitorRunnable = monitorRunnable;
 
     supervisedProcesses.put(lifecycleAware, process);
 
+    // Components that report their own state changes only need the safety
+    // net check, the others are polled as usual.
+    long checkInterval = pollInterval;
+    if (lifecycleAware instanceof LifecycleStateReporter) {
+      ((LifecycleStateReporter) lifecycleAware).setLifecycleStateListener(
+          new StateListener(process));
+      checkInterval = reconcileInterval;
+    }
+
     ScheduledFuture<?> future = monitorService.scheduleWithFixedDelay(
-        monitorRunnable, 0, 3, TimeUnit.SECONDS);
+        monitorRunnable, 0, checkInterval, TimeUnit.SECONDS);
     monitorFutures.put(lifecycleAware, future);
   }
 
@@ -149,6 +238,9 @@ public class LifecycleSupervisor implements LifecycleAware {
 
     logger.debug("Unsupervising service:{}", lifecycleAware);
 
+    if (lifecycleAware instanceof LifecycleStateReporter) {
+      ((LifecycleStateReporter) lifecycleAware).setLifecycleStateListener(null);
+    }
     synchronized (lifecycleAware) {
     Supervisoree supervisoree = supervisedProcesses.get(lifecycleAware);
     supervisoree.status.discard = true;
@@ -177,6 +269,65 @@ public class LifecycleSupervisor implements LifecycleAware {
 
     Supervisoree supervisoree = supervisedProcesses.get(lifecycleAware);
     supervisoree.status.desiredState = desiredState;
+    supervisoree.status.reachedDesiredState = false;
+    supervisoree.status.divergedAt = 0;
+    supervisoree.status.consecutiveFailures = 0;
+    supervisoree.status.nextAttempt = 0;
+
+    if (eventDriven) {
+      check(supervisoree);
+    }
+  }
+
+  /**
+   * Reports that a supervised component changed its state by itself, for
+   * example because it failed. In event driven mode the component is checked
+   * right away, otherwise it is picked up by the next periodic check.
+   * Reports for components that are not supervised are ignored.
+   * {@linkplain LifecycleStateReporter Reporters} need not call this, their
+   * reports reach the supervisor through the listener it registers.
+   */
+  public synchronized void notifyStateChanged(LifecycleAware lifecycleAware) {
+    Supervisoree supervisoree = supervisedProcesses.get(lifecycleAware);
+    if (supervisoree == null) {
+      logger.debug("Ignoring state change of unsupervised service:{}",
+          lifecycleAware);
+      return;
+    }
+
+    stateChanged(supervisoree);
+  }
+
+  /**
+   * Does not take the supervisor lock, since reporters may call it while
+   * holding their own lock, which {@link #unsupervise(LifecycleAware)} takes
+   * after the supervisor lock.
+   */
+  private void stateChanged(Supervisoree supervisoree) {
+    supervisorCounter.incrementNotificationCount();
+    if (eventDriven) {
+      check(supervisoree);
+    }
+  }
+
+  private void check(Supervisoree supervisoree) {
+    if (supervisoree.status.discard) {
+      return;
+    }
+    try {
+      monitorService.execute(supervisoree.monitorRunnable);
+    } catch (RejectedExecutionException e) {
+      logger.debug("Supervisor is stopping, not checking {}",
+          supervisoree.monitorRunnable.lifecycleAware);
+    }
+  }
+
+  public boolean isEventDriven() {
+    return eventDriven;
+  }
+
+  public SupervisorCounter getSupervisorCounter() {
+    return supervisorCounter;
   }
 
   @Override
@@ -193,6 +344,8 @@ public class LifecycleSupervisor implements LifecycleAware {
     public ScheduledExecutorService monitorService;
     public LifecycleAware lifecycleAware;
     public Supervisoree supervisoree;
+    public SupervisorCounter counter;
+    public boolean eventDriven;
 
     @Override
     public void run() {
@@ -221,10 +374,20 @@ public class LifecycleSupervisor implements LifecycleAware {
           }
 
           supervisoree.status.lastSeenState = lifecycleAware.getLifecycleState();
+          counter.incrementCheckCount();
 
           if (!lifecycleAware.getLifecycleState().equals(
               supervisoree.status.desiredState)) {
 
+            if (supervisoree.status.divergedAt == 0) {
+              supervisoree.status.divergedAt = System.nanoTime();
+            }
+            if (eventDriven && now < supervisoree.status.nextAttempt) {
+              logger.debug("Backing off {} until {}", lifecycleAware,
+                  supervisoree.status.nextAttempt);
+              return;
+            }
+
             logger.debug("Want to transition {} from {} to {} (failures:{})",
                 new Object[] { lifecycleAware, supervisoree.status.lastSeenState,
                     supervisoree.status.desiredState,
@@ -232,9 +395,11 @@ public class LifecycleSupervisor implements LifecycleAware {
 
             switch (supervisoree.status.desiredState) {
               case START:
+                counter.incrementStartCount();
                 try {
                   lifecycleAware.start();
                 } catch (Throwable e) {
+                  counter.incrementStartFailureCount();
                   logger.error("Unable to start " + lifecycleAware
                       + " - Exception follows.", e);
                   if (e instanceof Error) {
@@ -263,9 +428,11 @@ public class LifecycleSupervisor implements LifecycleAware {
                 }
                 break;
               case STOP:
+                counter.incrementStopCount();
                 try {
                   lifecycleAware.stop();
                 } catch (Throwable e) {
+                  counter.incrementStopFailureCount();
                   logger.error("Unable to stop " + lifecycleAware
                       + " - Exception follows.", e);
                   if (e instanceof Error) {
@@ -284,13 +451,118 @@ public class LifecycleSupervisor implements LifecycleAware {
                   "Policy {} of {} has been violated - supervisor should exit!",
                   supervisoree.policy, lifecycleAware);
             }
+
+            if (lifecycleAware.getLifecycleState().equals(
+                supervisoree.status.desiredState)) {
+              transitionComplete();
+            } else {
+              transitionFailed();
+            }
+          } else if (supervisoree.status.divergedAt != 0) {
+            // Got there without the supervisor's help.
+            transitionComplete();
+          } else {
+            supervisoree.status.reachedDesiredState = true;
           }
         }
       } catch(Throwable t) {
         logger.error("Unexpected error", t);
+      } finally {
+        notifySettled();
       }
       logger.debug("Status check complete");
     }
+
+    /**
+     * Records that the component is in its desired state. If it had already
+     * been there before, this was a restart.
+     */
+    private void transitionComplete() {
+      Status status = supervisoree.status;
+
+      if (status.reachedDesiredState && status.divergedAt != 0) {
+        long latency = TimeUnit.NANOSECONDS.toMillis(
+            System.nanoTime() - status.divergedAt);
+
+        counter.addRestart(latency);
+        logger.info("Component {} restored to {} after {}ms", new Object[] {
+            lifecycleAware, status.desiredState, latency });
+      }
+
+      status.reachedDesiredState = true;
+      status.divergedAt = 0;
+      status.consecutiveFailures = 0;
+      status.nextAttempt = 0;
+    }
+
+    /**
+     * In event driven mode, schedules another attempt after a delay that
+     * doubles with every consecutive failure, up to the poll interval.
+     */
+    private void transitionFailed() {
+      Status status = supervisoree.status;
+
+      status.consecutiveFailures++;
+      if (!eventDriven || status.error) {
+        return;
+      }
+
+      long delay = Math.min(retryBackoffBase
+          << Math.min(status.consecutiveFailures - 1, 16),
+          TimeUnit.SECONDS.toMillis(pollInterval));
+      status.nextAttempt = System.currentTimeMillis() + delay;
+
+      logger.debug("Retrying {} in {}ms", lifecycleAware, delay);
+      counter.incrementRetryCount();
+      try {
+        monitorService.schedule(this, delay, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        logger.debug("Supervisor is stopping, not retrying {}",
+            lifecycleAware);
+      }
+    }
+
+    private void notifySettled() {
+      SettledListener listener = supervisoree.listener;
+      if (listener == null || supervisoree.settled
+          || supervisoree.status.discard) {
+        return;
+      }
+
+      // A component that reports an error has settled too, even though the
+      // supervisor keeps trying to bring it to its desired state.
+      LifecycleState state = lifecycleAware.getLifecycleState();
+      if (supervisoree.status.desiredState.equals(state)
+          || LifecycleState.ERROR.equals(state)
+          || supervisoree.status.error) {
+        supervisoree.settled = true;
+        try {
+          listener.onSettled(lifecycleAware, state);
+        } catch (Throwable t) {
+          logger.error("Settled listener failed for " + lifecycleAware, t);
+        }
+      }
+    }
+  }
+
+  /**
+   * Passes the reports of a {@link LifecycleStateReporter} on to the
+   * supervisor.
+   */
+  private final class StateListener
+      implements LifecycleStateReporter.Listener {
+
+    private final Supervisoree supervisoree;
+
+    StateListener(Supervisoree supervisoree) {
+      this.supervisoree = supervisoree;
+    }
+
+    @Override
+    public void lifecycleStateChanged(LifecycleAware lifecycleAware) {
+      logger.debug("{} reported a state change", lifecycleAware);
+      stateChanged(supervisoree);
+    }
   }
 
   private class Purger implements Runnable{
@@ -310,14 +582,19 @@ public class LifecycleSupervisor implements LifecycleAware {
     public LifecycleState lastSeenState;
     public LifecycleState desiredState;
     public int failures;
-    public boolean discard;
+    public int consecutiveFailures;
+    public long nextAttempt;
+    public long divergedAt;
+    public boolean reachedDesiredState;
+    public volatile boolean discard;
     public volatile boolean error;
 
     @Override
     public String toString() {
       return "{ lastSeen:" + lastSeen + " lastSeenState:" + lastSeenState
           + " desiredState:" + desiredState + " firstSeen:" + firstSeen
-          + " failures:" + failures + " discard:" + discard + " error:" +
+          + " failures:" + failures + " consecutiveFailures:"
+          + consecutiveFailures + " discard:" + discard + " error:" +
           error + " }";
     }
 
@@ -345,10 +622,27 @@ public class LifecycleSupervisor implements LifecycleAware {
 
   }
 
+  /**
+   * Callback for a supervised component that has settled, either by reaching
+   * its desired state for the first time or by being given up on.
+   */
+  public static interface SettledListener {
+
+    /**
+     * @param lifecycleAware the supervised component
+     * @param state the state the component settled in
+     */
+    public void onSettled(LifecycleAware lifecycleAware, LifecycleState state);
+
+  }
+
   private static class Supervisoree {
 
     public SupervisorPolicy policy;
     public Status status;
+    public SettledListener listener;
+    public boolean settled;
+    public MonitorRunnable monitorRunnable;
 
     @Override
     public String toString() {
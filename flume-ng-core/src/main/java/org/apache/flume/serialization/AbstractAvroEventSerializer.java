@@ -20,6 +20,7 @@ package org.apache.flume.serialization;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
 
 import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.Schema;
@@ -42,7 +43,7 @@ import static org.apache.flume.serialization.AvroEventSerializerConfigurationCon
  * @param <T> Data type that can be written in the Schema given below.
  */
 public abstract class AbstractAvroEventSerializer<T>
-    implements EventSerializer, Configurable {
+    implements BatchEventSerializer, Configurable {
 
   private static final Logger logger =
       LoggerFactory.getLogger(AbstractAvroEventSerializer.class);
@@ -68,6 +69,16 @@ public abstract class AbstractAvroEventSerializer<T>
    */
   protected abstract T convert(Event event);
 
+  /**
+   * Returns the writer used to encode converted events. Defaults to a
+   * reflection-based writer, which works for any type matching the schema.
+   * Subclasses writing generated specific records can return a cheaper
+   * writer.
+   */
+  protected DatumWriter<T> createDatumWriter(Schema schema) {
+    return new ReflectDatumWriter<T>(schema);
+  }
+
   @Override
   public void configure(Context context) {
 
@@ -76,7 +87,7 @@ public abstract class AbstractAvroEventSerializer<T>
     String compressionCodec =
         context.getString(COMPRESSION_CODEC, DEFAULT_COMPRESSION_CODEC);
 
-    writer = new ReflectDatumWriter<T>(getSchema());
+    writer = createDatumWriter(getSchema());
     dataFileWriter = new DataFileWriter<T>(writer);
 
     dataFileWriter.setSyncInterval(syncIntervalBytes);
@@ -108,6 +119,17 @@ public abstract class AbstractAvroEventSerializer<T>
     dataFileWriter.append(destType);
   }
 
+  /**
+   * The DataFileWriter already collects records into blocks and compresses
+   * a block at a time, so a batch is simply appended record by record.
+   */
+  @Override
+  public void write(List<Event> events) throws IOException {
+    for (Event event : events) {
+      dataFileWriter.append(convert(event));
+    }
+  }
+
   @Override
   public void flush() throws IOException {
     dataFileWriter.flush();
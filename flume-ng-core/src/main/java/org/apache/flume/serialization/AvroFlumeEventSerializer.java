@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.serialization;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.source.avro.AvroFlumeEvent;
+
+/**
+ * Writes events as {@link AvroFlumeEvent} records, the same generated record
+ * used by the Avro source and sink. Events are encoded with a
+ * {@link SpecificDatumWriter} instead of by reflection, and a single record
+ * instance is refilled for every event, so writing an event copies neither
+ * its headers nor its body. Codec and sync interval are configured as for
+ * the other Avro serializers.
+ */
+public class AvroFlumeEventSerializer
+    extends AbstractAvroEventSerializer<AvroFlumeEvent> {
+
+  private final OutputStream out;
+  private final AvroFlumeEvent datum;
+
+  private AvroFlumeEventSerializer(OutputStream out) {
+    this.out = out;
+    datum = new AvroFlumeEvent();
+  }
+
+  @Override
+  protected Schema getSchema() {
+    return AvroFlumeEvent.SCHEMA$;
+  }
+
+  @Override
+  protected OutputStream getOutputStream() {
+    return out;
+  }
+
+  @Override
+  protected DatumWriter<AvroFlumeEvent> createDatumWriter(Schema schema) {
+    return new SpecificDatumWriter<AvroFlumeEvent>(schema);
+  }
+
+  /**
+   * Refills the reused record with the event's headers and body. The record
+   * is encoded before the next event is converted, so sharing it is safe.
+   */
+  @Override
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  protected AvroFlumeEvent convert(Event event) {
+    // String keys and values are written as CharSequences, no copy needed
+    Map headers = event.getHeaders();
+    datum.setHeaders(headers != null ? headers : Collections.emptyMap());
+    datum.setBody(ByteBuffer.wrap(event.getBody()));
+    return datum;
+  }
+
+  public static class Builder implements EventSerializer.Builder {
+
+    @Override
+    public EventSerializer build(Context context, OutputStream out) {
+      AvroFlumeEventSerializer writer = new AvroFlumeEventSerializer(out);
+      writer.configure(context);
+      return writer;
+    }
+
+  }
+
+}
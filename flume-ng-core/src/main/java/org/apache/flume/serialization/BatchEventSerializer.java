@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.serialization;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.flume.Event;
+
+/**
+ * An {@link EventSerializer} that can write several events in one call, so
+ * that per-write costs such as buffer management and calls into the
+ * underlying stream are paid once per batch rather than once per event.
+ * Drivers that have a batch of events should check for this interface and
+ * otherwise call {@link EventSerializer#write(Event)} for each event.
+ */
+public interface BatchEventSerializer extends EventSerializer {
+
+  /**
+   * Serialize and write the given events, in order. The result must be the
+   * same as calling {@link #write(Event)} once per event.
+   * @param events Events to write to the underlying stream.
+   * @throws IOException
+   */
+  public void write(List<Event> events) throws IOException;
+
+}
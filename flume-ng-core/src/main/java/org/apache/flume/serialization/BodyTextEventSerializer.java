@@ -20,6 +20,7 @@ package org.apache.flume.serialization;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.conf.Configurable;
@@ -30,12 +31,19 @@ import org.slf4j.LoggerFactory;
  * This class simply writes the body of the event to the output stream
  * and appends a newline after each event.
  */
-public class BodyTextEventSerializer implements EventSerializer, Configurable {
+public class BodyTextEventSerializer
+    implements BatchEventSerializer, Configurable {
 
   private final static Logger logger =
       LoggerFactory.getLogger(BodyTextEventSerializer.class);
 
+  /**
+   * Size of the buffer a batch is assembled in before it is written out.
+   */
+  private static final int BATCH_BUFFER_SIZE = 64 * 1024;
+
   private final OutputStream out;
+  private byte[] batchBuffer;
 
   private BodyTextEventSerializer(OutputStream out) {
     this.out = out;
@@ -72,6 +80,38 @@ public class BodyTextEventSerializer implements EventSerializer, Configurable {
     out.write('\n');
   }
 
+  /**
+   * Copies the bodies and newlines of the batch into one buffer and writes
+   * it with a single call, or one call per full buffer. Nothing is left in
+   * the buffer when this returns.
+   */
+  @Override
+  public void write(List<Event> events) throws IOException {
+    if (batchBuffer == null) {
+      batchBuffer = new byte[BATCH_BUFFER_SIZE];
+    }
+    int length = 0;
+    for (Event e : events) {
+      byte[] body = e.getBody();
+      if (length + body.length + 1 > batchBuffer.length) {
+        if (length > 0) {
+          out.write(batchBuffer, 0, length);
+          length = 0;
+        }
+        if (body.length + 1 > batchBuffer.length) {
+          write(e);
+          continue;
+        }
+      }
+      System.arraycopy(body, 0, batchBuffer, length, body.length);
+      length += body.length;
+      batchBuffer[length++] = '\n';
+    }
+    if (length > 0) {
+      out.write(batchBuffer, 0, length);
+    }
+  }
+
   @Override
   public void flush() throws IOException {
     // noop
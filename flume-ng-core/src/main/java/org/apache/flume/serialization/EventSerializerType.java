@@ -21,6 +21,7 @@ package org.apache.flume.serialization;
 public enum EventSerializerType {
   TEXT(BodyTextEventSerializer.Builder.class),
   AVRO_EVENT(FlumeEventAvroEventSerializer.Builder.class),
+  AVRO_FLUME_EVENT(AvroFlumeEventSerializer.Builder.class),
   OTHER(null);
 
   private final Class<? extends EventSerializer.Builder> builderClass;
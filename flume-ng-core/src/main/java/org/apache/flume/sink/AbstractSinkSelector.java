@@ -19,24 +19,57 @@
 package org.apache.flume.sink;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.flume.Context;
 import org.apache.flume.Sink;
+import org.apache.flume.Sink.Status;
 import org.apache.flume.lifecycle.LifecycleState;
-import org.apache.flume.sink.LoadBalancingSinkProcessor.SinkSelector;
+import org.apache.flume.sink.LoadBalancingSinkProcessor.HealthAwareSinkSelector;
+import org.apache.flume.util.SpecificOrderIterator;
 
-public abstract class AbstractSinkSelector implements SinkSelector {
+/**
+ * <p>Base class for sink selectors that tracks the health of each sink from
+ * the outcome of its invocations.</p>
+ *
+ * <p>When <tt>backoff</tt> is enabled, a sink that fails is taken out of
+ * rotation for one second, doubling with each further consecutive failure
+ * up to <tt>maxBackoff</tt> milliseconds. A sink out of rotation is only
+ * invoked after every other sink has failed. The average duration of the
+ * recent invocations of each sink that processed events is available to
+ * subclasses through {@link #getAverageDurationNanos(Sink)}.</p>
+ */
+public abstract class AbstractSinkSelector implements HealthAwareSinkSelector {
+
+  public static final String CONFIG_BACKOFF = "backoff";
+  public static final String CONFIG_MAX_BACKOFF = "maxBackoff";
+
+  private static final long DEFAULT_MAX_BACKOFF = 30000;
+  private static final long BASE_BACKOFF = 1000;
+
+  /**
+   * Weight of the newest invocation in the average duration.
+   */
+  private static final double DURATION_WEIGHT = 0.3;
 
   private LifecycleState state;
 
   // List of sinks as specified
   private List<Sink> sinkList;
 
+  private Map<Sink, SinkHealth> healthMap;
+  private boolean backoff;
+  private long maxBackoff = DEFAULT_MAX_BACKOFF;
+
   @Override
   public void configure(Context context) {
-    // no-op configure method for convenience for implementations
-    // that do not require configuration.
+    backoff = context.getBoolean(CONFIG_BACKOFF, isBackoffEnabledByDefault());
+    maxBackoff = context.getLong(CONFIG_MAX_BACKOFF, DEFAULT_MAX_BACKOFF);
   }
 
   @Override
@@ -58,9 +91,128 @@ public abstract class AbstractSinkSelector implements SinkSelector {
   public void setSinks(List<Sink> sinks) {
     sinkList = new ArrayList<Sink>();
     sinkList.addAll(sinks);
+
+    healthMap = new IdentityHashMap<Sink, SinkHealth>();
+    for (Sink sink : sinkList) {
+      healthMap.put(sink, new SinkHealth());
+    }
+  }
+
+  @Override
+  public void informSinkSucceeded(Sink sink, Status status,
+      long durationNanos) {
+    SinkHealth health = healthMap.get(sink);
+    if (health == null) {
+      return;
+    }
+    health.consecutiveFailures = 0;
+    health.blacklistedUntil = 0;
+    if (status == Status.READY) {
+      health.averageDuration = health.averageDuration < 0 ? durationNanos
+          : health.averageDuration
+            + DURATION_WEIGHT * (durationNanos - health.averageDuration);
+    }
+  }
+
+  @Override
+  public void informSinkFailed(Sink sink) {
+    SinkHealth health = healthMap.get(sink);
+    if (health == null) {
+      return;
+    }
+    health.consecutiveFailures++;
+    if (backoff && maxBackoff > 0) {
+      long delay = Math.min(maxBackoff,
+          BASE_BACKOFF << Math.min(health.consecutiveFailures - 1, 30));
+      health.blacklistedUntil = System.currentTimeMillis() + delay;
+    }
   }
 
   protected List<Sink> getSinks() {
     return sinkList;
   }
+
+  /**
+   * Returns whether failing sinks are taken out of rotation when the
+   * <tt>backoff</tt> property is not set.
+   */
+  protected boolean isBackoffEnabledByDefault() {
+    return false;
+  }
+
+  /**
+   * Returns {@code false} while the sink is out of rotation after a failure.
+   */
+  protected boolean isAvailable(Sink sink, long now) {
+    SinkHealth health = healthMap.get(sink);
+    return health == null || now >= health.blacklistedUntil;
+  }
+
+  /**
+   * Returns the average duration in nanoseconds of the recent invocations of
+   * the sink that processed events, or -1 if there was none yet.
+   */
+  protected double getAverageDurationNanos(Sink sink) {
+    SinkHealth health = healthMap.get(sink);
+    return health == null ? -1 : health.averageDuration;
+  }
+
+  /**
+   * Returns the number of failures of the sink since it last succeeded.
+   */
+  protected int getConsecutiveFailures(Sink sink) {
+    SinkHealth health = healthMap.get(sink);
+    return health == null ? 0 : health.consecutiveFailures;
+  }
+
+  /**
+   * Creates an iterator over the sinks in the given order, moving the sinks
+   * that are out of rotation to the end in the order they return to it.
+   *
+   * @param indexOrder indexes into {@link #getSinks()}
+   */
+  protected Iterator<Sink> createIterator(int[] indexOrder) {
+    if (!backoff) {
+      return new SpecificOrderIterator<Sink>(indexOrder, sinkList);
+    }
+
+    long now = System.currentTimeMillis();
+    int[] order = new int[indexOrder.length];
+    Integer[] blacklisted = new Integer[indexOrder.length];
+    int available = 0;
+    int unavailable = 0;
+    for (int index : indexOrder) {
+      if (isAvailable(sinkList.get(index), now)) {
+        order[available++] = index;
+      } else {
+        blacklisted[unavailable++] = index;
+      }
+    }
+
+    if (unavailable > 0) {
+      Arrays.sort(blacklisted, 0, unavailable, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          long untilA = healthMap.get(sinkList.get(a)).blacklistedUntil;
+          long untilB = healthMap.get(sinkList.get(b)).blacklistedUntil;
+          return untilA < untilB ? -1 : (untilA == untilB ? 0 : 1);
+        }
+      });
+      for (int i = 0; i < unavailable; i++) {
+        order[available + i] = blacklisted[i];
+      }
+    }
+
+    return new SpecificOrderIterator<Sink>(order, sinkList);
+  }
+
+  /**
+   * Health of a sink, only accessed from the sink runner thread.
+   */
+  private static class SinkHealth {
+
+    private int consecutiveFailures;
+    private long blacklistedUntil;
+    private double averageDuration = -1;
+  }
 }
@@ -21,6 +21,7 @@ package org.apache.flume.sink;
 
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Future;
 
 import org.apache.flume.Channel;
 import org.apache.flume.ChannelException;
@@ -30,9 +31,11 @@ import org.apache.flume.EventDeliveryException;
 import org.apache.flume.FlumeException;
 import org.apache.flume.Sink;
 import org.apache.flume.Transaction;
+import org.apache.flume.api.AsyncRpcClient;
 import org.apache.flume.api.RpcClient;
 import org.apache.flume.api.RpcClientConfigurationConstants;
 import org.apache.flume.api.RpcClientFactory;
+import org.apache.flume.api.TrafficStatistics;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.instrumentation.SinkCounter;
 import org.apache.flume.source.AvroSource;
@@ -70,6 +73,13 @@ import com.google.common.collect.Lists;
  * an RPC roundtrip.
  * </p>
  * <p>
+ * With <tt>max-inflight-batches</tt> greater than one, each batch is sent as
+ * soon as it is taken, without waiting for the previous one to be
+ * acknowledged, so that network round trips overlap with channel takes. All
+ * batches sent by one call to {@link #process()} belong to the same channel
+ * transaction, which is committed once every batch has been acknowledged.
+ * </p>
+ * <p>
  * <b>Configuration options</b>
  * </p>
  * <table>
@@ -109,12 +119,34 @@ import com.google.common.collect.Lists;
  * <td>milliseconds (long)</td>
  * <td>20000</td>
  * </tr>
+ * <tr>
+ * <td><tt>max-inflight-batches</tt></td>
+ * <td>Maximum number of batches sent before waiting for the first one to be
+ * acknowledged</td>
+ * <td>batches (int)</td>
+ * <td>1</td>
+ * </tr>
+ * <tr>
+ * <td><tt>compression-type</tt></td>
+ * <td><tt>none</tt> or <tt>deflate</tt>. The receiving {@link AvroSource}
+ * must have compression enabled as well</td>
+ * <td>String</td>
+ * <td>none</td>
+ * </tr>
+ * <tr>
+ * <td><tt>compression-level</tt></td>
+ * <td>The deflate level, from 0 (no compression) to 9 (best)</td>
+ * <td>int</td>
+ * <td>6</td>
+ * </tr>
  * </table>
  * <p>
  * <b>Metrics</b>
  * </p>
  * <p>
- * TODO
+ * Besides the connection, batch and event counts, the {@link SinkCounter}
+ * reports the bytes sent and received both before compression and on the
+ * wire.
  * </p>
  */
 public class AvroSink extends AbstractSink implements Configurable {
@@ -128,6 +160,14 @@ public class AvroSink extends AbstractSink implements Configurable {
   private Properties clientProps;
   private SinkCounter sinkCounter;
 
+  /**
+   * Traffic of the current client already added to the sink counter.
+   */
+  private long reportedBytesSent;
+  private long reportedWireBytesSent;
+  private long reportedBytesReceived;
+  private long reportedWireBytesReceived;
+
   @Override
   public void configure(Context context) {
     clientProps = new Properties();
@@ -162,6 +202,27 @@ public class AvroSink extends AbstractSink implements Configurable {
           String.valueOf(requestTimeout));
     }
 
+    Integer maxInFlightBatches = context.getInteger("max-inflight-batches");
+    if (maxInFlightBatches != null) {
+      clientProps.setProperty(
+          RpcClientConfigurationConstants.CONFIG_MAX_IN_FLIGHT_BATCHES,
+          String.valueOf(maxInFlightBatches));
+    }
+
+    String compressionType = context.getString("compression-type");
+    if (compressionType != null) {
+      clientProps.setProperty(
+          RpcClientConfigurationConstants.CONFIG_COMPRESSION_TYPE,
+          compressionType);
+    }
+
+    Integer compressionLevel = context.getInteger("compression-level");
+    if (compressionLevel != null) {
+      clientProps.setProperty(
+          RpcClientConfigurationConstants.CONFIG_COMPRESSION_LEVEL,
+          String.valueOf(compressionLevel));
+    }
+
     if (sinkCounter == null) {
       sinkCounter = new SinkCounter(getName());
     }
@@ -196,6 +257,7 @@ public class AvroSink extends AbstractSink implements Configurable {
 
   private void destroyConnection() {
     if (client != null) {
+      updateTrafficCounters();
       logger.debug("Avro sink {} closing avro client: {}", getName(), client);
       try {
         client.close();
@@ -208,6 +270,37 @@ public class AvroSink extends AbstractSink implements Configurable {
     }
 
     client = null;
+    reportedBytesSent = 0;
+    reportedWireBytesSent = 0;
+    reportedBytesReceived = 0;
+    reportedWireBytesReceived = 0;
+  }
+
+  /**
+   * Adds the traffic of the client since the last call to the sink counter.
+   */
+  private void updateTrafficCounters() {
+    if (!(client instanceof TrafficStatistics)) {
+      return;
+    }
+    TrafficStatistics traffic = (TrafficStatistics) client;
+
+    long bytesSent = traffic.getBytesSent();
+    sinkCounter.addToBytesSentCount(bytesSent - reportedBytesSent);
+    reportedBytesSent = bytesSent;
+
+    long wireBytesSent = traffic.getWireBytesSent();
+    sinkCounter.addToWireBytesSentCount(wireBytesSent - reportedWireBytesSent);
+    reportedWireBytesSent = wireBytesSent;
+
+    long bytesReceived = traffic.getBytesReceived();
+    sinkCounter.addToBytesReceivedCount(bytesReceived - reportedBytesReceived);
+    reportedBytesReceived = bytesReceived;
+
+    long wireBytesReceived = traffic.getWireBytesReceived();
+    sinkCounter.addToWireBytesReceivedCount(
+        wireBytesReceived - reportedWireBytesReceived);
+    reportedWireBytesReceived = wireBytesReceived;
   }
 
   /**
@@ -281,36 +374,62 @@ public class AvroSink extends AbstractSink implements Configurable {
 
       verifyConnection();
 
-      List<Event> batch = Lists.newLinkedList();
+      int batchSize = client.getBatchSize();
+      int maxInFlightBatches = client instanceof AsyncRpcClient
+          ? ((AsyncRpcClient) client).getMaxInFlightBatches() : 1;
+      List<Future<Void>> inFlight = Lists.newArrayList();
+      long drained = 0;
+
+      for (int batches = 0; batches < maxInFlightBatches; batches++) {
+        List<Event> batch = Lists.newLinkedList();
 
-      for (int i = 0; i < client.getBatchSize(); i++) {
-        Event event = channel.take();
+        for (int i = 0; i < batchSize; i++) {
+          Event event = channel.take();
 
-        if (event == null) {
-          break;
+          if (event == null) {
+            break;
+          }
+
+          batch.add(event);
         }
 
-        batch.add(event);
-      }
+        int size = batch.size();
 
-      int size = batch.size();
-      int batchSize = client.getBatchSize();
+        if (size == 0) {
+          if (batches == 0) {
+            sinkCounter.incrementBatchEmptyCount();
+            status = Status.BACKOFF;
+          }
+          break;
+        }
 
-      if (size == 0) {
-        sinkCounter.incrementBatchEmptyCount();
-        status = Status.BACKOFF;
-      } else {
         if (size < batchSize) {
           sinkCounter.incrementBatchUnderflowCount();
         } else {
           sinkCounter.incrementBatchCompleteCount();
         }
         sinkCounter.addToEventDrainAttemptCount(size);
-        client.appendBatch(batch);
+        drained += size;
+
+        if (maxInFlightBatches > 1) {
+          inFlight.add(((AsyncRpcClient) client).appendBatchAsync(batch));
+        } else {
+          client.appendBatch(batch);
+        }
+
+        if (size < batchSize) {
+          // The channel is drained, don't hold on to the sent batches.
+          break;
+        }
+      }
+
+      for (Future<Void> future : inFlight) {
+        future.get();
       }
 
       transaction.commit();
-      sinkCounter.addToEventDrainSuccessCount(size);
+      sinkCounter.addToEventDrainSuccessCount(drained);
+      updateTrafficCounters();
 
     } catch (Throwable t) {
       transaction.rollback();
@@ -19,6 +19,8 @@
 package org.apache.flume.sink;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
@@ -30,7 +32,6 @@ import org.apache.flume.Sink;
 import org.apache.flume.Sink.Status;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.lifecycle.LifecycleAware;
-import org.apache.flume.util.SpecificOrderIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,18 +42,28 @@ import com.google.common.base.Preconditions;
  *
  * <p>The <tt>LoadBalancingSinkProcessor</tt> maintains an indexed list of
  * active sinks on which the load must be distributed. This implementation
- * supports distributing load using either via <tt>ROUND_ROBIN</tt> or via
- * <tt>RANDOM</tt> selection mechanism. The choice of selection mechanism
- * defaults to <tt>ROUND_ROBIN</tt> type, but can be overridden via
- * configuration.</p>
+ * supports distributing load using either via <tt>ROUND_ROBIN</tt>,
+ * <tt>RANDOM</tt> or <tt>LATENCY</tt> selection mechanism. The choice of
+ * selection mechanism defaults to <tt>ROUND_ROBIN</tt> type, but can be
+ * overridden via configuration.</p>
  *
  * <p>When invoked, this selector picks the next sink using its configured
  * selection mechanism and invokes it. In case the selected sink fails with
  * an exception, the processor picks the next available sink via its configured
- * selection mechanism. This implementation does not blacklist the failing
- * sink and instead continues to optimistically attempt every available sink.
- * If all sinks invocations result in failure, the selector propagates the
- * failure to the sink runner.</p>
+ * selection mechanism. If all sinks invocations result in failure, the
+ * selector propagates the failure to the sink runner.</p>
+ *
+ * <p>The outcome and duration of every invocation is passed to selectors
+ * that implement <tt>HealthAwareSinkSelector</tt>, which all selectors
+ * extending <tt>AbstractSinkSelector</tt> do. When
+ * <tt>processor.selector.backoff</tt> is <tt>true</tt>, a failing sink is
+ * then taken out of rotation for a time that doubles with each consecutive
+ * failure, up to <tt>processor.selector.maxBackoff</tt> milliseconds, and is
+ * only attempted once every other sink has failed. Backoff is disabled by
+ * default except for the <tt>LATENCY</tt> selector, which also picks sinks
+ * with a probability inversely proportional to the average duration of
+ * their recent invocations, so a slow downstream collector receives a
+ * smaller share of the events.</p>
  *
  * <p>
  * Sample configuration:
@@ -64,11 +75,12 @@ import com.google.common.base.Preconditions;
  *  </pre>
  *
  * The value of processor.selector could be either <tt>round_robin</tt> for
- * round-robin scheme of load-balancing or <tt>random</tt> for random
- * selection. Alternatively you can specify your own implementation of the
- * selection algorithm by implementing the <tt>LoadBalancingSelector</tt>
- * interface. If no selector mechanism is specified, the round-robin selector
- * is used by default.
+ * round-robin scheme of load-balancing, <tt>random</tt> for random
+ * selection or <tt>latency</tt> for latency-weighted selection.
+ * Alternatively you can specify your own implementation of the selection
+ * algorithm by implementing the <tt>LoadBalancingSelector</tt> interface. If
+ * no selector mechanism is specified, the round-robin selector is used by
+ * default.
  * </p>
  * <p>
  * This implementation is not thread safe at this time
@@ -84,12 +96,14 @@ public class LoadBalancingSinkProcessor extends AbstractSinkProcessor {
 
   public static final String SELECTOR_NAME_ROUND_ROBIN = "ROUND_ROBIN";
   public static final String SELECTOR_NAME_RANDOM = "RANDOM";
+  public static final String SELECTOR_NAME_LATENCY = "LATENCY";
 
 
   private static final Logger LOGGER = LoggerFactory
       .getLogger(LoadBalancingSinkProcessor.class);
 
   private SinkSelector selector;
+  private HealthAwareSinkSelector healthAwareSelector;
 
   @Override
   public void configure(Context context) {
@@ -106,6 +120,8 @@ public class LoadBalancingSinkProcessor extends AbstractSinkProcessor {
       selector = new RoundRobinSinkSelector();
     } else if (selectorTypeName.equalsIgnoreCase(SELECTOR_NAME_RANDOM)) {
       selector = new RandomOrderSinkSelector();
+    } else if (selectorTypeName.equalsIgnoreCase(SELECTOR_NAME_LATENCY)) {
+      selector = new LatencySinkSelector();
     } else {
       try {
         @SuppressWarnings("unchecked")
@@ -119,6 +135,9 @@ public class LoadBalancingSinkProcessor extends AbstractSinkProcessor {
       }
     }
 
+    healthAwareSelector = selector instanceof HealthAwareSinkSelector
+        ? (HealthAwareSinkSelector) selector : null;
+
     selector.setSinks(getSinks());
     selector.configure(
         new Context(context.getSubProperties(CONFIG_SELECTOR_PREFIX)));
@@ -147,10 +166,18 @@ public class LoadBalancingSinkProcessor extends AbstractSinkProcessor {
     Iterator<Sink> sinkIterator = selector.createSinkIterator();
     while (sinkIterator.hasNext()) {
       Sink sink = sinkIterator.next();
+      long startTime = System.nanoTime();
       try {
         status = sink.process();
+        if (healthAwareSelector != null) {
+          healthAwareSelector.informSinkSucceeded(sink, status,
+              System.nanoTime() - startTime);
+        }
         break;
       } catch (Exception ex) {
+        if (healthAwareSelector != null) {
+          healthAwareSelector.informSinkFailed(sink);
+        }
         LOGGER.warn("Sink failed to consume event. "
             + "Attempting next sink if available.", ex);
       }
@@ -193,6 +220,27 @@ public class LoadBalancingSinkProcessor extends AbstractSinkProcessor {
     Iterator<Sink> createSinkIterator();
   }
 
+  /**
+   * A sink selector that is told the outcome of every sink invocation, so
+   * that it can take the health of the sinks into account.
+   */
+  public interface HealthAwareSinkSelector extends SinkSelector {
+
+    /**
+     * Called after the sink processed without an exception.
+     *
+     * @param sink the sink invoked
+     * @param status the status returned by the sink
+     * @param durationNanos the duration of the invocation
+     */
+    void informSinkSucceeded(Sink sink, Status status, long durationNanos);
+
+    /**
+     * Called after the sink threw an exception.
+     */
+    void informSinkFailed(Sink sink);
+  }
+
   /**
    * A sink selector that implements the round-robin sink selection policy.
    * This implementation is not MT safe.
@@ -216,7 +264,7 @@ public class LoadBalancingSinkProcessor extends AbstractSinkProcessor {
         indexOrder[i] = (begin + i)%size;
       }
 
-      return new SpecificOrderIterator<Sink>(indexOrder, getSinks());
+      return createIterator(indexOrder);
     }
   }
 
@@ -245,7 +293,88 @@ public class LoadBalancingSinkProcessor extends AbstractSinkProcessor {
 
       indexOrder[0] = indexList.get(0);
 
-      return new SpecificOrderIterator<Sink>(indexOrder, getSinks());
+      return createIterator(indexOrder);
+    }
+  }
+
+  /**
+   * A sink selector that picks the first sink at random with a probability
+   * inversely proportional to the average duration of its recent
+   * invocations, followed by the other sinks from fastest to slowest. Sinks
+   * that were not invoked yet count as fast as the fastest sink. Failing
+   * sinks are taken out of rotation by default. This implementation is not
+   * thread safe.
+   */
+  private static class LatencySinkSelector extends AbstractSinkSelector {
+
+    private Random random = new Random(System.currentTimeMillis());
+
+    @Override
+    protected boolean isBackoffEnabledByDefault() {
+      return true;
+    }
+
+    @Override
+    public Iterator<Sink> createSinkIterator() {
+      List<Sink> sinks = getSinks();
+      int size = sinks.size();
+      long now = System.currentTimeMillis();
+
+      final double[] durations = new double[size];
+      double fastest = -1;
+      for (int i = 0; i < size; i++) {
+        durations[i] = getAverageDurationNanos(sinks.get(i));
+        if (durations[i] > 0 && (fastest < 0 || durations[i] < fastest)) {
+          fastest = durations[i];
+        }
+      }
+      for (int i = 0; i < size; i++) {
+        if (durations[i] <= 0) {
+          durations[i] = fastest > 0 ? fastest : 1;
+        }
+      }
+
+      List<Integer> available = new ArrayList<Integer>(size);
+      List<Integer> unavailable = new ArrayList<Integer>();
+      double totalWeight = 0;
+      for (int i = 0; i < size; i++) {
+        if (isAvailable(sinks.get(i), now)) {
+          available.add(i);
+          totalWeight += 1 / durations[i];
+        } else {
+          unavailable.add(i);
+        }
+      }
+
+      int[] indexOrder = new int[size];
+      int next = 0;
+      if (!available.isEmpty()) {
+        double pick = random.nextDouble() * totalWeight;
+        int chosen = available.size() - 1;
+        for (int i = 0; i < available.size(); i++) {
+          pick -= 1 / durations[available.get(i)];
+          if (pick < 0) {
+            chosen = i;
+            break;
+          }
+        }
+        indexOrder[next++] = available.remove(chosen);
+
+        Collections.sort(available, new Comparator<Integer>() {
+          @Override
+          public int compare(Integer a, Integer b) {
+            return Double.compare(durations[a], durations[b]);
+          }
+        });
+        for (Integer index : available) {
+          indexOrder[next++] = index;
+        }
+      }
+      for (Integer index : unavailable) {
+        indexOrder[next++] = index;
+      }
+
+      return createIterator(indexOrder);
     }
   }
 }
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.sink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.flume.Context;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.Sink;
+import org.apache.flume.Sink.Status;
+import org.apache.flume.conf.Configurable;
+import org.apache.flume.instrumentation.SinkProcessorCounter;
+import org.apache.flume.lifecycle.LifecycleState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * <p>Drives all the sinks of a group at the same time, each from its own
+ * worker thread, so that a group of sinks draining the same channel
+ * delivers events faster than a single sink.</p>
+ *
+ * <p>Each worker invokes its sink in a loop. When the sink finds no events
+ * it backs off for one second more after each consecutive empty invocation,
+ * up to five seconds, and after a failure it backs off for five seconds,
+ * as the {@link org.apache.flume.SinkRunner} does for a single sink. The
+ * channel must support concurrent transactions from several threads, which
+ * the channels shipped with Flume do.</p>
+ *
+ * <p>The sink runner driving this processor does no delivery itself:
+ * {@link #process()} returns <tt>READY</tt> if any sink processed a batch
+ * since the previous call, and <tt>BACKOFF</tt> otherwise. Ready, empty and
+ * failed invocations and the time spent in the sinks are counted for the
+ * group and for each sink by a {@link SinkProcessorCounter}.</p>
+ *
+ * <p>
+ * Sample configuration:
+ *  <pre>
+ *  host1.sinkgroups.group1.sinks = sink1 sink2 sink3 sink4
+ *  host1.sinkgroups.group1.processor.type = parallel
+ *  </pre>
+ * </p>
+ */
+public class ParallelSinkProcessor extends AbstractSinkProcessor
+    implements Configurable {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(ParallelSinkProcessor.class);
+
+  private static final long backoffSleepIncrement = 1000;
+  private static final long maxBackoffSleep = 5000;
+
+  private SinkProcessorCounter counter;
+  private ExecutorService workers;
+  private volatile boolean stopped;
+  private LifecycleState lifecycleState;
+
+  private final AtomicLong readyBatches = new AtomicLong();
+  private long reportedReadyBatches;
+
+  @Override
+  public void configure(Context context) {
+    List<String> sinkNames = new ArrayList<String>();
+    for (Sink sink : getSinks()) {
+      Preconditions.checkState(!sinkNames.contains(sink.getName()),
+          "Sink %s appears more than once in the group", sink.getName());
+      sinkNames.add(sink.getName());
+    }
+
+    if (counter == null) {
+      StringBuilder name = new StringBuilder("parallel");
+      for (String sinkName : sinkNames) {
+        name.append('-').append(sinkName);
+      }
+      counter = new SinkProcessorCounter(name.toString(), sinkNames);
+    }
+  }
+
+  @Override
+  public void start() {
+    Preconditions.checkState(counter != null,
+        "ParallelSinkProcessor was not configured");
+
+    for (Sink sink : getSinks()) {
+      sink.start();
+    }
+    counter.start();
+
+    stopped = false;
+    workers = Executors.newFixedThreadPool(getSinks().size(),
+        new ThreadFactoryBuilder()
+            .setNameFormat("ParallelSinkProcessor-worker-%d").build());
+    for (Sink sink : getSinks()) {
+      workers.execute(new SinkWorker(sink));
+    }
+
+    lifecycleState = LifecycleState.START;
+  }
+
+  @Override
+  public void stop() {
+    stopped = true;
+    if (workers != null) {
+      workers.shutdownNow();
+      try {
+        while (!workers.awaitTermination(500, TimeUnit.MILLISECONDS)) {
+          logger.debug("Waiting for sink workers to exit");
+        }
+      } catch (InterruptedException e) {
+        logger.debug("Interrupted while waiting for sink workers to exit");
+        Thread.currentThread().interrupt();
+      }
+      workers = null;
+    }
+
+    for (Sink sink : getSinks()) {
+      sink.stop();
+    }
+    counter.stop();
+    lifecycleState = LifecycleState.STOP;
+  }
+
+  @Override
+  public LifecycleState getLifecycleState() {
+    return lifecycleState;
+  }
+
+  @Override
+  public Status process() throws EventDeliveryException {
+    long ready = readyBatches.get();
+    Status status = ready > reportedReadyBatches ? Status.READY
+        : Status.BACKOFF;
+    reportedReadyBatches = ready;
+    return status;
+  }
+
+  /**
+   * Returns the counters of the group and of each sink.
+   */
+  public SinkProcessorCounter getCounter() {
+    return counter;
+  }
+
+  /**
+   * Invokes one sink until the processor stops.
+   */
+  private class SinkWorker implements Runnable {
+
+    private final Sink sink;
+    private final String name;
+
+    SinkWorker(Sink sink) {
+      this.sink = sink;
+      this.name = sink.getName();
+    }
+
+    @Override
+    public void run() {
+      logger.debug("Parallel sink worker for {} starting", name);
+      long consecutiveBackoffs = 0;
+
+      while (!stopped) {
+        long startTime = System.nanoTime();
+        try {
+          Status status = sink.process();
+          counter.addToProcessTimeMicros(name, TimeUnit.NANOSECONDS
+              .toMicros(System.nanoTime() - startTime));
+
+          if (status == Status.READY) {
+            counter.incrementBatchReadyCount(name);
+            readyBatches.incrementAndGet();
+            consecutiveBackoffs = 0;
+          } else {
+            counter.incrementBatchEmptyCount(name);
+            Thread.sleep(Math.min(++consecutiveBackoffs
+                * backoffSleepIncrement, maxBackoffSleep));
+          }
+        } catch (InterruptedException e) {
+          logger.debug("Parallel sink worker for {} interrupted", name);
+          break;
+        } catch (Exception e) {
+          counter.addToProcessTimeMicros(name, TimeUnit.NANOSECONDS
+              .toMicros(System.nanoTime() - startTime));
+          counter.incrementBatchFailedCount(name);
+          logger.error("Sink " + name + " failed to process events. " +
+              "Exception follows.", e);
+          try {
+            Thread.sleep(maxBackoffSleep);
+          } catch (InterruptedException ex) {
+            break;
+          }
+        }
+      }
+      logger.debug("Parallel sink worker for {} exiting", name);
+    }
+  }
+
+}
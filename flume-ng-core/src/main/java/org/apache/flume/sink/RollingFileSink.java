@@ -22,6 +22,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -39,6 +41,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.flume.serialization.BatchEventSerializer;
 import org.apache.flume.serialization.EventSerializer;
 import org.apache.flume.serialization.EventSerializerFactory;
 
@@ -47,9 +50,11 @@ public class RollingFileSink extends AbstractSink implements Configurable {
   private static final Logger logger = LoggerFactory
       .getLogger(RollingFileSink.class);
   private static final long defaultRollInterval = 30;
+  private static final int defaultBatchSize = 1;
 
   private File directory;
   private long rollInterval;
+  private int batchSize;
   private OutputStream outputStream;
   private ScheduledExecutorService rollService;
 
@@ -76,6 +81,7 @@ public class RollingFileSink extends AbstractSink implements Configurable {
 
     String directory = context.getString("sink.directory");
     String rollInterval = context.getString("sink.rollInterval");
+    batchSize = context.getInteger("sink.batchSize", defaultBatchSize);
 
     serializerType = context.getString("sink.serializer", "TEXT");
     serializerContext =
@@ -83,6 +89,8 @@ public class RollingFileSink extends AbstractSink implements Configurable {
 
     Preconditions.checkArgument(directory != null, "Directory may not be null");
     Preconditions.checkNotNull(serializerType, "Serializer type is undefined");
+    Preconditions.checkArgument(batchSize > 0,
+        "batchSize must be greater than 0");
 
     if (rollInterval == null) {
       this.rollInterval = defaultRollInterval;
@@ -171,14 +179,22 @@ public class RollingFileSink extends AbstractSink implements Configurable {
     Channel channel = getChannel();
     Transaction transaction = channel.getTransaction();
     Event event = null;
+    List<Event> events = new ArrayList<Event>(batchSize);
     Status result = Status.READY;
 
     try {
       transaction.begin();
-      event = channel.take();
+      for (int i = 0; i < batchSize; i++) {
+        Event next = channel.take();
+        if (next == null) {
+          break;
+        }
+        event = next;
+        events.add(event);
+      }
 
-      if (event != null) {
-        serializer.write(event);
+      if (!events.isEmpty()) {
+        write(events);
 
         /*
          * FIXME: Feature: Rotate on size and time by checking bytes written and
@@ -206,6 +222,20 @@ public class RollingFileSink extends AbstractSink implements Configurable {
     return result;
   }
 
+  /**
+   * Writes the events taken in one transaction, as a single batch if the
+   * serializer supports it.
+   */
+  private void write(List<Event> events) throws IOException {
+    if (events.size() > 1 && serializer instanceof BatchEventSerializer) {
+      ((BatchEventSerializer) serializer).write(events);
+    } else {
+      for (Event event : events) {
+        serializer.write(event);
+      }
+    }
+  }
+
   @Override
   public void stop() {
 
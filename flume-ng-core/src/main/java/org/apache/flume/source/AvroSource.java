@@ -35,14 +35,28 @@ import org.apache.flume.ChannelException;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDrivenSource;
+import org.apache.flume.FlumeException;
 import org.apache.flume.Source;
+import org.apache.flume.api.ByteCountingHandler;
+import org.apache.flume.api.RpcClientConfigurationConstants;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.event.EventBuilder;
 import org.apache.flume.instrumentation.SourceCounter;
 import org.apache.flume.source.avro.AvroFlumeEvent;
 import org.apache.flume.source.avro.AvroSourceProtocol;
 import org.apache.flume.source.avro.Status;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.ServerSocketChannel;
+import org.jboss.netty.channel.socket.ServerSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.compression.ZlibDecoder;
+import org.jboss.netty.handler.codec.compression.ZlibEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -93,18 +107,44 @@ import org.slf4j.LoggerFactory;
  * <td>Count / int</td>
  * <td>0(optional)</td>
  * </tr>
+ * <tr>
+ * <td><tt>compression-type</tt></td>
+ * <td><tt>none</tt> or <tt>deflate</tt>. With <tt>deflate</tt>, connections
+ * from clients that compress their requests are detected by the zlib header
+ * of their first message and answered with compressed responses, while
+ * other connections are served uncompressed.</td>
+ * <td>String</td>
+ * <td>none</td>
+ * </tr>
+ * <tr>
+ * <td><tt>compression-level</tt></td>
+ * <td>The deflate level of responses, from 0 (no compression) to 9
+ * (best)</td>
+ * <td>int</td>
+ * <td>6</td>
+ * </tr>
  * </table>
  * <p>
  * <b>Metrics</b>
  * </p>
  * <p>
- * TODO
+ * Besides the event and append counts, the {@link SourceCounter} reports the
+ * bytes received and sent both after decompression and on the wire.
  * </p>
  */
 public class AvroSource extends AbstractSource implements EventDrivenSource,
     Configurable, AvroSourceProtocol {
 
   private static final String THREADS = "threads";
+  private static final String COMPRESSION_TYPE = "compression-type";
+  private static final String COMPRESSION_LEVEL = "compression-level";
+
+  /**
+   * First byte of a zlib stream using deflate with a 32K window. No Avro
+   * frame of a new connection starts with it, since it would be the high
+   * byte of the request serial number.
+   */
+  private static final int ZLIB_HEADER = 0x78;
 
   private static final Logger logger = LoggerFactory
       .getLogger(AvroSource.class);
@@ -116,6 +156,8 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
   private SourceCounter sourceCounter;
 
   private int maxThreads;
+  private boolean compress;
+  private int compressionLevel;
 
   @Override
   public void configure(Context context) {
@@ -128,6 +170,29 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
               context.getString(THREADS));
     }
 
+    String compressionType = context.getString(COMPRESSION_TYPE,
+        RpcClientConfigurationConstants.DEFAULT_COMPRESSION_TYPE).trim();
+    if (compressionType.equalsIgnoreCase(
+        RpcClientConfigurationConstants.COMPRESSION_TYPE_DEFLATE)) {
+      compress = true;
+    } else if (compressionType.equalsIgnoreCase(
+        RpcClientConfigurationConstants.COMPRESSION_TYPE_NONE)) {
+      compress = false;
+    } else {
+      throw new FlumeException("Avro source " + getName()
+          + ": Unsupported compression type: " + compressionType);
+    }
+
+    compressionLevel = context.getInteger(COMPRESSION_LEVEL,
+        RpcClientConfigurationConstants.DEFAULT_COMPRESSION_LEVEL);
+    if (compressionLevel < 0 || compressionLevel > 9) {
+      logger.warn("Avro source {}: Invalid compression level {}, using {}",
+          new Object[] { getName(), compressionLevel,
+          RpcClientConfigurationConstants.DEFAULT_COMPRESSION_LEVEL });
+      compressionLevel =
+          RpcClientConfigurationConstants.DEFAULT_COMPRESSION_LEVEL;
+    }
+
     if (sourceCounter == null) {
       sourceCounter = new SourceCounter(getName());
     }
@@ -138,15 +203,17 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
     logger.info("Starting {}...", this);
 
     Responder responder = new SpecificResponder(AvroSourceProtocol.class, this);
+    NioServerSocketChannelFactory socketChannelFactory;
     if(maxThreads <= 0) {
-      server = new NettyServer(responder,
-              new InetSocketAddress(bindAddress, port));
+      socketChannelFactory = new NioServerSocketChannelFactory(
+          Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
     } else {
-      server = new NettyServer(responder, new InetSocketAddress(bindAddress, port),
-              new NioServerSocketChannelFactory(
-                      Executors.newCachedThreadPool(),
-                      Executors.newFixedThreadPool(maxThreads)));
+      socketChannelFactory = new NioServerSocketChannelFactory(
+          Executors.newCachedThreadPool(),
+          Executors.newFixedThreadPool(maxThreads));
     }
+    server = new NettyServer(responder, new InetSocketAddress(bindAddress, port),
+        new InstrumentedChannelFactory(socketChannelFactory));
 
     server.start();
     sourceCounter.start();
@@ -180,6 +247,111 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
         ", port: " + port + " }";
   }
 
+  /**
+   * Installs the byte counting handlers and, when compression is enabled, the
+   * compression detection in the pipeline of every accepted connection.
+   * <tt>NettyServer</tt> does not expose its child pipeline factory, so the
+   * factory set on the server channel is wrapped when the channel opens.
+   */
+  private class InstrumentedChannelFactory
+      implements ServerSocketChannelFactory {
+
+    private final ServerSocketChannelFactory delegate;
+
+    private final ByteCountingHandler wireBytes = new ByteCountingHandler() {
+      @Override
+      protected void bytesRead(long count) {
+        sourceCounter.addToWireBytesReceivedCount(count);
+      }
+
+      @Override
+      protected void bytesWritten(long count) {
+        sourceCounter.addToWireBytesSentCount(count);
+      }
+    };
+
+    private final ByteCountingHandler rawBytes = new ByteCountingHandler() {
+      @Override
+      protected void bytesRead(long count) {
+        sourceCounter.addToBytesReceivedCount(count);
+      }
+
+      @Override
+      protected void bytesWritten(long count) {
+        sourceCounter.addToBytesSentCount(count);
+      }
+    };
+
+    private InstrumentedChannelFactory(ServerSocketChannelFactory delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public ServerSocketChannel newChannel(ChannelPipeline pipeline) {
+      // The bootstrap sets the child pipeline factory on the server channel
+      // before passing the open event on to the handlers added after it.
+      pipeline.addLast("childPipeline", new SimpleChannelUpstreamHandler() {
+        @Override
+        public void channelOpen(ChannelHandlerContext ctx,
+            ChannelStateEvent e) throws Exception {
+          final ChannelPipelineFactory childPipelineFactory =
+              e.getChannel().getConfig().getPipelineFactory();
+          e.getChannel().getConfig().setPipelineFactory(
+              new ChannelPipelineFactory() {
+                @Override
+                public ChannelPipeline getPipeline() throws Exception {
+                  ChannelPipeline childPipeline =
+                      childPipelineFactory.getPipeline();
+                  childPipeline.addFirst("rawBytes", rawBytes);
+                  if (compress) {
+                    childPipeline.addFirst("compressionDetector",
+                        new CompressionDetector());
+                  }
+                  childPipeline.addFirst("wireBytes", wireBytes);
+                  return childPipeline;
+                }
+              });
+          super.channelOpen(ctx, e);
+        }
+      });
+      return delegate.newChannel(pipeline);
+    }
+
+    @Override
+    public void releaseExternalResources() {
+      delegate.releaseExternalResources();
+    }
+  }
+
+  /**
+   * Looks at the first message of a connection and, if it starts with a
+   * zlib header, inflates requests and deflates responses from then on.
+   */
+  private class CompressionDetector extends SimpleChannelUpstreamHandler {
+
+    private boolean detected;
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+        throws Exception {
+      if (!detected && e.getMessage() instanceof ChannelBuffer) {
+        ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+        if (buffer.readable()) {
+          detected = true;
+          if (buffer.getUnsignedByte(buffer.readerIndex()) == ZLIB_HEADER) {
+            logger.debug("Avro source {}: Compressed connection from {}",
+                getName(), e.getRemoteAddress());
+            ChannelPipeline pipeline = ctx.getPipeline();
+            pipeline.addAfter(ctx.getName(), "inflater", new ZlibDecoder());
+            pipeline.addAfter("inflater", "deflater",
+                new ZlibEncoder(compressionLevel));
+          }
+        }
+      }
+      super.messageReceived(ctx, e);
+    }
+  }
+
   /**
    * Helper function to convert a map of CharSequence to a map of String.
    */
@@ -19,18 +19,27 @@
 
 package org.apache.flume.source;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.flume.ConcurrentPollableSource;
+import org.apache.flume.Context;
 import org.apache.flume.CounterGroup;
 import org.apache.flume.EventDeliveryException;
 import org.apache.flume.PollableSource;
+import org.apache.flume.SharedPollingScheduler;
 import org.apache.flume.Source;
 import org.apache.flume.SourceRunner;
 import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.conf.Configurable;
 import org.apache.flume.lifecycle.LifecycleState;
+import org.apache.flume.lifecycle.LifecycleStateReporter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Preconditions;
+
 /**
  * <p>
  * An implementation of {@link SourceRunner} that can drive a
@@ -45,44 +54,157 @@ import org.slf4j.LoggerFactory;
  * invoked. Note that {@code BACKOFF} is merely a hint to the runner; it need
  * not be strictly adhered to.
  * </p>
+ * <p>
+ * A {@link ConcurrentPollableSource} can be driven by several threads, set
+ * with the {@value #THREADS} property. Each thread backs off on its own, and
+ * its consecutive backoffs are counted separately in the runner's counter
+ * group. Any other source is always driven by a single thread.
+ * </p>
+ * <p>
+ * The runner moves to {@link LifecycleState#ERROR} and reports it if one of
+ * its polling threads dies or it fails to start or stop. Starting it again
+ * from that state stops what is left of the previous run first.
+ * </p>
  */
-public class PollableSourceRunner extends SourceRunner {
+public class PollableSourceRunner extends SourceRunner implements
+    Configurable, LifecycleStateReporter {
 
   private static final Logger logger = LoggerFactory
       .getLogger(PollableSourceRunner.class);
   private static final long backoffSleepIncrement = 1000;
   private static final long maxBackoffSleep = 5000;
 
+  public static final String THREADS = "threads";
+
   private AtomicBoolean shouldStop;
 
   private CounterGroup counterGroup;
-  private PollingRunner runner;
-  private Thread runnerThread;
-  private LifecycleState lifecycleState;
+  private List<Thread> runnerThreads;
+  private volatile LifecycleState lifecycleState;
+  private volatile LifecycleStateReporter.Listener stateListener;
+  private int threads;
+
+  private SharedPollingScheduler scheduler;
+  private List<SharedPollingScheduler.Registration> registrations;
 
   public PollableSourceRunner() {
     shouldStop = new AtomicBoolean();
     counterGroup = new CounterGroup();
     lifecycleState = LifecycleState.IDLE;
+    threads = 1;
+    scheduler = SharedPollingScheduler.getInstance();
+    runnerThreads = new ArrayList<Thread>();
+    registrations = new ArrayList<SharedPollingScheduler.Registration>();
+  }
+
+  @Override
+  public void configure(Context context) {
+    threads = context.getInteger(THREADS, 1);
+
+    Preconditions.checkArgument(threads > 0,
+        "Polling thread count must be positive");
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public CounterGroup getCounterGroup() {
+    return counterGroup;
+  }
+
+  public SharedPollingScheduler getScheduler() {
+    return scheduler;
+  }
+
+  /**
+   * Sets the scheduler used to drive the source. When {@code null}, the
+   * runner drives the source from a dedicated thread.
+   */
+  public void setScheduler(SharedPollingScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  @Override
+  public void setLifecycleStateListener(
+      LifecycleStateReporter.Listener listener) {
+    stateListener = listener;
+  }
+
+  /**
+   * Moves the runner to {@link LifecycleState#ERROR} and reports it.
+   */
+  private void fail() {
+    lifecycleState = LifecycleState.ERROR;
+    LifecycleStateReporter.Listener listener = stateListener;
+    if (listener != null) {
+      listener.lifecycleStateChanged(this);
+    }
   }
 
   @Override
   public void start() {
-    PollableSource source = (PollableSource) getSource();
+    if (lifecycleState == LifecycleState.ERROR) {
+      logger.info("Stopping {} before restarting it", this);
+      stop();
+    }
+
+    boolean started = false;
+    try {
+      startPolling();
+      started = true;
+    } finally {
+      if (!started) {
+        fail();
+      }
+    }
+  }
+
+  private void startPolling() {
+    final PollableSource source = (PollableSource) getSource();
     ChannelProcessor cp = source.getChannelProcessor();
     cp.initialize();
     source.start();
 
-    runner = new PollingRunner();
+    int pollers = threads;
+    if (pollers > 1 && !(source instanceof ConcurrentPollableSource)) {
+      logger.warn("Source {} does not support concurrent polling, using a"
+          + " single thread instead of {}", source.getName(), pollers);
+      pollers = 1;
+    }
+
+    String name = getClass().getSimpleName() + "-"
+        + source.getClass().getSimpleName() + "-" + source.getName();
+    shouldStop = new AtomicBoolean();
+
+    for (int i = 0; i < pollers; i++) {
+      String backoffCounter = pollers == 1 ? "runner.backoffs.consecutive"
+          : "runner." + i + ".backoffs.consecutive";
 
-    runner.source = source;
-    runner.counterGroup = counterGroup;
-    runner.shouldStop = shouldStop;
+      if (scheduler != null) {
+        registrations.add(scheduler.register(pollers == 1 ? name : name + "-"
+            + i, new SharedPollingScheduler.PollingTask() {
+              @Override
+              public boolean poll() throws Exception {
+                return source.process().equals(PollableSource.Status.BACKOFF);
+              }
+            }, counterGroup, backoffCounter));
+        continue;
+      }
 
-    runnerThread = new Thread(runner);
-    runnerThread.setName(getClass().getSimpleName() + "-" + 
-        source.getClass().getSimpleName() + "-" + source.getName());
-    runnerThread.start();
+      PollingRunner runner = new PollingRunner();
+
+      runner.source = source;
+      runner.counterGroup = counterGroup;
+      runner.shouldStop = shouldStop;
+      runner.backoffCounter = backoffCounter;
+      runner.sourceRunner = this;
+
+      Thread runnerThread = new Thread(runner);
+      runnerThread.setName(pollers == 1 ? name : name + "-" + i);
+      runnerThread.start();
+      runnerThreads.add(runnerThread);
+    }
 
     lifecycleState = LifecycleState.START;
   }
@@ -90,23 +212,47 @@ public class PollableSourceRunner extends SourceRunner {
   @Override
   public void stop() {
 
-    runner.shouldStop.set(true);
+    for (SharedPollingScheduler.Registration registration : registrations) {
+      try {
+        registration.cancel();
+      } catch (InterruptedException e) {
+        logger.warn("Interrupted while waiting for scheduled source to stop."
+            + " Please report this.", e);
+        Thread.currentThread().interrupt();
+      }
+    }
+    registrations.clear();
 
-    try {
+    shouldStop.set(true);
+
+    for (Thread runnerThread : runnerThreads) {
       runnerThread.interrupt();
-      runnerThread.join();
-    } catch (InterruptedException e) {
-      logger
-      .warn(
-          "Interrupted while waiting for polling runner to stop. Please report this.",
-          e);
-      Thread.currentThread().interrupt();
     }
+    for (Thread runnerThread : runnerThreads) {
+      try {
+        runnerThread.join();
+      } catch (InterruptedException e) {
+        logger
+        .warn(
+            "Interrupted while waiting for polling runner to stop. Please report this.",
+            e);
+        Thread.currentThread().interrupt();
+      }
+    }
+    runnerThreads.clear();
 
-    Source source = getSource();
-    source.stop();
-    ChannelProcessor cp = source.getChannelProcessor();
-    cp.close();
+    boolean stopped = false;
+    try {
+      Source source = getSource();
+      source.stop();
+      ChannelProcessor cp = source.getChannelProcessor();
+      cp.close();
+      stopped = true;
+    } finally {
+      if (!stopped) {
+        fail();
+      }
+    }
 
     lifecycleState = LifecycleState.STOP;
   }
@@ -127,11 +273,27 @@ public class PollableSourceRunner extends SourceRunner {
     private PollableSource source;
     private AtomicBoolean shouldStop;
     private CounterGroup counterGroup;
+    private String backoffCounter;
+    private PollableSourceRunner sourceRunner;
 
     @Override
     public void run() {
       logger.debug("Polling runner starting. Source:{}", source);
 
+      try {
+        poll();
+      } catch (Error e) {
+        if (!shouldStop.get()) {
+          logger.error("Polling runner died. Exception follows.", e);
+          sourceRunner.fail();
+        }
+        throw e;
+      }
+
+      logger.debug("Polling runner exiting. Metrics:{}", counterGroup);
+    }
+
+    private void poll() {
       while (!shouldStop.get()) {
         counterGroup.incrementAndGet("runner.polls");
 
@@ -140,10 +302,10 @@ public class PollableSourceRunner extends SourceRunner {
             counterGroup.incrementAndGet("runner.backoffs");
 
             Thread.sleep(Math.min(
-                counterGroup.incrementAndGet("runner.backoffs.consecutive")
+                counterGroup.incrementAndGet(backoffCounter)
                 * backoffSleepIncrement, maxBackoffSleep));
           } else {
-            counterGroup.set("runner.backoffs.consecutive", 0L);
+            counterGroup.set(backoffCounter, 0L);
           }
         } catch (InterruptedException e) {
           logger.info("Source runner interrupted. Exiting");
@@ -162,8 +324,6 @@ public class PollableSourceRunner extends SourceRunner {
           }
         }
       }
-
-      logger.debug("Polling runner exiting. Metrics:{}", counterGroup);
     }
 
   }
@@ -19,25 +19,32 @@
 
 package org.apache.flume.source;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.flume.ChannelException;
+import org.apache.flume.ConcurrentPollableSource;
 import org.apache.flume.CounterGroup;
 import org.apache.flume.EventDeliveryException;
-import org.apache.flume.PollableSource;
 import org.apache.flume.event.EventBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Generates events whose body is an increasing sequence number. When polled
+ * by several threads, every number is still used once, but events may reach
+ * the channel out of order.
+ */
 public class SequenceGeneratorSource extends AbstractSource implements
-    PollableSource {
+    ConcurrentPollableSource {
 
   private static final Logger logger = LoggerFactory
       .getLogger(SequenceGeneratorSource.class);
 
-  private long sequence;
+  private AtomicLong sequence;
   private CounterGroup counterGroup;
 
   public SequenceGeneratorSource() {
-    sequence = 0;
+    sequence = new AtomicLong();
     counterGroup = new CounterGroup();
   }
 
@@ -46,7 +53,7 @@ public class SequenceGeneratorSource extends AbstractSource implements
 
     try {
       getChannelProcessor().processEvent(
-          EventBuilder.withBody(String.valueOf(sequence++).getBytes()));
+          EventBuilder.withBody(String.valueOf(sequence.getAndIncrement()).getBytes()));
       counterGroup.incrementAndGet("events.successful");
     } catch (ChannelException ex) {
       counterGroup.incrementAndGet("events.failed");
@@ -22,18 +22,18 @@ package org.apache.flume.source;
 import java.util.Arrays;
 
 import org.apache.flume.ChannelException;
+import org.apache.flume.ConcurrentPollableSource;
 import org.apache.flume.Context;
 import org.apache.flume.CounterGroup;
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
-import org.apache.flume.PollableSource;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.event.EventBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class StressSource extends AbstractSource implements
-  Configurable, PollableSource {
+  Configurable, ConcurrentPollableSource {
 
   private static final Logger logger = LoggerFactory
       .getLogger(StressSource.class);
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.flume;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSharedPollingScheduler {
+
+  private SharedPollingScheduler scheduler;
+
+  @Before
+  public void setUp() {
+    scheduler = new SharedPollingScheduler(1, 4);
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdown();
+  }
+
+  @Test
+  public void testBusyComponentYields() throws Exception {
+    final AtomicInteger busyPolls = new AtomicInteger();
+    final CountDownLatch otherPolled = new CountDownLatch(10);
+    CounterGroup busyCounters = new CounterGroup();
+
+    SharedPollingScheduler.Registration busy = scheduler.register("busy",
+        new SharedPollingScheduler.PollingTask() {
+          @Override
+          public boolean poll() {
+            busyPolls.incrementAndGet();
+            return false;
+          }
+        }, busyCounters);
+
+    SharedPollingScheduler.Registration other = scheduler.register("other",
+        new SharedPollingScheduler.PollingTask() {
+          @Override
+          public boolean poll() {
+            otherPolled.countDown();
+            return false;
+          }
+        }, new CounterGroup());
+
+    Assert.assertTrue("Second component starved on a single thread",
+        otherPolled.await(5, TimeUnit.SECONDS));
+
+    busy.cancel();
+    other.cancel();
+
+    Assert.assertTrue(busyPolls.get() > 0);
+    Assert.assertTrue(busyCounters.get("runner.scheduler.yields") > 0);
+    Assert.assertTrue(scheduler.getSchedulerCounter().getYieldCount() > 0);
+    Assert.assertTrue(scheduler.getSchedulerCounter().getSliceCount() > 1);
+    Assert.assertEquals(busyCounters.get("runner.polls").longValue(),
+        busyPolls.get());
+  }
+
+  @Test
+  public void testBackoffParksComponent() throws Exception {
+    final AtomicInteger polls = new AtomicInteger();
+    CounterGroup counters = new CounterGroup();
+
+    SharedPollingScheduler.Registration registration = scheduler.register(
+        "idle", new SharedPollingScheduler.PollingTask() {
+          @Override
+          public boolean poll() {
+            polls.incrementAndGet();
+            return true;
+          }
+        }, counters);
+
+    Thread.sleep(500);
+    registration.cancel();
+
+    // The first backoff parks the component for a full second.
+    Assert.assertEquals(1, polls.get());
+    Assert.assertEquals(1L, counters.get("runner.backoffs").longValue());
+    Assert.assertEquals(1L, scheduler.getSchedulerCounter().getBackoffCount());
+    Assert.assertEquals(1L,
+        counters.get("runner.backoffs.consecutive").longValue());
+  }
+
+  @Test
+  public void testCancelWaitsForInFlightPoll() throws Exception {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final AtomicInteger completed = new AtomicInteger();
+
+    SharedPollingScheduler.Registration registration = scheduler.register(
+        "slow", new SharedPollingScheduler.PollingTask() {
+          @Override
+          public boolean poll() throws Exception {
+            entered.countDown();
+            Thread.sleep(200);
+            completed.incrementAndGet();
+            return true;
+          }
+        }, new CounterGroup());
+
+    Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+    registration.cancel();
+
+    Assert.assertEquals(1, completed.get());
+  }
+
+}
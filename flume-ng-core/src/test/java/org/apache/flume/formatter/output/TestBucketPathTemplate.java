@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.flume.formatter.output;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBucketPathTemplate {
+  Calendar cal;
+  Map<String, String> headers;
+
+  @Before
+  public void setUp() {
+    cal = Calendar.getInstance();
+    cal.set(2012, 5, 23, 13, 46, 33);
+    cal.set(Calendar.MILLISECOND, 234);
+    headers = new HashMap<String, String>();
+    headers.put("timestamp", String.valueOf(cal.getTimeInMillis()));
+    headers.put("host", "host1");
+  }
+
+  @Test
+  public void testMatchesBucketPath() {
+    String[] templates = {
+      "/flume/%{host}/%Y%m%d/%H%M%S",
+      "/flume/%{missing}/%y-%j/%k.%l.%I%p/%a%A%b%B",
+      "%c %D %z %s %t %% %q",
+      "no escapes at all",
+      "%Y"
+    };
+    for (String template : templates) {
+      BucketPathTemplate compiled = new BucketPathTemplate(template);
+      for (int i = 0; i < 100; i++) {
+        // walk across second, minute, hour and day boundaries
+        headers.put("timestamp", String.valueOf(cal.getTimeInMillis()));
+        Assert.assertEquals(BucketPath.escapeString(template, headers),
+            compiled.escapeString(headers));
+        cal.add(Calendar.SECOND, 17 * i);
+      }
+    }
+  }
+
+  @Test
+  public void testRounding() {
+    String template = "/flume/%Y%m%d/%H%M/%s";
+    BucketPathTemplate compiled = new BucketPathTemplate(template, true,
+        Calendar.MINUTE, 10);
+    for (int i = 0; i < 100; i++) {
+      headers.put("timestamp", String.valueOf(cal.getTimeInMillis()));
+      Assert.assertEquals(BucketPath.escapeString(template, headers, true,
+          Calendar.MINUTE, 10), compiled.escapeString(headers));
+      cal.add(Calendar.MINUTE, 3);
+    }
+  }
+
+  @Test
+  public void testHeaderValuesAreNotEscaped() {
+    BucketPathTemplate compiled = new BucketPathTemplate("/a/%{host}/b");
+    headers.put("host", "$1\\x");
+    Assert.assertEquals("/a/$1\\x/b", compiled.escapeString(headers));
+  }
+
+  @Test
+  public void testNoTimestampNeeded() {
+    BucketPathTemplate compiled = new BucketPathTemplate("/a/%{host}");
+    headers.remove("timestamp");
+    Assert.assertEquals("/a/host1", compiled.escapeString(headers));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testMissingTimestamp() {
+    BucketPathTemplate compiled = new BucketPathTemplate("/a/%Y");
+    headers.remove("timestamp");
+    compiled.escapeString(headers);
+  }
+
+}
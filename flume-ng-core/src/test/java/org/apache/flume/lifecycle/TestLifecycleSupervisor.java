@@ -20,6 +20,7 @@
 package org.apache.flume.lifecycle;
 
 import org.apache.flume.CounterGroup;
+import org.apache.flume.instrumentation.SupervisorCounter;
 import org.apache.flume.lifecycle.LifecycleSupervisor.SupervisorPolicy;
 import org.junit.Assert;
 import org.junit.Before;
@@ -165,6 +166,157 @@ public class TestLifecycleSupervisor {
     supervisor.stop();
   }
 
+  @Test
+  public void testEventDrivenRestart() throws LifecycleException,
+      InterruptedException {
+    supervisor = new LifecycleSupervisor(true);
+    supervisor.start();
+
+    CountingLifecycleAware service = new CountingLifecycleAware();
+    SupervisorPolicy policy = new SupervisorPolicy.AlwaysRestartPolicy();
+
+    supervisor.supervise(service, policy, LifecycleState.START);
+    Thread.sleep(500);
+
+    Assert.assertEquals(Long.valueOf(1), service.counterGroup.get("start"));
+
+    // The service dies on its own and reports it.
+    service.lifecycleState = LifecycleState.ERROR;
+    supervisor.notifyStateChanged(service);
+    Thread.sleep(500);
+
+    Assert.assertEquals(LifecycleState.START, service.getLifecycleState());
+    Assert.assertEquals(Long.valueOf(2), service.counterGroup.get("start"));
+
+    SupervisorCounter counter = supervisor.getSupervisorCounter();
+    Assert.assertEquals(1, counter.getRestartCount());
+    Assert.assertEquals(1, counter.getNotificationCount());
+
+    supervisor.stop();
+  }
+
+  @Test
+  public void testEventDrivenNoticesUnreportedFailure()
+      throws LifecycleException, InterruptedException {
+    supervisor = new LifecycleSupervisor(true);
+    supervisor.start();
+
+    CountingLifecycleAware service = new CountingLifecycleAware();
+    SupervisorPolicy policy = new SupervisorPolicy.AlwaysRestartPolicy();
+
+    supervisor.supervise(service, policy, LifecycleState.START);
+    Thread.sleep(500);
+
+    // The service dies without reporting it; the periodic check still runs
+    // every three seconds by default.
+    service.lifecycleState = LifecycleState.ERROR;
+    Thread.sleep(3200);
+
+    Assert.assertEquals(LifecycleState.START, service.getLifecycleState());
+    Assert.assertEquals(Long.valueOf(2), service.counterGroup.get("start"));
+    Assert.assertEquals(1, supervisor.getSupervisorCounter().getRestartCount());
+
+    supervisor.stop();
+  }
+
+  @Test
+  public void testEventDrivenRetryBacksOff() throws LifecycleException,
+      InterruptedException {
+    System.setProperty(LifecycleSupervisor.CONF_RECONCILE_INTERVAL, "30");
+    try {
+      supervisor = new LifecycleSupervisor(true);
+    } finally {
+      System.clearProperty(LifecycleSupervisor.CONF_RECONCILE_INTERVAL);
+    }
+    supervisor.start();
+
+    CountingLifecycleAware service = new CountingLifecycleAware() {
+
+      @Override
+      public void start() {
+        if (counterGroup.incrementAndGet("attempts") <= 2) {
+          throw new IllegalStateException("Not yet");
+        }
+        super.start();
+      }
+    };
+    SupervisorPolicy policy = new SupervisorPolicy.AlwaysRestartPolicy();
+
+    supervisor.supervise(service, policy, LifecycleState.START);
+
+    // Retries come after 1s and then 2s, well before the periodic check.
+    Thread.sleep(1500);
+    Assert.assertEquals(Long.valueOf(2), service.counterGroup.get("attempts"));
+    Assert.assertEquals(LifecycleState.IDLE, service.getLifecycleState());
+
+    Thread.sleep(2000);
+    Assert.assertEquals(Long.valueOf(3), service.counterGroup.get("attempts"));
+    Assert.assertEquals(LifecycleState.START, service.getLifecycleState());
+
+    SupervisorCounter counter = supervisor.getSupervisorCounter();
+    Assert.assertEquals(2, counter.getStartFailureCount());
+    Assert.assertEquals(2, counter.getRetryCount());
+    Assert.assertEquals(0, counter.getRestartCount());
+
+    supervisor.stop();
+  }
+
+  @Test
+  public void testEventDrivenReporterRestart() throws LifecycleException,
+      InterruptedException {
+    supervisor = new LifecycleSupervisor(true);
+    supervisor.start();
+
+    ReportingLifecycleAware service = new ReportingLifecycleAware();
+    SupervisorPolicy policy = new SupervisorPolicy.AlwaysRestartPolicy();
+
+    supervisor.supervise(service, policy, LifecycleState.START);
+    Thread.sleep(500);
+    Assert.assertNotNull(service.listener);
+
+    // Reporters are only checked every 30 seconds, so the restart is driven
+    // by the report alone.
+    service.fail();
+    Thread.sleep(500);
+
+    Assert.assertEquals(LifecycleState.START, service.getLifecycleState());
+    Assert.assertEquals(Long.valueOf(2), service.counterGroup.get("start"));
+    Assert.assertEquals(1, supervisor.getSupervisorCounter()
+        .getNotificationCount());
+
+    supervisor.unsupervise(service);
+    Assert.assertNull(service.listener);
+    supervisor.stop();
+  }
+
+  @Test
+  public void testEventDrivenRetryCappedAtPollInterval()
+      throws LifecycleException, InterruptedException {
+    supervisor = new LifecycleSupervisor(true);
+    supervisor.start();
+
+    CountingLifecycleAware service = new CountingLifecycleAware() {
+
+      @Override
+      public void start() {
+        if (counterGroup.incrementAndGet("attempts") <= 4) {
+          throw new IllegalStateException("Not yet");
+        }
+        super.start();
+      }
+    };
+    SupervisorPolicy policy = new SupervisorPolicy.AlwaysRestartPolicy();
+
+    supervisor.supervise(service, policy, LifecycleState.START);
+
+    // Retries come after 1s, 2s, 3s and 3s rather than backing off to 4s.
+    Thread.sleep(9500);
+    Assert.assertEquals(Long.valueOf(5), service.counterGroup.get("attempts"));
+    Assert.assertEquals(LifecycleState.START, service.getLifecycleState());
+
+    supervisor.stop();
+  }
+
   public static class CountingLifecycleAware implements LifecycleAware {
 
     public CounterGroup counterGroup;
@@ -198,4 +350,22 @@ public class TestLifecycleSupervisor {
 
   }
 
+  public static class ReportingLifecycleAware extends CountingLifecycleAware
+      implements LifecycleStateReporter {
+
+    public volatile LifecycleStateReporter.Listener listener;
+
+    public void fail() {
+      super.lifecycleState = LifecycleState.ERROR;
+      listener.lifecycleStateChanged(this);
+    }
+
+    @Override
+    public void setLifecycleStateListener(
+        LifecycleStateReporter.Listener listener) {
+      this.listener = listener;
+    }
+
+  }
+
 }
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.serialization;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.commons.io.FileUtils;
+import org.apache.flume.Context;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.source.avro.AvroFlumeEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAvroFlumeEventSerializer {
+
+  private static final File TESTFILE =
+      new File("src/test/resources/AvroFlumeEvent.avro");
+
+  @Test
+  public void testAvroSerializer()
+      throws FileNotFoundException, IOException {
+
+    createAvroFile(TESTFILE, null, null);
+    validateAvroFile(TESTFILE);
+    FileUtils.forceDelete(TESTFILE);
+  }
+
+  @Test
+  public void testAvroSerializerDeflateCompression()
+      throws FileNotFoundException, IOException {
+
+    createAvroFile(TESTFILE, "deflate", null);
+    validateAvroFile(TESTFILE);
+    FileUtils.forceDelete(TESTFILE);
+  }
+
+  @Test
+  public void testAvroSerializerSnappyCompression()
+      throws FileNotFoundException, IOException {
+
+    createAvroFile(TESTFILE, "snappy", null);
+    validateAvroFile(TESTFILE);
+    FileUtils.forceDelete(TESTFILE);
+  }
+
+  @Test
+  public void testAvroSerializerSmallSyncInterval()
+      throws FileNotFoundException, IOException {
+
+    // forces a block to be written for almost every event
+    createAvroFile(TESTFILE, "deflate", "32");
+    validateAvroFile(TESTFILE);
+    FileUtils.forceDelete(TESTFILE);
+  }
+
+  public void createAvroFile(File file, String codec, String syncInterval)
+      throws FileNotFoundException, IOException {
+
+    if(file.exists()){
+      FileUtils.forceDelete(file);
+    }
+
+    OutputStream out = new FileOutputStream(file);
+
+    Context ctx = new Context();
+    if (codec != null) {
+      ctx.put("compressionCodec", codec);
+    }
+    if (syncInterval != null) {
+      ctx.put("syncIntervalBytes", syncInterval);
+    }
+
+    EventSerializer serializer = EventSerializerFactory.getInstance(
+        "AVRO_FLUME_EVENT", ctx, out);
+
+    serializer.afterCreate();
+    for (int i = 0; i < 100; i++) {
+      Map<String, String> headers = Maps.newHashMap();
+      headers.put("seq", String.valueOf(i));
+      serializer.write(EventBuilder.withBody("event " + i, Charsets.UTF_8,
+          headers));
+    }
+    serializer.flush();
+    serializer.beforeClose();
+    out.flush();
+    out.close();
+  }
+
+  public void validateAvroFile(File file) throws IOException {
+    // every record carries its own event's headers and body, even though
+    // the serializer reuses one record instance
+    DatumReader<AvroFlumeEvent> reader =
+        new SpecificDatumReader<AvroFlumeEvent>(AvroFlumeEvent.SCHEMA$);
+    DataFileReader<AvroFlumeEvent> fileReader =
+        new DataFileReader<AvroFlumeEvent>(file, reader);
+    int numEvents = 0;
+    while (fileReader.hasNext()) {
+      AvroFlumeEvent record = fileReader.next();
+      String body = Charsets.UTF_8.decode(record.getBody()).toString();
+      Assert.assertEquals("event " + numEvents, body);
+      Assert.assertEquals(1, record.getHeaders().size());
+      for (Map.Entry<CharSequence, CharSequence> header :
+          record.getHeaders().entrySet()) {
+        Assert.assertEquals("seq", header.getKey().toString());
+        Assert.assertEquals(String.valueOf(numEvents),
+            header.getValue().toString());
+      }
+      numEvents++;
+    }
+    fileReader.close();
+    Assert.assertEquals("Should have found a total of 100 events", 100,
+        numEvents);
+  }
+
+}
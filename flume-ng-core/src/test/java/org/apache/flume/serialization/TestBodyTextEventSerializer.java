@@ -26,6 +26,10 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.flume.Event;
 import org.apache.commons.io.FileUtils;
 import org.apache.flume.event.EventBuilder;
 import org.junit.Assert;
@@ -63,4 +67,41 @@ public class TestBodyTextEventSerializer {
     FileUtils.forceDelete(testFile);
   }
 
+  @Test
+  public void testBatchWrite() throws FileNotFoundException, IOException {
+    // a body larger than the batch buffer is written on its own
+    char[] large = new char[100 * 1024];
+    Arrays.fill(large, 'x');
+    List<Event> events = new ArrayList<Event>();
+    for (int i = 0; i < 10000; i++) {
+      String body = (i == 5000) ? new String(large) : "event " + i;
+      events.add(EventBuilder.withBody(body, Charsets.UTF_8));
+    }
+
+    OutputStream out = new FileOutputStream(testFile);
+    EventSerializer serializer =
+        EventSerializerFactory.getInstance("text", null, out);
+    Assert.assertTrue(serializer instanceof BatchEventSerializer);
+    serializer.afterCreate();
+    ((BatchEventSerializer) serializer).write(events);
+    serializer.flush();
+    serializer.beforeClose();
+    out.flush();
+    out.close();
+
+    BufferedReader reader = new BufferedReader(new FileReader(testFile));
+    String line;
+    int num = 0;
+    while ((line = reader.readLine()) != null) {
+      Assert.assertEquals(new String(events.get(num).getBody(),
+          Charsets.UTF_8), line);
+      num++;
+    }
+    reader.close();
+
+    Assert.assertEquals(10000, num);
+
+    FileUtils.forceDelete(testFile);
+  }
+
 }
@@ -416,6 +416,119 @@ public class TestLoadBalancingSinkProcessor {
     Assert.assertTrue(s3.getEvents().size() == 0);
   }
 
+  @Test
+  public void testRoundRobinBackoff() throws Exception {
+    Channel ch = new MockChannel();
+    int n = 100;
+    int numEvents = 3*n;
+    for (int i = 0; i < numEvents; i++) {
+      ch.put(new MockEvent("test" + i));
+    }
+
+    MockSink s1 = new MockSink(1);
+    s1.setChannel(ch);
+
+    MockSink s2 = new MockSink(2);
+    s2.setChannel(ch);
+
+    // s2 always fails
+    s2.setFail();
+
+    MockSink s3 = new MockSink(3);
+    s3.setChannel(ch);
+
+    List<Sink> sinks = new ArrayList<Sink>();
+    sinks.add(s1);
+    sinks.add(s2);
+    sinks.add(s3);
+
+    Context ctx = getContext("round_robin");
+    ctx.put("selector.backoff", "true");
+    LoadBalancingSinkProcessor lbsp = getProcessor(sinks, ctx);
+
+    Status s = Status.READY;
+    while (s != Status.BACKOFF) {
+      s = lbsp.process();
+    }
+
+    // s2 is out of rotation for a second after its first failure
+    Assert.assertEquals(1, s2.getAttempts());
+    Assert.assertEquals(numEvents,
+        s1.getEvents().size() + s3.getEvents().size());
+  }
+
+  @Test
+  public void testLatencyBackoff() throws Exception {
+    Channel ch = new MockChannel();
+    int n = 100;
+    int numEvents = 3*n;
+    for (int i = 0; i < numEvents; i++) {
+      ch.put(new MockEvent("test" + i));
+    }
+
+    MockSink s1 = new MockSink(1);
+    s1.setChannel(ch);
+
+    // s1 always fails
+    s1.setFail();
+
+    MockSink s2 = new MockSink(2);
+    s2.setChannel(ch);
+
+    MockSink s3 = new MockSink(3);
+    s3.setChannel(ch);
+
+    List<Sink> sinks = new ArrayList<Sink>();
+    sinks.add(s1);
+    sinks.add(s2);
+    sinks.add(s3);
+
+    LoadBalancingSinkProcessor lbsp = getProcessor("latency", sinks);
+
+    Status s = Status.READY;
+    while (s != Status.BACKOFF) {
+      s = lbsp.process();
+    }
+
+    Assert.assertEquals(1, s1.getAttempts());
+    Assert.assertEquals(numEvents,
+        s2.getEvents().size() + s3.getEvents().size());
+  }
+
+  @Test
+  public void testLatencyPrefersFasterSink() throws Exception {
+    Channel ch = new MockChannel();
+    int numEvents = 200;
+    for (int i = 0; i < numEvents; i++) {
+      ch.put(new MockEvent("test" + i));
+    }
+
+    MockSink s1 = new MockSink(1);
+    s1.setChannel(ch);
+
+    MockSink s2 = new MockSink(2);
+    s2.setChannel(ch);
+
+    // s2 takes much longer to process an event
+    s2.setDelay(5);
+
+    List<Sink> sinks = new ArrayList<Sink>();
+    sinks.add(s1);
+    sinks.add(s2);
+
+    LoadBalancingSinkProcessor lbsp = getProcessor("latency", sinks);
+
+    Status s = Status.READY;
+    while (s != Status.BACKOFF) {
+      s = lbsp.process();
+    }
+
+    Assert.assertEquals(numEvents,
+        s1.getEvents().size() + s2.getEvents().size());
+    Assert.assertTrue("Slow sink received " + s2.getEvents().size() +
+        " events", s2.getEvents().size() < numEvents / 4);
+  }
+
   private static class MockSink extends AbstractSink {
 
     private final int id;
@@ -424,6 +537,10 @@ public class TestLoadBalancingSinkProcessor {
 
     private boolean fail = false;
 
+    private int attempts = 0;
+
+    private long delay = 0;
+
     private MockSink(int id) {
       this.id = id;
     }
@@ -440,8 +557,17 @@ public class TestLoadBalancingSinkProcessor {
       fail = true;
     }
 
+    int getAttempts() {
+      return attempts;
+    }
+
+    void setDelay(long delay) {
+      this.delay = delay;
+    }
+
     @Override
     public Status process() throws EventDeliveryException {
+      attempts++;
       if (fail) {
         throw new EventDeliveryException("failed");
       }
@@ -450,6 +576,13 @@ public class TestLoadBalancingSinkProcessor {
         return Status.BACKOFF;
 
       events.add(e);
+      if (delay > 0) {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
       return Status.READY;
     }
   }
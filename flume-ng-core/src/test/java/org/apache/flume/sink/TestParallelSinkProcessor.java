@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.sink;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.Sink;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.instrumentation.SinkProcessorCounter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestParallelSinkProcessor {
+
+  private Channel channel;
+
+  @Before
+  public void setUp() {
+    channel = new MemoryChannel();
+    Context context = new Context();
+    context.put("capacity", "1000");
+    context.put("transactionCapacity", "100");
+    Configurables.configure(channel, context);
+    channel.start();
+  }
+
+  private void putEvents(int count) {
+    for (int batch = 0; batch < count; batch += 100) {
+      Transaction tx = channel.getTransaction();
+      tx.begin();
+      for (int i = batch; i < Math.min(count, batch + 100); i++) {
+        channel.put(EventBuilder.withBody(("event " + i).getBytes()));
+      }
+      tx.commit();
+      tx.close();
+    }
+  }
+
+  @Test
+  public void testSinksRunConcurrently() throws Exception {
+    int numEvents = 400;
+    putEvents(numEvents);
+
+    List<String> received =
+        Collections.synchronizedList(new ArrayList<String>());
+    List<Sink> sinks = new ArrayList<Sink>();
+    for (int i = 0; i < 4; i++) {
+      SlowSink sink = new SlowSink(received);
+      sink.setName("s" + i);
+      sink.setChannel(channel);
+      sinks.add(sink);
+    }
+
+    ParallelSinkProcessor processor = new ParallelSinkProcessor();
+    processor.setSinks(sinks);
+    processor.configure(new Context());
+
+    long startTime = System.currentTimeMillis();
+    processor.start();
+    try {
+      // 40 batches of 100ms take 4 seconds with one sink at a time.
+      while (received.size() < numEvents
+          && System.currentTimeMillis() - startTime < 10000) {
+        Thread.sleep(20);
+      }
+      long elapsed = System.currentTimeMillis() - startTime;
+
+      Assert.assertEquals(numEvents, received.size());
+      Assert.assertEquals(numEvents, new HashSet<String>(received).size());
+      Assert.assertTrue("Took " + elapsed + "ms", elapsed < 3000);
+      Assert.assertEquals(Sink.Status.READY, processor.process());
+    } finally {
+      processor.stop();
+    }
+
+    SinkProcessorCounter counter = processor.getCounter();
+    Assert.assertEquals(40, counter.getBatchReadyCount());
+    long perSink = 0;
+    for (Sink sink : sinks) {
+      Assert.assertTrue(counter.getBatchReadyCount(sink.getName()) > 0);
+      perSink += counter.getBatchReadyCount(sink.getName());
+    }
+    Assert.assertEquals(40, perSink);
+    Assert.assertTrue(counter.getProcessTimeMicros() >= 4000000);
+  }
+
+  @Test
+  public void testFailingSinkDoesNotStopOthers() throws Exception {
+    putEvents(100);
+
+    List<String> received =
+        Collections.synchronizedList(new ArrayList<String>());
+    SlowSink working = new SlowSink(received);
+    working.setName("working");
+    working.setChannel(channel);
+
+    AbstractSink failing = new AbstractSink() {
+      @Override
+      public Status process() throws EventDeliveryException {
+        throw new EventDeliveryException("failed");
+      }
+    };
+    failing.setName("failing");
+    failing.setChannel(channel);
+
+    List<Sink> sinks = new ArrayList<Sink>();
+    sinks.add(working);
+    sinks.add(failing);
+
+    ParallelSinkProcessor processor = new ParallelSinkProcessor();
+    processor.setSinks(sinks);
+    processor.configure(new Context());
+    processor.start();
+    try {
+      long startTime = System.currentTimeMillis();
+      while (received.size() < 100
+          && System.currentTimeMillis() - startTime < 10000) {
+        Thread.sleep(20);
+      }
+      Assert.assertEquals(100, received.size());
+    } finally {
+      processor.stop();
+    }
+
+    SinkProcessorCounter counter = processor.getCounter();
+    Assert.assertEquals(1, counter.getBatchFailedCount("failing"));
+    Assert.assertEquals(0, counter.getBatchFailedCount("working"));
+    Assert.assertEquals(10, counter.getBatchReadyCount("working"));
+  }
+
+  /**
+   * Takes up to ten events per transaction and holds the transaction for
+   * 100ms.
+   */
+  private static class SlowSink extends AbstractSink {
+
+    private final List<String> received;
+
+    SlowSink(List<String> received) {
+      this.received = received;
+    }
+
+    @Override
+    public Status process() throws EventDeliveryException {
+      Transaction tx = getChannel().getTransaction();
+      tx.begin();
+      try {
+        List<String> batch = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+          Event event = getChannel().take();
+          if (event == null) {
+            break;
+          }
+          batch.add(new String(event.getBody()));
+        }
+        if (batch.isEmpty()) {
+          tx.commit();
+          return Status.BACKOFF;
+        }
+        Thread.sleep(100);
+        tx.commit();
+        received.addAll(batch);
+        return Status.READY;
+      } catch (InterruptedException e) {
+        tx.rollback();
+        Thread.currentThread().interrupt();
+        return Status.BACKOFF;
+      } finally {
+        tx.close();
+      }
+    }
+  }
+
+}
@@ -28,12 +28,14 @@ import org.apache.flume.Channel;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
+import org.apache.flume.Sink.Status;
 import org.apache.flume.channel.MemoryChannel;
 import org.apache.flume.channel.PseudoTxnMemoryChannel;
 import org.apache.flume.conf.Configurables;
 import org.apache.flume.event.SimpleEvent;
 import org.apache.flume.lifecycle.LifecycleException;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -169,4 +171,54 @@ public class TestRollingFileSink {
       reader.close();
     }
   }
+
+  @Test
+  public void testBatchAppend() throws InterruptedException,
+      LifecycleException, EventDeliveryException, IOException {
+
+    Context context = new Context();
+
+    context.put("sink.directory", tmpDir.getPath());
+    context.put("sink.rollInterval", "0");
+    context.put("sink.batchSize", "10");
+
+    Configurables.configure(sink, context);
+
+    Channel channel = new PseudoTxnMemoryChannel();
+    Configurables.configure(channel, context);
+
+    sink.setChannel(channel);
+    sink.start();
+
+    for (int i = 0; i < 25; i++) {
+      Event event = new SimpleEvent();
+
+      event.setBody(("Test event " + i).getBytes());
+
+      channel.put(event);
+    }
+
+    // two full batches, a partial one, then nothing left to take
+    Assert.assertEquals(Status.READY, sink.process());
+    Assert.assertEquals(Status.READY, sink.process());
+    Assert.assertEquals(Status.READY, sink.process());
+    Assert.assertEquals(Status.BACKOFF, sink.process());
+
+    sink.stop();
+
+    String[] files = sink.getDirectory().list();
+    Assert.assertEquals(1, files.length);
+
+    BufferedReader reader = new BufferedReader(new FileReader(new File(
+        sink.getDirectory(), files[0])));
+    String line;
+    int num = 0;
+    while ((line = reader.readLine()) != null) {
+      Assert.assertEquals("Test event " + num, line);
+      num++;
+    }
+    reader.close();
+
+    Assert.assertEquals(25, num);
+  }
 }
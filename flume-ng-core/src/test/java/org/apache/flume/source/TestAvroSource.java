@@ -25,6 +25,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Properties;
 
 import org.apache.avro.ipc.NettyTransceiver;
 import org.apache.avro.ipc.specific.SpecificRequestor;
@@ -32,11 +33,17 @@ import org.apache.flume.Channel;
 import org.apache.flume.ChannelSelector;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
 import org.apache.flume.Transaction;
+import org.apache.flume.api.NettyAvroRpcClient;
+import org.apache.flume.api.RpcClient;
+import org.apache.flume.api.RpcClientConfigurationConstants;
+import org.apache.flume.api.RpcClientFactory;
 import org.apache.flume.channel.ChannelProcessor;
 import org.apache.flume.channel.MemoryChannel;
 import org.apache.flume.channel.ReplicatingChannelSelector;
 import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
 import org.apache.flume.lifecycle.LifecycleController;
 import org.apache.flume.lifecycle.LifecycleState;
 import org.apache.flume.source.avro.AvroFlumeEvent;
@@ -172,4 +179,85 @@ public class TestAvroSource {
         source.getLifecycleState());
   }
 
+  @Test
+  public void testCompressedRequest() throws InterruptedException,
+      EventDeliveryException {
+    boolean bound = false;
+
+    for (int i = 0; i < 100 && !bound; i++) {
+      try {
+        Context context = new Context();
+
+        context.put("port", String.valueOf(selectedPort = 41414 + i));
+        context.put("bind", "0.0.0.0");
+        context.put("compression-type", "deflate");
+
+        Configurables.configure(source, context);
+
+        source.start();
+        bound = true;
+      } catch (ChannelException e) {
+        /*
+         * NB: This assume we're using the Netty server under the hood and the
+         * failure is to bind. Yucky.
+         */
+      }
+    }
+
+    Assert
+        .assertTrue("Reached start or error", LifecycleController.waitForOneOf(
+            source, LifecycleState.START_OR_ERROR));
+    Assert.assertEquals("Server is started", LifecycleState.START,
+        source.getLifecycleState());
+
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      body.append("Hello avro ");
+    }
+
+    // A compressing client and a plain client share the source.
+    for (String compressionType : new String[] { "deflate", "none" }) {
+      Properties props = new Properties();
+      props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS, "h1");
+      props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS_PREFIX
+          + "h1", "localhost:" + selectedPort);
+      props.setProperty(RpcClientConfigurationConstants.CONFIG_COMPRESSION_TYPE,
+          compressionType);
+
+      RpcClient client = RpcClientFactory.getInstance(props);
+      try {
+        client.append(EventBuilder.withBody(body.toString().getBytes()));
+
+        NettyAvroRpcClient nettyClient = (NettyAvroRpcClient) client;
+        Assert.assertTrue(nettyClient.getBytesSent() > body.length());
+        if (compressionType.equals("deflate")) {
+          Assert.assertTrue("Request was not compressed",
+              nettyClient.getWireBytesSent() < body.length());
+        } else {
+          Assert.assertEquals(nettyClient.getBytesSent(),
+              nettyClient.getWireBytesSent());
+        }
+        Assert.assertTrue(nettyClient.getBytesReceived() > 0);
+      } finally {
+        client.close();
+      }
+
+      Transaction transaction = channel.getTransaction();
+      transaction.begin();
+
+      Event event = channel.take();
+      Assert.assertNotNull(event);
+      Assert.assertEquals("Channel contained our event", body.toString(),
+          new String(event.getBody()));
+      transaction.commit();
+      transaction.close();
+    }
+
+    source.stop();
+    Assert.assertTrue("Reached stop or error",
+        LifecycleController.waitForOneOf(source, LifecycleState.STOP_OR_ERROR));
+    Assert.assertEquals("Server is stopped", LifecycleState.STOP,
+        source.getLifecycleState());
+  }
+
 }
@@ -20,10 +20,16 @@
 package org.apache.flume.source;
 
 import com.google.common.collect.Lists;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.flume.Channel;
 import org.apache.flume.ChannelSelector;
+import org.apache.flume.ConcurrentPollableSource;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
@@ -35,7 +41,10 @@ import org.apache.flume.channel.MemoryChannel;
 import org.apache.flume.channel.ReplicatingChannelSelector;
 import org.apache.flume.conf.Configurables;
 import org.apache.flume.event.EventBuilder;
+import org.apache.flume.lifecycle.LifecycleAware;
 import org.apache.flume.lifecycle.LifecycleState;
+import org.apache.flume.lifecycle.LifecycleStateReporter;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -140,4 +149,135 @@ public class TestPollableSourceRunner {
     sourceRunner.stop();
   }
 
+  @Test
+  public void testConcurrentPolling() throws InterruptedException {
+    final CountDownLatch allPolling = new CountDownLatch(3);
+    final Set<String> threadNames =
+        Collections.synchronizedSet(new HashSet<String>());
+
+    ConcurrentPollableSource source = new ConcurrentTestSource() {
+      @Override
+      public Status process() throws EventDeliveryException {
+        threadNames.add(Thread.currentThread().getName());
+        allPolling.countDown();
+        try {
+          // Only returns once all three threads are in here at once.
+          allPolling.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return Status.BACKOFF;
+      }
+    };
+
+    Context context = new Context();
+    context.put(PollableSourceRunner.THREADS, "3");
+    Configurables.configure(sourceRunner, context);
+
+    sourceRunner.setScheduler(null);
+    sourceRunner.setSource(source);
+    sourceRunner.start();
+
+    Assert.assertTrue(allPolling.await(5, TimeUnit.SECONDS));
+    Thread.sleep(500);
+    sourceRunner.stop();
+
+    Assert.assertEquals(3, threadNames.size());
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(Long.valueOf(1), sourceRunner.getCounterGroup()
+          .get("runner." + i + ".backoffs.consecutive"));
+    }
+    Assert.assertEquals(Long.valueOf(3),
+        sourceRunner.getCounterGroup().get("runner.backoffs"));
+  }
+
+  @Test
+  public void testConcurrencyRequiresSupport() throws InterruptedException {
+    final Set<String> threadNames =
+        Collections.synchronizedSet(new HashSet<String>());
+    final CountDownLatch polled = new CountDownLatch(20);
+
+    PollableSource source = new TestSource() {
+      @Override
+      public Status process() throws EventDeliveryException {
+        threadNames.add(Thread.currentThread().getName());
+        polled.countDown();
+        return Status.READY;
+      }
+    };
+
+    Context context = new Context();
+    context.put(PollableSourceRunner.THREADS, "3");
+    Configurables.configure(sourceRunner, context);
+
+    sourceRunner.setScheduler(null);
+    sourceRunner.setSource(source);
+    sourceRunner.start();
+
+    Assert.assertTrue(polled.await(5, TimeUnit.SECONDS));
+    sourceRunner.stop();
+
+    Assert.assertEquals(1, threadNames.size());
+  }
+
+  @Test
+  public void testRunnerDeathIsReported() throws InterruptedException {
+    final AtomicInteger polls = new AtomicInteger();
+    final CountDownLatch pollingAgain = new CountDownLatch(1);
+
+    PollableSource source = new TestSource() {
+      @Override
+      public Status process() throws EventDeliveryException {
+        if (polls.incrementAndGet() == 1) {
+          throw new AssertionError("Runner thread dies");
+        }
+        pollingAgain.countDown();
+        return Status.BACKOFF;
+      }
+    };
+
+    final CountDownLatch reported = new CountDownLatch(1);
+    sourceRunner.setLifecycleStateListener(
+        new LifecycleStateReporter.Listener() {
+          @Override
+          public void lifecycleStateChanged(LifecycleAware lifecycleAware) {
+            reported.countDown();
+          }
+        });
+    sourceRunner.setScheduler(null);
+    sourceRunner.setSource(source);
+    sourceRunner.start();
+
+    Assert.assertTrue(reported.await(5, TimeUnit.SECONDS));
+    Assert.assertEquals(LifecycleState.ERROR, sourceRunner.getLifecycleState());
+
+    // Starting again replaces the dead thread.
+    sourceRunner.start();
+    Assert.assertEquals(LifecycleState.START, sourceRunner.getLifecycleState());
+    Assert.assertTrue(pollingAgain.await(5, TimeUnit.SECONDS));
+    sourceRunner.stop();
+    Assert.assertEquals(LifecycleState.STOP, sourceRunner.getLifecycleState());
+  }
+
+  /**
+   * A pollable source with a channel processor that is never used.
+   */
+  private static abstract class TestSource extends AbstractSource
+      implements PollableSource {
+
+    public TestSource() {
+      MemoryChannel channel = new MemoryChannel();
+      Configurables.configure(channel, new Context());
+      ChannelSelector selector = new ReplicatingChannelSelector();
+      selector.setChannels(Lists.<Channel>newArrayList(channel));
+      setChannelProcessor(new ChannelProcessor(selector));
+      setName("test");
+    }
+
+  }
+
+  private static abstract class ConcurrentTestSource extends TestSource
+      implements ConcurrentPollableSource {
+  }
+
 }
@@ -22,16 +22,23 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.apache.flume.Channel;
 import org.apache.flume.ChannelSelector;
 import org.apache.flume.Context;
+import org.apache.flume.FlumeException;
 import org.apache.flume.Sink;
 import org.apache.flume.SinkProcessor;
 import org.apache.flume.SinkRunner;
@@ -41,6 +48,7 @@ import org.apache.flume.channel.ChannelProcessor;
 import org.apache.flume.channel.ChannelSelectorFactory;
 import org.apache.flume.conf.BasicConfigurationConstants;
 import org.apache.flume.conf.ComponentConfiguration;
+import org.apache.flume.conf.Configurable;
 import org.apache.flume.conf.Configurables;
 import org.apache.flume.conf.FlumeConfiguration;
 import org.apache.flume.conf.FlumeConfiguration.AgentConfiguration;
@@ -191,6 +199,12 @@ import org.slf4j.LoggerFactory;
  * </pre>
  *
  * </p>
+ * <p>
+ * When the file is reloaded, components whose properties are unchanged, and
+ * whose channels are unchanged, are carried over to the new configuration as
+ * is and keep running. Only components that were added, removed or modified
+ * are stopped and started.
+ * </p>
  *
  * @see java.util.Properties#load(java.io.Reader)
  */
@@ -200,29 +214,54 @@ public class PropertiesFileConfigurationProvider extends
   private static final Logger LOGGER = LoggerFactory
       .getLogger(PropertiesFileConfigurationProvider.class);
 
+  /* Separates sink runner signatures from those of configured components. */
+  private static final String SINK_RUNNER_PREFIX = "sinkrunners.";
+
+  /* The configuration handed out by the last successful load. */
+  private NodeConfiguration runningConfiguration;
+  private Map<String, String> runningSignatures;
+  private Map<String, Sink> runningSinks;
+
+  /* Components created by the load in progress. */
+  private final List<Channel> createdChannels = new ArrayList<Channel>();
+  private final List<Source> createdSources = new ArrayList<Source>();
+  private final List<Sink> createdSinks = new ArrayList<Sink>();
+
   @Override
   protected void load() {
     File propertiesFile = getFile();
     BufferedReader reader = null;
+    boolean loaded = false;
+
+    createdChannels.clear();
+    createdSources.clear();
+    createdSinks.clear();
 
     try {
       reader = new BufferedReader(new FileReader(propertiesFile));
       Properties properties = new Properties();
       properties.load(reader);
-      // If there is an old configuration, shut it down.
 
       NodeConfiguration conf = new SimpleNodeConfiguration();
       FlumeConfiguration fconfig = new FlumeConfiguration(properties);
       AgentConfiguration agentConf = fconfig.getConfigurationFor(getNodeName());
 
       if (agentConf != null) {
-        getConfigurationAware().stopAllComponents();
+        Map<String, String> signatures =
+            getSignatures(properties, getNodeName());
+
+        loadChannels(agentConf, conf, signatures);
+        loadSources(agentConf, conf, signatures);
+        Map<String, Sink> sinks = loadSinks(agentConf, conf, signatures);
 
-        loadChannels(agentConf, conf);
-        loadSources(agentConf, conf);
-        loadSinks(agentConf, conf);
+        // Stops components of the old configuration that were not carried
+        // over and starts the new ones.
+        getConfigurationAware().reconfigure(conf);
 
-        getConfigurationAware().startAllComponents(conf);
+        runningConfiguration = conf;
+        runningSignatures = signatures;
+        runningSinks = sinks;
+        loaded = true;
       } else {
         LOGGER.warn("No configuration found for this host:{}", getNodeName());
       }
@@ -233,6 +272,9 @@ public class PropertiesFileConfigurationProvider extends
       LOGGER.error("Unable to load file:" + propertiesFile
           + " (failed to instantiate component) - Exception follows.", ex);
     } finally {
+      if (!loaded) {
+        discardCreatedComponents();
+      }
       if (reader != null) {
         try {
           reader.close();
@@ -244,8 +286,167 @@ public class PropertiesFileConfigurationProvider extends
     }
   }
 
+  /**
+   * Drops the components created by a load that failed part-way from their
+   * factories. The running components they were to replace have already been
+   * unregistered, so the factories then hold neither, and the next load
+   * creates fresh instances for the components that still differ.
+   */
+  private void discardCreatedComponents() {
+    for (Channel channel : createdChannels) {
+      getChannelFactory().unregister(channel);
+    }
+    for (Source source : createdSources) {
+      getSourceFactory().unregister(source);
+    }
+    for (Sink sink : createdSinks) {
+      getSinkFactory().unregister(sink);
+    }
+    createdChannels.clear();
+    createdSources.clear();
+    createdSinks.clear();
+  }
+
+  /**
+   * Groups the properties of an agent by component. Keys of the returned map
+   * are of the form <tt>&lt;type&gt;.&lt;name&gt;</tt>, for example
+   * <tt>channels.c1</tt>, and values are a canonical rendering of all the
+   * properties of that component.
+   */
+  private static Map<String, String> getSignatures(Properties properties,
+      String agentName) {
+    String prefix = agentName + ".";
+    Map<String, SortedMap<String, String>> components =
+        new HashMap<String, SortedMap<String, String>>();
+
+    for (String key : properties.stringPropertyNames()) {
+      if (!key.startsWith(prefix)) {
+        continue;
+      }
+      String name = key.substring(prefix.length());
+      int typeEnd = name.indexOf('.');
+      int componentEnd = typeEnd < 0 ? -1 : name.indexOf('.', typeEnd + 1);
+      if (componentEnd < 0) {
+        // Component lists such as <agent>.sources
+        continue;
+      }
+
+      String component = name.substring(0, componentEnd);
+      SortedMap<String, String> componentProperties =
+          components.get(component);
+      if (componentProperties == null) {
+        componentProperties = new TreeMap<String, String>();
+        components.put(component, componentProperties);
+      }
+      componentProperties.put(name.substring(componentEnd + 1),
+          properties.getProperty(key).trim());
+    }
+
+    Map<String, String> signatures = new HashMap<String, String>();
+    for (Entry<String, SortedMap<String, String>> entry :
+      components.entrySet()) {
+      signatures.put(entry.getKey(), entry.getValue().toString());
+    }
+    return signatures;
+  }
+
+  private boolean isUnchanged(String component,
+      Map<String, String> signatures) {
+    String signature = signatures.get(component);
+    return runningSignatures != null && signature != null
+        && signature.equals(runningSignatures.get(component));
+  }
+
+  /**
+   * @return true if every named channel is carried over from the running
+   * configuration
+   */
+  private boolean areChannelsUnchanged(Collection<String> channelNames,
+      NodeConfiguration conf) {
+    for (String chName : channelNames) {
+      Channel channel = conf.getChannels().get(chName);
+      if (channel == null
+          || channel != runningConfiguration.getChannels().get(chName)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Channel getUnchangedChannel(String name,
+      Map<String, String> signatures) {
+    if (!isUnchanged("channels." + name, signatures)) {
+      return null;
+    }
+    Channel channel = runningConfiguration.getChannels().get(name);
+    if (channel != null) {
+      LOGGER.info("Channel {} is unchanged, keeping it running", name);
+    }
+    return channel;
+  }
+
+  private SourceRunner getUnchangedSourceRunner(String name,
+      Collection<String> channelNames, NodeConfiguration conf,
+      Map<String, String> signatures) {
+    if (!isUnchanged("sources." + name, signatures)
+        || !areChannelsUnchanged(channelNames, conf)) {
+      return null;
+    }
+    SourceRunner runner = runningConfiguration.getSourceRunners().get(name);
+    if (runner != null) {
+      LOGGER.info("Source {} is unchanged, keeping it running", name);
+    }
+    return runner;
+  }
+
+  /*
+   * The component factories hand out the instance they created earlier under
+   * the same name. A component that is replaced on reload is dropped from its
+   * factory first so that the replacement is a new instance, configured while
+   * the old one keeps running until it is stopped.
+   */
+
+  private Channel createChannel(String name, String type)
+      throws FlumeException {
+    if (runningConfiguration != null) {
+      Channel running = runningConfiguration.getChannels().get(name);
+      if (running != null) {
+        getChannelFactory().unregister(running);
+      }
+    }
+    Channel channel = getChannelFactory().create(name, type);
+    createdChannels.add(channel);
+    return channel;
+  }
+
+  private Source createSource(String name, String type)
+      throws FlumeException {
+    if (runningConfiguration != null) {
+      SourceRunner running = runningConfiguration.getSourceRunners().get(name);
+      if (running != null) {
+        getSourceFactory().unregister(running.getSource());
+      }
+    }
+    Source source = getSourceFactory().create(name, type);
+    createdSources.add(source);
+    return source;
+  }
+
+  private Sink createSink(String name, String type) throws FlumeException {
+    if (runningSinks != null) {
+      Sink running = runningSinks.get(name);
+      if (running != null) {
+        getSinkFactory().unregister(running);
+      }
+    }
+    Sink sink = getSinkFactory().create(name, type);
+    createdSinks.add(sink);
+    return sink;
+  }
+
   private void loadChannels(AgentConfiguration agentConf,
-      NodeConfiguration conf) throws InstantiationException {
+      NodeConfiguration conf, Map<String, String> signatures)
+          throws InstantiationException {
     LOGGER.info("Creating channels");
     Set<String> channels = agentConf.getChannelSet();
     Map<String, ComponentConfiguration> compMap =
@@ -253,10 +454,13 @@ public class PropertiesFileConfigurationProvider extends
     for (String chName : channels) {
       ComponentConfiguration comp = compMap.get(chName);
       if(comp != null) {
-        Channel channel = getChannelFactory().create(comp.getComponentName(),
-            comp.getType());
+        Channel channel = getUnchangedChannel(comp.getComponentName(),
+            signatures);
+        if (channel == null) {
+          channel = createChannel(comp.getComponentName(), comp.getType());
 
-        Configurables.configure(channel, comp);
+          Configurables.configure(channel, comp);
+        }
 
         conf.getChannels().put(comp.getComponentName(), channel);
       }
@@ -265,19 +469,21 @@ public class PropertiesFileConfigurationProvider extends
     for (String ch : channels) {
       Context context = agentConf.getChannelContext().get(ch);
       if(context != null){
-        Channel channel =
-            getChannelFactory().create(ch, context.getString(
-                BasicConfigurationConstants.CONFIG_TYPE));
-        Configurables.configure(channel, context);
+        Channel channel = getUnchangedChannel(ch, signatures);
+        if (channel == null) {
+          channel = createChannel(ch, context.getString(
+              BasicConfigurationConstants.CONFIG_TYPE));
+          Configurables.configure(channel, context);
+          LOGGER.info("created channel " + ch);
+        }
         conf.getChannels().put(ch, channel);
-        LOGGER.info("created channel " + ch);
       }
     }
 
   }
 
-  private void loadSources(AgentConfiguration agentConf, NodeConfiguration conf)
-      throws InstantiationException {
+  private void loadSources(AgentConfiguration agentConf, NodeConfiguration conf,
+      Map<String, String> signatures) throws InstantiationException {
 
     Set<String> sources = agentConf.getSourceSet();
     Map<String, ComponentConfiguration> compMap =
@@ -286,12 +492,19 @@ public class PropertiesFileConfigurationProvider extends
       ComponentConfiguration comp = compMap.get(sourceName);
       if(comp != null) {
         SourceConfiguration config = (SourceConfiguration) comp;
+        Set<String> channelNames = config.getChannels();
 
-        Source source = getSourceFactory().create(comp.getComponentName(),
+        SourceRunner runner = getUnchangedSourceRunner(
+            comp.getComponentName(), channelNames, conf, signatures);
+        if (runner != null) {
+          conf.getSourceRunners().put(comp.getComponentName(), runner);
+          continue;
+        }
+
+        Source source = createSource(comp.getComponentName(),
             comp.getType());
 
         Configurables.configure(source, config);
-        Set<String> channelNames = config.getChannels();
         List<Channel> channels = new ArrayList<Channel>();
         for (String chName : channelNames) {
           channels.add(conf.getChannels().get(chName));
@@ -308,7 +521,7 @@ public class PropertiesFileConfigurationProvider extends
 
         source.setChannelProcessor(channelProcessor);
         conf.getSourceRunners().put(comp.getComponentName(),
-            SourceRunner.forSource(source));
+            createSourceRunner(source, config.getRunnerContext()));
       }
     }
     Map<String, Context> sourceContexts = agentConf.getSourceContext();
@@ -316,13 +529,20 @@ public class PropertiesFileConfigurationProvider extends
     for (String src : sources) {
       Context context = sourceContexts.get(src);
       if(context != null){
-        Source source =
-            getSourceFactory().create(src,
-                context.getString(BasicConfigurationConstants.CONFIG_TYPE));
-        List<Channel> channels = new ArrayList<Channel>();
-        Configurables.configure(source, context);
         String[] channelNames = context.getString(
             BasicConfigurationConstants.CONFIG_CHANNELS).split("\\s+");
+
+        SourceRunner runner = getUnchangedSourceRunner(src,
+            Arrays.asList(channelNames), conf, signatures);
+        if (runner != null) {
+          conf.getSourceRunners().put(src, runner);
+          continue;
+        }
+
+        Source source = createSource(src,
+            context.getString(BasicConfigurationConstants.CONFIG_TYPE));
+        List<Channel> channels = new ArrayList<Channel>();
+        Configurables.configure(source, context);
         for (String chName : channelNames) {
           channels.add(conf.getChannels().get(chName));
         }
@@ -337,25 +557,126 @@ public class PropertiesFileConfigurationProvider extends
         Configurables.configure(channelProcessor, context);
 
         source.setChannelProcessor(channelProcessor);
-        conf.getSourceRunners().put(src,
-            SourceRunner.forSource(source));
 
+        conf.getSourceRunners().put(src, createSourceRunner(source,
+            new Context(context.getSubProperties(
+                BasicConfigurationConstants.CONFIG_SOURCE_RUNNER_PREFIX))));
+
+      }
+    }
+  }
+
+  /**
+   * Creates the runner of a source, configuring it with the
+   * <tt>runner.</tt> properties of the source if it is configurable.
+   */
+  private static SourceRunner createSourceRunner(Source source,
+      Context runnerContext) {
+    SourceRunner sourceRunner = SourceRunner.forSource(source);
+    if (sourceRunner instanceof Configurable && runnerContext != null) {
+      Configurables.configure(sourceRunner, runnerContext);
+    }
+    return sourceRunner;
+  }
+
+  /**
+   * Finds the sink runners of the running configuration that can be carried
+   * over: the sink group (or lone sink) and all of its member sinks are
+   * unchanged, and so are the channels the member sinks drain.
+   *
+   * @return carried over runners keyed by sink group or sink name
+   */
+  private Map<String, SinkRunner> getUnchangedSinkRunners(
+      AgentConfiguration agentConf, NodeConfiguration conf,
+      Map<String, String> signatures) {
+    Map<String, List<String>> runnerSinks =
+        new HashMap<String, List<String>>();
+    Set<String> groupedSinks = new HashSet<String>();
+    Map<String, ComponentConfiguration> groupMap =
+        agentConf.getSinkGroupConfigMap();
+    for (String groupName : agentConf.getSinkgroupSet()) {
+      ComponentConfiguration comp = groupMap.get(groupName);
+      if (comp != null) {
+        List<String> groupSinks = ((SinkGroupConfiguration) comp).getSinks();
+        runnerSinks.put(groupName, groupSinks);
+        groupedSinks.addAll(groupSinks);
+      }
+    }
+    for (String sinkName : agentConf.getSinkSet()) {
+      if (!groupedSinks.contains(sinkName)) {
+        runnerSinks.put(sinkName, Collections.singletonList(sinkName));
+      }
+    }
+
+    Map<String, SinkRunner> unchanged = new HashMap<String, SinkRunner>();
+    for (Entry<String, List<String>> entry : runnerSinks.entrySet()) {
+      String runnerName = entry.getKey();
+      StringBuilder signature = new StringBuilder("sinkgroups.")
+          .append(runnerName).append('=')
+          .append(signatures.get("sinkgroups." + runnerName));
+      List<String> channelNames = new ArrayList<String>();
+      for (String sinkName : entry.getValue()) {
+        signature.append(";sinks.").append(sinkName).append('=')
+            .append(signatures.get("sinks." + sinkName));
+        channelNames.add(getSinkChannelName(agentConf, sinkName));
+      }
+      signatures.put(SINK_RUNNER_PREFIX + runnerName, signature.toString());
+
+      if (isUnchanged(SINK_RUNNER_PREFIX + runnerName, signatures)
+          && areChannelsUnchanged(channelNames, conf)) {
+        SinkRunner runner = runningConfiguration.getSinkRunners()
+            .get(runnerName);
+        if (runner != null) {
+          LOGGER.info("Sink {} is unchanged, keeping it running", runnerName);
+          unchanged.put(runnerName, runner);
+        }
       }
     }
+    return unchanged;
   }
 
-  private void loadSinks(AgentConfiguration agentConf, NodeConfiguration conf)
-      throws InstantiationException {
+  private static String getSinkChannelName(AgentConfiguration agentConf,
+      String sinkName) {
+    ComponentConfiguration comp = agentConf.getSinkConfigMap().get(sinkName);
+    if (comp != null) {
+      return ((SinkConfiguration) comp).getChannel();
+    }
+    Context context = agentConf.getSinkContext().get(sinkName);
+    if (context != null) {
+      return context.getString(BasicConfigurationConstants.CONFIG_CHANNEL);
+    }
+    return null;
+  }
+
+  /**
+   * @return all sinks of the new configuration, keyed by name
+   */
+  private Map<String, Sink> loadSinks(AgentConfiguration agentConf,
+      NodeConfiguration conf, Map<String, String> signatures)
+          throws InstantiationException {
+    Map<String, SinkRunner> unchangedRunners =
+        getUnchangedSinkRunners(agentConf, conf, signatures);
+    Set<String> unchangedSinks = new HashSet<String>();
+    Map<String, ComponentConfiguration> groupMap =
+        agentConf.getSinkGroupConfigMap();
+    for (String runnerName : unchangedRunners.keySet()) {
+      ComponentConfiguration comp = groupMap.get(runnerName);
+      if (comp != null) {
+        unchangedSinks.addAll(((SinkGroupConfiguration) comp).getSinks());
+      } else {
+        unchangedSinks.add(runnerName);
+      }
+    }
+
     Set<String> sinkNames = agentConf.getSinkSet();
     Map<String, ComponentConfiguration> compMap =
         agentConf.getSinkConfigMap();
     Map<String, Sink> sinks = new HashMap<String, Sink>();
     for (String sinkName : sinkNames) {
       ComponentConfiguration comp = compMap.get(sinkName);
-      if(comp != null) {
+      if(comp != null && !unchangedSinks.contains(sinkName)) {
         SinkConfiguration config = (SinkConfiguration) comp;
-        Sink sink = getSinkFactory().create(comp.getComponentName(),
-            comp.getType());
+        Sink sink = createSink(comp.getComponentName(), comp.getType());
 
         Configurables.configure(sink, config);
 
@@ -367,8 +688,8 @@ public class PropertiesFileConfigurationProvider extends
     Map<String, Context> sinkContexts = agentConf.getSinkContext();
     for (String sinkName : sinkNames) {
       Context context = sinkContexts.get(sinkName);
-      if(context != null) {
-        Sink sink = getSinkFactory().create(sinkName, context.getString(
+      if(context != null && !unchangedSinks.contains(sinkName)) {
+        Sink sink = createSink(sinkName, context.getString(
             BasicConfigurationConstants.CONFIG_TYPE));
         Configurables.configure(sink, context);
 
@@ -378,12 +699,19 @@ public class PropertiesFileConfigurationProvider extends
       }
     }
 
-    loadSinkGroups(agentConf, sinks, conf);
+    Map<String, Sink> loadedSinks = new HashMap<String, Sink>(sinks);
+    for (String sinkName : unchangedSinks) {
+      loadedSinks.put(sinkName, runningSinks.get(sinkName));
+    }
+
+    loadSinkGroups(agentConf, sinks, unchangedRunners, conf);
+
+    return loadedSinks;
   }
 
   private void loadSinkGroups(AgentConfiguration agentConf,
-      Map<String, Sink> sinks, NodeConfiguration conf)
-          throws InstantiationException {
+      Map<String, Sink> sinks, Map<String, SinkRunner> unchangedRunners,
+      NodeConfiguration conf) throws InstantiationException {
     Set<String> sinkgroupNames = agentConf.getSinkgroupSet();
     Map<String, ComponentConfiguration> compMap =
         agentConf.getSinkGroupConfigMap();
@@ -393,6 +721,14 @@ public class PropertiesFileConfigurationProvider extends
       if(comp != null) {
         SinkGroupConfiguration groupConf = (SinkGroupConfiguration) comp;
         List<String> groupSinkList = groupConf.getSinks();
+        SinkRunner unchangedRunner = unchangedRunners.get(groupName);
+        if (unchangedRunner != null) {
+          for (String sink : groupSinkList) {
+            usedSinks.put(sink, groupName);
+          }
+          conf.getSinkRunners().put(comp.getComponentName(), unchangedRunner);
+          continue;
+        }
         List<Sink> groupSinks = new ArrayList<Sink>();
         for (String sink : groupSinkList) {
           Sink s = sinks.remove(sink);
@@ -414,8 +750,9 @@ public class PropertiesFileConfigurationProvider extends
         }
         SinkGroup group = new SinkGroup(groupSinks);
         Configurables.configure(group, groupConf);
-        conf.getSinkRunners().put(comp.getComponentName(),
-            new SinkRunner(group.getProcessor()));
+        SinkRunner runner = new SinkRunner(group.getProcessor());
+        runner.setName(comp.getComponentName());
+        conf.getSinkRunners().put(comp.getComponentName(), runner);
       }
     }
     // add any unasigned sinks to solo collectors
@@ -426,8 +763,14 @@ public class PropertiesFileConfigurationProvider extends
         sinkMap.add(entry.getValue());
         pr.setSinks(sinkMap);
         Configurables.configure(pr, new Context());
-        conf.getSinkRunners().put(entry.getKey(),
-            new SinkRunner(pr));
+        SinkRunner runner = new SinkRunner(pr);
+        runner.setName(entry.getKey());
+        conf.getSinkRunners().put(entry.getKey(), runner);
+      }
+    }
+    for (Entry<String, SinkRunner> entry : unchangedRunners.entrySet()) {
+      if (!compMap.containsKey(entry.getKey())) {
+        conf.getSinkRunners().put(entry.getKey(), entry.getValue());
       }
     }
   }
@@ -19,10 +19,18 @@
 
 package org.apache.flume.node.nodemanager;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.flume.Channel;
 import org.apache.flume.SinkRunner;
+import org.apache.flume.Source;
 import org.apache.flume.SourceRunner;
 import org.apache.flume.lifecycle.LifecycleAware;
 import org.apache.flume.lifecycle.LifecycleState;
@@ -33,7 +41,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Throwables;
 import java.util.Properties;
 import java.util.Set;
 import org.apache.flume.Context;
@@ -53,6 +60,12 @@ public class DefaultLogicalNodeManager extends AbstractLogicalNodeManager
 
   private MonitorService monitorServer;
 
+  private final Object startupLock;
+  /* Channels of the current configuration that have not settled yet. */
+  private Set<Channel> pendingChannels;
+  /* Sinks and sources still waiting for some of their channels. */
+  private List<PendingComponent> pendingComponents;
+
   public static final String CONF_MONITOR_CLASS = "flume.monitoring.type";
   public static final String CONF_MONITOR_PREFIX = "flume.monitoring.";
 
@@ -60,104 +73,255 @@ public class DefaultLogicalNodeManager extends AbstractLogicalNodeManager
     nodeSupervisor = new LifecycleSupervisor();
     lifecycleState = LifecycleState.IDLE;
     nodeConfiguration = null;
+    startupLock = new Object();
+    pendingChannels = new HashSet<Channel>();
+    pendingComponents = new ArrayList<PendingComponent>();
   }
 
   @Override
   public void stopAllComponents() {
     if (this.nodeConfiguration != null) {
       logger.info("Shutting down configuration: {}", this.nodeConfiguration);
-      for (Entry<String, SourceRunner> entry : this.nodeConfiguration
-          .getSourceRunners().entrySet()) {
-        try{
-          logger.info("Stopping Source " + entry.getKey());
-          nodeSupervisor.unsupervise(entry.getValue());
-        } catch (Exception e){
-          logger.error("Error while stopping {}", entry.getValue(), e);
+      stopComponents(this.nodeConfiguration.getSourceRunners(),
+          this.nodeConfiguration.getSinkRunners(),
+          this.nodeConfiguration.getChannels());
+    }
+    if(monitorServer != null) {
+      monitorServer.stop();
+    }
+  }
+
+  /**
+   * Starts the components of a configuration. All channels are started
+   * concurrently by the supervisor. Each source is started as soon as the
+   * channels it writes to have started; sinks are started once every channel
+   * of the configuration has started.
+   */
+  @Override
+  public void startAllComponents(NodeConfiguration nodeConfiguration) {
+    logger.info("Starting new configuration:{}", nodeConfiguration);
+
+    this.nodeConfiguration = nodeConfiguration;
+
+    startComponents(nodeConfiguration.getChannels(),
+        nodeConfiguration.getSinkRunners(),
+        nodeConfiguration.getSourceRunners(),
+        nodeConfiguration.getChannels().values());
+
+    this.loadMonitoring();
+  }
+
+  /**
+   * Moves from the running configuration to the one provided. Components are
+   * compared by identity: those present in both configurations keep running,
+   * those only in the running configuration are stopped and those only in the
+   * new configuration are started.
+   */
+  @Override
+  public void reconfigure(NodeConfiguration nodeConfiguration) {
+    NodeConfiguration previous = this.nodeConfiguration;
+    if (previous == null) {
+      startAllComponents(nodeConfiguration);
+      return;
+    }
+
+    Map<String, SourceRunner> removedSources = difference(
+        previous.getSourceRunners(), nodeConfiguration.getSourceRunners());
+    Map<String, SinkRunner> removedSinks = difference(
+        previous.getSinkRunners(), nodeConfiguration.getSinkRunners());
+    Map<String, Channel> removedChannels = difference(
+        previous.getChannels(), nodeConfiguration.getChannels());
+    Map<String, SourceRunner> addedSources = difference(
+        nodeConfiguration.getSourceRunners(), previous.getSourceRunners());
+    Map<String, SinkRunner> addedSinks = difference(
+        nodeConfiguration.getSinkRunners(), previous.getSinkRunners());
+    Map<String, Channel> addedChannels = difference(
+        nodeConfiguration.getChannels(), previous.getChannels());
+
+    logger.info("Reconfiguring. Stopping sources:{} sinks:{} channels:{}."
+        + " Starting sources:{} sinks:{} channels:{}", new Object[] {
+        removedSources.keySet(), removedSinks.keySet(),
+        removedChannels.keySet(), addedSources.keySet(), addedSinks.keySet(),
+        addedChannels.keySet() });
+
+    this.nodeConfiguration = nodeConfiguration;
+
+    stopComponents(removedSources, removedSinks, removedChannels);
+    startComponents(addedChannels, addedSinks, addedSources,
+        nodeConfiguration.getChannels().values());
+  }
+
+  /**
+   * Returns the entries of {@code from} whose component is not also the
+   * component of the same name in {@code other}.
+   */
+  private static <T> Map<String, T> difference(Map<String, T> from,
+      Map<String, T> other) {
+    Map<String, T> result = new HashMap<String, T>();
+    for (Entry<String, T> entry : from.entrySet()) {
+      if (other.get(entry.getKey()) != entry.getValue()) {
+        result.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return result;
+  }
+
+  private void stopComponents(Map<String, SourceRunner> sourceRunners,
+      Map<String, SinkRunner> sinkRunners, Map<String, Channel> channels) {
+    synchronized (startupLock) {
+      Set<LifecycleAware> neverStarted = new HashSet<LifecycleAware>();
+      Iterator<PendingComponent> iterator = pendingComponents.iterator();
+      while (iterator.hasNext()) {
+        PendingComponent pending = iterator.next();
+        if (sourceRunners.containsValue(pending.component)
+            || sinkRunners.containsValue(pending.component)) {
+          neverStarted.add(pending.component);
+          iterator.remove();
         }
       }
+      pendingChannels.removeAll(channels.values());
 
-      for (Entry<String, SinkRunner> entry :
-        this.nodeConfiguration.getSinkRunners().entrySet()) {
+      for (Entry<String, SourceRunner> entry : sourceRunners.entrySet()) {
+        if (neverStarted.contains(entry.getValue())) {
+          continue;
+        }
         try{
-          logger.info("Stopping Sink " + entry.getKey());
+          logger.info("Stopping Source " + entry.getKey());
           nodeSupervisor.unsupervise(entry.getValue());
         } catch (Exception e){
           logger.error("Error while stopping {}", entry.getValue(), e);
         }
       }
 
-      for (Entry<String, Channel> entry :
-        this.nodeConfiguration.getChannels().entrySet()) {
+      for (Entry<String, SinkRunner> entry : sinkRunners.entrySet()) {
+        if (neverStarted.contains(entry.getValue())) {
+          continue;
+        }
         try{
-          logger.info("Stopping Channel " + entry.getKey());
+          logger.info("Stopping Sink " + entry.getKey());
           nodeSupervisor.unsupervise(entry.getValue());
         } catch (Exception e){
           logger.error("Error while stopping {}", entry.getValue(), e);
         }
       }
     }
-    if(monitorServer != null) {
-      monitorServer.stop();
+
+    for (Entry<String, Channel> entry : channels.entrySet()) {
+      try{
+        logger.info("Stopping Channel " + entry.getKey());
+        nodeSupervisor.unsupervise(entry.getValue());
+      } catch (Exception e){
+        logger.error("Error while stopping {}", entry.getValue(), e);
+      }
     }
   }
 
-  @Override
-  public void startAllComponents(NodeConfiguration nodeConfiguration) {
-    logger.info("Starting new configuration:{}", nodeConfiguration);
+  /**
+   * Starts the given channels, and the given sink and source runners once
+   * the channels they depend on have started.
+   *
+   * @param allChannels every channel of the configuration; sinks wait for
+   * those of them that are still starting
+   */
+  private void startComponents(Map<String, Channel> channels,
+      Map<String, SinkRunner> sinkRunners,
+      Map<String, SourceRunner> sourceRunners,
+      Collection<Channel> allChannels) {
+    synchronized (startupLock) {
+      pendingChannels.addAll(channels.values());
+
+      for (Entry<String, SinkRunner> entry : sinkRunners.entrySet()) {
+        startWhenReady("Sink " + entry.getKey(), entry.getValue(),
+            allChannels);
+      }
 
-    this.nodeConfiguration = nodeConfiguration;
+      for (Entry<String, SourceRunner> entry : sourceRunners.entrySet()) {
+        startWhenReady("Source " + entry.getKey(), entry.getValue(),
+            getChannels(entry.getValue()));
+      }
+    }
+
+    LifecycleSupervisor.SettledListener channelListener =
+        new LifecycleSupervisor.SettledListener() {
+          @Override
+          public void onSettled(LifecycleAware lifecycleAware,
+              LifecycleState state) {
+            channelSettled((Channel) lifecycleAware, state);
+          }
+        };
 
-    for (Entry<String, Channel> entry :
-      nodeConfiguration.getChannels().entrySet()) {
+    for (Entry<String, Channel> entry : channels.entrySet()) {
       try{
         logger.info("Starting Channel " + entry.getKey());
         nodeSupervisor.supervise(entry.getValue(),
-            new SupervisorPolicy.AlwaysRestartPolicy(), LifecycleState.START);
+            new SupervisorPolicy.AlwaysRestartPolicy(), LifecycleState.START,
+            channelListener);
       } catch (Exception e){
         logger.error("Error while starting {}", entry.getValue(), e);
+        channelSettled(entry.getValue(), LifecycleState.ERROR);
       }
     }
+  }
 
-    /*
-     * Wait for all channels to start.
-     */
-    for(Channel ch: nodeConfiguration.getChannels().values()){
-      while(ch.getLifecycleState() != LifecycleState.START
-          && !nodeSupervisor.isComponentInErrorState(ch)){
-        try {
-          logger.info("Waiting for channel: " + ch.getName() +
-              " to start. Sleeping for 500 ms");
-          Thread.sleep(500);
-        } catch (InterruptedException e) {
-          logger.error("Interrupted while waiting for channel to start.", e);
-          Throwables.propagate(e);
-        }
-      }
+  /**
+   * Supervises a sink or source runner right away if none of the given
+   * channels are still starting, otherwise defers it until they are. Must be
+   * called with {@link #startupLock} held.
+   */
+  private void startWhenReady(String name, LifecycleAware component,
+      Collection<Channel> channels) {
+    Set<Channel> waitingFor = new HashSet<Channel>(channels);
+    waitingFor.retainAll(pendingChannels);
+
+    if (waitingFor.isEmpty()) {
+      startComponent(name, component);
+    } else {
+      logger.info("{} will start once channels {} have started", name,
+          waitingFor);
+      pendingComponents.add(new PendingComponent(name, component, waitingFor));
     }
+  }
 
-    for (Entry<String, SinkRunner> entry : nodeConfiguration.getSinkRunners()
-        .entrySet()) {
-      try{
-        logger.info("Starting Sink " + entry.getKey());
-        nodeSupervisor.supervise(entry.getValue(),
+  private void startComponent(String name, LifecycleAware component) {
+    try{
+      logger.info("Starting " + name);
+      nodeSupervisor.supervise(component,
           new SupervisorPolicy.AlwaysRestartPolicy(), LifecycleState.START);
-      } catch (Exception e) {
-        logger.error("Error while starting {}", entry.getValue(), e);
-      }
+    } catch (Exception e) {
+      logger.error("Error while starting {}", component, e);
     }
+  }
 
-    for (Entry<String, SourceRunner> entry : nodeConfiguration
-        .getSourceRunners().entrySet()) {
-      try{
-        logger.info("Starting Source " + entry.getKey());
-        nodeSupervisor.supervise(entry.getValue(),
-          new SupervisorPolicy.AlwaysRestartPolicy(), LifecycleState.START);
-      } catch (Exception e) {
-        logger.error("Error while starting {}", entry.getValue(), e);
+  private void channelSettled(Channel channel, LifecycleState state) {
+    synchronized (startupLock) {
+      if (!pendingChannels.remove(channel)) {
+        // Stale notification from a configuration that has been stopped.
+        return;
+      }
+
+      if (!LifecycleState.START.equals(state)) {
+        logger.warn("Channel {} did not start (state:{}), starting its"
+            + " dependent components anyway", channel.getName(), state);
+      }
+
+      Iterator<PendingComponent> iterator = pendingComponents.iterator();
+      while (iterator.hasNext()) {
+        PendingComponent pending = iterator.next();
+        pending.channels.remove(channel);
+        if (pending.channels.isEmpty()) {
+          iterator.remove();
+          startComponent(pending.name, pending.component);
+        }
       }
     }
+  }
 
-    this.loadMonitoring();
+  private static Collection<Channel> getChannels(SourceRunner sourceRunner) {
+    Source source = sourceRunner.getSource();
+    if (source == null || source.getChannelProcessor() == null) {
+      return new ArrayList<Channel>();
+    }
+    return source.getChannelProcessor().getSelector().getAllChannels();
   }
 
   @Override
@@ -260,4 +424,19 @@ public class DefaultLogicalNodeManager extends AbstractLogicalNodeManager
     }
 
   }
+
+  private static class PendingComponent {
+
+    private final String name;
+    private final LifecycleAware component;
+    private final Set<Channel> channels;
+
+    private PendingComponent(String name, LifecycleAware component,
+        Set<Channel> channels) {
+      this.name = name;
+      this.component = component;
+      this.channels = channels;
+    }
+
+  }
 }
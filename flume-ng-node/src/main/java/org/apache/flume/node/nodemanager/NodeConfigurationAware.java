@@ -34,4 +34,12 @@ public interface NodeConfigurationAware {
    */
   public void startAllComponents(NodeConfiguration nodeConfiguration);
 
+  /**
+   * Replace the running configuration with the one provided. Components that
+   * appear in both configurations keep running; only components that were
+   * removed or added are stopped or started.
+   * @param nodeConfiguration
+   */
+  public void reconfigure(NodeConfiguration nodeConfiguration);
+
 }
@@ -18,12 +18,24 @@
 package org.apache.flume.conf.properties;
 
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
 
+import org.apache.flume.Channel;
+import org.apache.flume.FlumeException;
+import org.apache.flume.SourceRunner;
 import org.apache.flume.channel.DefaultChannelFactory;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.conf.source.SourceConfiguration;
 import org.apache.flume.node.NodeConfiguration;
 import org.apache.flume.node.nodemanager.NodeConfigurationAware;
 import org.apache.flume.sink.DefaultSinkFactory;
 import org.apache.flume.source.DefaultSourceFactory;
+import org.apache.flume.source.FlakeySequenceGeneratorSource;
+import org.apache.flume.source.PollableSourceRunner;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -66,9 +78,167 @@ public class TestPropertiesFileConfigurationProvider {
     provider.load();
   }
 
+  @Test
+  public void testReloadKeepsUnchangedComponents() throws Exception {
+    File confFile = new File("target/test/reload-conf.properties");
+    writeTwoFlowConfiguration(confFile, 100);
+
+    PropertiesFileConfigurationProvider provider =
+        new PropertiesFileConfigurationProvider();
+    DummyNodeConfigurationAware configurationAware =
+        new DummyNodeConfigurationAware();
+
+    provider.setNodeName("host3");
+    provider.setConfigurationAware(configurationAware);
+    provider.setChannelFactory(new DefaultChannelFactory());
+    provider.setSourceFactory(new DefaultSourceFactory());
+    provider.setSinkFactory(new DefaultSinkFactory());
+    provider.setFile(confFile);
+
+    provider.load();
+    NodeConfiguration first = configurationAware.configuration;
+
+    writeTwoFlowConfiguration(confFile, 200);
+    provider.load();
+    NodeConfiguration second = configurationAware.configuration;
+
+    Assert.assertSame(first.getChannels().get("ch1"),
+        second.getChannels().get("ch1"));
+    Assert.assertSame(first.getSourceRunners().get("src1"),
+        second.getSourceRunners().get("src1"));
+    Assert.assertSame(first.getSinkRunners().get("sink1"),
+        second.getSinkRunners().get("sink1"));
+
+    Assert.assertNotSame(first.getChannels().get("ch2"),
+        second.getChannels().get("ch2"));
+    Assert.assertNotSame(first.getSourceRunners().get("src2"),
+        second.getSourceRunners().get("src2"));
+    Assert.assertNotSame(first.getSinkRunners().get("sink2"),
+        second.getSinkRunners().get("sink2"));
+  }
+
+  @Test
+  public void testFailedReloadDiscardsCreatedComponents() throws Exception {
+    File confFile = new File("target/test/reload-conf.properties");
+    writeTwoFlowConfiguration(confFile, 100);
+
+    PropertiesFileConfigurationProvider provider =
+        new PropertiesFileConfigurationProvider();
+    DummyNodeConfigurationAware configurationAware =
+        new DummyNodeConfigurationAware();
+    DefaultChannelFactory channelFactory = new DefaultChannelFactory();
+
+    provider.setNodeName("host3");
+    provider.setConfigurationAware(configurationAware);
+    provider.setChannelFactory(channelFactory);
+    provider.setSourceFactory(new DefaultSourceFactory());
+    provider.setSinkFactory(new DefaultSinkFactory());
+    provider.setFile(confFile);
+
+    provider.load();
+    NodeConfiguration first = configurationAware.configuration;
+
+    // ch2 is replaced, then the load fails on a source that cannot be created
+    writeTwoFlowConfiguration(confFile, 200);
+    Writer writer = new FileWriter(confFile, true);
+    try {
+      writer.write("host3.sources.src2.type = org.apache.flume.NoSuchSource\n");
+    } finally {
+      writer.close();
+    }
+    try {
+      provider.load();
+    } catch (FlumeException e) {
+      // expected
+    }
+    Assert.assertSame(first, configurationAware.configuration);
+
+    Map<String, Channel> registered =
+        channelFactory.getRegistryClone().get(MemoryChannel.class);
+    Assert.assertSame(first.getChannels().get("ch1"), registered.get("ch1"));
+    Assert.assertNull("Channel of the failed load was left registered",
+        registered.get("ch2"));
+
+    writeTwoFlowConfiguration(confFile, 200);
+    provider.load();
+    NodeConfiguration second = configurationAware.configuration;
+
+    Assert.assertSame(first.getChannels().get("ch1"),
+        second.getChannels().get("ch1"));
+    Assert.assertNotSame(first.getChannels().get("ch2"),
+        second.getChannels().get("ch2"));
+    Assert.assertSame(second.getChannels().get("ch2"),
+        channelFactory.getRegistryClone().get(MemoryChannel.class).get("ch2"));
+  }
+
+  @Test
+  public void testSourceRunnerConfigured() throws Exception {
+    File confFile = new File("target/test/runner-conf.properties");
+    Writer writer = new FileWriter(confFile);
+    try {
+      writer.write("host4.sources = src1\n");
+      writer.write("host4.channels = ch1\n");
+      writer.write("host4.sinks = sink1\n");
+      // A configuration class makes the source use typed configuration
+      writer.write("host4.sources.src1.type = "
+          + FlakeySequenceGeneratorSource.class.getName() + "\n");
+      writer.write("host4.sources.src1.config = "
+          + SourceConfiguration.class.getName() + "\n");
+      writer.write("host4.sources.src1.channels = ch1\n");
+      writer.write("host4.sources.src1.runner.threads = 3\n");
+      writer.write("host4.channels.ch1.type = memory\n");
+      writer.write("host4.sinks.sink1.type = null\n");
+      writer.write("host4.sinks.sink1.channel = ch1\n");
+    } finally {
+      writer.close();
+    }
+
+    PropertiesFileConfigurationProvider provider =
+        new PropertiesFileConfigurationProvider();
+    DummyNodeConfigurationAware configurationAware =
+        new DummyNodeConfigurationAware();
+
+    provider.setNodeName("host4");
+    provider.setConfigurationAware(configurationAware);
+    provider.setChannelFactory(new DefaultChannelFactory());
+    provider.setSourceFactory(new DefaultSourceFactory());
+    provider.setSinkFactory(new DefaultSinkFactory());
+    provider.setFile(confFile);
+    provider.load();
+
+    Assert.assertEquals(1,
+        configurationAware.configuration.getSourceRunners().size());
+    SourceRunner runner = configurationAware.configuration.getSourceRunners()
+        .values().iterator().next();
+    Assert.assertTrue(runner instanceof PollableSourceRunner);
+    Assert.assertEquals(3, ((PollableSourceRunner) runner).getThreads());
+  }
+
+  private static void writeTwoFlowConfiguration(File file, int ch2Capacity)
+      throws IOException {
+    Writer writer = new FileWriter(file);
+    try {
+      writer.write("host3.sources = src1 src2\n");
+      writer.write("host3.channels = ch1 ch2\n");
+      writer.write("host3.sinks = sink1 sink2\n");
+      for (int i = 1; i <= 2; i++) {
+        writer.write("host3.sources.src" + i + ".type = seq\n");
+        writer.write("host3.sources.src" + i + ".channels = ch" + i + "\n");
+        writer.write("host3.channels.ch" + i + ".type = memory\n");
+        writer.write("host3.sinks.sink" + i + ".type = null\n");
+        writer.write("host3.sinks.sink" + i + ".channel = ch" + i + "\n");
+      }
+      writer.write("host3.channels.ch2.capacity = " + ch2Capacity + "\n");
+    } finally {
+      writer.close();
+    }
+  }
+
   private static class DummyNodeConfigurationAware implements
     NodeConfigurationAware {
 
+    private NodeConfiguration configuration;
+
     @Override
     public void stopAllComponents(){
 
@@ -77,6 +247,10 @@ public class TestPropertiesFileConfigurationProvider {
     public void startAllComponents(NodeConfiguration config) {
        // no handling necessary
     }
+    @Override
+    public void reconfigure(NodeConfiguration config) {
+       configuration = config;
+    }
   }
 
 }
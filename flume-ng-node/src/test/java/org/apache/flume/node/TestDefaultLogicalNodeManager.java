@@ -23,12 +23,19 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.flume.Channel;
 import org.apache.flume.ChannelSelector;
+import org.apache.flume.Context;
+import org.apache.flume.SourceRunner;
 import org.apache.flume.channel.ChannelProcessor;
 import org.apache.flume.channel.MemoryChannel;
 import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.conf.file.SimpleNodeConfiguration;
 import org.apache.flume.lifecycle.LifecycleAware;
 import org.apache.flume.lifecycle.LifecycleController;
 import org.apache.flume.lifecycle.LifecycleException;
@@ -169,4 +176,170 @@ public class TestDefaultLogicalNodeManager {
             LifecycleState.STOP_OR_ERROR, 5000));
   }
 
+  @Test
+  public void testSourceStartsWithItsOwnChannels() throws Exception {
+    final CountDownLatch slowChannelRelease = new CountDownLatch(1);
+
+    Channel fastChannel = new MemoryChannel();
+    fastChannel.setName("fast");
+    Configurables.configure(fastChannel, new Context());
+
+    Channel slowChannel = new MemoryChannel() {
+      @Override
+      public synchronized void start() {
+        try {
+          slowChannelRelease.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.start();
+      }
+    };
+    slowChannel.setName("slow");
+    Configurables.configure(slowChannel, new Context());
+
+    LatchedSourceRunner fastRunner = new LatchedSourceRunner(fastChannel);
+    LatchedSourceRunner slowRunner = new LatchedSourceRunner(slowChannel);
+
+    SimpleNodeConfiguration conf = new SimpleNodeConfiguration();
+    conf.getChannels().put("fast", fastChannel);
+    conf.getChannels().put("slow", slowChannel);
+    conf.getSourceRunners().put("fastSource", fastRunner);
+    conf.getSourceRunners().put("slowSource", slowRunner);
+
+    DefaultLogicalNodeManager manager = (DefaultLogicalNodeManager) nodeManager;
+    manager.start();
+    manager.startAllComponents(conf);
+
+    Assert.assertTrue("Source on started channel was not started",
+        fastRunner.started.await(5, TimeUnit.SECONDS));
+    Assert.assertEquals(1, slowRunner.started.getCount());
+
+    slowChannelRelease.countDown();
+    Assert.assertTrue("Source on slow channel was not started",
+        slowRunner.started.await(10, TimeUnit.SECONDS));
+
+    manager.stop();
+    Assert.assertTrue("Node manager didn't reach STOP or ERROR",
+        LifecycleController.waitForOneOf(nodeManager,
+            LifecycleState.STOP_OR_ERROR, 5000));
+  }
+
+  @Test
+  public void testReconfigureRestartsOnlyChangedComponents()
+      throws Exception {
+    CountingChannel keptChannel = new CountingChannel("kept");
+    CountingChannel oldChannel = new CountingChannel("changed");
+    LatchedSourceRunner keptRunner = new LatchedSourceRunner(keptChannel);
+    LatchedSourceRunner oldRunner = new LatchedSourceRunner(oldChannel);
+
+    SimpleNodeConfiguration first = new SimpleNodeConfiguration();
+    first.getChannels().put("kept", keptChannel);
+    first.getChannels().put("changed", oldChannel);
+    first.getSourceRunners().put("keptSource", keptRunner);
+    first.getSourceRunners().put("changedSource", oldRunner);
+
+    DefaultLogicalNodeManager manager = (DefaultLogicalNodeManager) nodeManager;
+    manager.start();
+    manager.startAllComponents(first);
+
+    Assert.assertTrue(keptRunner.started.await(5, TimeUnit.SECONDS));
+    Assert.assertTrue(oldRunner.started.await(5, TimeUnit.SECONDS));
+
+    CountingChannel newChannel = new CountingChannel("changed");
+    LatchedSourceRunner newRunner = new LatchedSourceRunner(newChannel);
+
+    SimpleNodeConfiguration second = new SimpleNodeConfiguration();
+    second.getChannels().put("kept", keptChannel);
+    second.getChannels().put("changed", newChannel);
+    second.getSourceRunners().put("keptSource", keptRunner);
+    second.getSourceRunners().put("changedSource", newRunner);
+
+    manager.reconfigure(second);
+
+    // Replaced components are stopped before reconfigure returns.
+    Assert.assertEquals(1, oldRunner.stops.get());
+    Assert.assertEquals(1, oldChannel.stops.get());
+    Assert.assertTrue("Replacement source was not started",
+        newRunner.started.await(5, TimeUnit.SECONDS));
+    Assert.assertTrue("Replacement channel was not started",
+        newChannel.started.await(5, TimeUnit.SECONDS));
+
+    Assert.assertEquals(1, keptChannel.starts.get());
+    Assert.assertEquals(0, keptChannel.stops.get());
+    Assert.assertEquals(1, keptRunner.starts.get());
+    Assert.assertEquals(0, keptRunner.stops.get());
+    Assert.assertEquals(LifecycleState.START,
+        keptRunner.getLifecycleState());
+
+    manager.stop();
+    Assert.assertEquals(1, keptRunner.stops.get());
+    Assert.assertEquals(1, keptChannel.stops.get());
+    Assert.assertEquals(1, newRunner.stops.get());
+    Assert.assertEquals(1, newChannel.stops.get());
+  }
+
+  private static class CountingChannel extends MemoryChannel {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final AtomicInteger starts = new AtomicInteger();
+    private final AtomicInteger stops = new AtomicInteger();
+
+    CountingChannel(String name) {
+      setName(name);
+      Configurables.configure(this, new Context());
+    }
+
+    @Override
+    public synchronized void start() {
+      super.start();
+      starts.incrementAndGet();
+      started.countDown();
+    }
+
+    @Override
+    public synchronized void stop() {
+      stops.incrementAndGet();
+      super.stop();
+    }
+
+  }
+
+  private static class LatchedSourceRunner extends SourceRunner {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final AtomicInteger starts = new AtomicInteger();
+    private final AtomicInteger stops = new AtomicInteger();
+    private LifecycleState lifecycleState = LifecycleState.IDLE;
+
+    LatchedSourceRunner(Channel channel) {
+      SequenceGeneratorSource source = new SequenceGeneratorSource();
+      List<Channel> channels = new ArrayList<Channel>();
+      channels.add(channel);
+      ChannelSelector rcs = new ReplicatingChannelSelector();
+      rcs.setChannels(channels);
+      source.setChannelProcessor(new ChannelProcessor(rcs));
+      setSource(source);
+    }
+
+    @Override
+    public void start() {
+      lifecycleState = LifecycleState.START;
+      starts.incrementAndGet();
+      started.countDown();
+    }
+
+    @Override
+    public void stop() {
+      lifecycleState = LifecycleState.STOP;
+      stops.incrementAndGet();
+    }
+
+    @Override
+    public LifecycleState getLifecycleState() {
+      return lifecycleState;
+    }
+
+  }
+
 }
@@ -20,12 +20,15 @@ package org.apache.flume.api;
 
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
 import org.apache.flume.FlumeException;
 
-public abstract class AbstractRpcClient implements RpcClient {
+public abstract class AbstractRpcClient implements AsyncRpcClient {
 
   protected int batchSize =
       RpcClientConfigurationConstants.DEFAULT_BATCH_SIZE;
@@ -33,11 +36,36 @@ public abstract class AbstractRpcClient implements RpcClient {
       RpcClientConfigurationConstants.DEFAULT_CONNECT_TIMEOUT_MILLIS;
   protected long requestTimeout =
       RpcClientConfigurationConstants.DEFAULT_REQUEST_TIMEOUT_MILLIS;
+  protected int maxInFlightBatches =
+      RpcClientConfigurationConstants.DEFAULT_MAX_IN_FLIGHT_BATCHES;
 
   @Override
   public int getBatchSize(){
     return batchSize;
   }
+
+  @Override
+  public int getMaxInFlightBatches() {
+    return maxInFlightBatches;
+  }
+
+  /**
+   * Sends the batch with {@link #appendBatch(List)} before returning, for
+   * clients that cannot pipeline requests.
+   */
+  @Override
+  public Future<Void> appendBatchAsync(final List<Event> events)
+      throws EventDeliveryException {
+    FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        appendBatch(events);
+        return null;
+      }
+    });
+    task.run();
+    return task;
+  }
   @Override
   public abstract void append(Event event) throws EventDeliveryException;
 
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
+
+/**
+ * <p>An {@link RpcClient} that can have several batches of events in flight
+ * at the same time.</p>
+ *
+ * <p>All clients created by {@link RpcClientFactory} implement this
+ * interface. Clients that cannot pipeline requests send the batch before
+ * returning from {@link #appendBatchAsync(List)}, and report a single batch
+ * in flight from {@link #getMaxInFlightBatches()}.</p>
+ */
+public interface AsyncRpcClient extends RpcClient {
+
+  /**
+   * Returns the maximum number of batches this client sends before waiting
+   * for the oldest one to be acknowledged.
+   */
+  public int getMaxInFlightBatches();
+
+  /**
+   * <p>Send a list of {@linkplain Event events} to the associated Flume
+   * source without waiting for it to be acknowledged.</p>
+   *
+   * <p>This method blocks only while the maximum number of batches is
+   * already in flight. Batches sent from one thread are delivered in the
+   * order they were sent. The returned future completes when every event of
+   * the list has been acknowledged, and its {@code get()} methods throw an
+   * {@link java.util.concurrent.ExecutionException} caused by an
+   * {@link EventDeliveryException} if delivery failed.</p>
+   *
+   * <p><strong>Note:</strong> As with {@link #appendBatch(List)}, once this
+   * method throws or a returned future fails, the application must invoke
+   * {@link #close()} on this object to clean up system resources.</p>
+   *
+   * @param events List of events to send
+   * @return a future that completes once the events are acknowledged
+   * @throws EventDeliveryException when an error prevents sending the events
+   */
+  public Future<Void> appendBatchAsync(List<Event> events)
+      throws EventDeliveryException;
+
+}
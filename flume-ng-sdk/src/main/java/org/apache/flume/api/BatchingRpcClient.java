@@ -0,0 +1,523 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.FlumeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>An implementation of RpcClient interface that buffers events appended
+ * one at a time and sends them to another RpcClient with
+ * {@link RpcClient#appendBatch(List)}. A batch is sent as soon as
+ * <tt>batch-size</tt> events are buffered, or once the first buffered event
+ * has waited for <tt>linger-time</tt> milliseconds.</p>
+ *
+ * <p>The client that sends the batches is created with the same properties,
+ * its type being given by <tt>batching.client.type</tt>. Batches are sent
+ * one at a time from a background thread, in the order the events were
+ * appended. If that client fails, it is replaced before the next batch.</p>
+ *
+ * <p>{@link #append(Event)} waits until the batch containing the event has
+ * been acknowledged. Applications that do not want to wait use
+ * {@link #appendAsync(Event)} or
+ * {@link #appendAsync(Event, DeliveryCallback)}. At most twice the batch size
+ * of events are buffered; appending to a full buffer waits for room for at
+ * most the request timeout.</p>
+ */
+public class BatchingRpcClient extends AbstractRpcClient {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(BatchingRpcClient.class);
+
+  private RpcClient delegate;
+  private Properties delegateProperties;
+  private long lingerTime;
+  private int maxPending;
+  private ScheduledExecutorService flusher;
+  private volatile boolean closed;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+
+  /**
+   * Events not yet sent, in append order. Guarded by {@code lock}.
+   */
+  private final List<PendingEvent> pending = new ArrayList<PendingEvent>();
+
+  /**
+   * The flush due when the oldest buffered event has waited for the linger
+   * time. Guarded by {@code lock}.
+   */
+  private ScheduledFuture<?> lingerFlush;
+
+  @Override
+  public void append(Event event) throws EventDeliveryException {
+    waitFor(enqueue(event, null));
+  }
+
+  @Override
+  public void appendBatch(List<Event> events) throws EventDeliveryException {
+    List<PendingEvent> appended = new ArrayList<PendingEvent>(events.size());
+    for (Event event : events) {
+      appended.add(enqueue(event, null));
+    }
+    for (PendingEvent pendingEvent : appended) {
+      waitFor(pendingEvent);
+    }
+  }
+
+  /**
+   * Buffers an event without waiting for it to be sent.
+   *
+   * @param event the event to send
+   * @return a future that completes when the batch containing the event has
+   * been acknowledged. Its {@code get()} methods throw an
+   * {@link ExecutionException} caused by an {@link EventDeliveryException}
+   * if the batch could not be delivered.
+   * @throws EventDeliveryException if the client is closed, or the buffer
+   * stayed full for the request timeout
+   */
+  public Future<Void> appendAsync(Event event) throws EventDeliveryException {
+    return enqueue(event, null);
+  }
+
+  /**
+   * Buffers an event without waiting for it to be sent. The callback is
+   * invoked from the background thread once the batch containing the event
+   * has been acknowledged or has failed, and must not block.
+   *
+   * @param event the event to send
+   * @param callback notified of the outcome
+   * @throws EventDeliveryException if the client is closed, or the buffer
+   * stayed full for the request timeout
+   */
+  public void appendAsync(Event event, DeliveryCallback callback)
+      throws EventDeliveryException {
+    enqueue(event, callback);
+  }
+
+  @Override
+  public boolean isActive() {
+    // The client sending the batches is replaced internally.
+    return !closed;
+  }
+
+  /**
+   * Sends the buffered events, then closes the underlying client. Events
+   * that could not be sent before the request timeout are failed.
+   */
+  @Override
+  public void close() throws FlumeException {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    flusher.execute(new Runnable() {
+      @Override
+      public void run() {
+        while (hasPending() && !Thread.currentThread().isInterrupted()) {
+          flush();
+        }
+      }
+    });
+    flusher.shutdown();
+    try {
+      if (!flusher.awaitTermination(requestTimeout, TimeUnit.MILLISECONDS)) {
+        logger.warn("{}: Timed out sending buffered events on close", this);
+        flusher.shutdownNow();
+      }
+    } catch (InterruptedException ex) {
+      logger.warn(this + ": Interrupted during close", ex);
+      flusher.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+
+    List<PendingEvent> unsent;
+    lock.lock();
+    try {
+      unsent = new ArrayList<PendingEvent>(pending);
+      pending.clear();
+    } finally {
+      lock.unlock();
+    }
+    EventDeliveryException failure =
+        new EventDeliveryException(this + ": Client closed");
+    for (PendingEvent pendingEvent : unsent) {
+      pendingEvent.complete(failure);
+    }
+
+    if (delegate != null) {
+      delegate.close();
+    }
+  }
+
+  @Override
+  protected void configure(Properties properties) throws FlumeException {
+    String delegateType = properties.getProperty(
+        RpcClientConfigurationConstants.CONFIG_BATCHING_CLIENT_TYPE,
+        RpcClientConfigurationConstants.DEFAULT_CLIENT_TYPE);
+    if (delegateType.equalsIgnoreCase(
+        RpcClientFactory.ClientType.DEFAULT_BATCHING.name())) {
+      throw new FlumeException("A batching client cannot send its batches " +
+          "through another batching client");
+    }
+    delegateProperties = new Properties();
+    delegateProperties.putAll(properties);
+    delegateProperties.put(RpcClientConfigurationConstants.CONFIG_CLIENT_TYPE,
+        delegateType);
+
+    lingerTime = RpcClientConfigurationConstants.DEFAULT_LINGER_TIME_MILLIS;
+    String strLingerTime = properties.getProperty(
+        RpcClientConfigurationConstants.CONFIG_LINGER_TIME);
+    if (strLingerTime != null && strLingerTime.trim().length() > 0) {
+      try {
+        lingerTime = Long.parseLong(strLingerTime.trim());
+        if (lingerTime < 0) {
+          logger.warn("Linger time specified less than 0. " +
+              "Using default value instead.");
+          lingerTime =
+              RpcClientConfigurationConstants.DEFAULT_LINGER_TIME_MILLIS;
+        }
+      } catch (NumberFormatException ex) {
+        logger.error("Invalid linger time specified: " + strLingerTime);
+      }
+    }
+
+    // The underlying client parses the batch size and timeouts.
+    delegate = RpcClientFactory.getInstance(delegateProperties);
+    batchSize = delegate.getBatchSize();
+    if (delegate instanceof AbstractRpcClient) {
+      connectTimeout = ((AbstractRpcClient) delegate).connectTimeout;
+      requestTimeout = ((AbstractRpcClient) delegate).requestTimeout;
+    }
+    maxPending = 2 * batchSize;
+
+    flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r);
+        thread.setDaemon(true);
+        thread.setName("Batching RPC Client Flusher");
+        return thread;
+      }
+    });
+  }
+
+  private PendingEvent enqueue(Event event, DeliveryCallback callback)
+      throws EventDeliveryException {
+    PendingEvent pendingEvent = new PendingEvent(event, callback);
+
+    lock.lock();
+    try {
+      long remaining = TimeUnit.MILLISECONDS.toNanos(requestTimeout);
+      while (!closed && pending.size() >= maxPending) {
+        if (remaining <= 0) {
+          throw new EventDeliveryException(this + ": Timed out after " +
+              requestTimeout + "ms waiting for buffer space");
+        }
+        try {
+          remaining = notFull.awaitNanos(remaining);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new EventDeliveryException(this + ": Interrupted waiting " +
+              "for buffer space", ex);
+        }
+      }
+      if (closed) {
+        throw new EventDeliveryException(this + ": Client closed");
+      }
+
+      pending.add(pendingEvent);
+      if (pending.size() == batchSize) {
+        submitFlush(0);
+      } else if (pending.size() == 1) {
+        scheduleLingerFlush();
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    return pendingEvent;
+  }
+
+  /**
+   * Schedules a flush. Guarded by {@code lock}.
+   *
+   * @return the scheduled flush, or null if the client is closing
+   */
+  private ScheduledFuture<?> submitFlush(long delayNanos) {
+    try {
+      return flusher.schedule(new Runnable() {
+        @Override
+        public void run() {
+          flush();
+        }
+      }, delayNanos, TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException ex) {
+      // Closed; the remaining events are failed by close().
+      return null;
+    }
+  }
+
+  /**
+   * Replaces the linger flush by one due when the oldest buffered event has
+   * waited for the linger time. Guarded by {@code lock}.
+   */
+  private void scheduleLingerFlush() {
+    cancelLingerFlush();
+    long age = System.nanoTime() - pending.get(0).appendTime;
+    lingerFlush = submitFlush(Math.max(0L,
+        TimeUnit.MILLISECONDS.toNanos(lingerTime) - age));
+  }
+
+  /**
+   * Guarded by {@code lock}.
+   */
+  private void cancelLingerFlush() {
+    if (lingerFlush != null) {
+      lingerFlush.cancel(false);
+      lingerFlush = null;
+    }
+  }
+
+  /**
+   * Sends up to one batch of buffered events, if a full batch is buffered,
+   * the oldest event has waited for the linger time or the client is
+   * closing. Only called from the flusher thread, so batches are sent in
+   * order and one at a time.
+   */
+  private void flush() {
+    List<PendingEvent> batch;
+
+    lock.lock();
+    try {
+      if (pending.isEmpty()) {
+        return;
+      }
+      if (pending.size() < batchSize && !closed
+          && System.nanoTime() - pending.get(0).appendTime
+          < TimeUnit.MILLISECONDS.toNanos(lingerTime)) {
+        // Left over from an earlier batch; wait for this one's linger time.
+        scheduleLingerFlush();
+        return;
+      }
+      List<PendingEvent> head =
+          pending.subList(0, Math.min(batchSize, pending.size()));
+      batch = new ArrayList<PendingEvent>(head);
+      head.clear();
+      notFull.signalAll();
+
+      if (pending.size() >= batchSize) {
+        submitFlush(0);
+      } else if (!pending.isEmpty()) {
+        scheduleLingerFlush();
+      } else {
+        cancelLingerFlush();
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    List<Event> events = new ArrayList<Event>(batch.size());
+    for (PendingEvent pendingEvent : batch) {
+      events.add(pendingEvent.event);
+    }
+
+    EventDeliveryException failure = null;
+    try {
+      getDelegate().appendBatch(events);
+    } catch (EventDeliveryException ex) {
+      failure = ex;
+    } catch (FlumeException ex) {
+      failure = new EventDeliveryException(this + ": Failed to send batch",
+          ex);
+    } catch (RuntimeException ex) {
+      failure = new EventDeliveryException(this + ": Failed to send batch",
+          ex);
+    }
+
+    if (failure != null) {
+      logger.warn(this + ": Failed to send batch of " + events.size() +
+          " events", failure);
+    }
+    for (PendingEvent pendingEvent : batch) {
+      pendingEvent.complete(failure);
+    }
+  }
+
+  private boolean hasPending() {
+    lock.lock();
+    try {
+      return !pending.isEmpty();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the client that sends the batches, replacing it if it failed.
+   */
+  private RpcClient getDelegate() throws FlumeException {
+    if (delegate != null && !delegate.isActive()) {
+      try {
+        delegate.close();
+      } catch (FlumeException ex) {
+        logger.warn(this + ": Failed to close client " + delegate, ex);
+      }
+      delegate = null;
+    }
+    if (delegate == null) {
+      delegate = RpcClientFactory.getInstance(delegateProperties);
+    }
+    return delegate;
+  }
+
+  private void waitFor(PendingEvent pendingEvent)
+      throws EventDeliveryException {
+    try {
+      pendingEvent.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new EventDeliveryException(this + ": Interrupted waiting for " +
+          "batch", ex);
+    } catch (ExecutionException ex) {
+      throw (EventDeliveryException) ex.getCause();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BatchingRpcClient { delegate: " + delegate + ", batchSize: " +
+        batchSize + ", lingerTime: " + lingerTime + " }";
+  }
+
+  /**
+   * Notified once the batch containing an event appended with
+   * {@link BatchingRpcClient#appendAsync(Event, DeliveryCallback)} has been
+   * acknowledged or has failed.
+   */
+  public interface DeliveryCallback {
+
+    public void onSuccess();
+
+    public void onFailure(EventDeliveryException cause);
+
+  }
+
+  /**
+   * A buffered event and the future of its delivery.
+   */
+  private static class PendingEvent implements Future<Void> {
+
+    private final Event event;
+    private final DeliveryCallback callback;
+    private final long appendTime = System.nanoTime();
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private volatile EventDeliveryException failure;
+
+    private PendingEvent(Event event, DeliveryCallback callback) {
+      this.event = event;
+      this.callback = callback;
+    }
+
+    private void complete(EventDeliveryException cause) {
+      failure = cause;
+      completed.countDown();
+
+      if (callback != null) {
+        try {
+          if (cause == null) {
+            callback.onSuccess();
+          } else {
+            callback.onFailure(cause);
+          }
+        } catch (RuntimeException ex) {
+          logger.warn("Delivery callback threw an exception", ex);
+        }
+      }
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+      completed.await();
+      if (failure != null) {
+        throw new ExecutionException(failure);
+      }
+      return null;
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException,
+        ExecutionException, TimeoutException {
+      if (!completed.await(timeout, unit)) {
+        throw new TimeoutException("Batch not acknowledged within " +
+            unit.toMillis(timeout) + "ms");
+      }
+      if (failure != null) {
+        throw new ExecutionException(failure);
+      }
+      return null;
+    }
+
+    @Override
+    public boolean isDone() {
+      return completed.getCount() == 0;
+    }
+
+    /**
+     * A buffered event cannot be withdrawn.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+  }
+
+}
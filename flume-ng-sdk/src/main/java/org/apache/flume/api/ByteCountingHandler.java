@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.MessageEvent;
+
+/**
+ * A Netty handler that reports the size of every buffer passing through it.
+ * Placed at the socket end of a pipeline it sees the bytes on the wire, and
+ * placed behind a compression codec it sees the uncompressed bytes. A single
+ * instance can be shared by several pipelines.
+ */
+@Sharable
+public abstract class ByteCountingHandler implements ChannelUpstreamHandler,
+    ChannelDownstreamHandler {
+
+  @Override
+  public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent e)
+      throws Exception {
+    if (e instanceof MessageEvent) {
+      Object message = ((MessageEvent) e).getMessage();
+      if (message instanceof ChannelBuffer) {
+        bytesRead(((ChannelBuffer) message).readableBytes());
+      }
+    }
+    ctx.sendUpstream(e);
+  }
+
+  @Override
+  public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent e)
+      throws Exception {
+    if (e instanceof MessageEvent) {
+      Object message = ((MessageEvent) e).getMessage();
+      if (message instanceof ChannelBuffer) {
+        bytesWritten(((ChannelBuffer) message).readableBytes());
+      }
+    }
+    ctx.sendDownstream(e);
+  }
+
+  /**
+   * Called for every buffer received.
+   */
+  protected abstract void bytesRead(long count);
+
+  /**
+   * Called for every buffer written.
+   */
+  protected abstract void bytesWritten(long count);
+
+}
@@ -0,0 +1,466 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A directory of append-only segment files that holds events in the order
+ * they were written, used by {@link SpoolingRpcClient}.</p>
+ *
+ * <p>Events are appended to the newest segment through a buffered stream,
+ * and a new segment is started once the current one reaches the segment
+ * size. Data reaches the disk when {@link #sync()} is called. Segments are
+ * read oldest first, the newest one up to the last complete record written,
+ * and the position of the reader is kept in a checkpoint file so that events
+ * are not replayed again after a restart, except for the last batch read
+ * before a crash. A segment that was read completely is deleted, the newest
+ * one only once every event written to it was read.</p>
+ *
+ * <p>Each record is the length and CRC32 of the serialized event followed by
+ * the event itself, so a record torn by a crash is detected and ignored.
+ * Segments left over from a previous run are never appended to.</p>
+ */
+class EventSpool {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(EventSpool.class);
+
+  private static final String SEGMENT_PREFIX = "spool-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String CHECKPOINT = "spool.checkpoint";
+  private static final int RECORD_HEADER_BYTES = 12;
+
+  private final File directory;
+  private final long maxBytes;
+  private final long segmentBytes;
+
+  /**
+   * Ids of the segments on disk, oldest first. Guarded by {@code this}.
+   */
+  private final LinkedList<Long> segments = new LinkedList<Long>();
+  private long totalBytes;
+  private long nextSegmentId;
+
+  private long writeSegment = -1;
+  private FileOutputStream writeFile;
+  private DataOutputStream writer;
+  private long writeBytes;
+  private boolean dirty;
+
+  private long readSegment = -1;
+  private long readOffset;
+
+  /**
+   * Opens the spool, picking up the segments and checkpoint left in the
+   * directory by a previous run.
+   *
+   * @param directory where segments are stored, created if needed
+   * @param maxBytes the maximum size of all segments together
+   * @param segmentBytes the size after which a new segment is started
+   * @throws IOException if the directory cannot be used
+   */
+  EventSpool(File directory, long maxBytes, long segmentBytes)
+      throws IOException {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.segmentBytes = segmentBytes;
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create spool directory " + directory);
+    }
+
+    String[] names = directory.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith(SEGMENT_PREFIX)
+            && name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    List<Long> ids = new ArrayList<Long>();
+    for (String name : names) {
+      try {
+        ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+            name.length() - SEGMENT_SUFFIX.length())));
+      } catch (NumberFormatException e) {
+        logger.warn("Ignoring unexpected file {} in spool directory", name);
+      }
+    }
+    Collections.sort(ids);
+    for (Long id : ids) {
+      segments.add(id);
+      totalBytes += getSegmentFile(id).length();
+      nextSegmentId = id + 1;
+    }
+
+    loadCheckpoint();
+
+    if (!segments.isEmpty()) {
+      logger.info("Spool {} holds {} bytes in {} segments to replay",
+          new Object[] { directory, totalBytes, segments.size() });
+    }
+  }
+
+  /**
+   * Returns {@code true} if every event written has been read and
+   * committed.
+   */
+  synchronized boolean isEmpty() {
+    return segments.isEmpty();
+  }
+
+  /**
+   * Returns the size of all segments on disk.
+   */
+  synchronized long getSize() {
+    return totalBytes;
+  }
+
+  /**
+   * Appends events to the newest segment.
+   *
+   * @return {@code false} if the events would exceed the maximum size, in
+   * which case none of them is written
+   * @throws IOException if the segment could not be written
+   */
+  boolean write(List<Event> events) throws IOException {
+    List<byte[]> records = new ArrayList<byte[]>(events.size());
+    long size = 0;
+    for (Event event : events) {
+      byte[] record = encode(event);
+      records.add(record);
+      size += RECORD_HEADER_BYTES + record.length;
+    }
+
+    synchronized (this) {
+      if (totalBytes + size > maxBytes) {
+        return false;
+      }
+      if (writer == null || writeBytes >= segmentBytes) {
+        rollWriter();
+        openWriter();
+      }
+
+      CRC32 crc = new CRC32();
+      for (byte[] record : records) {
+        crc.reset();
+        crc.update(record);
+        writer.writeInt(record.length);
+        writer.writeLong(crc.getValue());
+        writer.write(record);
+      }
+      writeBytes += size;
+      totalBytes += size;
+      dirty = true;
+    }
+    return true;
+  }
+
+  /**
+   * Forces the events written so far to disk.
+   */
+  synchronized void sync() throws IOException {
+    if (writer != null && dirty) {
+      writer.flush();
+      writeFile.getFD().sync();
+      dirty = false;
+    }
+  }
+
+  /**
+   * Reads the next events after the last committed batch. Reading a batch
+   * twice without committing returns the same events.
+   *
+   * @param maxEvents the maximum number of events to return
+   * @return the events, or {@code null} if the spool is empty
+   * @throws IOException if a segment could not be read
+   */
+  Batch read(int maxEvents) throws IOException {
+    while (true) {
+      long segment;
+      long offset;
+      long limit;
+      synchronized (this) {
+        if (segments.isEmpty()) {
+          return null;
+        }
+        segment = segments.getFirst();
+        if (segment == writeSegment) {
+          // Read what was written so far without syncing or rolling, so
+          // replay attempts leave the sync interval and segment size alone.
+          writer.flush();
+          limit = writeBytes;
+        } else {
+          limit = -1;
+        }
+        if (segment != readSegment) {
+          readSegment = segment;
+          readOffset = 0;
+        }
+        offset = readOffset;
+      }
+
+      Batch batch = readSegment(segment, offset, maxEvents, limit);
+      if (!batch.events.isEmpty()) {
+        return batch;
+      }
+      commit(batch);
+    }
+  }
+
+  /**
+   * Marks the events of a batch as delivered.
+   */
+  synchronized void commit(Batch batch) throws IOException {
+    if (batch.segment != readSegment) {
+      return;
+    }
+    readOffset = batch.endOffset;
+    boolean endOfSegment = batch.endOfSegment;
+    if (batch.segment == writeSegment
+        && (endOfSegment || readOffset >= writeBytes)) {
+      // The newest segment was read up to its end, or up to a record it
+      // cannot get past. Close it so later events start a new segment.
+      rollWriter();
+      endOfSegment = segments.contains(batch.segment);
+    }
+    if (endOfSegment) {
+      File file = getSegmentFile(batch.segment);
+      totalBytes -= file.length();
+      if (!file.delete()) {
+        logger.warn("Unable to delete replayed spool segment {}", file);
+      }
+      segments.remove(batch.segment);
+      readSegment = -1;
+      readOffset = 0;
+    }
+    saveCheckpoint();
+  }
+
+  /**
+   * Forces written events to disk and closes the newest segment.
+   */
+  synchronized void close() throws IOException {
+    rollWriter();
+  }
+
+  /**
+   * Reads the records of a segment from an offset up to a limit, or up to
+   * the end of the file if the limit is negative. Only a corrupt record ends
+   * a segment that has a limit, since more may be written to it.
+   */
+  private Batch readSegment(long segment, long offset, int maxEvents,
+      long limit) throws IOException {
+    File file = getSegmentFile(segment);
+    long length = limit < 0 ? file.length() : limit;
+    List<Event> events = new ArrayList<Event>(maxEvents);
+    long position = offset;
+    boolean corrupt = false;
+
+    FileInputStream in = new FileInputStream(file);
+    try {
+      in.getChannel().position(offset);
+      DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+      CRC32 crc = new CRC32();
+      while (events.size() < maxEvents && position < length) {
+        try {
+          int recordLength = data.readInt();
+          long checksum = data.readLong();
+          if (recordLength < 0
+              || position + RECORD_HEADER_BYTES + recordLength > length) {
+            corrupt = true;
+            break;
+          }
+          byte[] record = new byte[recordLength];
+          data.readFully(record);
+          crc.reset();
+          crc.update(record);
+          if (crc.getValue() != checksum) {
+            corrupt = true;
+            break;
+          }
+          events.add(decode(record));
+          position += RECORD_HEADER_BYTES + recordLength;
+        } catch (EOFException e) {
+          corrupt = true;
+          break;
+        }
+      }
+    } finally {
+      in.close();
+    }
+
+    if (corrupt) {
+      logger.warn("Ignoring {} bytes of incomplete or corrupt records at " +
+          "the end of spool segment {}", length - position, file);
+    }
+    return new Batch(segment, position,
+        corrupt || (limit < 0 && position >= length), events);
+  }
+
+  private void openWriter() throws IOException {
+    writeSegment = nextSegmentId++;
+    writeFile = new FileOutputStream(getSegmentFile(writeSegment));
+    writer = new DataOutputStream(new BufferedOutputStream(writeFile));
+    writeBytes = 0;
+    segments.add(writeSegment);
+  }
+
+  private void rollWriter() throws IOException {
+    if (writer == null) {
+      return;
+    }
+    try {
+      writer.flush();
+      writeFile.getFD().sync();
+    } finally {
+      writer.close();
+      writer = null;
+      writeFile = null;
+      dirty = false;
+    }
+    if (writeBytes == 0) {
+      segments.remove(writeSegment);
+      getSegmentFile(writeSegment).delete();
+    }
+    writeSegment = -1;
+  }
+
+  private File getSegmentFile(long id) {
+    return new File(directory, String.format("%s%019d%s", SEGMENT_PREFIX, id,
+        SEGMENT_SUFFIX));
+  }
+
+  private void loadCheckpoint() throws IOException {
+    File checkpoint = new File(directory, CHECKPOINT);
+    if (!checkpoint.exists()) {
+      return;
+    }
+    DataInputStream in = new DataInputStream(new FileInputStream(checkpoint));
+    try {
+      long segment = in.readLong();
+      long offset = in.readLong();
+      if (segments.contains(segment)) {
+        readSegment = segment;
+        readOffset = offset;
+      }
+    } catch (EOFException e) {
+      logger.warn("Ignoring truncated spool checkpoint {}", checkpoint);
+    } finally {
+      in.close();
+    }
+  }
+
+  private void saveCheckpoint() throws IOException {
+    File checkpoint = new File(directory, CHECKPOINT);
+    File temp = new File(directory, CHECKPOINT + ".tmp");
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+    try {
+      out.writeLong(readSegment);
+      out.writeLong(readOffset);
+    } finally {
+      out.close();
+    }
+    if (!temp.renameTo(checkpoint)) {
+      // Not atomic, but a lost checkpoint only causes events to be replayed.
+      checkpoint.delete();
+      if (!temp.renameTo(checkpoint)) {
+        throw new IOException("Unable to write spool checkpoint " +
+            checkpoint);
+      }
+    }
+  }
+
+  private static byte[] encode(Event event) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+        event.getBody().length + 64);
+    DataOutputStream out = new DataOutputStream(bytes);
+    Map<String, String> headers = event.getHeaders();
+    out.writeInt(headers.size());
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      out.writeUTF(header.getKey());
+      out.writeUTF(header.getValue());
+    }
+    out.writeInt(event.getBody().length);
+    out.write(event.getBody());
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static Event decode(byte[] record) throws IOException {
+    DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(record));
+    int headerCount = in.readInt();
+    Map<String, String> headers = new HashMap<String, String>();
+    for (int i = 0; i < headerCount; i++) {
+      headers.put(in.readUTF(), in.readUTF());
+    }
+    byte[] body = new byte[in.readInt()];
+    in.readFully(body);
+    return EventBuilder.withBody(body, headers);
+  }
+
+  /**
+   * Events read from one segment, with the position to commit once they are
+   * delivered.
+   */
+  static class Batch {
+
+    private final long segment;
+    private final long endOffset;
+    private final boolean endOfSegment;
+    private final List<Event> events;
+
+    private Batch(long segment, long endOffset, boolean endOfSegment,
+        List<Event> events) {
+      this.segment = segment;
+      this.endOffset = endOffset;
+      this.endOfSegment = endOfSegment;
+      this.events = events;
+    }
+
+    List<Event> getEvents() {
+      return events;
+    }
+  }
+
+}
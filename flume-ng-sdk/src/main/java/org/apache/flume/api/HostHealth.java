@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>The health of one host of a {@link LoadBalancingRpcClient}, updated
+ * by the client after every request sent to the host.</p>
+ *
+ * <p>The latency is an exponentially weighted moving average of the time
+ * taken by successful requests. After a failed request the host is
+ * blacklisted for one second, doubling with each further consecutive
+ * failure up to the maximum backoff of the client. A successful request
+ * clears the blacklist.</p>
+ */
+public class HostHealth {
+
+  /**
+   * Weight of the newest sample in the latency average.
+   */
+  private static final double LATENCY_WEIGHT = 0.3;
+
+  private static final long BASE_BACKOFF_MILLIS = 1000;
+
+  private final HostInfo host;
+  private final AtomicInteger outstandingRequests = new AtomicInteger();
+  private final AtomicLong successes = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  // Written while holding the lock on this object.
+  private volatile double averageLatencyNanos = -1;
+  private volatile int consecutiveFailures;
+  private volatile long blacklistedUntil;
+
+  HostHealth(HostInfo host) {
+    this.host = host;
+  }
+
+  void requestStarted() {
+    outstandingRequests.incrementAndGet();
+  }
+
+  void requestSucceeded(long latencyNanos) {
+    outstandingRequests.decrementAndGet();
+    successes.incrementAndGet();
+    synchronized (this) {
+      double average = averageLatencyNanos;
+      averageLatencyNanos = average < 0 ? latencyNanos
+          : average + LATENCY_WEIGHT * (latencyNanos - average);
+      consecutiveFailures = 0;
+      blacklistedUntil = 0;
+    }
+  }
+
+  void requestFailed(long maxBackoffMillis) {
+    outstandingRequests.decrementAndGet();
+    failures.incrementAndGet();
+    synchronized (this) {
+      int failed = consecutiveFailures + 1;
+      consecutiveFailures = failed;
+      if (maxBackoffMillis > 0) {
+        long backoff = Math.min(maxBackoffMillis,
+            BASE_BACKOFF_MILLIS << Math.min(failed - 1, 30));
+        blacklistedUntil = System.currentTimeMillis() + backoff;
+      }
+    }
+  }
+
+  public HostInfo getHost() {
+    return host;
+  }
+
+  /**
+   * Returns {@code false} while the host is blacklisted after a failure.
+   *
+   * @param now the current time in milliseconds
+   */
+  public boolean isAvailable(long now) {
+    return now >= blacklistedUntil;
+  }
+
+  /**
+   * Returns the time in milliseconds at which the host leaves the
+   * blacklist, or zero if it was not blacklisted since its last success.
+   */
+  public long getBlacklistedUntil() {
+    return blacklistedUntil;
+  }
+
+  /**
+   * Returns the number of requests being sent to the host.
+   */
+  public int getOutstandingRequests() {
+    return outstandingRequests.get();
+  }
+
+  /**
+   * Returns the average latency of successful requests in microseconds, or
+   * -1 if no request succeeded yet.
+   */
+  public long getAverageLatencyMicros() {
+    double average = averageLatencyNanos;
+    return average < 0 ? -1 : (long) (average / 1000);
+  }
+
+  public int getConsecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  public long getSuccesses() {
+    return successes.get();
+  }
+
+  public long getFailures() {
+    return failures.get();
+  }
+
+  double getAverageLatencyNanos() {
+    return averageLatencyNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "HostHealth { host: " + host + ", outstanding: " +
+        getOutstandingRequests() + ", latencyMicros: " +
+        getAverageLatencyMicros() + ", consecutiveFailures: " +
+        consecutiveFailures + ", blacklistedUntil: " + blacklistedUntil +
+        " }";
+  }
+
+}
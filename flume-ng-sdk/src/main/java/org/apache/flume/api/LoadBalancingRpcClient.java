@@ -19,13 +19,17 @@
 package org.apache.flume.api;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
@@ -48,8 +52,27 @@ import org.slf4j.LoggerFactory;
  * This implementation also performs basic failover in case the randomly
  * selected host is not available for receiving the event.
  * </p>
+ * <p>
+ * The health of every host is tracked and available from
+ * {@link #getHostHealth()}. The <tt>latency</tt> and
+ * <tt>least_outstanding</tt> selectors use it to skip hosts that recently
+ * failed, for a backoff that doubles with each consecutive failure up to
+ * <tt>max-backoff</tt> milliseconds, and to prefer hosts with a lower
+ * average latency or fewer requests in progress. Custom selectors receive
+ * the health of the hosts by implementing
+ * <tt>HealthAwareHostSelector</tt>.
+ * </p>
+ * <p>
+ * All configuration properties, including the wire compression settings, are
+ * passed on to the client of each host. When <tt>connection-pool-size</tt>
+ * is greater than one, each host is served by a <tt>PooledRpcClient</tt> so
+ * that concurrent callers do not share a single connection. The traffic
+ * statistics of this client are the totals over all hosts, including the
+ * clients that were replaced after a failure.
+ * </p>
  */
-public class LoadBalancingRpcClient extends AbstractRpcClient {
+public class LoadBalancingRpcClient extends AbstractRpcClient
+    implements TrafficStatistics {
 
   private static final Logger LOGGER = LoggerFactory
       .getLogger(LoadBalancingRpcClient.class);
@@ -58,6 +81,17 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
   private HostSelector selector;
   private Map<String, RpcClient> clientMap;
   private Properties configurationProperties;
+  private boolean poolConnections;
+  private Map<String, HostHealth> hostHealth;
+  private long maxBackoff;
+
+  /**
+   * Traffic of the clients that were closed, guarded by {@code this}.
+   */
+  private long retiredBytesSent;
+  private long retiredWireBytesSent;
+  private long retiredBytesReceived;
+  private long retiredWireBytesReceived;
 
   @Override
   public void append(Event event) throws EventDeliveryException {
@@ -66,12 +100,17 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
 
     while (it.hasNext()) {
       HostInfo host = it.next();
+      HostHealth health = hostHealth.get(host.getReferenceName());
+      health.requestStarted();
+      long startTime = System.nanoTime();
       try {
         RpcClient client = getClient(host);
         client.append(event);
+        health.requestSucceeded(System.nanoTime() - startTime);
         eventSent = true;
         break;
       } catch (Exception ex) {
+        health.requestFailed(maxBackoff);
         LOGGER.warn("Failed to send event to host " + host, ex);
       }
     }
@@ -88,12 +127,17 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
 
     while (it.hasNext()) {
       HostInfo host = it.next();
-      RpcClient client = getClient(host);
+      HostHealth health = hostHealth.get(host.getReferenceName());
+      health.requestStarted();
+      long startTime = System.nanoTime();
       try {
+        RpcClient client = getClient(host);
         client.appendBatch(events);
+        health.requestSucceeded(System.nanoTime() - startTime);
         batchSent = true;
         break;
       } catch (Exception ex) {
+        health.requestFailed(maxBackoff);
         LOGGER.warn("Failed to send batch to host " + host, ex);
       }
     }
@@ -103,6 +147,13 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
     }
   }
 
+  /**
+   * Returns the health of each host, keyed by the host reference name.
+   */
+  public Map<String, HostHealth> getHostHealth() {
+    return hostHealth;
+  }
+
   @Override
   public boolean isActive() {
     // This client is always active and does not need to be replaced.
@@ -118,6 +169,7 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
         String name = it.next();
         RpcClient client = clientMap.get(name);
         if (client != null) {
+          retire(client);
           try {
             client.close();
           } catch (Exception ex) {
@@ -135,11 +187,36 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
     configurationProperties = new Properties();
     configurationProperties.putAll(properties);
     hosts = HostInfo.getHostInfoList(properties);
+    poolConnections = isPoolingRequested(properties);
     if (hosts.size() < 2) {
       throw new FlumeException("At least two hosts are required to use the "
           + "load balancing RPC client.");
     }
 
+    Map<String, HostHealth> healthMap =
+        new LinkedHashMap<String, HostHealth>();
+    for (HostInfo host : hosts) {
+      healthMap.put(host.getReferenceName(), new HostHealth(host));
+    }
+    hostHealth = Collections.unmodifiableMap(healthMap);
+
+    maxBackoff = RpcClientConfigurationConstants.DEFAULT_MAX_BACKOFF_MILLIS;
+    String strMaxBackoff = properties.getProperty(
+        RpcClientConfigurationConstants.CONFIG_MAX_BACKOFF);
+    if (strMaxBackoff != null && strMaxBackoff.trim().length() > 0) {
+      try {
+        maxBackoff = Long.parseLong(strMaxBackoff.trim());
+        if (maxBackoff < 0) {
+          LOGGER.warn("Maximum backoff specified less than 0. " +
+              "Using default value instead.");
+          maxBackoff =
+              RpcClientConfigurationConstants.DEFAULT_MAX_BACKOFF_MILLIS;
+        }
+      } catch (NumberFormatException e) {
+        LOGGER.warn("Invalid maximum backoff specified: " + strMaxBackoff);
+      }
+    }
+
     String lbTypeName = properties.getProperty(
         RpcClientConfigurationConstants.CONFIG_HOST_SELECTOR,
         RpcClientConfigurationConstants.HOST_SELECTOR_ROUND_ROBIN);
@@ -150,6 +227,12 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
     } else if (lbTypeName.equalsIgnoreCase(
         RpcClientConfigurationConstants.HOST_SELECTOR_RANDOM)) {
       selector = new RandomOrderHostSelector();
+    } else if (lbTypeName.equalsIgnoreCase(
+        RpcClientConfigurationConstants.HOST_SELECTOR_LATENCY)) {
+      selector = new HealthTrackingHostSelector(false);
+    } else if (lbTypeName.equalsIgnoreCase(
+        RpcClientConfigurationConstants.HOST_SELECTOR_LEAST_OUTSTANDING)) {
+      selector = new HealthTrackingHostSelector(true);
     } else {
       try {
         @SuppressWarnings("unchecked")
@@ -164,6 +247,10 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
     }
 
     selector.setHosts(hosts);
+    if (selector instanceof HealthAwareHostSelector) {
+      ((HealthAwareHostSelector) selector).setHostHealth(
+          new ArrayList<HostHealth>(hostHealth.values()));
+    }
   }
 
   private synchronized RpcClient getClient(HostInfo info) {
@@ -173,6 +260,7 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
       client = createClient(name);
       clientMap.put(name, client);
     } else if (!client.isActive()) {
+      retire(client);
       try {
         client.close();
       } catch (Exception ex) {
@@ -185,6 +273,75 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
     return client;
   }
 
+  private static boolean isPoolingRequested(Properties properties) {
+    String strPoolSize = properties.getProperty(
+        RpcClientConfigurationConstants.CONFIG_CONNECTION_POOL_SIZE);
+    if (strPoolSize == null || strPoolSize.trim().length() == 0) {
+      return false;
+    }
+    try {
+      return Integer.parseInt(strPoolSize.trim()) > 1;
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Connection pool size is not valid: " + strPoolSize
+          + ". Connections will not be pooled.");
+      return false;
+    }
+  }
+
+  private synchronized void retire(RpcClient client) {
+    if (client instanceof TrafficStatistics) {
+      TrafficStatistics traffic = (TrafficStatistics) client;
+      retiredBytesSent += traffic.getBytesSent();
+      retiredWireBytesSent += traffic.getWireBytesSent();
+      retiredBytesReceived += traffic.getBytesReceived();
+      retiredWireBytesReceived += traffic.getWireBytesReceived();
+    }
+  }
+
+  @Override
+  public synchronized long getBytesSent() {
+    long total = retiredBytesSent;
+    for (RpcClient client : clientMap.values()) {
+      if (client instanceof TrafficStatistics) {
+        total += ((TrafficStatistics) client).getBytesSent();
+      }
+    }
+    return total;
+  }
+
+  @Override
+  public synchronized long getWireBytesSent() {
+    long total = retiredWireBytesSent;
+    for (RpcClient client : clientMap.values()) {
+      if (client instanceof TrafficStatistics) {
+        total += ((TrafficStatistics) client).getWireBytesSent();
+      }
+    }
+    return total;
+  }
+
+  @Override
+  public synchronized long getBytesReceived() {
+    long total = retiredBytesReceived;
+    for (RpcClient client : clientMap.values()) {
+      if (client instanceof TrafficStatistics) {
+        total += ((TrafficStatistics) client).getBytesReceived();
+      }
+    }
+    return total;
+  }
+
+  @Override
+  public synchronized long getWireBytesReceived() {
+    long total = retiredWireBytesReceived;
+    for (RpcClient client : clientMap.values()) {
+      if (client instanceof TrafficStatistics) {
+        total += ((TrafficStatistics) client).getWireBytesReceived();
+      }
+    }
+    return total;
+  }
+
   private RpcClient createClient(String referenceName) {
     Properties props = getClientConfigurationProperties(referenceName);
     return RpcClientFactory.getInstance(props);
@@ -193,8 +350,13 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
   private Properties getClientConfigurationProperties(String referenceName) {
     Properties props = new Properties();
     props.putAll(configurationProperties);
-    props.put(RpcClientConfigurationConstants.CONFIG_CLIENT_TYPE,
-        RpcClientFactory.ClientType.DEFAULT);
+    if (poolConnections) {
+      props.put(RpcClientConfigurationConstants.CONFIG_CLIENT_TYPE,
+          RpcClientFactory.ClientType.DEFAULT_POOLED.name());
+    } else {
+      props.put(RpcClientConfigurationConstants.CONFIG_CLIENT_TYPE,
+          RpcClientFactory.ClientType.DEFAULT);
+    }
     props.put(RpcClientConfigurationConstants.CONFIG_HOSTS, referenceName);
 
     return props;
@@ -207,35 +369,42 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
     Iterator<HostInfo> createHostIterator();
   }
 
+  /**
+   * A host selector that orders hosts based on their health. The client
+   * calls {@link #setHostHealth(List)} after {@link #setHosts(List)}, and
+   * keeps the given objects up to date.
+   */
+  public interface HealthAwareHostSelector extends HostSelector {
+
+    void setHostHealth(List<HostHealth> health);
+  }
+
   /**
    * A host selector that implements the round-robin host selection policy.
    */
   private static class RoundRobinHostSelector implements HostSelector {
 
-    private int nextHead;
+    private final AtomicInteger nextHead = new AtomicInteger();
 
-    private List<HostInfo> hostList;
+    private volatile List<HostInfo> hostList;
 
     @Override
-    public synchronized Iterator<HostInfo> createHostIterator() {
-
-      int size = hostList.size();
+    public Iterator<HostInfo> createHostIterator() {
+      List<HostInfo> list = hostList;
+      int size = list.size();
       int[] indexOrder = new int[size];
 
-      int begin = nextHead++;
-      if (nextHead == size) {
-        nextHead = 0;
-      }
+      int begin = (nextHead.getAndIncrement() & Integer.MAX_VALUE) % size;
 
       for (int i=0; i < size; i++) {
         indexOrder[i] = (begin + i)%size;
       }
 
-      return new SpecificOrderIterator<HostInfo>(indexOrder, hostList);
+      return new SpecificOrderIterator<HostInfo>(indexOrder, list);
     }
 
     @Override
-    public synchronized void setHosts(List<HostInfo> hosts) {
+    public void setHosts(List<HostInfo> hosts) {
       List<HostInfo> infos = new ArrayList<HostInfo>();
       infos.addAll(hosts);
       hostList = Collections.unmodifiableList(infos);
@@ -244,37 +413,163 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
 
   private static class RandomOrderHostSelector implements HostSelector {
 
-    private List<HostInfo> hostList;
+    private volatile List<HostInfo> hostList;
 
-    private Random random = new Random(System.currentTimeMillis());
+    private final Random random = new Random(System.currentTimeMillis());
 
     @Override
-    public synchronized Iterator<HostInfo> createHostIterator() {
-      int size = hostList.size();
+    public Iterator<HostInfo> createHostIterator() {
+      List<HostInfo> list = hostList;
+      int size = list.size();
       int[] indexOrder = new int[size];
 
-      List<Integer> indexList = new ArrayList<Integer>();
-      for (int i=0; i<size; i++) {
-        indexList.add(i);
+      for (int i = 0; i < size; i++) {
+        indexOrder[i] = i;
       }
-
-      while (indexList.size() != 1) {
-        int position = indexList.size();
-        int pick = random.nextInt(position);
-        indexOrder[position - 1] = indexList.remove(pick);
+      // Fisher-Yates shuffle; Random is thread safe.
+      for (int i = size - 1; i > 0; i--) {
+        int pick = random.nextInt(i + 1);
+        int swap = indexOrder[i];
+        indexOrder[i] = indexOrder[pick];
+        indexOrder[pick] = swap;
       }
 
-      indexOrder[0] = indexList.get(0);
-
-      return new SpecificOrderIterator<HostInfo>(indexOrder, hostList);
+      return new SpecificOrderIterator<HostInfo>(indexOrder, list);
     }
 
     @Override
-    public synchronized void setHosts(List<HostInfo> hosts) {
+    public void setHosts(List<HostInfo> hosts) {
       List<HostInfo> infos = new ArrayList<HostInfo>();
       infos.addAll(hosts);
       hostList = Collections.unmodifiableList(infos);
     }
   }
 
+  /**
+   * A host selector that skips blacklisted hosts and prefers the host with
+   * the lowest average latency, weighted by its requests in progress, or
+   * the host with the fewest requests in progress.
+   * <p>
+   * The first host is the better of two hosts picked at random among those
+   * not blacklisted, so that load is spread over the hosts instead of all
+   * going to the best one. The other available hosts follow from best to
+   * worst, then the blacklisted hosts in the order they leave the
+   * blacklist, so an event is still attempted when every host failed
+   * recently.
+   * </p>
+   */
+  private static class HealthTrackingHostSelector
+      implements HealthAwareHostSelector {
+
+    private final boolean leastOutstanding;
+
+    private final Random random = new Random(System.currentTimeMillis());
+
+    private volatile List<HostHealth> healthList;
+
+    HealthTrackingHostSelector(boolean leastOutstanding) {
+      this.leastOutstanding = leastOutstanding;
+    }
+
+    @Override
+    public void setHosts(List<HostInfo> hosts) {
+      List<HostHealth> health = new ArrayList<HostHealth>();
+      for (HostInfo host : hosts) {
+        health.add(new HostHealth(host));
+      }
+      healthList = Collections.unmodifiableList(health);
+    }
+
+    @Override
+    public void setHostHealth(List<HostHealth> health) {
+      healthList = Collections.unmodifiableList(
+          new ArrayList<HostHealth>(health));
+    }
+
+    @Override
+    public Iterator<HostInfo> createHostIterator() {
+      List<HostHealth> list = healthList;
+      long now = System.currentTimeMillis();
+
+      // Snapshot the health, which keeps changing while sorting.
+      List<Candidate> available = new ArrayList<Candidate>(list.size());
+      List<Candidate> blacklisted = new ArrayList<Candidate>();
+      for (HostHealth health : list) {
+        Candidate candidate = new Candidate(health);
+        if (health.isAvailable(now)) {
+          available.add(candidate);
+        } else {
+          blacklisted.add(candidate);
+        }
+      }
+
+      List<HostInfo> order = new ArrayList<HostInfo>(list.size());
+      if (available.size() > 1) {
+        int first = random.nextInt(available.size());
+        int second = random.nextInt(available.size() - 1);
+        if (second >= first) {
+          second++;
+        }
+        Candidate best = compare(available.get(first),
+            available.get(second)) <= 0 ? available.get(first)
+            : available.get(second);
+        available.remove(best);
+        order.add(best.host);
+      }
+
+      Candidate[] rest = available.toArray(new Candidate[available.size()]);
+      Arrays.sort(rest, new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+          return HealthTrackingHostSelector.this.compare(a, b);
+        }
+      });
+      for (Candidate candidate : rest) {
+        order.add(candidate.host);
+      }
+
+      Candidate[] waiting =
+          blacklisted.toArray(new Candidate[blacklisted.size()]);
+      Arrays.sort(waiting, new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+          return a.blacklistedUntil < b.blacklistedUntil ? -1
+              : (a.blacklistedUntil == b.blacklistedUntil ? 0 : 1);
+        }
+      });
+      for (Candidate candidate : waiting) {
+        order.add(candidate.host);
+      }
+
+      return Collections.unmodifiableList(order).iterator();
+    }
+
+    private int compare(Candidate a, Candidate b) {
+      if (leastOutstanding && a.outstanding != b.outstanding) {
+        return a.outstanding < b.outstanding ? -1 : 1;
+      }
+      double scoreA = leastOutstanding ? a.latency
+          : a.latency * (a.outstanding + 1);
+      double scoreB = leastOutstanding ? b.latency
+          : b.latency * (b.outstanding + 1);
+      return Double.compare(scoreA, scoreB);
+    }
+
+    private static class Candidate {
+
+      private final HostInfo host;
+      private final int outstanding;
+      private final double latency;
+      private final long blacklistedUntil;
+
+      Candidate(HostHealth health) {
+        host = health.getHost();
+        outstanding = health.getOutstandingRequests();
+        // Hosts without a successful request yet are tried first.
+        latency = Math.max(0, health.getAverageLatencyNanos());
+        blacklistedUntil = health.getBlacklistedUntil();
+      }
+    }
+  }
+
 }
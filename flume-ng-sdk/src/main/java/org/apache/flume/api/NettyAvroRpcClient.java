@@ -21,6 +21,7 @@ package org.apache.flume.api;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -29,19 +30,23 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
-import org.apache.avro.ipc.CallFuture;
+import org.apache.avro.ipc.Callback;
 import org.apache.avro.ipc.NettyTransceiver;
 import org.apache.avro.ipc.Transceiver;
 import org.apache.avro.ipc.specific.SpecificRequestor;
@@ -51,7 +56,16 @@ import org.apache.flume.FlumeException;
 import org.apache.flume.source.avro.AvroFlumeEvent;
 import org.apache.flume.source.avro.AvroSourceProtocol;
 import org.apache.flume.source.avro.Status;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.socket.ClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.SocketChannel;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.handler.codec.compression.ZlibDecoder;
+import org.jboss.netty.handler.codec.compression.ZlibEncoder;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,9 +75,13 @@ import org.slf4j.LoggerFactory;
  * that the object cannot ever be in an inconsistent when exposed to users.
  */
 public class NettyAvroRpcClient extends AbstractRpcClient
-implements RpcClient {
+implements RpcClient, TrafficStatistics {
+
+  private static Timer requestTimer;
 
   private ExecutorService callTimeoutPool;
+  private volatile boolean handshakeComplete;
+  private Semaphore inFlightBatches;
   private final ReentrantLock stateLock = new ReentrantLock();
 
   /**
@@ -75,6 +93,14 @@ implements RpcClient {
 
   private Transceiver transceiver;
   private AvroSourceProtocol.Callback avroClient;
+
+  private boolean compress;
+  private int compressionLevel;
+
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong wireBytesSent = new AtomicLong();
+  private final AtomicLong bytesReceived = new AtomicLong();
+  private final AtomicLong wireBytesReceived = new AtomicLong();
   private static final Logger logger = LoggerFactory
       .getLogger(NettyAvroRpcClient.class);
 
@@ -102,13 +128,14 @@ implements RpcClient {
   private void connect(long timeout, TimeUnit tu) throws FlumeException {
     callTimeoutPool = Executors.newCachedThreadPool(
         new TransceiverThreadFactory("Flume Avro RPC Client Call Invoker"));
+    inFlightBatches = new Semaphore(maxInFlightBatches);
     try {
       transceiver = new NettyTransceiver(this.address,
-          new NioClientSocketChannelFactory(
+          new InstrumentedChannelFactory(new NioClientSocketChannelFactory(
         Executors.newCachedThreadPool(new TransceiverThreadFactory(
             "Avro " + NettyTransceiver.class.getSimpleName() + " Boss")),
         Executors.newCachedThreadPool(new TransceiverThreadFactory(
-            "Avro " + NettyTransceiver.class.getSimpleName() + " I/O Worker"))),
+            "Avro " + NettyTransceiver.class.getSimpleName() + " I/O Worker")))),
           tu.toMillis(timeout));
       avroClient =
           SpecificRequestor.getClient(AvroSourceProtocol.Callback.class,
@@ -147,6 +174,26 @@ implements RpcClient {
 
   }
 
+  @Override
+  public long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  @Override
+  public long getWireBytesSent() {
+    return wireBytesSent.get();
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  @Override
+  public long getWireBytesReceived() {
+    return wireBytesReceived.get();
+  }
+
   @Override
   public String toString() {
     return "NettyAvroRpcClient { host: " + address.getHostName() + ", port: " +
@@ -177,45 +224,22 @@ implements RpcClient {
 
     assertReady();
 
-    final CallFuture<Status> callFuture = new CallFuture<Status>();
+    final BatchCall call = new BatchCall(null);
 
     final AvroFlumeEvent avroEvent = new AvroFlumeEvent();
     avroEvent.setBody(ByteBuffer.wrap(event.getBody()));
     avroEvent.setHeaders(toCharSeqMap(event.getHeaders()));
 
-    Future<Void> handshake;
-    try {
-      // due to AVRO-1122, avroClient.append() may block
-      handshake = callTimeoutPool.submit(new Callable<Void>() {
+    startCall(new Callable<Void>() {
 
-        @Override
-        public Void call() throws Exception {
-          avroClient.append(avroEvent, callFuture);
-          return null;
-        }
-      });
-    } catch (RejectedExecutionException ex) {
-      throw new EventDeliveryException(this + ": Executor error", ex);
-    }
-
-    try {
-      handshake.get(connectTimeout, TimeUnit.MILLISECONDS);
-    } catch (TimeoutException ex) {
-      throw new EventDeliveryException(this + ": Handshake timed out after " +
-          connectTimeout + " ms", ex);
-    } catch (InterruptedException ex) {
-      throw new EventDeliveryException(this + ": Interrupted in handshake", ex);
-    } catch (ExecutionException ex) {
-      throw new EventDeliveryException(this + ": RPC request exception", ex);
-    } catch (CancellationException ex) {
-      throw new EventDeliveryException(this + ": RPC request cancelled", ex);
-    } finally {
-      if (!handshake.isDone()) {
-        handshake.cancel(true);
+      @Override
+      public Void call() throws Exception {
+        avroClient.append(avroEvent, call);
+        return null;
       }
-    }
+    }, call, timeout, tu);
 
-    waitForStatusOK(callFuture, timeout, tu);
+    call.await();
   }
 
   @Override
@@ -237,17 +261,44 @@ implements RpcClient {
     }
   }
 
+  @Override
+  public Future<Void> appendBatchAsync(List<Event> events)
+      throws EventDeliveryException {
+    try {
+      return sendBatch(events, requestTimeout, TimeUnit.MILLISECONDS);
+    } catch (Throwable t) {
+      // we mark as no longer active without trying to clean up resources
+      // client is required to call close() to clean up resources
+      setState(ConnState.DEAD);
+      if (t instanceof Error) {
+        throw (Error) t;
+      }
+      throw new EventDeliveryException(this + ": Failed to send batch", t);
+    }
+  }
+
   private void appendBatch(List<Event> events, long timeout, TimeUnit tu)
       throws EventDeliveryException {
 
+    sendBatch(events, timeout, tu).await();
+  }
+
+  /**
+   * Sends the events in RPC calls of at most {@code batchSize} events,
+   * waiting for a free slot before each call once
+   * {@code maxInFlightBatches} calls are outstanding.
+   */
+  private BatchFuture sendBatch(List<Event> events, long timeout,
+      TimeUnit tu) throws EventDeliveryException {
+
     assertReady();
 
     Iterator<Event> iter = events.iterator();
-    final List<AvroFlumeEvent> avroEvents = new LinkedList<AvroFlumeEvent>();
+    List<BatchCall> calls = new ArrayList<BatchCall>();
 
     // send multiple batches... bail if there is a problem at any time
     while (iter.hasNext()) {
-      avroEvents.clear();
+      final List<AvroFlumeEvent> avroEvents = new LinkedList<AvroFlumeEvent>();
 
       for (int i = 0; i < batchSize && iter.hasNext(); i++) {
         Event event = iter.next();
@@ -257,72 +308,102 @@ implements RpcClient {
         avroEvents.add(avroEvent);
       }
 
-      final CallFuture<Status> callFuture = new CallFuture<Status>();
+      try {
+        if (!inFlightBatches.tryAcquire(timeout, tu)) {
+          throw new EventDeliveryException(this + ": Timed out after " +
+              tu.toMillis(timeout) + "ms waiting for an in-flight batch");
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new EventDeliveryException(this + ": Interrupted waiting for " +
+            "an in-flight batch", ex);
+      }
+
+      final BatchCall call = new BatchCall(inFlightBatches);
+
+      startCall(new Callable<Void>() {
 
+        @Override
+        public Void call() throws Exception {
+          avroClient.appendBatch(avroEvents, call);
+          return null;
+        }
+      }, call, timeout, tu);
+
+      calls.add(call);
+    }
+
+    return new BatchFuture(calls);
+  }
+
+  /**
+   * Starts an RPC and arms its request timeout on the shared timer. Until
+   * the Avro handshake has completed, the request is made from
+   * {@code callTimeoutPool} because the requestor blocks during the handshake
+   * (AVRO-1122), and the handshake is bounded by the connect timeout. Once
+   * the handshake is done, requests are written directly from the calling
+   * thread.
+   * @param rpc Makes the request, passing {@code call} as its callback
+   * @param call The callback that completes when the response arrives
+   * @param timeout Time to wait for the response before failing the call
+   * @param tu Time Unit of {@code timeout}
+   * @throws EventDeliveryException If the request could not be sent
+   */
+  private void startCall(Callable<Void> rpc, BatchCall call, long timeout,
+      TimeUnit tu) throws EventDeliveryException {
+    if (handshakeComplete) {
+      try {
+        rpc.call();
+      } catch (Exception ex) {
+        call.handleError(ex);
+        throw new EventDeliveryException(this + ": RPC request exception", ex);
+      }
+    } else {
       Future<Void> handshake;
       try {
-        // due to AVRO-1122, avroClient.appendBatch() may block
-        handshake = callTimeoutPool.submit(new Callable<Void>() {
-
-          @Override
-          public Void call() throws Exception {
-            avroClient.appendBatch(avroEvents, callFuture);
-            return null;
-          }
-        });
+        handshake = callTimeoutPool.submit(rpc);
       } catch (RejectedExecutionException ex) {
+        call.handleError(ex);
         throw new EventDeliveryException(this + ": Executor error", ex);
       }
 
       try {
         handshake.get(connectTimeout, TimeUnit.MILLISECONDS);
       } catch (TimeoutException ex) {
+        call.handleError(ex);
         throw new EventDeliveryException(this + ": Handshake timed out after " +
             connectTimeout + "ms", ex);
       } catch (InterruptedException ex) {
+        call.handleError(ex);
         throw new EventDeliveryException(this + ": Interrupted in handshake",
             ex);
       } catch (ExecutionException ex) {
+        call.handleError(ex);
         throw new EventDeliveryException(this + ": RPC request exception", ex);
       } catch (CancellationException ex) {
+        call.handleError(ex);
         throw new EventDeliveryException(this + ": RPC request cancelled", ex);
       } finally {
         if (!handshake.isDone()) {
           handshake.cancel(true);
         }
       }
-
-      waitForStatusOK(callFuture, timeout, tu);
+      handshakeComplete = true;
     }
+
+    call.scheduleTimeout(timeout, tu);
   }
 
   /**
-   * Helper method that waits for a Status future to come back and validates
-   * that it returns Status == OK.
-   * @param callFuture Future to wait on
-   * @param timeout Time to wait before failing
-   * @param tu Time Unit of {@code timeout}
-   * @throws EventDeliveryException If there is a timeout or if Status != OK
+   * Returns the timer that fails RPCs whose response did not arrive within
+   * the request timeout. A single timer thread serves all clients.
    */
-  private void waitForStatusOK(CallFuture<Status> callFuture,
-      long timeout, TimeUnit tu) throws EventDeliveryException {
-    try {
-      Status status = callFuture.get(timeout, tu);
-      if (status != Status.OK) {
-        throw new EventDeliveryException(this + ": Avro RPC call returned " +
-            "Status: " + status);
-      }
-    } catch (CancellationException ex) {
-      throw new EventDeliveryException(this + ": RPC future was cancelled", ex);
-    } catch (ExecutionException ex) {
-      throw new EventDeliveryException(this + ": Exception thrown from " +
-          "remote handler", ex);
-    } catch (TimeoutException ex) {
-      throw new EventDeliveryException(this + ": RPC request timed out", ex);
-    } catch (InterruptedException ex) {
-      Thread.currentThread().interrupt();
-      throw new EventDeliveryException(this + ": RPC request interrupted", ex);
+  private static synchronized Timer getRequestTimer() {
+    if (requestTimer == null) {
+      requestTimer = new HashedWheelTimer(new TransceiverThreadFactory(
+          "Flume Avro RPC Client Request Timer"));
     }
+    return requestTimer;
   }
 
   /**
@@ -388,6 +469,194 @@ implements RpcClient {
     INIT, READY, DEAD
   }
 
+  /**
+   * Callback of a single append or appendBatch RPC. Frees the in-flight slot
+   * taken for the call, if any, as soon as the call completes, successfully
+   * or not. A call whose response does not arrive in time is completed with
+   * a {@link TimeoutException} by the shared request timer.
+   */
+  private class BatchCall implements Callback<Status>, TimerTask {
+
+    private final Semaphore permits;
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    private volatile Status status;
+    private volatile Throwable error;
+    private volatile Timeout timeout;
+
+    public BatchCall(Semaphore permits) {
+      this.permits = permits;
+    }
+
+    @Override
+    public void handleResult(Status result) {
+      if (done.compareAndSet(false, true)) {
+        status = result;
+        complete();
+      }
+    }
+
+    @Override
+    public void handleError(Throwable t) {
+      if (done.compareAndSet(false, true)) {
+        error = t;
+        complete();
+      }
+    }
+
+    @Override
+    public void run(Timeout expired) {
+      handleError(new TimeoutException("RPC request timed out after " +
+          requestTimeout + "ms"));
+    }
+
+    private void complete() {
+      Timeout pending = timeout;
+      if (pending != null) {
+        pending.cancel();
+      }
+      if (permits != null) {
+        permits.release();
+      }
+      completed.countDown();
+    }
+
+    public void scheduleTimeout(long delay, TimeUnit tu) {
+      timeout = getRequestTimer().newTimeout(this, delay, tu);
+      if (isDone()) {
+        timeout.cancel();
+      }
+    }
+
+    public boolean isDone() {
+      return completed.getCount() == 0;
+    }
+
+    /**
+     * Waits for the call to complete or time out.
+     * @throws EventDeliveryException if the call failed or timed out
+     */
+    public void await() throws EventDeliveryException {
+      try {
+        completed.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new EventDeliveryException(NettyAvroRpcClient.this +
+            ": RPC request interrupted", ex);
+      }
+      checkStatus();
+    }
+
+    /**
+     * Waits for the call until {@code until}, as given by
+     * {@link System#nanoTime()}.
+     * @return false if {@code until} passed before the call completed
+     * @throws EventDeliveryException if the call failed or timed out
+     */
+    public boolean await(long until) throws EventDeliveryException {
+      try {
+        if (!completed.await(until - System.nanoTime(),
+            TimeUnit.NANOSECONDS)) {
+          return false;
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new EventDeliveryException(NettyAvroRpcClient.this +
+            ": RPC request interrupted", ex);
+      }
+      checkStatus();
+      return true;
+    }
+
+    private void checkStatus() throws EventDeliveryException {
+      if (error instanceof TimeoutException) {
+        throw new EventDeliveryException(NettyAvroRpcClient.this +
+            ": RPC request timed out", error);
+      }
+      if (error != null) {
+        throw new EventDeliveryException(NettyAvroRpcClient.this +
+            ": Exception thrown from remote handler", error);
+      }
+      if (status != Status.OK) {
+        throw new EventDeliveryException(NettyAvroRpcClient.this +
+            ": Avro RPC call returned Status: " + status);
+      }
+    }
+  }
+
+  /**
+   * Completes once all the calls that a batch was split into have
+   * completed. A failed call marks the client as no longer active.
+   */
+  private class BatchFuture implements Future<Void> {
+
+    private final List<BatchCall> calls;
+
+    public BatchFuture(List<BatchCall> calls) {
+      this.calls = calls;
+    }
+
+    public void await() throws EventDeliveryException {
+      for (BatchCall call : calls) {
+        call.await();
+      }
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+      try {
+        await();
+      } catch (EventDeliveryException ex) {
+        setState(ConnState.DEAD);
+        throw new ExecutionException(ex);
+      }
+      return null;
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException,
+        ExecutionException, TimeoutException {
+      long until = System.nanoTime() + unit.toNanos(timeout);
+      try {
+        for (BatchCall call : calls) {
+          if (!call.await(until)) {
+            throw new TimeoutException(NettyAvroRpcClient.this +
+                ": Batch not acknowledged within " + unit.toMillis(timeout) +
+                "ms");
+          }
+        }
+      } catch (EventDeliveryException ex) {
+        setState(ConnState.DEAD);
+        throw new ExecutionException(ex);
+      }
+      return null;
+    }
+
+    @Override
+    public boolean isDone() {
+      for (BatchCall call : calls) {
+        if (!call.isDone()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * A batch that was sent cannot be recalled.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+  }
+
 
     /**
    * <p>
@@ -433,6 +702,26 @@ implements RpcClient {
       }
     }
 
+    // batches in flight
+    maxInFlightBatches =
+        RpcClientConfigurationConstants.DEFAULT_MAX_IN_FLIGHT_BATCHES;
+    String strMaxInFlight = properties.getProperty(
+        RpcClientConfigurationConstants.CONFIG_MAX_IN_FLIGHT_BATCHES);
+    if (strMaxInFlight != null && !strMaxInFlight.trim().isEmpty()) {
+      try {
+        int parsedMaxInFlight = Integer.parseInt(strMaxInFlight.trim());
+        if (parsedMaxInFlight < 1) {
+          logger.warn("Invalid value for maxInFlightBatches: {}; Using " +
+              "default value.", parsedMaxInFlight);
+        } else {
+          maxInFlightBatches = parsedMaxInFlight;
+        }
+      } catch (NumberFormatException e) {
+        logger.warn("Max in-flight batches is not valid for RpcClient: " +
+            strMaxInFlight + ". Default value assigned.", e);
+      }
+    }
+
     // host and port
     String hostNames = properties.getProperty(
         RpcClientConfigurationConstants.CONFIG_HOSTS);
@@ -504,9 +793,96 @@ implements RpcClient {
       }
     }
 
+    // wire compression
+    String compressionType = properties.getProperty(
+        RpcClientConfigurationConstants.CONFIG_COMPRESSION_TYPE,
+        RpcClientConfigurationConstants.DEFAULT_COMPRESSION_TYPE).trim();
+    if (compressionType.equalsIgnoreCase(
+        RpcClientConfigurationConstants.COMPRESSION_TYPE_DEFLATE)) {
+      compress = true;
+    } else if (compressionType.equalsIgnoreCase(
+        RpcClientConfigurationConstants.COMPRESSION_TYPE_NONE)) {
+      compress = false;
+    } else {
+      throw new FlumeException("Unsupported compression type: "
+          + compressionType);
+    }
+
+    compressionLevel =
+        RpcClientConfigurationConstants.DEFAULT_COMPRESSION_LEVEL;
+    String strCompressionLevel = properties.getProperty(
+        RpcClientConfigurationConstants.CONFIG_COMPRESSION_LEVEL);
+    if (strCompressionLevel != null
+        && strCompressionLevel.trim().length() > 0) {
+      try {
+        int parsedLevel = Integer.parseInt(strCompressionLevel.trim());
+        if (parsedLevel < 0 || parsedLevel > 9) {
+          logger.warn("Invalid value for compressionLevel: {}; Using " +
+              "default value.", parsedLevel);
+        } else {
+          compressionLevel = parsedLevel;
+        }
+      } catch (NumberFormatException e) {
+        logger.warn("Compression level is not valid for RpcClient: " +
+            strCompressionLevel + ". Default value assigned.", e);
+      }
+    }
+
     this.connect();
   }
 
+  /**
+   * Wraps the socket channel factory of the transceiver to count the bytes
+   * exchanged with the server and, when compression is enabled, to deflate
+   * requests and inflate responses underneath the Avro framing. The Avro
+   * source detects compressed connections by their zlib header.
+   */
+  private class InstrumentedChannelFactory
+      implements ClientSocketChannelFactory {
+
+    private final ClientSocketChannelFactory delegate;
+
+    private InstrumentedChannelFactory(ClientSocketChannelFactory delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public SocketChannel newChannel(ChannelPipeline pipeline) {
+      pipeline.addFirst("rawBytes", new ByteCountingHandler() {
+        @Override
+        protected void bytesRead(long count) {
+          bytesReceived.addAndGet(count);
+        }
+
+        @Override
+        protected void bytesWritten(long count) {
+          bytesSent.addAndGet(count);
+        }
+      });
+      if (compress) {
+        pipeline.addFirst("deflater", new ZlibEncoder(compressionLevel));
+        pipeline.addFirst("inflater", new ZlibDecoder());
+      }
+      pipeline.addFirst("wireBytes", new ByteCountingHandler() {
+        @Override
+        protected void bytesRead(long count) {
+          wireBytesReceived.addAndGet(count);
+        }
+
+        @Override
+        protected void bytesWritten(long count) {
+          wireBytesSent.addAndGet(count);
+        }
+      });
+      return delegate.newChannel(pipeline);
+    }
+
+    @Override
+    public void releaseExternalResources() {
+      delegate.releaseExternalResources();
+    }
+  }
+
   /**
    * A thread factor implementation modeled after the implementation of
    * NettyTransceiver.NettyTransceiverThreadFactory class which is
@@ -0,0 +1,466 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.FlumeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>An implementation of RpcClient interface that keeps several
+ * NettyAvroRpcClient connections to a single host and hands them out to
+ * concurrent callers, instead of serializing all callers onto one connection.
+ * The number of connections is set by the configuration property
+ * <tt>connection-pool-size</tt>.</p>
+ *
+ * <p>A caller that finds every connection in use waits for one to be returned
+ * for at most the request timeout. A connection that failed is closed and
+ * replaced by a background thread, with a growing delay between attempts
+ * while the host stays unreachable, so callers never pay for reconnecting.
+ * While no connection is open, calls fail right away instead of waiting, and
+ * this client reports itself inactive so that a wrapping client can skip or
+ * recreate it.</p>
+ *
+ * <p>Pool utilization is available from {@link #getConnectionsInUse()} and
+ * the time callers spent waiting for a connection from
+ * {@link #getBorrowWaitMicros()} and {@link #getMaxBorrowWaitMicros()}.</p>
+ */
+public class PooledRpcClient extends AbstractRpcClient
+    implements TrafficStatistics {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(PooledRpcClient.class);
+
+  private static final long replaceBackoffIncrement = 1000;
+  private static final long maxReplaceBackoff = 30000;
+  // How often a waiting caller checks that connections are still open.
+  private static final long connectionCheckInterval = 100;
+
+  private int poolSize;
+  private String hostName;
+  private Properties connectionProperties;
+  private LinkedBlockingQueue<RpcClient> idle;
+  private ScheduledExecutorService replacer;
+  private volatile boolean closed;
+
+  /**
+   * Open connections, whether idle or in use. Guarded by {@code this}.
+   */
+  private final List<RpcClient> connections = new ArrayList<RpcClient>();
+
+  /**
+   * Traffic of the connections that were closed, guarded by {@code this}.
+   */
+  private long retiredBytesSent;
+  private long retiredWireBytesSent;
+  private long retiredBytesReceived;
+  private long retiredWireBytesReceived;
+
+  private final AtomicInteger inUse = new AtomicInteger();
+  private final AtomicInteger pendingReplacements = new AtomicInteger();
+  private final AtomicLong borrowCount = new AtomicLong();
+  private final AtomicLong borrowTimeouts = new AtomicLong();
+  private final AtomicLong borrowUnavailable = new AtomicLong();
+  private final AtomicLong borrowWaitMicros = new AtomicLong();
+  private final AtomicLong maxBorrowWaitMicros = new AtomicLong();
+  private final AtomicLong replacedConnections = new AtomicLong();
+
+  @Override
+  public void append(Event event) throws EventDeliveryException {
+    RpcClient connection = borrow();
+    try {
+      connection.append(event);
+    } finally {
+      release(connection);
+    }
+  }
+
+  @Override
+  public void appendBatch(List<Event> events) throws EventDeliveryException {
+    RpcClient connection = borrow();
+    try {
+      connection.appendBatch(events);
+    } finally {
+      release(connection);
+    }
+  }
+
+  @Override
+  public boolean isActive() {
+    // Failed connections are replaced internally, but not while the host is
+    // down.
+    return !closed && hasConnections();
+  }
+
+  private synchronized boolean hasConnections() {
+    return !connections.isEmpty();
+  }
+
+  @Override
+  public void close() throws FlumeException {
+    closed = true;
+    if (replacer != null) {
+      replacer.shutdownNow();
+    }
+
+    List<RpcClient> open;
+    synchronized (this) {
+      open = new ArrayList<RpcClient>(connections);
+    }
+    for (RpcClient connection : open) {
+      discard(connection);
+    }
+    if (idle != null) {
+      idle.clear();
+    }
+  }
+
+  @Override
+  protected void configure(Properties properties) throws FlumeException {
+    poolSize = RpcClientConfigurationConstants.DEFAULT_CONNECTION_POOL_SIZE;
+    String strPoolSize = properties.getProperty(
+        RpcClientConfigurationConstants.CONFIG_CONNECTION_POOL_SIZE);
+    if (strPoolSize != null && strPoolSize.trim().length() > 0) {
+      try {
+        int parsedPoolSize = Integer.parseInt(strPoolSize.trim());
+        if (parsedPoolSize < 1) {
+          logger.warn("Invalid value for connectionPoolSize: {}; Using " +
+              "default value.", parsedPoolSize);
+        } else {
+          poolSize = parsedPoolSize;
+        }
+      } catch (NumberFormatException e) {
+        logger.warn("Connection pool size is not valid for RpcClient: " +
+            strPoolSize + ". Default value assigned.", e);
+      }
+    }
+
+    connectionProperties = new Properties();
+    connectionProperties.putAll(properties);
+    connectionProperties.put(RpcClientConfigurationConstants.CONFIG_CLIENT_TYPE,
+        RpcClientFactory.ClientType.DEFAULT.name());
+    hostName = properties.getProperty(
+        RpcClientConfigurationConstants.CONFIG_HOSTS);
+
+    idle = new LinkedBlockingQueue<RpcClient>();
+
+    // The first connection validates the configuration and provides the
+    // settings parsed by the connections.
+    AbstractRpcClient first = (AbstractRpcClient) openConnection();
+    batchSize = first.batchSize;
+    connectTimeout = first.connectTimeout;
+    requestTimeout = first.requestTimeout;
+
+    replacer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      private final AtomicInteger threadId = new AtomicInteger(0);
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r);
+        thread.setDaemon(true);
+        thread.setName("Pooled RPC Client Connector " +
+            threadId.incrementAndGet());
+        return thread;
+      }
+    });
+
+    for (int i = 1; i < poolSize; i++) {
+      try {
+        openConnection();
+      } catch (FlumeException e) {
+        logger.warn(this + ": Unable to open connection, will retry in " +
+            "the background", e);
+        scheduleReplacement(replaceBackoffIncrement);
+      }
+    }
+  }
+
+  private RpcClient openConnection() throws FlumeException {
+    RpcClient connection = RpcClientFactory.getInstance(connectionProperties);
+    synchronized (this) {
+      if (!closed) {
+        connections.add(connection);
+        idle.offer(connection);
+        return connection;
+      }
+    }
+    connection.close();
+    throw new FlumeException(this + ": Client is closed");
+  }
+
+  private RpcClient borrow() throws EventDeliveryException {
+    if (closed) {
+      throw new EventDeliveryException(this + ": Client is closed");
+    }
+
+    long startTime = System.nanoTime();
+    long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(requestTimeout);
+    RpcClient connection = null;
+    try {
+      while (connection == null) {
+        // The connections in use may all fail while waiting, in which case
+        // none will be returned.
+        if (!hasConnections()) {
+          borrowUnavailable.incrementAndGet();
+          throw new EventDeliveryException(this + ": No open connection, " +
+              pendingReplacements.get() + " being reopened");
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          break;
+        }
+        connection = idle.poll(Math.min(remaining,
+            TimeUnit.MILLISECONDS.toNanos(connectionCheckInterval)),
+            TimeUnit.NANOSECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EventDeliveryException(this + ": Interrupted while waiting " +
+          "for a connection", e);
+    }
+
+    long waitMicros = TimeUnit.NANOSECONDS.toMicros(
+        System.nanoTime() - startTime);
+    borrowWaitMicros.addAndGet(waitMicros);
+    long maxWaitMicros = maxBorrowWaitMicros.get();
+    while (waitMicros > maxWaitMicros
+        && !maxBorrowWaitMicros.compareAndSet(maxWaitMicros, waitMicros)) {
+      maxWaitMicros = maxBorrowWaitMicros.get();
+    }
+
+    if (connection == null) {
+      borrowTimeouts.incrementAndGet();
+      throw new EventDeliveryException(this + ": No connection available " +
+          "after " + requestTimeout + "ms");
+    }
+
+    borrowCount.incrementAndGet();
+    inUse.incrementAndGet();
+    return connection;
+  }
+
+  private void release(RpcClient connection) {
+    inUse.decrementAndGet();
+    if (!closed && connection.isActive()) {
+      idle.offer(connection);
+    } else if (discard(connection) && !closed) {
+      scheduleReplacement(0);
+    }
+  }
+
+  /**
+   * Closes a connection unless it was already discarded.
+   *
+   * @return {@code true} if the connection was closed by this call
+   */
+  private boolean discard(RpcClient connection) {
+    synchronized (this) {
+      if (!connections.remove(connection)) {
+        return false;
+      }
+      if (connection instanceof TrafficStatistics) {
+        TrafficStatistics traffic = (TrafficStatistics) connection;
+        retiredBytesSent += traffic.getBytesSent();
+        retiredWireBytesSent += traffic.getWireBytesSent();
+        retiredBytesReceived += traffic.getBytesReceived();
+        retiredWireBytesReceived += traffic.getWireBytesReceived();
+      }
+    }
+
+    try {
+      connection.close();
+    } catch (FlumeException e) {
+      logger.warn(this + ": Failed to close connection", e);
+    }
+    return true;
+  }
+
+  private void scheduleReplacement(final long delay) {
+    pendingReplacements.incrementAndGet();
+    try {
+      replacer.schedule(new Runnable() {
+        @Override
+        public void run() {
+          replaceConnection(delay);
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // The client was closed.
+      pendingReplacements.decrementAndGet();
+    }
+  }
+
+  private void replaceConnection(long delay) {
+    try {
+      if (!closed) {
+        openConnection();
+        replacedConnections.incrementAndGet();
+        logger.debug("{}: Replaced a failed connection", this);
+      }
+    } catch (FlumeException e) {
+      long nextDelay = Math.min(delay + replaceBackoffIncrement,
+          maxReplaceBackoff);
+      logger.warn(this + ": Unable to open connection, retrying in " +
+          nextDelay + "ms", e);
+      if (!closed) {
+        scheduleReplacement(nextDelay);
+      }
+    } finally {
+      pendingReplacements.decrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the number of connections this client tries to keep open.
+   */
+  public int getPoolSize() {
+    return poolSize;
+  }
+
+  /**
+   * Returns the number of connections currently used by a caller.
+   */
+  public int getConnectionsInUse() {
+    return inUse.get();
+  }
+
+  /**
+   * Returns the number of open connections not used by any caller.
+   */
+  public int getIdleConnections() {
+    return idle.size();
+  }
+
+  /**
+   * Returns the number of failed connections waiting to be replaced.
+   */
+  public int getPendingReplacements() {
+    return pendingReplacements.get();
+  }
+
+  /**
+   * Returns the number of failed connections replaced so far.
+   */
+  public long getReplacedConnections() {
+    return replacedConnections.get();
+  }
+
+  /**
+   * Returns the number of calls that obtained a connection.
+   */
+  public long getBorrowCount() {
+    return borrowCount.get();
+  }
+
+  /**
+   * Returns the number of calls that failed because no connection became
+   * available within the request timeout.
+   */
+  public long getBorrowTimeouts() {
+    return borrowTimeouts.get();
+  }
+
+  /**
+   * Returns the number of calls that failed right away because no connection
+   * was open.
+   */
+  public long getBorrowUnavailable() {
+    return borrowUnavailable.get();
+  }
+
+  /**
+   * Returns the total time callers spent waiting for a connection.
+   */
+  public long getBorrowWaitMicros() {
+    return borrowWaitMicros.get();
+  }
+
+  /**
+   * Returns the longest time a caller waited for a connection.
+   */
+  public long getMaxBorrowWaitMicros() {
+    return maxBorrowWaitMicros.get();
+  }
+
+  @Override
+  public synchronized long getBytesSent() {
+    long total = retiredBytesSent;
+    for (RpcClient connection : connections) {
+      if (connection instanceof TrafficStatistics) {
+        total += ((TrafficStatistics) connection).getBytesSent();
+      }
+    }
+    return total;
+  }
+
+  @Override
+  public synchronized long getWireBytesSent() {
+    long total = retiredWireBytesSent;
+    for (RpcClient connection : connections) {
+      if (connection instanceof TrafficStatistics) {
+        total += ((TrafficStatistics) connection).getWireBytesSent();
+      }
+    }
+    return total;
+  }
+
+  @Override
+  public synchronized long getBytesReceived() {
+    long total = retiredBytesReceived;
+    for (RpcClient connection : connections) {
+      if (connection instanceof TrafficStatistics) {
+        total += ((TrafficStatistics) connection).getBytesReceived();
+      }
+    }
+    return total;
+  }
+
+  @Override
+  public synchronized long getWireBytesReceived() {
+    long total = retiredWireBytesReceived;
+    for (RpcClient connection : connections) {
+      if (connection instanceof TrafficStatistics) {
+        total += ((TrafficStatistics) connection).getWireBytesReceived();
+      }
+    }
+    return total;
+  }
+
+  @Override
+  public String toString() {
+    return "PooledRpcClient { host: " + hostName + ", poolSize: " + poolSize
+        + ", inUse: " + inUse.get() + ", pendingReplacements: "
+        + pendingReplacements.get() + " }";
+  }
+
+}
@@ -63,11 +63,154 @@ public final class RpcClientConfigurationConstants {
    */
   public static final String CONFIG_REQUEST_TIMEOUT = "request-timeout";
 
+  /**
+   * Configuration key to specify how many batches a client may send before
+   * waiting for the oldest one to be acknowledged. Default is
+   * {@value DEFAULT_MAX_IN_FLIGHT_BATCHES}.
+   */
+  public static final String CONFIG_MAX_IN_FLIGHT_BATCHES =
+      "max-inflight-batches";
+
+  /**
+   * Configuration key to specify how requests and responses are compressed
+   * on the wire. Either {@value #COMPRESSION_TYPE_NONE} or
+   * {@value #COMPRESSION_TYPE_DEFLATE}. The Avro source receiving the events
+   * must have compression enabled as well. Default is
+   * {@value #DEFAULT_COMPRESSION_TYPE}.
+   */
+  public static final String CONFIG_COMPRESSION_TYPE = "compression-type";
+
+  /**
+   * Configuration key to specify the deflate compression level, from 0 (no
+   * compression) to 9 (best compression). Default is
+   * {@value #DEFAULT_COMPRESSION_LEVEL}.
+   */
+  public static final String CONFIG_COMPRESSION_LEVEL = "compression-level";
+
+  /**
+   * Configuration key to specify the number of connections kept to each
+   * host. The <tt>DEFAULT_POOLED</tt> client type uses this many
+   * connections, and the <tt>LoadBalancingRpcClient</tt> pools its
+   * connections to each host when this key is set to more than one. Default
+   * is {@value #DEFAULT_CONNECTION_POOL_SIZE}.
+   */
+  public static final String CONFIG_CONNECTION_POOL_SIZE =
+      "connection-pool-size";
+
+  /**
+   * Configuration key to specify how long the <tt>BatchingRpcClient</tt>
+   * waits for a batch to fill up, in milliseconds, before sending the events
+   * it has. Default is {@value #DEFAULT_LINGER_TIME_MILLIS}.
+   */
+  public static final String CONFIG_LINGER_TIME = "linger-time";
+
+  /**
+   * Configuration key to specify the type of the client the
+   * <tt>BatchingRpcClient</tt> sends its batches with. Default is
+   * {@value #DEFAULT_CLIENT_TYPE}.
+   */
+  public static final String CONFIG_BATCHING_CLIENT_TYPE =
+      "batching.client.type";
+
+  /**
+   * Configuration key to specify the directory the <tt>SpoolingRpcClient</tt>
+   * stores undelivered events in. Required by that client type.
+   */
+  public static final String CONFIG_SPOOL_DIRECTORY = "spool.directory";
+
+  /**
+   * Configuration key to specify the maximum size in bytes of the events
+   * stored by the <tt>SpoolingRpcClient</tt>. Default is
+   * {@value #DEFAULT_SPOOL_MAX_BYTES}.
+   */
+  public static final String CONFIG_SPOOL_MAX_BYTES = "spool.max-bytes";
+
+  /**
+   * Configuration key to specify the size in bytes after which the
+   * <tt>SpoolingRpcClient</tt> starts a new spool file. Default is
+   * {@value #DEFAULT_SPOOL_SEGMENT_BYTES}.
+   */
+  public static final String CONFIG_SPOOL_SEGMENT_BYTES =
+      "spool.segment-bytes";
+
+  /**
+   * Configuration key to specify how often the <tt>SpoolingRpcClient</tt>
+   * forces spooled events to disk, in milliseconds. Default is
+   * {@value #DEFAULT_SPOOL_SYNC_INTERVAL_MILLIS}.
+   */
+  public static final String CONFIG_SPOOL_SYNC_INTERVAL =
+      "spool.sync-interval";
+
+  /**
+   * Configuration key to specify how long the <tt>SpoolingRpcClient</tt>
+   * waits after a failed attempt before replaying spooled events again, in
+   * milliseconds. Default is {@value #DEFAULT_SPOOL_RETRY_INTERVAL_MILLIS}.
+   */
+  public static final String CONFIG_SPOOL_RETRY_INTERVAL =
+      "spool.retry-interval";
+
+  /**
+   * Configuration key to specify the type of the client the
+   * <tt>SpoolingRpcClient</tt> delivers events with. Default is
+   * {@value #DEFAULT_CLIENT_TYPE}.
+   */
+  public static final String CONFIG_SPOOL_CLIENT_TYPE = "spool.client.type";
+
+  public static final String COMPRESSION_TYPE_NONE = "none";
+  public static final String COMPRESSION_TYPE_DEFLATE = "deflate";
+
+  /**
+   * Default compression type.
+   */
+  public static final String DEFAULT_COMPRESSION_TYPE = COMPRESSION_TYPE_NONE;
+
+  /**
+   * Default deflate compression level.
+   */
+  public final static int DEFAULT_COMPRESSION_LEVEL = 6;
+
+  /**
+   * Default number of connections of a pooled client.
+   */
+  public final static int DEFAULT_CONNECTION_POOL_SIZE = 4;
+
+  /**
+   * Default time a batch may wait to fill up, in milliseconds.
+   */
+  public final static long DEFAULT_LINGER_TIME_MILLIS = 100;
+
+  /**
+   * Default maximum size of the spool, in bytes.
+   */
+  public final static long DEFAULT_SPOOL_MAX_BYTES = 1024L * 1024 * 1024;
+
+  /**
+   * Default size of a spool file, in bytes.
+   */
+  public final static long DEFAULT_SPOOL_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+  /**
+   * Default interval between forcing spooled events to disk, in
+   * milliseconds.
+   */
+  public final static long DEFAULT_SPOOL_SYNC_INTERVAL_MILLIS = 1000;
+
+  /**
+   * Default interval between attempts to replay spooled events, in
+   * milliseconds.
+   */
+  public final static long DEFAULT_SPOOL_RETRY_INTERVAL_MILLIS = 5000;
+
   /**
    * Default batch size.
    */
   public final static Integer DEFAULT_BATCH_SIZE = 100;
 
+  /**
+   * Default number of batches in flight.
+   */
+  public final static int DEFAULT_MAX_IN_FLIGHT_BATCHES = 1;
+
   /**
    * Default connection, handshake, and initial request timeout in milliseconds.
    */
@@ -106,7 +249,8 @@ public final class RpcClientConfigurationConstants {
   /**
    * The selector type used by the <tt>LoadBalancingRpcClient</tt>. This
    * value of this setting could be either <tt>round_robin</tt>,
-   * <tt>random</tt>, or the fully qualified name class that implements the
+   * <tt>random</tt>, <tt>latency</tt>, <tt>least_outstanding</tt>, or the
+   * fully qualified name class that implements the
    * <tt>LoadBalancingRpcClient.HostSelector</tt> interface.
    */
   public static final String CONFIG_HOST_SELECTOR =
@@ -114,6 +258,23 @@ public final class RpcClientConfigurationConstants {
 
   public static final String HOST_SELECTOR_ROUND_ROBIN = "ROUND_ROBIN";
   public static final String HOST_SELECTOR_RANDOM = "RANDOM";
+  public static final String HOST_SELECTOR_LATENCY = "LATENCY";
+  public static final String HOST_SELECTOR_LEAST_OUTSTANDING =
+      "LEAST_OUTSTANDING";
+
+  /**
+   * Configuration key to specify the longest time in milliseconds a host
+   * that keeps failing is skipped by the <tt>latency</tt> and
+   * <tt>least_outstanding</tt> host selectors of the
+   * <tt>LoadBalancingRpcClient</tt>. Zero disables the backoff. Default is
+   * {@value #DEFAULT_MAX_BACKOFF_MILLIS}.
+   */
+  public static final String CONFIG_MAX_BACKOFF = "max-backoff";
+
+  /**
+   * Default maximum backoff of a failing host, in milliseconds.
+   */
+  public final static long DEFAULT_MAX_BACKOFF_MILLIS = 30000;
 
   private RpcClientConfigurationConstants() {
     // disable explicit object creation
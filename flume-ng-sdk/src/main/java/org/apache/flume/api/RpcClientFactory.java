@@ -174,7 +174,10 @@ public class RpcClientFactory {
     OTHER(null),
     DEFAULT(NettyAvroRpcClient.class.getCanonicalName()),
     DEFAULT_FAILOVER(FailoverRpcClient.class.getCanonicalName()),
-    DEFAULT_LOADBALANCE(LoadBalancingRpcClient.class.getCanonicalName());
+    DEFAULT_LOADBALANCE(LoadBalancingRpcClient.class.getCanonicalName()),
+    DEFAULT_POOLED(PooledRpcClient.class.getCanonicalName()),
+    DEFAULT_BATCHING(BatchingRpcClient.class.getCanonicalName()),
+    DEFAULT_SPOOLING(SpoolingRpcClient.class.getCanonicalName());
 
 
     private final String clientClassName;
@@ -0,0 +1,371 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.FlumeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>An implementation of RpcClient interface that stores events on local
+ * disk when they cannot be delivered, and replays them in order once the
+ * agent can be reached again. Applications using it keep running through
+ * agent restarts without buffering events in memory.</p>
+ *
+ * <p>Events are delivered with another client created from the same
+ * properties, its type being given by <tt>spool.client.type</tt>, so a
+ * failover or load balancing client can be used to reach several agents.
+ * If that client fails, or while earlier events are still spooled, events
+ * are appended to files in <tt>spool.directory</tt> and the append
+ * succeeds. A background thread replays the spooled events in batches of
+ * <tt>batch-size</tt>, and retries every <tt>spool.retry-interval</tt>
+ * milliseconds while the agent cannot be reached.</p>
+ *
+ * <p>Spooled events are forced to disk every <tt>spool.sync-interval</tt>
+ * milliseconds, so a crash of the host may lose the events spooled since the
+ * last sync. Once <tt>spool.max-bytes</tt> are spooled, appends fail with an
+ * {@link EventDeliveryException}. Events still spooled when the client is
+ * closed are replayed by the next client using the same directory.</p>
+ */
+public class SpoolingRpcClient extends AbstractRpcClient {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(SpoolingRpcClient.class);
+
+  private final Object delegateLock = new Object();
+  private RpcClient delegate;
+  private Properties delegateProperties;
+
+  private EventSpool spool;
+  private File spoolDirectory;
+  private long retryInterval;
+  private ScheduledExecutorService executor;
+  private volatile boolean closed;
+
+  private final AtomicLong spooledEvents = new AtomicLong();
+  private final AtomicLong replayedEvents = new AtomicLong();
+
+  @Override
+  public void append(Event event) throws EventDeliveryException {
+    deliver(Collections.singletonList(event), true);
+  }
+
+  @Override
+  public void appendBatch(List<Event> events) throws EventDeliveryException {
+    if (!events.isEmpty()) {
+      deliver(events, false);
+    }
+  }
+
+  @Override
+  public boolean isActive() {
+    // The client delivering the events is replaced internally.
+    return !closed;
+  }
+
+  /**
+   * Stops replaying events and closes the underlying client. Spooled events
+   * are forced to disk and stay in the spool directory.
+   */
+  @Override
+  public void close() throws FlumeException {
+    synchronized (delegateLock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(requestTimeout, TimeUnit.MILLISECONDS)) {
+        logger.warn("{}: Timed out waiting for replay to stop", this);
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException ex) {
+      logger.warn(this + ": Interrupted during close", ex);
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+
+    try {
+      spool.close();
+    } catch (IOException ex) {
+      throw new FlumeException(this + ": Unable to close spool", ex);
+    } finally {
+      synchronized (delegateLock) {
+        if (delegate != null) {
+          delegate.close();
+          delegate = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the size in bytes of the events waiting in the spool.
+   */
+  public long getSpoolSize() {
+    return spool.getSize();
+  }
+
+  /**
+   * Returns the number of events written to the spool.
+   */
+  public long getSpooledEvents() {
+    return spooledEvents.get();
+  }
+
+  /**
+   * Returns the number of spooled events delivered.
+   */
+  public long getReplayedEvents() {
+    return replayedEvents.get();
+  }
+
+  @Override
+  protected void configure(Properties properties) throws FlumeException {
+    String delegateType = properties.getProperty(
+        RpcClientConfigurationConstants.CONFIG_SPOOL_CLIENT_TYPE,
+        RpcClientConfigurationConstants.DEFAULT_CLIENT_TYPE);
+    if (delegateType.equalsIgnoreCase(
+        RpcClientFactory.ClientType.DEFAULT_SPOOLING.name())) {
+      throw new FlumeException("A spooling client cannot deliver its events " +
+          "through another spooling client");
+    }
+    delegateProperties = new Properties();
+    delegateProperties.putAll(properties);
+    delegateProperties.put(RpcClientConfigurationConstants.CONFIG_CLIENT_TYPE,
+        delegateType);
+
+    String directory = properties.getProperty(
+        RpcClientConfigurationConstants.CONFIG_SPOOL_DIRECTORY);
+    if (directory == null || directory.trim().isEmpty()) {
+      throw new FlumeException("No spool directory specified with " +
+          RpcClientConfigurationConstants.CONFIG_SPOOL_DIRECTORY);
+    }
+    spoolDirectory = new File(directory.trim());
+
+    long maxBytes = getPositiveLong(properties,
+        RpcClientConfigurationConstants.CONFIG_SPOOL_MAX_BYTES,
+        RpcClientConfigurationConstants.DEFAULT_SPOOL_MAX_BYTES);
+    long segmentBytes = getPositiveLong(properties,
+        RpcClientConfigurationConstants.CONFIG_SPOOL_SEGMENT_BYTES,
+        RpcClientConfigurationConstants.DEFAULT_SPOOL_SEGMENT_BYTES);
+    long syncInterval = getPositiveLong(properties,
+        RpcClientConfigurationConstants.CONFIG_SPOOL_SYNC_INTERVAL,
+        RpcClientConfigurationConstants.DEFAULT_SPOOL_SYNC_INTERVAL_MILLIS);
+    retryInterval = getPositiveLong(properties,
+        RpcClientConfigurationConstants.CONFIG_SPOOL_RETRY_INTERVAL,
+        RpcClientConfigurationConstants.DEFAULT_SPOOL_RETRY_INTERVAL_MILLIS);
+
+    // The agent may be down when the application starts, so the underlying
+    // client is created on first use if it cannot be created now.
+    batchSize = (int) getPositiveLong(properties,
+        RpcClientConfigurationConstants.CONFIG_BATCH_SIZE,
+        RpcClientConfigurationConstants.DEFAULT_BATCH_SIZE);
+    try {
+      delegate = RpcClientFactory.getInstance(delegateProperties);
+      batchSize = delegate.getBatchSize();
+      if (delegate instanceof AbstractRpcClient) {
+        connectTimeout = ((AbstractRpcClient) delegate).connectTimeout;
+        requestTimeout = ((AbstractRpcClient) delegate).requestTimeout;
+      }
+    } catch (FlumeException ex) {
+      logger.warn("Unable to create RPC client, events will be spooled", ex);
+    }
+
+    try {
+      spool = new EventSpool(spoolDirectory, maxBytes, segmentBytes);
+    } catch (IOException ex) {
+      if (delegate != null) {
+        delegate.close();
+      }
+      throw new FlumeException("Unable to open spool directory " +
+          spoolDirectory, ex);
+    }
+
+    final AtomicInteger threadCounter = new AtomicInteger();
+    executor = new ScheduledThreadPoolExecutor(2, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r);
+        thread.setDaemon(true);
+        thread.setName("Spooling RPC Client - " +
+            threadCounter.incrementAndGet());
+        return thread;
+      }
+    });
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          spool.sync();
+        } catch (IOException ex) {
+          logger.error(SpoolingRpcClient.this + ": Unable to sync spool", ex);
+        }
+      }
+    }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        replay();
+      }
+    }, 0, retryInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Sends events with the underlying client, or spools them if that fails or
+   * earlier events are still waiting to be replayed.
+   */
+  private void deliver(List<Event> events, boolean single)
+      throws EventDeliveryException {
+    if (closed) {
+      throw new EventDeliveryException(this + ": Client closed");
+    }
+
+    if (spool.isEmpty()) {
+      try {
+        RpcClient client = getDelegate();
+        if (single) {
+          client.append(events.get(0));
+        } else {
+          client.appendBatch(events);
+        }
+        return;
+      } catch (EventDeliveryException ex) {
+        logger.warn(this + ": Failed to send " + events.size() +
+            " events, spooling them", ex);
+      } catch (FlumeException ex) {
+        logger.warn(this + ": Failed to send " + events.size() +
+            " events, spooling them", ex);
+      }
+    }
+
+    try {
+      if (!spool.write(events)) {
+        throw new EventDeliveryException(this + ": Spool is full, unable " +
+            "to store " + events.size() + " events");
+      }
+    } catch (IOException ex) {
+      throw new EventDeliveryException(this + ": Unable to spool " +
+          events.size() + " events", ex);
+    }
+    spooledEvents.addAndGet(events.size());
+  }
+
+  /**
+   * Sends spooled events until the spool is empty or a batch fails. Only
+   * called from the replay task, so batches are sent in spool order.
+   */
+  private void replay() {
+    try {
+      while (!closed) {
+        EventSpool.Batch batch = spool.read(batchSize);
+        if (batch == null) {
+          return;
+        }
+        List<Event> events = batch.getEvents();
+        try {
+          getDelegate().appendBatch(events);
+        } catch (EventDeliveryException ex) {
+          logger.debug("{}: Unable to replay spooled events, retrying in " +
+              "{}ms: {}", new Object[] { this, retryInterval, ex });
+          return;
+        } catch (FlumeException ex) {
+          logger.debug("{}: Unable to replay spooled events, retrying in " +
+              "{}ms: {}", new Object[] { this, retryInterval, ex });
+          return;
+        }
+        spool.commit(batch);
+        replayedEvents.addAndGet(events.size());
+      }
+    } catch (IOException ex) {
+      logger.error(this + ": Unable to read spool, retrying in " +
+          retryInterval + "ms", ex);
+    } catch (RuntimeException ex) {
+      logger.error(this + ": Unexpected failure replaying spool, retrying " +
+          "in " + retryInterval + "ms", ex);
+    }
+  }
+
+  /**
+   * Returns the client that delivers events, replacing it if it failed.
+   */
+  private RpcClient getDelegate() throws FlumeException {
+    synchronized (delegateLock) {
+      if (closed) {
+        throw new FlumeException(this + ": Client closed");
+      }
+      if (delegate != null && !delegate.isActive()) {
+        try {
+          delegate.close();
+        } catch (FlumeException ex) {
+          logger.warn(this + ": Failed to close client " + delegate, ex);
+        }
+        delegate = null;
+      }
+      if (delegate == null) {
+        delegate = RpcClientFactory.getInstance(delegateProperties);
+      }
+      return delegate;
+    }
+  }
+
+  private static long getPositiveLong(Properties properties, String key,
+      long defaultValue) {
+    String value = properties.getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      long parsed = Long.parseLong(value.trim());
+      if (parsed > 0) {
+        return parsed;
+      }
+      logger.warn("Invalid value for {}: {}. Using default value instead.",
+          key, value);
+    } catch (NumberFormatException ex) {
+      logger.warn("Invalid value for {}: {}. Using default value instead.",
+          key, value);
+    }
+    return defaultValue;
+  }
+
+  @Override
+  public String toString() {
+    return "SpoolingRpcClient { delegate: " + delegate + ", spool: " +
+        spoolDirectory + " }";
+  }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+/**
+ * <p>An {@link RpcClient} that counts the bytes it exchanges with the
+ * server, both as seen by the RPC layer and as written to or read from the
+ * network. The two differ when wire compression is enabled through
+ * {@link RpcClientConfigurationConstants#CONFIG_COMPRESSION_TYPE}.</p>
+ *
+ * <p>All counts are totals since the client was created.</p>
+ */
+public interface TrafficStatistics {
+
+  /**
+   * Returns the number of bytes sent, before compression.
+   */
+  public long getBytesSent();
+
+  /**
+   * Returns the number of bytes written to the network.
+   */
+  public long getWireBytesSent();
+
+  /**
+   * Returns the number of bytes received, after decompression.
+   */
+  public long getBytesReceived();
+
+  /**
+   * Returns the number of bytes read from the network.
+   */
+  public long getWireBytesReceived();
+
+}
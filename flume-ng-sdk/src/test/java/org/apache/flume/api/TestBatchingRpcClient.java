@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.avro.AvroRemoteException;
+import org.apache.avro.ipc.Server;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.api.RpcTestUtils.FailedAvroHandler;
+import org.apache.flume.api.RpcTestUtils.OKAvroHandler;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.source.avro.AvroFlumeEvent;
+import org.apache.flume.source.avro.Status;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestBatchingRpcClient {
+
+  /**
+   * Records the size of every batch received.
+   */
+  private static class BatchRecordingHandler extends OKAvroHandler {
+
+    private final List<Integer> batches =
+        Collections.synchronizedList(new ArrayList<Integer>());
+
+    @Override
+    public Status appendBatch(List<AvroFlumeEvent> events) throws
+        AvroRemoteException {
+      batches.add(events.size());
+      return Status.OK;
+    }
+  }
+
+  private static BatchingRpcClient getBatchingClient(Server server,
+      int batchSize, long lingerTime) {
+    Properties props = new Properties();
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_CLIENT_TYPE,
+        "default_batching");
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS, "h1");
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS_PREFIX
+        + "h1", "127.0.0.1:" + server.getPort());
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_BATCH_SIZE,
+        String.valueOf(batchSize));
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_LINGER_TIME,
+        String.valueOf(lingerTime));
+    RpcClient client = RpcClientFactory.getInstance(props);
+    Assert.assertTrue(client instanceof BatchingRpcClient);
+    return (BatchingRpcClient) client;
+  }
+
+  @Test
+  public void testLingerTimeFlush() throws Exception {
+    BatchRecordingHandler handler = new BatchRecordingHandler();
+    Server server = RpcTestUtils.startServer(handler);
+    BatchingRpcClient client = null;
+    try {
+      client = getBatchingClient(server, 10, 200);
+
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int i = 0; i < 3; i++) {
+        futures.add(client.appendAsync(EventBuilder.withBody("evt" + i,
+            Charset.forName("UTF8"))));
+      }
+      for (Future<Void> future : futures) {
+        future.get(5, TimeUnit.SECONDS);
+      }
+
+      Assert.assertEquals(Collections.singletonList(3), handler.batches);
+    } finally {
+      RpcTestUtils.stopServer(server);
+      if (client != null) client.close();
+    }
+  }
+
+  @Test
+  public void testBatchSizeFlush() throws Exception {
+    BatchRecordingHandler handler = new BatchRecordingHandler();
+    Server server = RpcTestUtils.startServer(handler);
+    BatchingRpcClient client = null;
+    try {
+      // A full batch is sent without waiting for the linger time.
+      client = getBatchingClient(server, 5, 60000);
+
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int i = 0; i < 5; i++) {
+        futures.add(client.appendAsync(EventBuilder.withBody("evt" + i,
+            Charset.forName("UTF8"))));
+      }
+      for (Future<Void> future : futures) {
+        future.get(5, TimeUnit.SECONDS);
+      }
+
+      Assert.assertEquals(Collections.singletonList(5), handler.batches);
+    } finally {
+      RpcTestUtils.stopServer(server);
+      if (client != null) client.close();
+    }
+  }
+
+  @Test
+  public void testSteadyLoadSendsFullBatches() throws Exception {
+    BatchRecordingHandler handler = new BatchRecordingHandler();
+    Server server = RpcTestUtils.startServer(handler);
+    BatchingRpcClient client = null;
+    try {
+      // Batches fill up long before the linger time. Linger flushes left
+      // over from earlier batches must not send the later ones early.
+      client = getBatchingClient(server, 5, 500);
+
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int i = 0; i < 200; i++) {
+        futures.add(client.appendAsync(EventBuilder.withBody("evt" + i,
+            Charset.forName("UTF8"))));
+        Thread.sleep(10);
+      }
+      for (Future<Void> future : futures) {
+        future.get(5, TimeUnit.SECONDS);
+      }
+
+      Assert.assertEquals(40, handler.batches.size());
+      for (int size : handler.batches) {
+        Assert.assertEquals(5, size);
+      }
+    } finally {
+      RpcTestUtils.stopServer(server);
+      if (client != null) client.close();
+    }
+  }
+
+  @Test
+  public void testFailedBatch() throws Exception {
+    Server server = RpcTestUtils.startServer(new FailedAvroHandler());
+    BatchingRpcClient client = null;
+    try {
+      client = getBatchingClient(server, 10, 100);
+
+      final CountDownLatch notified = new CountDownLatch(1);
+      final AtomicReference<EventDeliveryException> failure =
+          new AtomicReference<EventDeliveryException>();
+      client.appendAsync(EventBuilder.withBody("evt", Charset.forName("UTF8")),
+          new BatchingRpcClient.DeliveryCallback() {
+            @Override
+            public void onSuccess() {
+              notified.countDown();
+            }
+
+            @Override
+            public void onFailure(EventDeliveryException cause) {
+              failure.set(cause);
+              notified.countDown();
+            }
+          });
+      Assert.assertTrue(notified.await(5, TimeUnit.SECONDS));
+      Assert.assertNotNull(failure.get());
+
+      Future<Void> future = client.appendAsync(EventBuilder.withBody("evt",
+          Charset.forName("UTF8")));
+      try {
+        future.get(5, TimeUnit.SECONDS);
+        Assert.fail("Batch should have failed");
+      } catch (ExecutionException ex) {
+        Assert.assertTrue(ex.getCause() instanceof EventDeliveryException);
+      }
+
+      // The failed connection is replaced, so the client stays usable.
+      Assert.assertTrue(client.isActive());
+    } finally {
+      RpcTestUtils.stopServer(server);
+      if (client != null) client.close();
+    }
+  }
+
+}
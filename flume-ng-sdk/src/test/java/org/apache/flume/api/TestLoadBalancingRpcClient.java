@@ -382,6 +382,85 @@ public class TestLoadBalancingRpcClient {
     }
   }
 
+  @Test
+  public void testLatencySelectorSkipsFailedHost() throws Exception {
+    final int NUM_HOSTS = 3;
+    final int NUM_EVENTS = 100;
+    Server[] s = new Server[NUM_HOSTS];
+    LoadBalancedAvroHandler[] h = new LoadBalancedAvroHandler[NUM_HOSTS];
+    LoadBalancingRpcClient c = null;
+    try{
+      Properties p = new Properties();
+      StringBuilder hostList = new StringBuilder("");
+      for (int i = 0; i<NUM_HOSTS; i++) {
+        h[i] = new LoadBalancedAvroHandler();
+        s[i] = RpcTestUtils.startServer(h[i]);
+        String name = "h" + i;
+        p.put("hosts." + name, "127.0.0.1:" + s[i].getPort());
+        hostList.append(name).append(" ");
+      }
+      h[1].setFailed();
+
+      p.put("hosts", hostList.toString().trim());
+      p.put("client.type", "default_loadbalance");
+      p.put("host-selector", "latency");
+
+      c = (LoadBalancingRpcClient) RpcClientFactory.getInstance(p);
+
+      for (int i = 0; i < NUM_EVENTS; i++) {
+        c.append(getEvent(i));
+      }
+
+      // The failed host is skipped for a second after its first failure, and
+      // for two seconds after its second.
+      HostHealth failed = c.getHostHealth().get("h1");
+      Assert.assertTrue(failed.getFailures() >= 1);
+      Assert.assertTrue(failed.getFailures() <= 2);
+      Assert.assertFalse(failed.isAvailable(System.currentTimeMillis()));
+      Assert.assertEquals(NUM_EVENTS,
+          h[0].getAppendCount() + h[2].getAppendCount());
+      Assert.assertTrue(
+          c.getHostHealth().get("h0").getAverageLatencyMicros() >= 0);
+      Assert.assertEquals(0,
+          c.getHostHealth().get("h2").getOutstandingRequests());
+    } finally {
+      for (int i = 0; i<NUM_HOSTS; i++) {
+        if (s[i] != null) s[i].close();
+      }
+      if (c != null) c.close();
+    }
+  }
+
+  @Test
+  public void testHostHealthBackoff() {
+    HostHealth health = new HostHealth(new HostInfo("h1", "127.0.0.1", 1));
+    long now = System.currentTimeMillis();
+    Assert.assertTrue(health.isAvailable(now));
+
+    health.requestStarted();
+    health.requestFailed(3000);
+    health.requestStarted();
+    health.requestFailed(3000);
+    // One second after the first failure, two after the second.
+    Assert.assertTrue(health.getBlacklistedUntil() >= now + 2000);
+    Assert.assertFalse(health.isAvailable(now + 1500));
+    Assert.assertEquals(2, health.getConsecutiveFailures());
+
+    health.requestStarted();
+    health.requestFailed(3000);
+    // Capped at the maximum backoff.
+    Assert.assertTrue(health.getBlacklistedUntil()
+        <= System.currentTimeMillis() + 3000);
+
+    health.requestStarted();
+    health.requestSucceeded(2000000);
+    Assert.assertTrue(health.isAvailable(System.currentTimeMillis()));
+    Assert.assertEquals(0, health.getConsecutiveFailures());
+    Assert.assertEquals(2000, health.getAverageLatencyMicros());
+    Assert.assertEquals(0, health.getOutstandingRequests());
+    Assert.assertEquals(3, health.getFailures());
+  }
+
   private List<Event> getBatchedEvent(int index) {
     List<Event> result = new ArrayList<Event>();
     result.add(EventBuilder.withBody(("event: " + index).getBytes()));
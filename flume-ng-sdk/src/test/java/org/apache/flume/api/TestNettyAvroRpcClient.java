@@ -21,16 +21,22 @@ package org.apache.flume.api;
 import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
+import org.apache.avro.AvroRemoteException;
 import org.apache.avro.ipc.Server;
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
 import org.apache.flume.FlumeException;
 import org.apache.flume.event.EventBuilder;
+import org.apache.flume.source.avro.AvroFlumeEvent;
+import org.apache.flume.source.avro.Status;
 
 import org.apache.flume.api.RpcTestUtils.FailedAvroHandler;
 import org.apache.flume.api.RpcTestUtils.OKAvroHandler;
@@ -241,4 +247,141 @@ public class TestNettyAvroRpcClient {
     logger.error("Throwing: I should never have gotten here!");
   }
 
+  /**
+   * Send several batches without waiting, and check that they all arrive in
+   * the order they were sent.
+   */
+  @Test
+  public void testAsyncBatchInFlight() throws FlumeException,
+      EventDeliveryException, InterruptedException, ExecutionException {
+    final List<String> received =
+        Collections.synchronizedList(new ArrayList<String>());
+    NettyAvroRpcClient client = null;
+    Server server = RpcTestUtils.startServer(new OKAvroHandler() {
+      @Override
+      public Status appendBatch(List<AvroFlumeEvent> events) throws
+          AvroRemoteException {
+        for (AvroFlumeEvent event : events) {
+          received.add(new String(event.getBody().array(),
+              Charset.forName("UTF8")));
+        }
+        return Status.OK;
+      }
+    });
+    Properties props = new Properties();
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS, "localhost");
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS_PREFIX + "localhost",
+        localhost + ":" + server.getPort());
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_BATCH_SIZE, "5");
+    props.setProperty(
+        RpcClientConfigurationConstants.CONFIG_MAX_IN_FLIGHT_BATCHES, "4");
+    try {
+      client = new NettyAvroRpcClient();
+      client.configure(props);
+      Assert.assertEquals(4, client.getMaxInFlightBatches());
+
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      List<String> sent = new ArrayList<String>();
+      for (int i = 0; i < 10; i++) {
+        List<Event> events = new ArrayList<Event>();
+        for (int j = 0; j < 5; j++) {
+          String body = "evt: " + i + "-" + j;
+          events.add(EventBuilder.withBody(body, Charset.forName("UTF8")));
+          sent.add(body);
+        }
+        futures.add(client.appendBatchAsync(events));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+        Assert.assertTrue(future.isDone());
+      }
+
+      Assert.assertEquals(sent, received);
+      Assert.assertTrue(client.isActive());
+    } finally {
+      RpcTestUtils.stopServer(server);
+      if (client != null) client.close();
+    }
+  }
+
+  /**
+   * A batch rejected by the server fails its future and disables the client.
+   */
+  @Test
+  public void testAsyncBatchFailed() throws FlumeException,
+      EventDeliveryException, InterruptedException {
+    NettyAvroRpcClient client = null;
+    Server server = RpcTestUtils.startServer(new FailedAvroHandler());
+    try {
+      client = RpcTestUtils.getStockLocalClient(server.getPort());
+      List<Event> events = new ArrayList<Event>();
+      events.add(EventBuilder.withBody("evt", Charset.forName("UTF8")));
+
+      Future<Void> future = client.appendBatchAsync(events);
+      try {
+        future.get();
+        Assert.fail("Batch should have failed");
+      } catch (ExecutionException ex) {
+        Assert.assertTrue(ex.getCause() instanceof EventDeliveryException);
+      }
+      Assert.assertFalse("Client should not be active", client.isActive());
+    } finally {
+      RpcTestUtils.stopServer(server);
+      if (client != null) client.close();
+    }
+  }
+
+  /**
+   * Once the handshake is done requests are sent from the calling thread, and
+   * a request that gets no response fails after the request timeout.
+   */
+  @Test
+  public void testRequestTimeout() throws FlumeException,
+      EventDeliveryException {
+    NettyAvroRpcClient client = null;
+    Server server = RpcTestUtils.startServer(new OKAvroHandler() {
+      private boolean first = true;
+
+      @Override
+      public synchronized Status append(AvroFlumeEvent event) throws
+          AvroRemoteException {
+        if (!first) {
+          try {
+            Thread.sleep(3000);
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        first = false;
+        return Status.OK;
+      }
+    });
+    Properties props = new Properties();
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS, "localhost");
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS_PREFIX + "localhost",
+        localhost + ":" + server.getPort());
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_REQUEST_TIMEOUT,
+        "1000");
+    try {
+      client = new NettyAvroRpcClient();
+      client.configure(props);
+      client.append(EventBuilder.withBody("handshake",
+          Charset.forName("UTF8")));
+
+      long start = System.currentTimeMillis();
+      try {
+        client.append(EventBuilder.withBody("slow", Charset.forName("UTF8")));
+        Assert.fail("Request should have timed out");
+      } catch (EventDeliveryException ex) {
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue("Timed out after " + elapsed + "ms",
+            elapsed >= 900 && elapsed < 2500);
+      }
+      Assert.assertFalse("Client should not be active", client.isActive());
+    } finally {
+      RpcTestUtils.stopServer(server);
+      if (client != null) client.close();
+    }
+  }
+
 }
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.avro.ipc.Server;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.api.RpcTestUtils.FailedAvroHandler;
+import org.apache.flume.api.RpcTestUtils.OKAvroHandler;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestPooledRpcClient {
+
+  private static Properties getPooledProperties(Server server, int poolSize) {
+    Properties props = new Properties();
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_CLIENT_TYPE,
+        "default_pooled");
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS, "h1");
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS_PREFIX
+        + "h1", "127.0.0.1:" + server.getPort());
+    props.setProperty(
+        RpcClientConfigurationConstants.CONFIG_CONNECTION_POOL_SIZE,
+        String.valueOf(poolSize));
+    return props;
+  }
+
+  @Test
+  public void testConcurrentAppends() throws Exception {
+    Server server = RpcTestUtils.startServer(new OKAvroHandler());
+    RpcClient client = null;
+    try {
+      client = RpcClientFactory.getInstance(getPooledProperties(server, 3));
+      Assert.assertTrue(client instanceof PooledRpcClient);
+      final PooledRpcClient pooled = (PooledRpcClient) client;
+      Assert.assertEquals(3, pooled.getIdleConnections());
+
+      final AtomicInteger failures = new AtomicInteger();
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < 6; i++) {
+        Thread thread = new Thread() {
+          @Override
+          public void run() {
+            for (int j = 0; j < 20; j++) {
+              try {
+                pooled.append(EventBuilder.withBody("pooled",
+                    Charset.forName("UTF8")));
+              } catch (EventDeliveryException e) {
+                failures.incrementAndGet();
+              }
+            }
+          }
+        };
+        threads.add(thread);
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+
+      Assert.assertEquals(0, failures.get());
+      Assert.assertEquals(120, pooled.getBorrowCount());
+      Assert.assertEquals(0, pooled.getConnectionsInUse());
+      Assert.assertEquals(3, pooled.getIdleConnections());
+      Assert.assertTrue(pooled.getBytesSent() > 0);
+    } finally {
+      RpcTestUtils.stopServer(server);
+      if (client != null) client.close();
+    }
+  }
+
+  @Test
+  public void testFailedConnectionReplaced() throws Exception {
+    Server server = RpcTestUtils.startServer(new FailedAvroHandler());
+    RpcClient client = null;
+    try {
+      client = RpcClientFactory.getInstance(getPooledProperties(server, 2));
+      PooledRpcClient pooled = (PooledRpcClient) client;
+
+      try {
+        pooled.append(EventBuilder.withBody("failed",
+            Charset.forName("UTF8")));
+        Assert.fail("Append to a failing server should throw");
+      } catch (EventDeliveryException e) {
+        // expected
+      }
+
+      for (int i = 0; i < 50 && (pooled.getReplacedConnections() == 0
+          || pooled.getPendingReplacements() > 0); i++) {
+        Thread.sleep(100);
+      }
+
+      Assert.assertEquals(1, pooled.getReplacedConnections());
+      Assert.assertEquals(0, pooled.getPendingReplacements());
+      Assert.assertEquals(2, pooled.getIdleConnections());
+      Assert.assertTrue(pooled.isActive());
+    } finally {
+      RpcTestUtils.stopServer(server);
+      if (client != null) client.close();
+    }
+  }
+
+  @Test
+  public void testHostDownFailsFast() throws Exception {
+    Server server = RpcTestUtils.startServer(new OKAvroHandler());
+    RpcClient client = null;
+    try {
+      client = RpcClientFactory.getInstance(getPooledProperties(server, 2));
+      PooledRpcClient pooled = (PooledRpcClient) client;
+      Assert.assertTrue(pooled.isActive());
+      RpcTestUtils.stopServer(server);
+      server = null;
+
+      // Each failed append discards a connection that cannot be reopened.
+      for (int i = 0; i < 10 && pooled.isActive(); i++) {
+        try {
+          pooled.append(EventBuilder.withBody("down",
+              Charset.forName("UTF8")));
+        } catch (EventDeliveryException e) {
+          // expected
+        }
+      }
+      Assert.assertFalse(pooled.isActive());
+      Assert.assertTrue(pooled.getPendingReplacements() > 0);
+
+      long start = System.currentTimeMillis();
+      try {
+        pooled.append(EventBuilder.withBody("down", Charset.forName("UTF8")));
+        Assert.fail("Append without an open connection should throw");
+      } catch (EventDeliveryException e) {
+        // expected
+      }
+      Assert.assertTrue(System.currentTimeMillis() - start <
+          RpcClientConfigurationConstants.DEFAULT_REQUEST_TIMEOUT_MILLIS / 4);
+      Assert.assertEquals(1, pooled.getBorrowUnavailable());
+      Assert.assertEquals(0, pooled.getBorrowTimeouts());
+    } finally {
+      if (server != null) RpcTestUtils.stopServer(server);
+      if (client != null) client.close();
+    }
+  }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.avro.AvroRemoteException;
+import org.apache.avro.ipc.Server;
+import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.api.RpcTestUtils.OKAvroHandler;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.source.avro.AvroFlumeEvent;
+import org.apache.flume.source.avro.Status;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSpoolingRpcClient {
+
+  private File directory;
+
+  /**
+   * Records the body of every event received.
+   */
+  private static class BodyRecordingHandler extends OKAvroHandler {
+
+    private final List<String> bodies =
+        Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public Status append(AvroFlumeEvent event) throws AvroRemoteException {
+      bodies.add(toString(event));
+      return Status.OK;
+    }
+
+    @Override
+    public Status appendBatch(List<AvroFlumeEvent> events) throws
+        AvroRemoteException {
+      for (AvroFlumeEvent event : events) {
+        bodies.add(toString(event));
+      }
+      return Status.OK;
+    }
+
+    private static String toString(AvroFlumeEvent event) {
+      return new String(event.getBody().array(), Charset.forName("UTF8"));
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    directory = File.createTempFile("spool", "");
+    Assert.assertTrue(directory.delete());
+    Assert.assertTrue(directory.mkdir());
+  }
+
+  @After
+  public void tearDown() {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  private SpoolingRpcClient getSpoolingClient(int port, long maxBytes) {
+    Properties props = new Properties();
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_CLIENT_TYPE,
+        "default_spooling");
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS, "h1");
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS_PREFIX
+        + "h1", "127.0.0.1:" + port);
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_BATCH_SIZE, "3");
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_CONNECT_TIMEOUT,
+        "1000");
+    props.setProperty(
+        RpcClientConfigurationConstants.CONFIG_SPOOL_DIRECTORY,
+        directory.getAbsolutePath());
+    props.setProperty(
+        RpcClientConfigurationConstants.CONFIG_SPOOL_MAX_BYTES,
+        String.valueOf(maxBytes));
+    props.setProperty(
+        RpcClientConfigurationConstants.CONFIG_SPOOL_RETRY_INTERVAL, "200");
+    RpcClient client = RpcClientFactory.getInstance(props);
+    Assert.assertTrue(client instanceof SpoolingRpcClient);
+    return (SpoolingRpcClient) client;
+  }
+
+  private static List<Event> getEvents(int first, int count) {
+    List<Event> events = new ArrayList<Event>();
+    for (int i = first; i < first + count; i++) {
+      events.add(EventBuilder.withBody("evt" + i, Charset.forName("UTF8")));
+    }
+    return events;
+  }
+
+  private static int getUnusedPort() {
+    Server server = RpcTestUtils.startServer(new OKAvroHandler());
+    int port = server.getPort();
+    RpcTestUtils.stopServer(server);
+    return port;
+  }
+
+  @Test
+  public void testReplayAfterAgentStarts() throws Exception {
+    int port = getUnusedPort();
+    SpoolingRpcClient client = getSpoolingClient(port, 1024 * 1024);
+    Server server = null;
+    try {
+      // The agent is down, so the events are spooled.
+      client.appendBatch(getEvents(0, 5));
+      for (Event event : getEvents(5, 2)) {
+        client.append(event);
+      }
+      Assert.assertEquals(7, client.getSpooledEvents());
+      Assert.assertTrue(client.getSpoolSize() > 0);
+
+      BodyRecordingHandler handler = new BodyRecordingHandler();
+      server = RpcTestUtils.startServer(handler, port);
+
+      for (int i = 0; i < 100 && client.getReplayedEvents() < 7; i++) {
+        Thread.sleep(100);
+      }
+      Assert.assertEquals(7, client.getReplayedEvents());
+      Assert.assertEquals(0, client.getSpoolSize());
+
+      // Once the spool is empty, events are sent directly.
+      client.append(getEvents(7, 1).get(0));
+      Assert.assertEquals(7, client.getSpooledEvents());
+
+      List<String> expected = new ArrayList<String>();
+      for (int i = 0; i < 8; i++) {
+        expected.add("evt" + i);
+      }
+      Assert.assertEquals(expected, handler.bodies);
+    } finally {
+      client.close();
+      if (server != null) {
+        RpcTestUtils.stopServer(server);
+      }
+    }
+  }
+
+  @Test
+  public void testSpoolFull() throws Exception {
+    SpoolingRpcClient client = getSpoolingClient(getUnusedPort(), 100);
+    try {
+      client.append(getEvents(0, 1).get(0));
+      try {
+        client.appendBatch(getEvents(1, 10));
+        Assert.fail("Expected the spool to be full");
+      } catch (EventDeliveryException ex) {
+        // expected
+      }
+      Assert.assertEquals(1, client.getSpooledEvents());
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void testSpoolSurvivesRestart() throws Exception {
+    EventSpool spool = new EventSpool(directory, 1024 * 1024, 64);
+    spool.write(getEvents(0, 4));
+    spool.write(getEvents(4, 4));
+    spool.sync();
+
+    EventSpool.Batch batch = spool.read(3);
+    Assert.assertEquals(3, batch.getEvents().size());
+    spool.commit(batch);
+    spool.close();
+
+    // A record torn by a crash at the end of a segment is ignored.
+    File[] segments = directory.listFiles();
+    Collections.sort(Arrays.asList(segments));
+    FileOutputStream out = new FileOutputStream(
+        segments[segments.length - 1], true);
+    out.write(new byte[] { 0, 0, 0, 42, 1, 2 });
+    out.close();
+
+    spool = new EventSpool(directory, 1024 * 1024, 64);
+    List<String> bodies = new ArrayList<String>();
+    while ((batch = spool.read(3)) != null) {
+      for (Event event : batch.getEvents()) {
+        bodies.add(new String(event.getBody(), Charset.forName("UTF8")));
+      }
+      spool.commit(batch);
+    }
+    spool.close();
+
+    Assert.assertEquals(Arrays.asList("evt3", "evt4", "evt5",
+        "evt6", "evt7"), bodies);
+    Assert.assertTrue(spool.isEmpty());
+    Assert.assertEquals(0, spool.getSize());
+  }
+
+  @Test
+  public void testReadDoesNotRollNewestSegment() throws Exception {
+    EventSpool spool = new EventSpool(directory, 1024 * 1024, 1024 * 1024);
+    spool.write(getEvents(0, 2));
+
+    // Failed replay attempts read the same events from the open segment.
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(2, spool.read(10).getEvents().size());
+    }
+    spool.write(getEvents(2, 2));
+    EventSpool.Batch batch = spool.read(10);
+    Assert.assertEquals(4, batch.getEvents().size());
+    Assert.assertEquals(1, getSegmentFiles().length);
+
+    // Once everything written is delivered, the segment is removed.
+    spool.commit(batch);
+    Assert.assertTrue(spool.isEmpty());
+    Assert.assertEquals(0, spool.getSize());
+    Assert.assertEquals(0, getSegmentFiles().length);
+    Assert.assertNull(spool.read(10));
+
+    spool.write(getEvents(4, 1));
+    Assert.assertEquals(1, spool.read(10).getEvents().size());
+    spool.close();
+  }
+
+  private File[] getSegmentFiles() {
+    return directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".seg");
+      }
+    });
+  }
+
+}
@@ -21,7 +21,10 @@ package org.apache.flume.sink.hdfs;
 
 import java.io.IOException;
 import java.security.PrivilegedExceptionAction;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -40,6 +43,7 @@ import org.apache.hadoop.security.UserGroupInformation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 
 /**
@@ -58,7 +62,8 @@ class BucketWriter {
    */
   private static final Integer staticLock = new Integer(1);
 
-  private final HDFSWriter writer;
+  private final HDFSWriterFactory writerFactory;
+  private final String fileType;
   private final FlumeFormatter formatter;
   private final long rollInterval;
   private final long rollSize;
@@ -68,13 +73,17 @@ class BucketWriter {
   private final CompressionType compType;
   private final Context context;
   private final ScheduledExecutorService timedRollerPool;
+  private final ScheduledExecutorService closerPool;
+  private final int closeTries;
+  private final long retryInterval;
+  private final long idleTimeout;
   private final UserGroupInformation user;
 
   private final AtomicLong fileExtensionCounter;
 
   private long eventCounter;
-  private long processSize;
 
+  private HDFSWriter writer;
   private FileSystem fileSystem;
 
   private volatile String filePath;
@@ -82,6 +91,8 @@ class BucketWriter {
   private volatile long batchCounter;
   private volatile boolean isOpen;
   private volatile ScheduledFuture<Void> timedRollFuture;
+  private volatile ScheduledFuture<Void> idleFuture;
+  private volatile long lastAppendTime;
   private SinkCounter sinkCounter;
 
   BucketWriter(long rollInterval, long rollSize, long rollCount, long batchSize,
@@ -89,6 +100,29 @@ class BucketWriter {
       CompressionType compType, HDFSWriter writer, FlumeFormatter formatter,
       ScheduledExecutorService timedRollerPool, UserGroupInformation user,
       SinkCounter sinkCounter) {
+    this(rollInterval, rollSize, rollCount, batchSize, context, filePath, codeC,
+        compType, writer, formatter, timedRollerPool, user, sinkCounter, null,
+        null, null, 1, 0, 0);
+  }
+
+  /**
+   * Creates a bucket writer that closes and renames rolled files in the
+   * background. A fresh HDFSWriter of the given type is taken from the
+   * factory for every file after the first, so that the previous one can be
+   * closed on the closer pool while new events go to the new file.
+   * If the closer pool is null, files are closed inline.
+   * @param closeTries - attempts made to close and rename a rolled file
+   * @param retryInterval - seconds between attempts
+   * @param idleTimeout - seconds without appends after which the open file is
+   * closed, 0 to keep it open until it is rolled
+   */
+  BucketWriter(long rollInterval, long rollSize, long rollCount, long batchSize,
+      Context context, String filePath, CompressionCodec codeC,
+      CompressionType compType, HDFSWriter writer, FlumeFormatter formatter,
+      ScheduledExecutorService timedRollerPool, UserGroupInformation user,
+      SinkCounter sinkCounter, HDFSWriterFactory writerFactory,
+      String fileType, ScheduledExecutorService closerPool, int closeTries,
+      long retryInterval, long idleTimeout) {
     this.rollInterval = rollInterval;
     this.rollSize = rollSize;
     this.rollCount = rollCount;
@@ -102,6 +136,16 @@ class BucketWriter {
     this.timedRollerPool = timedRollerPool;
     this.user = user;
     this.sinkCounter = sinkCounter;
+    this.writerFactory = writerFactory;
+    this.fileType = fileType;
+    this.closerPool = closerPool;
+    this.closeTries = closeTries;
+    this.retryInterval = retryInterval;
+    this.idleTimeout = idleTimeout;
+    Preconditions.checkArgument(closerPool == null || writerFactory != null,
+        "A writer factory is required to close files in the background");
+    Preconditions.checkArgument(closeTries > 0,
+        "closeTries must be greater than 0");
 
     fileExtensionCounter = new AtomicLong(System.currentTimeMillis());
 
@@ -142,7 +186,6 @@ class BucketWriter {
    */
   private void resetCounters() {
     eventCounter = 0;
-    processSize = 0;
     batchCounter = 0;
   }
 
@@ -216,7 +259,7 @@ class BucketWriter {
           LOG.debug("Rolling file ({}): Roll scheduled after {} sec elapsed.",
               bucketPath + IN_USE_EXT, rollInterval);
           try {
-            close();
+            closeAsync();
           } catch(Throwable t) {
             LOG.error("Unexpected error", t);
           }
@@ -227,9 +270,73 @@ class BucketWriter {
           TimeUnit.SECONDS);
     }
 
+    // if idle closing is enabled, check for inactivity once a timeout passes
+    if (idleTimeout > 0) {
+      lastAppendTime = System.currentTimeMillis();
+      scheduleIdleCheck(idleTimeout * 1000L);
+    }
+
     isOpen = true;
   }
 
+  /**
+   * Schedules a check for whether the open file has gone idle, replacing any
+   * check already pending so that only one is outstanding per bucket.
+   */
+  private void scheduleIdleCheck(long delayMillis) {
+    if (idleFuture != null && !idleFuture.isDone()) {
+      idleFuture.cancel(false); // do not cancel myself if running!
+    }
+    Callable<Void> action = new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        try {
+          closeIfIdle();
+        } catch(Throwable t) {
+          LOG.error("Unexpected error", t);
+        }
+        return null;
+      }
+    };
+    idleFuture = timedRollerPool.schedule(action, delayMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Closes the open file if nothing was appended to it for idleTimeout
+   * seconds, otherwise checks again when the timeout would next expire.
+   * Appends only record their time, so a busy bucket costs no rescheduling.
+   */
+  private synchronized void closeIfIdle()
+      throws IOException, InterruptedException {
+    if (!isOpen) {
+      return;
+    }
+    long idleMillis = System.currentTimeMillis() - lastAppendTime;
+    if (idleMillis >= idleTimeout * 1000L) {
+      LOG.debug("Closing idle file ({}): no appends for {} sec.",
+          bucketPath + IN_USE_EXT, idleTimeout);
+      closeAsync();
+    } else {
+      scheduleIdleCheck(idleTimeout * 1000L - idleMillis);
+    }
+  }
+
+  /**
+   * Cancels the timed roll and idle check of the file being closed.
+   */
+  private void cancelScheduledCloses() {
+    // NOTE: timed rolls go through this codepath as well as other roll types
+    if (timedRollFuture != null && !timedRollFuture.isDone()) {
+      timedRollFuture.cancel(false); // do not cancel myself if running!
+      timedRollFuture = null;
+    }
+    if (idleFuture != null && !idleFuture.isDone()) {
+      idleFuture.cancel(false);
+      idleFuture = null;
+    }
+  }
+
   /**
    * Close the file handle and rename the temp file to the permanent filename.
    * Safe to call multiple times. Logs HDFSWriter.close() exceptions.
@@ -265,18 +372,133 @@ class BucketWriter {
       LOG.info("HDFSWriter is already closed: {}", bucketPath + IN_USE_EXT);
     }
 
-    // NOTE: timed rolls go through this codepath as well as other roll types
-    if (timedRollFuture != null && !timedRollFuture.isDone()) {
-      timedRollFuture.cancel(false); // do not cancel myself if running!
-      timedRollFuture = null;
-    }
+    cancelScheduledCloses();
 
     if (bucketPath != null && fileSystem != null) {
-      renameBucket(); // could block or throw IOException
+      renameBucket(fileSystem, bucketPath); // could block or throw IOException
       fileSystem = null;
     }
   }
 
+  /**
+   * Close the file handle and rename the temp file to the permanent filename
+   * on the closer pool, retrying failures. The next append opens a new file
+   * without waiting for the old one to be closed. Events not yet flushed are
+   * synced first, so that the sink does not commit a transaction whose
+   * events are only buffered by a writer that is still being closed. Closes
+   * inline if there is no closer pool.
+   */
+  public synchronized void closeAsync()
+      throws IOException, InterruptedException {
+    if (closerPool == null) {
+      close();
+      return;
+    }
+
+    cancelScheduledCloses();
+
+    if (!isOpen) {
+      LOG.info("HDFSWriter is already closed: {}", bucketPath + IN_USE_EXT);
+      return;
+    }
+
+    if (batchCounter > 0) {
+      flush(); // could block
+    }
+
+    LOG.debug("Handing off {} to be closed", bucketPath + IN_USE_EXT);
+    BackgroundClose task = new BackgroundClose(writer, fileSystem, bucketPath);
+    writer = writerFactory.getWriter(fileType);
+    writer.configure(context);
+    fileSystem = null;
+    batchCounter = 0;
+    isOpen = false;
+
+    try {
+      closerPool.execute(task);
+    } catch (RejectedExecutionException e) {
+      LOG.warn("Closer pool is shut down, closing {} inline",
+          bucketPath + IN_USE_EXT);
+      task.run();
+    }
+  }
+
+  /**
+   * Closes and renames a rolled file on the closer pool. A failed attempt is
+   * rescheduled until closeTries attempts have been made. If the writer still
+   * fails to close on the last attempt, the file is renamed anyway, the same
+   * as an inline close would do.
+   */
+  private class BackgroundClose implements Runnable {
+    private final HDFSWriter rolledWriter;
+    private final FileSystem rolledFileSystem;
+    private final String rolledPath;
+    private boolean closed;
+    private int tries;
+
+    BackgroundClose(HDFSWriter rolledWriter, FileSystem rolledFileSystem,
+        String rolledPath) {
+      this.rolledWriter = rolledWriter;
+      this.rolledFileSystem = rolledFileSystem;
+      this.rolledPath = rolledPath;
+    }
+
+    @Override
+    public void run() {
+      tries++;
+      try {
+        runPrivileged(new PrivilegedExceptionAction<Void>() {
+          @Override
+          public Void run() throws Exception {
+            closeAndRename();
+            return null;
+          }
+        });
+      } catch (IOException e) {
+        if (tries < closeTries) {
+          LOG.warn("Failed to close and rename " + rolledPath + IN_USE_EXT +
+              " (attempt " + tries + " of " + closeTries + "), retrying in " +
+              retryInterval + " sec. Exception follows.", e);
+          try {
+            closerPool.schedule(this, retryInterval, TimeUnit.SECONDS);
+          } catch (RejectedExecutionException ex) {
+            // the sink is stopping, retry right away
+            run();
+          }
+        } else {
+          LOG.error("Failed to close and rename " + rolledPath + IN_USE_EXT +
+              " after " + tries + " attempts. Exception follows.", e);
+        }
+      } catch (InterruptedException e) {
+        LOG.warn("Interrupted while closing " + rolledPath + IN_USE_EXT, e);
+        Thread.currentThread().interrupt();
+      } catch (Throwable t) {
+        LOG.error("Unexpected error closing " + rolledPath + IN_USE_EXT, t);
+      }
+    }
+
+    private void closeAndRename() throws IOException {
+      if (!closed) {
+        try {
+          rolledWriter.close(); // could block
+          sinkCounter.incrementConnectionClosedCount();
+        } catch (IOException e) {
+          if (tries < closeTries) {
+            throw e;
+          }
+          LOG.warn("failed to close() HDFSWriter for file (" + rolledPath +
+              IN_USE_EXT + "). Exception follows.", e);
+          sinkCounter.incrementConnectionFailedCount();
+        }
+        closed = true;
+      }
+
+      if (rolledFileSystem != null) {
+        renameBucket(rolledFileSystem, rolledPath); // could block
+      }
+    }
+  }
+
   /**
    * flush the data
    */
@@ -295,8 +517,16 @@ class BucketWriter {
    * @throws IOException
    */
   private void doFlush() throws IOException {
+    if (!isOpen) {
+      // the file was rolled, and synced, since the last append
+      batchCounter = 0;
+      return;
+    }
+    long startNanos = System.nanoTime();
     writer.sync(); // could block
     batchCounter = 0;
+    sinkCounter.addFlushTimeMicros(TimeUnit.NANOSECONDS.toMicros(
+        System.nanoTime() - startNanos));
   }
 
   /**
@@ -309,20 +539,76 @@ class BucketWriter {
    * creation time reflects when the first event was written.
    */
   public synchronized void append(Event event) throws IOException, InterruptedException {
+    sinkCounter.incrementEventDrainAttemptCount();
+    doAppend(Collections.singletonList(event), 0);
+  }
+
+  /**
+   * Append a batch of events to this bucket under a single lock acquisition.
+   * Rolling and flushing happen between events as they would with per-event
+   * {@link #append(Event)} calls. Runs of events that cannot trigger a roll
+   * or flush are handed to the HDFSWriter in one call. With size based
+   * rolling a run ends at the event whose body fills the rest of the file,
+   * so a file may exceed rollSize by the serialization overhead of one run.
+   * <br />
+   * If a write fails, the file is implicitly closed and the IOException is
+   * rethrown; events before the failing one may already have been written.
+   */
+  public synchronized void append(List<Event> events)
+      throws IOException, InterruptedException {
+    sinkCounter.addToEventDrainAttemptCount(events.size());
+    int written = 0;
+    while (written < events.size()) {
+      written += doAppend(events, written);
+    }
+  }
+
+  /**
+   * Writes events from the given index up to the next point where the file
+   * may have to be rolled or flushed. For size based rolling the run is
+   * bounded by the bytes left before rollSize, counting event bodies only,
+   * since the serialized size is only known once the events are written.
+   * doAppend() must only be called by the append() methods
+   * @return the number of events written
+   */
+  private int doAppend(List<Event> events, int from)
+      throws IOException, InterruptedException {
     if (!isOpen) {
       open();
     }
 
     // check if it's time to rotate the file
     if (shouldRotate()) {
-      close();
+      closeAsync();
       open();
     }
 
-    // write the event
+    int count = events.size() - from;
+    if (rollSize > 0) {
+      long remaining = rollSize - writer.getPos();
+      int run = 0;
+      while (run < count && remaining > 0) {
+        remaining -= events.get(from + run).getBody().length;
+        run++;
+      }
+      count = run;
+    }
+    if (rollCount > 0) {
+      count = (int) Math.min(count, rollCount - eventCounter);
+    }
+    if (batchSize > 0) {
+      count = (int) Math.min(count, batchSize - batchCounter);
+    }
+    // a failed flush leaves batchCounter at batchSize, still make progress
+    count = Math.max(count, 1);
+
+    // write the events
     try {
-      sinkCounter.incrementEventDrainAttemptCount();
-      writer.append(event, formatter); // could block
+      if (count == 1) {
+        writer.append(events.get(from), formatter); // could block
+      } else {
+        writer.append(events.subList(from, from + count), formatter);
+      }
     } catch (IOException e) {
       LOG.warn("Caught IOException writing to HDFSWriter ({}). Closing file (" +
           bucketPath + IN_USE_EXT + ") and rethrowing exception.",
@@ -337,19 +623,24 @@ class BucketWriter {
     }
 
     // update statistics
-    processSize += event.getBody().length;
-    eventCounter++;
-    batchCounter++;
+    eventCounter += count;
+    batchCounter += count;
+    if (idleTimeout > 0) {
+      lastAppendTime = System.currentTimeMillis();
+    }
 
     if (batchCounter == batchSize) {
       flush();
     }
+    return count;
   }
 
   /**
-   * check if time to rotate the file
+   * check if time to rotate the file. The size check uses the length of the
+   * file as reported by the writer, so serialization and compression overhead
+   * are accounted for.
    */
-  private boolean shouldRotate() {
+  private boolean shouldRotate() throws IOException {
     boolean doRotate = false;
 
     if ((rollCount > 0) && (rollCount <= eventCounter)) {
@@ -357,9 +648,12 @@ class BucketWriter {
       doRotate = true;
     }
 
-    if ((rollSize > 0) && (rollSize <= processSize)) {
-      LOG.debug("rolling: rollSize: {}, bytes: {}", rollSize, processSize);
-      doRotate = true;
+    if (rollSize > 0) {
+      long fileSize = writer.getPos();
+      if (rollSize <= fileSize) {
+        LOG.debug("rolling: rollSize: {}, bytes: {}", rollSize, fileSize);
+        doRotate = true;
+      }
     }
 
     return doRotate;
@@ -368,13 +662,14 @@ class BucketWriter {
   /**
    * Rename bucketPath file from .tmp to permanent location.
    */
-  private void renameBucket() throws IOException {
+  private static void renameBucket(FileSystem fs, String bucketPath)
+      throws IOException {
     Path srcPath = new Path(bucketPath + IN_USE_EXT);
     Path dstPath = new Path(bucketPath);
 
-    if(fileSystem.exists(srcPath)) { // could block
+    if(fs.exists(srcPath)) { // could block
       LOG.info("Renaming " + srcPath + " to " + dstPath);
-      fileSystem.rename(srcPath, dstPath); // could block
+      fs.rename(srcPath, dstPath); // could block
     }
   }
 
@@ -19,6 +19,7 @@
 package org.apache.flume.sink.hdfs;
 
 import java.io.IOException;
+import java.util.List;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.sink.FlumeFormatter;
@@ -81,6 +82,18 @@ public class HDFSCompressedDataStream implements HDFSWriter {
     cmpOut.write(bValue);
   }
 
+  @Override
+  public void append(List<Event> events, FlumeFormatter fmt)
+      throws IOException {
+    if (isFinished) {
+      cmpOut.resetState();
+      isFinished = false;
+    }
+    for (Event e : events) {
+      cmpOut.write(fmt.getBytes(e));
+    }
+  }
+
   @Override
   public void sync() throws IOException {
     // We must use finish() and resetState() here -- flush() is apparently not
@@ -96,6 +109,13 @@ public class HDFSCompressedDataStream implements HDFSWriter {
     fsOut.sync();
   }
 
+  @Override
+  public long getPos() throws IOException {
+    // compressed bytes reach fsOut as the codec emits them, so this tracks
+    // the size of the file on disk rather than the uncompressed input
+    return fsOut.getPos();
+  }
+
   @Override
   public void close() throws IOException {
     sync();
@@ -19,8 +19,10 @@
 package org.apache.flume.sink.hdfs;
 
 import java.io.IOException;
+import java.util.List;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
+import org.apache.flume.serialization.BatchEventSerializer;
 import org.apache.flume.serialization.EventSerializer;
 import org.apache.flume.serialization.EventSerializerFactory;
 import org.apache.flume.sink.FlumeFormatter;
@@ -88,6 +90,18 @@ public class HDFSDataStream implements HDFSWriter {
     serializer.write(e);
   }
 
+  @Override
+  public void append(List<Event> events, FlumeFormatter fmt)
+      throws IOException {
+    if (serializer instanceof BatchEventSerializer) {
+      ((BatchEventSerializer) serializer).write(events);
+    } else {
+      for (Event e : events) {
+        serializer.write(e);
+      }
+    }
+  }
+
   @Override
   public void sync() throws IOException {
     serializer.flush();
@@ -95,6 +109,11 @@ public class HDFSDataStream implements HDFSWriter {
     outStream.sync();
   }
 
+  @Override
+  public long getPos() throws IOException {
+    return outStream.getPos();
+  }
+
   @Override
   public void close() throws IOException {
     serializer.flush();
@@ -22,9 +22,13 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
@@ -42,7 +46,7 @@ import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
 import org.apache.flume.Transaction;
 import org.apache.flume.conf.Configurable;
-import org.apache.flume.formatter.output.BucketPath;
+import org.apache.flume.formatter.output.BucketPathTemplate;
 import org.apache.flume.instrumentation.SinkCounter;
 import org.apache.flume.sink.AbstractSink;
 import org.apache.flume.sink.FlumeFormatter;
@@ -86,6 +90,18 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
    */
   private static final int defaultThreadPoolSize = 10;
   private static final int defaultRollTimerPoolSize = 1;
+  /**
+   * Default number of threads that close and rename rolled files, so that
+   * rolls do not hold up writing new events. 0 closes files inline.
+   */
+  private static final int defaultCloserPoolSize = 4;
+  private static final int defaultCloseTries = 3;
+  private static final long defaultRetryInterval = 10;
+  /**
+   * Default number of seconds without appends after which a bucket's open
+   * file is closed. 0 leaves idle files open until they are rolled.
+   */
+  private static final long defaultIdleTimeout = 0;
 
   /**
    * Singleton credential manager that manages static credentials for the
@@ -104,14 +120,20 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
   private long batchSize;
   private int threadsPoolSize;
   private int rollTimerPoolSize;
+  private int closerPoolSize;
+  private int closeTries;
+  private long retryInterval;
+  private long idleTimeout;
   private CompressionCodec codeC;
   private CompressionType compType;
   private String fileType;
   private String path;
+  private BucketPathTemplate pathTemplate;
   private int maxOpenFiles;
   private String writeFormat;
   private ExecutorService callTimeoutPool;
   private ScheduledExecutorService timedRollerPool;
+  private ScheduledExecutorService closerPool;
 
   private String kerbConfPrincipal;
   private String kerbKeytab;
@@ -129,35 +151,62 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
   /*
    * Extended Java LinkedHashMap for open file handle LRU queue.
    * We want to clear the oldest file handle if there are too many open ones.
+   * Writers holding events of the current transaction are kept until the
+   * events are written, then the queue is trimmed back to maxOpenFiles.
    */
   private static class WriterLinkedHashMap
       extends LinkedHashMap<String, BucketWriter> {
 
     private final int maxOpenFiles;
+    private Set<BucketWriter> pending = Collections.emptySet();
 
     public WriterLinkedHashMap(int maxOpenFiles) {
       super(16, 0.75f, true); // stock initial capacity/load, access ordering
       this.maxOpenFiles = maxOpenFiles;
     }
 
+    /**
+     * Sets the writers that must not be closed until their events are
+     * written. The most recently used writers come last, so once the eldest
+     * is pending every writer is.
+     */
+    void setPending(Set<BucketWriter> pending) {
+      this.pending = pending;
+    }
+
+    /**
+     * Closes the least recently used writers beyond maxOpenFiles.
+     */
+    void trim() {
+      Iterator<Entry<String, BucketWriter>> it = entrySet().iterator();
+      while (size() > maxOpenFiles && it.hasNext()) {
+        closeAsync(it.next());
+        it.remove();
+      }
+    }
+
     @Override
     protected boolean removeEldestEntry(Entry<String, BucketWriter> eldest) {
-      if (size() > maxOpenFiles) {
+      if (size() > maxOpenFiles && !pending.contains(eldest.getValue())) {
         // If we have more that max open files, then close the last one and
         // return true
-        try {
-          eldest.getValue().close();
-        } catch (IOException e) {
-          LOG.warn(eldest.getKey().toString(), e);
-        } catch (InterruptedException e) {
-          LOG.warn(eldest.getKey().toString(), e);
-          Thread.currentThread().interrupt();
-        }
+        closeAsync(eldest);
         return true;
       } else {
         return false;
       }
     }
+
+    private static void closeAsync(Entry<String, BucketWriter> entry) {
+      try {
+        entry.getValue().closeAsync();
+      } catch (IOException e) {
+        LOG.warn(entry.getKey(), e);
+      } catch (InterruptedException e) {
+        LOG.warn(entry.getKey(), e);
+        Thread.currentThread().interrupt();
+      }
+    }
   }
 
   public HDFSEventSink() {
@@ -191,6 +240,12 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
         defaultThreadPoolSize);
     rollTimerPoolSize = context.getInteger("hdfs.rollTimerPoolSize",
         defaultRollTimerPoolSize);
+    closerPoolSize = context.getInteger("hdfs.closerPoolSize",
+        defaultCloserPoolSize);
+    closeTries = context.getInteger("hdfs.closeTries", defaultCloseTries);
+    retryInterval = context.getLong("hdfs.retryInterval",
+        defaultRetryInterval);
+    idleTimeout = context.getLong("hdfs.idleTimeout", defaultIdleTimeout);
     kerbConfPrincipal = context.getString("hdfs.kerberosPrincipal", "");
     kerbKeytab = context.getString("hdfs.kerberosKeytab", "");
     proxyUserName = context.getString("hdfs.proxyUser", "");
@@ -199,6 +254,12 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
         "batchSize must be greater than 0");
     Preconditions.checkArgument(txnEventMax > 0,
         "txnEventMax must be greater than 0");
+    Preconditions.checkArgument(closerPoolSize >= 0,
+        "closerPoolSize must not be negative");
+    Preconditions.checkArgument(closeTries > 0,
+        "closeTries must be greater than 0");
+    Preconditions.checkArgument(idleTimeout >= 0,
+        "idleTimeout must not be negative");
     if (codecName == null) {
       codeC = null;
       compType = CompressionType.NONE;
@@ -264,6 +325,9 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
       }
     }
 
+    pathTemplate = new BucketPathTemplate(path, needRounding, roundUnit,
+        roundValue);
+
     if (sinkCounter == null) {
       sinkCounter = new SinkCounter(getName());
     }
@@ -329,7 +393,16 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
    */
   private <T> T callWithTimeout(Callable<T> callable)
       throws IOException, InterruptedException {
-    Future<T> future = callTimeoutPool.submit(callable);
+    return waitWithTimeout(callTimeoutPool.submit(callable));
+  }
+
+  /**
+   * Wait for the completion of a callable already submitted to the call
+   * timeout pool for the specified amount of time in milliseconds. In case of
+   * timeout cancel the callable and throw an IOException
+   */
+  private <T> T waitWithTimeout(Future<T> future)
+      throws IOException, InterruptedException {
     try {
       if (callTimeout > 0) {
         return future.get(callTimeout, TimeUnit.MILLISECONDS);
@@ -366,15 +439,19 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
   /**
    * Pull events out of channel and send it to HDFS - take at the most
    * txnEventMax, that's the maximum #events to hold in channel for a given
-   * transaction - find the corresponding bucket for the event, ensure the file
-   * is open - extract the pay-load and append to HDFS file <br />
+   * transaction - find the corresponding bucket for the event and group the
+   * events by bucket - append each group to its HDFS file and flush it, with
+   * distinct buckets written concurrently - commit once all buckets have been
+   * flushed <br />
    * WARNING: NOT THREAD SAFE
    */
   @Override
   public Status process() throws EventDeliveryException {
     Channel channel = getChannel();
     Transaction transaction = channel.getTransaction();
-    List<BucketWriter> writers = Lists.newArrayList();
+    Map<BucketWriter, List<Event>> batches =
+        new LinkedHashMap<BucketWriter, List<Event>>();
+    sfWriters.setPending(batches.keySet());
     transaction.begin();
     try {
       Event event = null;
@@ -386,8 +463,7 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
         }
 
         // reconstruct the path name by substituting place holders
-        String realPath = BucketPath.escapeString(path, event.getHeaders(),
-            needRounding, roundUnit, roundValue);
+        String realPath = pathTemplate.escapeString(event.getHeaders());
         BucketWriter bucketWriter = sfWriters.get(realPath);
 
         // we haven't seen this file yet, so open it and cache the handle
@@ -398,18 +474,20 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
 
           bucketWriter = new BucketWriter(rollInterval, rollSize, rollCount,
               batchSize, context, realPath, codeC, compType, hdfsWriter,
-              formatter, timedRollerPool, proxyTicket, sinkCounter);
+              formatter, timedRollerPool, proxyTicket, sinkCounter,
+              writerFactory, fileType, closerPool, closeTries, retryInterval,
+              idleTimeout);
 
           sfWriters.put(realPath, bucketWriter);
         }
 
-        // track the buckets getting written in this transaction
-        if (!writers.contains(bucketWriter)) {
-          writers.add(bucketWriter);
+        // group the events by the bucket they are written to
+        List<Event> batch = batches.get(bucketWriter);
+        if (batch == null) {
+          batch = Lists.newArrayList();
+          batches.put(bucketWriter, batch);
         }
-
-        // Write the data to HDFS
-        append(bucketWriter, event);
+        batch.add(event);
       }
 
       if (txnEventCount == 0) {
@@ -420,12 +498,8 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
         sinkCounter.incrementBatchUnderflowCount();
       }
 
-      // flush all pending buckets before committing the transaction
-      for (BucketWriter bucketWriter : writers) {
-        if (!bucketWriter.isBatchComplete()) {
-          flush(bucketWriter);
-        }
-      }
+      // write and flush all buckets before committing the transaction
+      appendAndFlush(batches);
 
       transaction.commit();
 
@@ -450,6 +524,8 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
         throw new EventDeliveryException(th);
       }
     } finally {
+      sfWriters.setPending(Collections.<BucketWriter>emptySet());
+      sfWriters.trim();
       transaction.close();
     }
   }
@@ -471,9 +547,14 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
       }
     }
 
-    // shut down all our thread pools
-    ExecutorService toShutdown[] = { callTimeoutPool, timedRollerPool };
+    // shut down all our thread pools, letting the closer pool finish closing
+    // and renaming the files rolled before
+    ExecutorService toShutdown[] = { callTimeoutPool, timedRollerPool,
+        closerPool };
     for (ExecutorService execService : toShutdown) {
+      if (execService == null) {
+        continue;
+      }
       execService.shutdown();
       try {
         while (execService.isTerminated() == false) {
@@ -487,6 +568,7 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
 
     callTimeoutPool = null;
     timedRollerPool = null;
+    closerPool = null;
 
     sfWriters.clear();
     sfWriters = null;
@@ -504,6 +586,12 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
     timedRollerPool = Executors.newScheduledThreadPool(rollTimerPoolSize,
         new ThreadFactoryBuilder().setNameFormat(rollerName).build());
 
+    if (closerPoolSize > 0) {
+      String closerName = "hdfs-" + getName() + "-closer-%d";
+      closerPool = Executors.newScheduledThreadPool(closerPoolSize,
+          new ThreadFactoryBuilder().setNameFormat(closerName).build());
+    }
+
     this.sfWriters = new WriterLinkedHashMap(maxOpenFiles);
     sinkCounter.start();
     super.start();
@@ -704,34 +792,54 @@ public class HDFSEventSink extends AbstractSink implements Configurable {
   }
 
   /**
-   * Append to bucket writer with timeout enforced
+   * Append each batch of events to its bucket writer and flush the writer,
+   * with timeout enforced. Buckets are written concurrently on the call
+   * timeout pool. Waits for every bucket before rethrowing the first
+   * IOException, so that no write is still in progress when the transaction
+   * is rolled back.
    */
-  private void append(final BucketWriter bucketWriter, final Event event)
+  private void appendAndFlush(Map<BucketWriter, List<Event>> batches)
       throws IOException, InterruptedException {
 
-    // Write the data to HDFS
-    callWithTimeout(new Callable<Void>() {
-      @Override
-      public Void call() throws Exception {
-        bucketWriter.append(event);
-        return null;
-      }
-    });
-  }
-
-  /**
-   * Flush bucket writer with timeout enforced
-   */
-  private void flush(final BucketWriter bucketWriter)
-      throws IOException, InterruptedException {
+    List<Future<Void>> futures = Lists.newArrayListWithCapacity(batches.size());
+    for (Entry<BucketWriter, List<Event>> entry : batches.entrySet()) {
+      final BucketWriter bucketWriter = entry.getKey();
+      final List<Event> events = entry.getValue();
+
+      // Write the data to HDFS
+      futures.add(callTimeoutPool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          bucketWriter.append(events);
+          if (!bucketWriter.isBatchComplete()) {
+            bucketWriter.flush();
+          }
+          return null;
+        }
+      }));
+    }
 
-    callWithTimeout(new Callable<Void>() {
-      @Override
-      public Void call() throws Exception {
-        bucketWriter.flush();
-        return null;
+    IOException failure = null;
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        waitWithTimeout(futures.get(i));
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          LOG.warn("HDFS IO error", e);
+        }
+      } catch (InterruptedException e) {
+        for (Future<Void> future : futures.subList(i, futures.size())) {
+          future.cancel(true);
+        }
+        throw e;
       }
-    });
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
   }
 
   /**
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.flume.sink.hdfs;
+
+import org.apache.flume.Event;
+import org.apache.flume.sink.FlumeFormatter;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * A formatter that can fill in existing key and value instances instead of
+ * allocating new ones for every event. A writer creates one key and one value
+ * when it opens a file and reuses them for every record it appends, so they
+ * must be consumed before the next event is formatted.
+ */
+public interface HDFSReusableFormatter extends FlumeFormatter {
+
+  /**
+   * Returns a new key instance of the key class.
+   */
+  public Writable createKey();
+
+  /**
+   * Returns a new value instance of the value class.
+   */
+  public Writable createValue();
+
+  /**
+   * Sets the key created by {@link #createKey()} to the key of the event.
+   */
+  public void setKey(Event e, Writable key);
+
+  /**
+   * Sets the value created by {@link #createValue()} to the value of the
+   * event.
+   */
+  public void setValue(Event e, Writable value);
+
+}
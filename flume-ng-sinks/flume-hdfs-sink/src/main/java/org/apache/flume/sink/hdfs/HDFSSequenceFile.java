@@ -19,6 +19,7 @@
 package org.apache.flume.sink.hdfs;
 
 import java.io.IOException;
+import java.util.List;
 import org.apache.flume.Context;
 
 import org.apache.flume.Event;
@@ -29,11 +30,15 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.compress.CompressionCodec;
 
 public class HDFSSequenceFile implements HDFSWriter {
 
   private SequenceFile.Writer writer;
+  private HDFSReusableFormatter reusableFormatter;
+  private Writable key;
+  private Writable value;
 
   public HDFSSequenceFile() {
     writer = null;
@@ -52,6 +57,17 @@ public class HDFSSequenceFile implements HDFSWriter {
   @Override
   public void open(String filePath, CompressionCodec codeC,
       CompressionType compType, FlumeFormatter fmt) throws IOException {
+    if (fmt instanceof HDFSReusableFormatter) {
+      // one key and one value are reused for every record of this file
+      reusableFormatter = (HDFSReusableFormatter) fmt;
+      key = reusableFormatter.createKey();
+      value = reusableFormatter.createValue();
+    } else {
+      reusableFormatter = null;
+      key = null;
+      value = null;
+    }
+
     Configuration conf = new Configuration();
     Path dstPath = new Path(filePath);
     FileSystem hdfs = dstPath.getFileSystem(conf);
@@ -69,7 +85,21 @@ public class HDFSSequenceFile implements HDFSWriter {
 
   @Override
   public void append(Event e, FlumeFormatter formatter) throws IOException {
-    writer.append(formatter.getKey(e), formatter.getValue(e));
+    if (formatter == reusableFormatter) {
+      reusableFormatter.setKey(e, key);
+      reusableFormatter.setValue(e, value);
+      writer.append(key, value);
+    } else {
+      writer.append(formatter.getKey(e), formatter.getValue(e));
+    }
+  }
+
+  @Override
+  public void append(List<Event> events, FlumeFormatter formatter)
+      throws IOException {
+    for (Event e : events) {
+      append(e, formatter);
+    }
   }
 
   @Override
@@ -77,6 +107,11 @@ public class HDFSSequenceFile implements HDFSWriter {
     writer.sync();
   }
 
+  @Override
+  public long getPos() throws IOException {
+    return writer.getLength();
+  }
+
   @Override
   public void close() throws IOException {
     writer.close();
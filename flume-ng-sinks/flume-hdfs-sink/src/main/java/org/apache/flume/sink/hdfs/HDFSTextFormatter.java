@@ -22,13 +22,13 @@ package org.apache.flume.sink.hdfs;
 import java.util.Arrays;
 
 import org.apache.flume.Event;
-import org.apache.flume.sink.FlumeFormatter;
 //import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
 
 
-public class HDFSTextFormatter implements FlumeFormatter {
+public class HDFSTextFormatter implements HDFSReusableFormatter {
 
   private Text makeText(Event e) {
     Text textObject = new Text();
@@ -49,16 +49,16 @@ public class HDFSTextFormatter implements FlumeFormatter {
   @Override
   public Object getKey(Event e) {
     // Write the data to HDFS
-    String timestamp = e.getHeaders().get("timestamp");
-    long eventStamp;
+    LongWritable longObject = new LongWritable(getTimestamp(e));
+    return longObject;
+  }
 
+  private long getTimestamp(Event e) {
+    String timestamp = e.getHeaders().get("timestamp");
     if (timestamp == null) {
-      eventStamp = System.currentTimeMillis();
-    } else {
-      eventStamp = Long.valueOf(timestamp);
+      return System.currentTimeMillis();
     }
-    LongWritable longObject = new LongWritable(eventStamp);
-    return longObject;
+    return Long.parseLong(timestamp);
   }
 
   @Override
@@ -74,4 +74,24 @@ public class HDFSTextFormatter implements FlumeFormatter {
     return Arrays.copyOf(rawBytes, record.getLength());
   }
 
+  @Override
+  public Writable createKey() {
+    return new LongWritable();
+  }
+
+  @Override
+  public Writable createValue() {
+    return new Text();
+  }
+
+  @Override
+  public void setKey(Event e, Writable key) {
+    ((LongWritable) key).set(getTimestamp(e));
+  }
+
+  @Override
+  public void setValue(Event e, Writable value) {
+    ((Text) value).set(e.getBody(), 0, e.getBody().length);
+  }
+
 }
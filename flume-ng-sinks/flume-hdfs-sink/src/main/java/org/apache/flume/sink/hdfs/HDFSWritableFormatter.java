@@ -18,11 +18,11 @@
 package org.apache.flume.sink.hdfs;
 
 import org.apache.flume.Event;
-import org.apache.flume.sink.FlumeFormatter;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
 
-public class HDFSWritableFormatter implements FlumeFormatter {
+public class HDFSWritableFormatter implements HDFSReusableFormatter {
 
   private BytesWritable makeByteWritable(Event e) {
     BytesWritable bytesObject = new BytesWritable();
@@ -43,16 +43,16 @@ public class HDFSWritableFormatter implements FlumeFormatter {
   @Override
   public Object getKey(Event e) {
     // Write the data to HDFS
-    String timestamp = e.getHeaders().get("timestamp");
-    long eventStamp;
+    LongWritable longObject = new LongWritable(getTimestamp(e));
+    return longObject;
+  }
 
+  private long getTimestamp(Event e) {
+    String timestamp = e.getHeaders().get("timestamp");
     if (timestamp == null) {
-      eventStamp = System.currentTimeMillis();
-    } else {
-      eventStamp = Long.valueOf(timestamp);
+      return System.currentTimeMillis();
     }
-    LongWritable longObject = new LongWritable(eventStamp);
-    return longObject;
+    return Long.parseLong(timestamp);
   }
 
   @Override
@@ -64,4 +64,25 @@ public class HDFSWritableFormatter implements FlumeFormatter {
   public byte[] getBytes(Event e) {
     return makeByteWritable(e).getBytes();
   }
+
+  @Override
+  public Writable createKey() {
+    return new LongWritable();
+  }
+
+  @Override
+  public Writable createValue() {
+    return new BytesWritable();
+  }
+
+  @Override
+  public void setKey(Event e, Writable key) {
+    ((LongWritable) key).set(getTimestamp(e));
+  }
+
+  @Override
+  public void setValue(Event e, Writable value) {
+    ((BytesWritable) value).set(e.getBody(), 0, e.getBody().length);
+  }
+
 }
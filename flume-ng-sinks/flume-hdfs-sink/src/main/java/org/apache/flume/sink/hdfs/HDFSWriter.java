@@ -19,6 +19,7 @@
 package org.apache.flume.sink.hdfs;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.flume.Event;
 import org.apache.flume.conf.Configurable;
@@ -40,8 +41,22 @@ public interface HDFSWriter extends Configurable {
 
   public void append(Event e, FlumeFormatter fmt) throws IOException;
 
+  /**
+   * Appends the events in order, with the same result as calling
+   * {@link #append(Event, FlumeFormatter)} for each of them.
+   */
+  public void append(List<Event> events, FlumeFormatter fmt)
+      throws IOException;
+
   public void sync() throws IOException;
 
+  /**
+   * Returns the length of the file being written, counting the bytes handed
+   * to the underlying output stream so far. Bytes still buffered by a
+   * serializer or compressor are not included until they are written out.
+   */
+  public long getPos() throws IOException;
+
   public void close() throws IOException;
 
 }
@@ -19,6 +19,7 @@
 package org.apache.flume.sink.hdfs;
 
 import java.io.IOException;
+import java.util.List;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.sink.FlumeFormatter;
@@ -31,6 +32,22 @@ public class MockHDFSWriter implements HDFSWriter {
   private int filesClosed = 0;
   private int bytesWritten = 0;
   private int eventsWritten = 0;
+  private int appendCalls = 0;
+  private int syncCalls = 0;
+  private long filePos = 0;
+  private int closeAttempts = 0;
+  private final int closeFailures;
+
+  public MockHDFSWriter() {
+    this(0);
+  }
+
+  /**
+   * @param closeFailures number of times close() fails before it succeeds
+   */
+  public MockHDFSWriter(int closeFailures) {
+    this.closeFailures = closeFailures;
+  }
 
   public int getFilesOpened() {
     return filesOpened;
@@ -48,11 +65,26 @@ public class MockHDFSWriter implements HDFSWriter {
     return eventsWritten;
   }
 
+  public int getAppendCalls() {
+    return appendCalls;
+  }
+
+  public int getSyncCalls() {
+    return syncCalls;
+  }
+
+  public int getCloseAttempts() {
+    return closeAttempts;
+  }
+
   public void clear() {
     filesOpened = 0;
     filesClosed = 0;
     bytesWritten = 0;
     eventsWritten = 0;
+    appendCalls = 0;
+    syncCalls = 0;
+    closeAttempts = 0;
   }
 
   @Override
@@ -63,26 +95,50 @@ public class MockHDFSWriter implements HDFSWriter {
   @Override
   public void open(String filePath, FlumeFormatter fmt) throws IOException {
     filesOpened++;
+    filePos = 0;
   }
 
   @Override
   public void open(String filePath, CompressionCodec codec, CompressionType cType, FlumeFormatter fmt) throws IOException {
     filesOpened++;
+    filePos = 0;
   }
 
   @Override
   public void append(Event e, FlumeFormatter fmt) throws IOException {
+    appendCalls++;
     eventsWritten++;
     bytesWritten += e.getBody().length;
+    filePos += e.getBody().length;
+  }
+
+  @Override
+  public void append(List<Event> events, FlumeFormatter fmt)
+      throws IOException {
+    appendCalls++;
+    for (Event e : events) {
+      eventsWritten++;
+      bytesWritten += e.getBody().length;
+      filePos += e.getBody().length;
+    }
   }
 
   @Override
   public void sync() throws IOException {
-    // does nothing
+    syncCalls++;
+  }
+
+  @Override
+  public long getPos() throws IOException {
+    return filePos;
   }
 
   @Override
   public void close() throws IOException {
+    closeAttempts++;
+    if (closeAttempts <= closeFailures) {
+      throw new IOException("Injected close failure");
+    }
     filesClosed++;
   }
 
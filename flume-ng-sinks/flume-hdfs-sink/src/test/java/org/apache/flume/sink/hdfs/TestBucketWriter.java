@@ -19,6 +19,9 @@
 package org.apache.flume.sink.hdfs;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -27,6 +30,10 @@ import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.event.EventBuilder;
 import org.apache.flume.instrumentation.SinkCounter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.SequenceFile;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -105,6 +112,61 @@ public class TestBucketWriter {
     Assert.assertEquals("files opened", 10, hdfsWriter.getFilesOpened());
   }
 
+  @Test
+  public void testSizeRollerCountsFileLength() throws Exception {
+    String dir = "target/test-bucket-writer-" + System.currentTimeMillis();
+    HDFSDataStream hdfsWriter = new HDFSDataStream();
+    BucketWriter bucketWriter = new BucketWriter(0, 300, 0, 0, ctx,
+        dir + "/file", null, SequenceFile.CompressionType.NONE, hdfsWriter,
+        new HDFSTextFormatter(), timedRollerPool, null,
+        new SinkCounter("test-bucket-writer-" + System.currentTimeMillis()));
+
+    Event e = EventBuilder.withBody("foo", Charsets.UTF_8);
+    for (int i = 0; i < 1000; i++) {
+      bucketWriter.append(e);
+    }
+    bucketWriter.close();
+
+    // the text serializer adds a newline, so each event takes 4 bytes
+    FileSystem fs = FileSystem.get(new Configuration());
+    Path dirPath = new Path(dir);
+    try {
+      FileStatus[] files = fs.listStatus(dirPath);
+      Assert.assertEquals("files written", 14, files.length);
+      for (FileStatus file : files) {
+        Assert.assertTrue(file.getLen() <= 300);
+      }
+    } finally {
+      fs.delete(dirPath, true);
+    }
+  }
+
+  @Test
+  public void testIdleTimeout() throws Exception {
+    MockHDFSWriter hdfsWriter = new MockHDFSWriter();
+    BucketWriter bucketWriter = new BucketWriter(0, 0, 0, 0, ctx,
+        "/tmp/file", null, SequenceFile.CompressionType.NONE, hdfsWriter,
+        new HDFSTextFormatter(), timedRollerPool, null,
+        new SinkCounter("test-bucket-writer-" + System.currentTimeMillis()),
+        null, null, null, 1, 0, 1);
+
+    Event e = EventBuilder.withBody("foo", Charsets.UTF_8);
+    for (int i = 0; i < 10; i++) {
+      bucketWriter.append(e);
+    }
+    Assert.assertEquals("files closed", 0, hdfsWriter.getFilesClosed());
+
+    // wait well past the idle timeout
+    Thread.sleep(2500L);
+    Assert.assertEquals("files closed", 1, hdfsWriter.getFilesClosed());
+
+    // the next event goes to a new file
+    bucketWriter.append(e);
+    Assert.assertEquals("files opened", 2, hdfsWriter.getFilesOpened());
+    bucketWriter.close();
+    Assert.assertEquals("files closed", 2, hdfsWriter.getFilesClosed());
+  }
+
   @Test
   public void testIntervalRoller() throws IOException, InterruptedException {
     final int ROLL_INTERVAL = 1; // seconds
@@ -155,4 +217,165 @@ public class TestBucketWriter {
     Assert.assertEquals("files closed", 2, hdfsWriter.getFilesClosed());
   }
 
+  @Test
+  public void testBatchAppend() throws IOException, InterruptedException {
+    int maxEvents = 100;
+    MockHDFSWriter hdfsWriter = new MockHDFSWriter();
+    HDFSTextFormatter formatter = new HDFSTextFormatter();
+    SinkCounter sinkCounter =
+        new SinkCounter("test-bucket-writer-" + System.currentTimeMillis());
+    BucketWriter bucketWriter = new BucketWriter(0, 0, maxEvents, 0, ctx,
+        "/tmp/file", null, SequenceFile.CompressionType.NONE, hdfsWriter,
+        formatter, timedRollerPool, null, sinkCounter);
+
+    Event e = EventBuilder.withBody("foo", Charsets.UTF_8);
+    List<Event> events = new ArrayList<Event>();
+    for (int i = 0; i < 250; i++) {
+      events.add(e);
+    }
+    for (int i = 0; i < 4; i++) {
+      bucketWriter.append(events);
+    }
+
+    // files still roll between the events of a batch
+    Assert.assertEquals("events written", 1000, hdfsWriter.getEventsWritten());
+    Assert.assertEquals("bytes written", 3000, hdfsWriter.getBytesWritten());
+    Assert.assertEquals("files opened", 10, hdfsWriter.getFilesOpened());
+    Assert.assertEquals("files closed", 9, hdfsWriter.getFilesClosed());
+    Assert.assertEquals("drain attempts", 1000,
+        sinkCounter.getEventDrainAttemptCount());
+  }
+
+  @Test
+  public void testBatchAppendBoundedByRollSize()
+      throws IOException, InterruptedException {
+    MockHDFSWriter hdfsWriter = new MockHDFSWriter();
+    BucketWriter bucketWriter = new BucketWriter(0, 300, 0, 0, ctx,
+        "/tmp/file", null, SequenceFile.CompressionType.NONE, hdfsWriter,
+        new HDFSTextFormatter(), timedRollerPool, null,
+        new SinkCounter("test-bucket-writer-" + System.currentTimeMillis()));
+
+    Event e = EventBuilder.withBody("foo", Charsets.UTF_8);
+    List<Event> events = new ArrayList<Event>();
+    for (int i = 0; i < 250; i++) {
+      events.add(e);
+    }
+    for (int i = 0; i < 4; i++) {
+      bucketWriter.append(events);
+    }
+
+    // 100 events fill a file: runs of 100, 100 and 50, then 50, 100 and 100
+    Assert.assertEquals("events written", 1000, hdfsWriter.getEventsWritten());
+    Assert.assertEquals("files opened", 10, hdfsWriter.getFilesOpened());
+    Assert.assertEquals("append calls", 12, hdfsWriter.getAppendCalls());
+  }
+
+  @Test
+  public void testBatchAppendSplitsAtRollsAndFlushes()
+      throws IOException, InterruptedException {
+    MockHDFSWriter hdfsWriter = new MockHDFSWriter();
+    BucketWriter bucketWriter = new BucketWriter(0, 0, 100, 30, ctx,
+        "/tmp/file", null, SequenceFile.CompressionType.NONE, hdfsWriter,
+        new HDFSTextFormatter(), timedRollerPool, null,
+        new SinkCounter("test-bucket-writer-" + System.currentTimeMillis()));
+
+    Event e = EventBuilder.withBody("foo", Charsets.UTF_8);
+    List<Event> events = new ArrayList<Event>();
+    for (int i = 0; i < 250; i++) {
+      events.add(e);
+    }
+    bucketWriter.append(events);
+
+    // 30 + 30 + 30 + 10 for the first file, then 30 + 30 + 30 + 10 and
+    // 30 + 20 for the next two
+    Assert.assertEquals("events written", 250, hdfsWriter.getEventsWritten());
+    Assert.assertEquals("append calls", 10, hdfsWriter.getAppendCalls());
+    Assert.assertEquals("files opened", 3, hdfsWriter.getFilesOpened());
+  }
+
+  @Test
+  public void testBackgroundClose() throws Exception {
+    int maxEvents = 100;
+    MockWriterFactory writerFactory = new MockWriterFactory(0);
+    ScheduledExecutorService closerPool =
+        Executors.newSingleThreadScheduledExecutor();
+    BucketWriter bucketWriter = new BucketWriter(0, 0, maxEvents, 0, ctx,
+        "/tmp/file", null, SequenceFile.CompressionType.NONE,
+        writerFactory.getWriter(null), new HDFSTextFormatter(),
+        timedRollerPool, null,
+        new SinkCounter("test-bucket-writer-" + System.currentTimeMillis()),
+        writerFactory, null, closerPool, 1, 0, 0);
+
+    Event e = EventBuilder.withBody("foo", Charsets.UTF_8);
+    for (int i = 0; i < 1000; i++) {
+      bucketWriter.append(e);
+    }
+    closerPool.shutdown();
+    Assert.assertTrue(closerPool.awaitTermination(5, TimeUnit.SECONDS));
+
+    // every file was written by its own writer, all but the last are closed
+    List<MockHDFSWriter> writers = writerFactory.getWriters();
+    Assert.assertEquals("writers created", 10, writers.size());
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals("events written", maxEvents,
+          writers.get(i).getEventsWritten());
+      Assert.assertEquals("files opened", 1, writers.get(i).getFilesOpened());
+      Assert.assertEquals("files closed", i < 9 ? 1 : 0,
+          writers.get(i).getFilesClosed());
+    }
+
+    bucketWriter.close();
+    Assert.assertEquals("files closed", 1, writers.get(9).getFilesClosed());
+  }
+
+  @Test
+  public void testBackgroundCloseRetries() throws Exception {
+    MockWriterFactory writerFactory = new MockWriterFactory(2);
+    ScheduledExecutorService closerPool =
+        Executors.newSingleThreadScheduledExecutor();
+    BucketWriter bucketWriter = new BucketWriter(0, 0, 1, 0, ctx,
+        "/tmp/file", null, SequenceFile.CompressionType.NONE,
+        writerFactory.getWriter(null), new HDFSTextFormatter(),
+        timedRollerPool, null,
+        new SinkCounter("test-bucket-writer-" + System.currentTimeMillis()),
+        writerFactory, null, closerPool, 3, 0, 0);
+
+    Event e = EventBuilder.withBody("foo", Charsets.UTF_8);
+    bucketWriter.append(e);
+    bucketWriter.append(e);
+    closerPool.shutdown();
+    Assert.assertTrue(closerPool.awaitTermination(5, TimeUnit.SECONDS));
+
+    // the first file failed to close twice before it was closed
+    Assert.assertEquals("files closed", 1,
+        writerFactory.getWriters().get(0).getFilesClosed());
+    Assert.assertEquals("close attempts", 3,
+        writerFactory.getWriters().get(0).getCloseAttempts());
+  }
+
+  /**
+   * Creates a new MockHDFSWriter for every file, each of which fails to
+   * close the given number of times.
+   */
+  private static class MockWriterFactory extends HDFSWriterFactory {
+    private final int closeFailures;
+    private final List<MockHDFSWriter> writers =
+        new CopyOnWriteArrayList<MockHDFSWriter>();
+
+    MockWriterFactory(int closeFailures) {
+      this.closeFailures = closeFailures;
+    }
+
+    @Override
+    public HDFSWriter getWriter(String fileType) {
+      MockHDFSWriter writer = new MockHDFSWriter(closeFailures);
+      writers.add(writer);
+      return writer;
+    }
+
+    List<MockHDFSWriter> getWriters() {
+      return writers;
+    }
+  }
+
 }
@@ -25,6 +25,7 @@ import java.nio.ByteBuffer;
 import java.nio.charset.CharsetDecoder;
 import java.util.Calendar;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.avro.file.DataFileStream;
 import org.apache.avro.generic.GenericData;
@@ -39,6 +40,7 @@ import org.apache.flume.Sink.Status;
 import org.apache.flume.Transaction;
 import org.apache.flume.channel.MemoryChannel;
 import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
 import org.apache.flume.event.SimpleEvent;
 import org.apache.flume.lifecycle.LifecycleException;
 import org.apache.hadoop.conf.Configuration;
@@ -765,6 +767,9 @@ public class TestHDFSEventSink {
     context.put("hdfs.rollCount", String.valueOf(rollCount));
     context.put("hdfs.batchSize", String.valueOf(batchSize));
     context.put("hdfs.fileType", HDFSBadWriterFactory.BadSequenceFileType);
+    // the injected fault clears once the same writer is closed and reopened,
+    // which only happens on rolls when files are closed inline
+    context.put("hdfs.closerPoolSize", "0");
 
     Configurables.configure(sink, context);
 
@@ -880,6 +885,148 @@ public class TestHDFSEventSink {
     sink.stop();
   }
 
+  /*
+   * append using slow sink writer to several buckets in one transaction.
+   * verify that the buckets are written concurrently
+   */
+  @Test
+  public void testSlowAppendToManyBuckets() throws InterruptedException,
+      LifecycleException, EventDeliveryException, IOException {
+
+    LOG.debug("Starting...");
+    final int numBuckets = 4;
+    final long slowMillis = 500;
+    final String fileName = "FlumeData";
+    String newPath = testPath + "/manyBuckets";
+
+    // clear the test directory
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.get(conf);
+    Path dirPath = new Path(newPath);
+    fs.delete(dirPath, true);
+    fs.mkdirs(dirPath);
+
+    // create HDFS sink with slow writer
+    HDFSBadWriterFactory badWriterFactory = new HDFSBadWriterFactory();
+    sink = new HDFSEventSink(badWriterFactory);
+
+    Context context = new Context();
+    context.put("hdfs.path", newPath + "/%{hostname}");
+    context.put("hdfs.filePrefix", fileName);
+    context.put("hdfs.txnEventMax", String.valueOf(numBuckets));
+    context.put("hdfs.rollCount", "0");
+    context.put("hdfs.rollInterval", "0");
+    context.put("hdfs.rollSize", "0");
+    context.put("hdfs.batchSize", "1");
+    context.put("hdfs.fileType", HDFSBadWriterFactory.BadSequenceFileType);
+    Configurables.configure(sink, context);
+
+    Channel channel = new MemoryChannel();
+    Configurables.configure(channel, context);
+
+    sink.setChannel(channel);
+    sink.start();
+
+    List<String> bodies = Lists.newArrayList();
+    Transaction txn = channel.getTransaction();
+    txn.begin();
+    for (int i = 0; i < numBuckets; i++) {
+      Event event = new SimpleEvent();
+      event.getHeaders().put("hostname", "Host" + i);
+      event.getHeaders().put("slow", String.valueOf(slowMillis));
+      String body = "Test." + i;
+      event.setBody(body.getBytes());
+      bodies.add(body);
+      channel.put(event);
+    }
+    txn.commit();
+    txn.close();
+
+    long startNanos = System.nanoTime();
+    Status status = sink.process();
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(
+        System.nanoTime() - startNanos);
+
+    Assert.assertEquals(Status.READY, status);
+    Assert.assertTrue("Buckets were not written concurrently, took " +
+        elapsedMillis + " ms", elapsedMillis < numBuckets * slowMillis);
+
+    sink.stop();
+
+    Assert.assertEquals(numBuckets, fs.listStatus(dirPath).length);
+    verifyOutputSequenceFiles(fs, conf, dirPath.toUri().getPath(), fileName,
+        bodies);
+  }
+
+  /**
+   * Ensure that a transaction writing to more buckets than maxOpenFiles
+   * leaves every file closed and renamed, with one file per bucket
+   */
+  @Test
+  public void testMoreBucketsThanMaxOpenFiles() throws InterruptedException,
+      LifecycleException, EventDeliveryException, IOException {
+
+    LOG.debug("Starting...");
+    final int numBuckets = 3;
+    final int eventsPerBucket = 2;
+    final String fileName = "FlumeData";
+    String newPath = testPath + "/maxOpenFiles";
+
+    // clear the test directory
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.get(conf);
+    Path dirPath = new Path(newPath);
+    fs.delete(dirPath, true);
+    fs.mkdirs(dirPath);
+
+    Context context = new Context();
+    context.put("hdfs.path", newPath + "/%{hostname}");
+    context.put("hdfs.filePrefix", fileName);
+    context.put("hdfs.txnEventMax", String.valueOf(numBuckets *
+        eventsPerBucket));
+    context.put("hdfs.rollCount", "0");
+    context.put("hdfs.rollInterval", "0");
+    context.put("hdfs.rollSize", "0");
+    context.put("hdfs.batchSize", "100");
+    context.put("hdfs.maxOpenFiles", "1");
+    Configurables.configure(sink, context);
+
+    Channel channel = new MemoryChannel();
+    Configurables.configure(channel, context);
+
+    sink.setChannel(channel);
+    sink.start();
+
+    // interleave the buckets so that each is used again after being evicted
+    List<String> bodies = Lists.newArrayList();
+    Transaction txn = channel.getTransaction();
+    txn.begin();
+    for (int j = 0; j < eventsPerBucket; j++) {
+      for (int i = 0; i < numBuckets; i++) {
+        Event event = new SimpleEvent();
+        event.getHeaders().put("hostname", "Host" + i);
+        String body = "Test." + i + "." + j;
+        event.setBody(body.getBytes());
+        bodies.add(body);
+        channel.put(event);
+      }
+    }
+    txn.commit();
+    txn.close();
+
+    Assert.assertEquals(Status.READY, sink.process());
+    sink.stop();
+
+    Assert.assertEquals(numBuckets, fs.listStatus(dirPath).length);
+    for (FileStatus bucketStat : fs.listStatus(dirPath)) {
+      FileStatus[] fileStats = fs.listStatus(bucketStat.getPath());
+      Assert.assertEquals(1, fileStats.length);
+      Assert.assertFalse(fileStats[0].getPath().getName().endsWith(".tmp"));
+    }
+    verifyOutputSequenceFiles(fs, conf, dirPath.toUri().getPath(), fileName,
+        bodies);
+  }
+
   /*
    * append using slow sink writer with specified append timeout
    * verify that the data is written correctly to files
@@ -983,4 +1130,56 @@ public class TestHDFSEventSink {
     LOG.debug("Starting...");
     slowAppendTestHelper(0);
   }
+
+  /**
+   * A file rolled in the middle of a transaction is closed in the
+   * background, so its events must be synced before the transaction is
+   * committed.
+   */
+  @Test
+  public void testRollSyncsBeforeCommit() throws Exception {
+    final List<MockHDFSWriter> writers = Lists.newArrayList();
+    sink = new HDFSEventSink(new HDFSWriterFactory() {
+      @Override
+      public HDFSWriter getWriter(String fileType) {
+        MockHDFSWriter writer = new MockHDFSWriter();
+        writers.add(writer);
+        return writer;
+      }
+    });
+
+    Context context = new Context();
+    context.put("hdfs.path", testPath + "/rollSync");
+    context.put("hdfs.txnEventMax", "10");
+    context.put("hdfs.rollCount", "4");
+    context.put("hdfs.rollInterval", "0");
+    context.put("hdfs.rollSize", "0");
+    context.put("hdfs.batchSize", "100");
+    context.put("hdfs.closerPoolSize", "1");
+    Configurables.configure(sink, context);
+
+    Channel channel = new MemoryChannel();
+    Configurables.configure(channel, context);
+    sink.setChannel(channel);
+    sink.start();
+
+    Transaction txn = channel.getTransaction();
+    txn.begin();
+    for (int i = 0; i < 10; i++) {
+      channel.put(EventBuilder.withBody("event " + i, Charsets.UTF_8));
+    }
+    txn.commit();
+    txn.close();
+
+    Assert.assertEquals(Status.READY, sink.process());
+
+    // 4 + 4 + 2 events, every file synced by the time process() returns
+    Assert.assertEquals("writers created", 3, writers.size());
+    for (MockHDFSWriter writer : writers) {
+      Assert.assertEquals("events written", writer == writers.get(2) ? 2 : 4,
+          writer.getEventsWritten());
+      Assert.assertTrue("file synced", writer.getSyncCalls() > 0);
+    }
+    sink.stop();
+  }
 }
@@ -18,9 +18,18 @@
  */
 package org.apache.flume.sink.hbase;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.flume.Channel;
 import org.apache.flume.Context;
@@ -33,6 +42,7 @@ import org.apache.flume.sink.AbstractSink;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Increment;
 import org.hbase.async.AtomicIncrementRequest;
 import org.hbase.async.HBaseClient;
 import org.hbase.async.PutRequest;
@@ -42,6 +52,7 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.stumbleupon.async.Callback;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -79,6 +90,23 @@ import org.apache.flume.instrumentation.SinkCounter;
 * <tt>timeout: </tt> The length of time in milliseconds the sink waits for
 * callbacks from hbase for all events in a transaction.
 * If no timeout is specified, the sink will wait forever.<p>
+* <tt>coalesceIncrements: </tt> If true, increments to the same cell within
+* a transaction are summed and sent as one increment. The serializer has to
+* implement {@link CoalescingAsyncHbaseEventSerializer}, otherwise increments
+* are not coalesced. The default is false.
+* <p>
+* <tt>maxInFlightBatches: </tt> The maximum number of transactions waiting
+* for callbacks from hbase at any time. With a value greater than 1, the sink
+* takes the next batch from the channel while earlier batches are still
+* being written, and commits each transaction once its callbacks have been
+* received and all earlier transactions have completed. A transaction that
+* fails or times out is rolled back without affecting the others, and the
+* failure is reported by the next call to <code>process()</code>. Since
+* channel transactions are bound to the thread that opened them, each
+* in-flight batch is handled by its own thread. When the sink is stopped,
+* batches still in flight after the timeout, or at most 30 seconds, are
+* rolled back. The default is 1, which waits for every batch before taking
+* the next.<p>
 *
 * <strong>Note: </strong> Hbase does not guarantee atomic commits on multiple
 * rows. So if a subset of events in a batch are written to disk by Hbase and
@@ -101,10 +129,19 @@ public class AsyncHBaseSink extends AbstractSink implements Configurable {
   private Context serializerContext;
   private HBaseClient client;
   private Configuration conf;
-  private Transaction txn;
   private volatile boolean open = false;
   private SinkCounter sinkCounter;
   private long timeout;
+  private boolean coalesceIncrements;
+  private int maxInFlightBatches;
+  private ExecutorService batchExecutor;
+  private Semaphore inFlight;
+  private CountDownLatch lastBatchDone;
+  private final AtomicReference<Throwable> batchFailure =
+      new AtomicReference<Throwable>();
+  // Upper bound on how long stop() waits for in-flight batches, which
+  // would otherwise be forever when no timeout is configured.
+  private static final long MAX_STOP_WAIT_MS = 30000;
 
   public AsyncHBaseSink(){
     conf = HBaseConfiguration.create();
@@ -115,6 +152,72 @@ public class AsyncHBaseSink extends AbstractSink implements Configurable {
   }
   @Override
   public Status process() throws EventDeliveryException {
+    if(!open){
+      throw new EventDeliveryException("Sink was never opened. " +
+          "Please fix the configuration.");
+    }
+    if (batchExecutor == null) {
+      return processBatch(null);
+    }
+    return processPipelined();
+  }
+
+  /**
+   * Hands the next batch to a worker thread, and returns once that batch has
+   * been taken from the channel and sent to HBase. Its transaction is
+   * committed later by the worker, after its callbacks are received.
+   */
+  private Status processPipelined() throws EventDeliveryException {
+    throwIfBatchFailed();
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EventDeliveryException(
+          "Interrupted while waiting for an in-flight batch to complete", e);
+    }
+    PipelinedBatch batch = new PipelinedBatch(lastBatchDone);
+    try {
+      batchExecutor.execute(batch);
+    } catch (RejectedExecutionException e) {
+      inFlight.release();
+      throw new EventDeliveryException("Could not process batch, " +
+          "the sink is being stopped.", e);
+    }
+    lastBatchDone = batch.done;
+    try {
+      batch.taken.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EventDeliveryException(
+          "Interrupted while waiting for events to be taken", e);
+    }
+    throwIfBatchFailed();
+    return batch.status;
+  }
+
+  /**
+   * Reports, once, a failure of a batch processed by a worker thread.
+   */
+  private void throwIfBatchFailed() throws EventDeliveryException {
+    Throwable failure = batchFailure.getAndSet(null);
+    if (failure != null) {
+      if (failure instanceof EventDeliveryException) {
+        throw (EventDeliveryException) failure;
+      }
+      checkIfChannelExceptionAndThrow(failure);
+    }
+  }
+
+  /**
+   * Takes a batch of events from the channel, writes them to HBase and
+   * commits the transaction once all callbacks are received.
+   *
+   * @param batch the pipelined batch being processed, or null if the
+   * batch is processed on the calling thread
+   */
+  private Status processBatch(PipelinedBatch batch)
+      throws EventDeliveryException {
     /*
      * Reference to the boolean representing failure of the current transaction.
      * Since each txn gets a new boolean, failure of one txn will not affect
@@ -122,10 +225,6 @@ public class AsyncHBaseSink extends AbstractSink implements Configurable {
      * the next one is being processed.
      *
      */
-    if(!open){
-      throw new EventDeliveryException("Sink was never opened. " +
-          "Please fix the configuration.");
-    }
     AtomicBoolean txnFail = new AtomicBoolean(false);
     AtomicInteger callbacksReceived = new AtomicInteger(0);
     AtomicInteger callbacksExpected = new AtomicInteger(0);
@@ -151,7 +250,10 @@ public class AsyncHBaseSink extends AbstractSink implements Configurable {
 
     Status status = Status.READY;
     Channel channel = getChannel();
+    Map<CellIdentifier, Long> coalescedIncrements = coalesceIncrements ?
+        new LinkedHashMap<CellIdentifier, Long>() : null;
     int i = 0;
+    Transaction txn = null;
     try {
       txn = channel.getTransaction();
       txn.begin();
@@ -168,26 +270,51 @@ public class AsyncHBaseSink extends AbstractSink implements Configurable {
         } else {
           serializer.setEvent(event);
           List<PutRequest> actions = serializer.getActions();
-          List<AtomicIncrementRequest> increments = serializer.getIncrements();
-          callbacksExpected.addAndGet(actions.size() + increments.size());
+          callbacksExpected.addAndGet(actions.size());
 
           for (PutRequest action : actions) {
             client.put(action).addCallbacks(putSuccessCallback, putFailureCallback);
           }
-          for (AtomicIncrementRequest increment : increments) {
-            client.atomicIncrement(increment).addCallbacks(
-                    incrementSuccessCallback, incrementFailureCallback);
+          if (coalesceIncrements) {
+            coalesce(((CoalescingAsyncHbaseEventSerializer) serializer)
+                .getCoalescableIncrements(), coalescedIncrements);
+          } else {
+            List<AtomicIncrementRequest> increments = serializer.getIncrements();
+            callbacksExpected.addAndGet(increments.size());
+            for (AtomicIncrementRequest increment : increments) {
+              client.atomicIncrement(increment).addCallbacks(
+                      incrementSuccessCallback, incrementFailureCallback);
+            }
           }
         }
       }
+      if (coalesceIncrements) {
+        // sent once all events are taken, one request per distinct cell
+        byte[] table = tableName.getBytes(Charsets.UTF_8);
+        callbacksExpected.addAndGet(coalescedIncrements.size());
+        for (Map.Entry<CellIdentifier, Long> increment :
+            coalescedIncrements.entrySet()) {
+          CellIdentifier cell = increment.getKey();
+          client.atomicIncrement(new AtomicIncrementRequest(table, cell.row,
+              cell.family, cell.qualifier, increment.getValue())).addCallbacks(
+                  incrementSuccessCallback, incrementFailureCallback);
+        }
+      }
     } catch (Throwable e) {
-      this.handleTransactionFailure(txn);
+      if (txn != null) {
+        this.handleTransactionFailure(txn);
+      }
       this.checkIfChannelExceptionAndThrow(e);
     }
     if (i == batchSize) {
       sinkCounter.incrementBatchCompleteCount();
     }
     sinkCounter.addToEventDrainAttemptCount(i);
+    if (batch != null) {
+      // The next batch may now be taken, while this one waits for HBase.
+      batch.status = status;
+      batch.taken.countDown();
+    }
 
     lock.lock();
     try {
@@ -209,6 +336,12 @@ public class AsyncHBaseSink extends AbstractSink implements Configurable {
       lock.unlock();
     }
 
+    if (batch != null && !batch.awaitPrevious()) {
+      txnFail.set(true);
+      logger.warn("Interrupted while waiting for earlier transactions. "
+              + "Transaction will be rolled back.");
+    }
+
     /*
      * At this point, either the txn has failed
      * or all callbacks received and txn is successful.
@@ -237,6 +370,104 @@ public class AsyncHBaseSink extends AbstractSink implements Configurable {
     return status;
   }
 
+  /**
+   * A batch processed by a worker thread. Batches are chained, so that each
+   * transaction is completed only after the one taken before it.
+   */
+  private final class PipelinedBatch implements Runnable {
+    private final CountDownLatch previous;
+    private final CountDownLatch taken = new CountDownLatch(1);
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Status status = Status.BACKOFF;
+
+    PipelinedBatch(CountDownLatch previous) {
+      this.previous = previous;
+    }
+
+    /**
+     * @return false if interrupted before the previous batch completed
+     */
+    boolean awaitPrevious() {
+      try {
+        previous.await();
+        return true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        processBatch(this);
+      } catch (Throwable t) {
+        // Reported by the next call to process()
+        if (!batchFailure.compareAndSet(null, t)) {
+          logger.error("Failed to write batch to HBase.", t);
+        }
+      } finally {
+        taken.countDown();
+        done.countDown();
+        inFlight.release();
+      }
+    }
+  }
+
+  /**
+   * Adds the amounts of the given increments to the per-cell totals of this
+   * transaction.
+   */
+  static void coalesce(List<Increment> increments,
+      Map<CellIdentifier, Long> totals) {
+    for (Increment increment : increments) {
+      for (Map.Entry<byte[], NavigableMap<byte[], Long>> family :
+          increment.getFamilyMap().entrySet()) {
+        for (Map.Entry<byte[], Long> column : family.getValue().entrySet()) {
+          CellIdentifier cell = new CellIdentifier(increment.getRow(),
+              family.getKey(), column.getKey());
+          Long total = totals.get(cell);
+          totals.put(cell, total == null ? column.getValue()
+              : total + column.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * The row, family and qualifier of an increment.
+   */
+  static final class CellIdentifier {
+    private final byte[] row;
+    private final byte[] family;
+    private final byte[] qualifier;
+    private final int hashCode;
+
+    CellIdentifier(byte[] row, byte[] family, byte[] qualifier) {
+      this.row = row;
+      this.family = family;
+      this.qualifier = qualifier;
+      hashCode = 31 * (31 * Arrays.hashCode(row) + Arrays.hashCode(family))
+          + Arrays.hashCode(qualifier);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof CellIdentifier)) {
+        return false;
+      }
+      CellIdentifier that = (CellIdentifier) other;
+      return Arrays.equals(row, that.row)
+          && Arrays.equals(qualifier, that.qualifier)
+          && Arrays.equals(family, that.family);
+    }
+  }
+
   @Override
   public void configure(Context context) {
     tableName = context.getString(HBaseSinkConfigurationConstants.CONFIG_TABLE);
@@ -244,6 +475,14 @@ public class AsyncHBaseSink extends AbstractSink implements Configurable {
         HBaseSinkConfigurationConstants.CONFIG_COLUMN_FAMILY);
     batchSize = context.getLong(
         HBaseSinkConfigurationConstants.CONFIG_BATCHSIZE, new Long(100));
+    coalesceIncrements = context.getBoolean(
+        HBaseSinkConfigurationConstants.CONFIG_COALESCE_INCREMENTS,
+        HBaseSinkConfigurationConstants.DEFAULT_COALESCE_INCREMENTS);
+    maxInFlightBatches = context.getInteger(
+        HBaseSinkConfigurationConstants.CONFIG_MAX_IN_FLIGHT_BATCHES,
+        HBaseSinkConfigurationConstants.DEFAULT_MAX_IN_FLIGHT_BATCHES);
+    Preconditions.checkArgument(maxInFlightBatches > 0,
+        "maxInFlightBatches must be positive");
     serializerContext = new Context();
     //If not specified, will use HBase defaults.
     eventSerializerType = context.getString(
@@ -273,6 +512,13 @@ public class AsyncHBaseSink extends AbstractSink implements Configurable {
       logger.error("Could not instantiate event serializer." , e);
       Throwables.propagate(e);
     }
+    if (coalesceIncrements
+        && !(serializer instanceof CoalescingAsyncHbaseEventSerializer)) {
+      logger.warn("Serializer " + eventSerializerType + " does not implement "
+          + CoalescingAsyncHbaseEventSerializer.class.getSimpleName()
+          + ", increments will not be coalesced.");
+      coalesceIncrements = false;
+    }
 
     if(sinkCounter == null) {
       sinkCounter = new SinkCounter(this.getName());
@@ -334,11 +580,44 @@ public class AsyncHBaseSink extends AbstractSink implements Configurable {
       open = true;
     }
     client.setFlushInterval((short) 0);
+    if (maxInFlightBatches > 1) {
+      batchExecutor = Executors.newFixedThreadPool(maxInFlightBatches,
+          new ThreadFactoryBuilder().setNameFormat(
+              "AsyncHBaseSink-" + getName() + "-%d").build());
+      inFlight = new Semaphore(maxInFlightBatches);
+      lastBatchDone = new CountDownLatch(0);
+      batchFailure.set(null);
+    }
     super.start();
   }
 
   @Override
   public void stop(){
+    if (batchExecutor != null) {
+      // Let in-flight batches commit or roll back before closing the client.
+      batchExecutor.shutdown();
+      long stopTimeout = Math.min(timeout, MAX_STOP_WAIT_MS);
+      try {
+        if (!batchExecutor.awaitTermination(stopTimeout,
+            TimeUnit.MILLISECONDS)) {
+          logger.warn("In-flight batches did not complete in " + stopTimeout
+              + " ms, interrupting them so they are rolled back");
+          batchExecutor.shutdownNow();
+          if (!batchExecutor.awaitTermination(stopTimeout,
+              TimeUnit.MILLISECONDS)) {
+            logger.error("In-flight batches were not rolled back");
+          }
+        }
+      } catch (InterruptedException e) {
+        batchExecutor.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+      batchExecutor = null;
+      Throwable failure = batchFailure.getAndSet(null);
+      if (failure != null) {
+        logger.error("Failed to write batch to HBase.", failure);
+      }
+    }
     serializer.cleanUp();
     client.shutdown();
     sinkCounter.incrementConnectionClosedCount();
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.sink.hbase;
+
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Increment;
+
+/**
+ * An {@link AsyncHbaseEventSerializer} that can also describe the increments
+ * of an event by row, column and amount. The {@linkplain AsyncHBaseSink}
+ * needs this to sum the increments to the same cell when
+ * <tt>coalesceIncrements</tt> is set, since an
+ * {@link org.hbase.async.AtomicIncrementRequest} cannot be read back.
+ */
+public interface CoalescingAsyncHbaseEventSerializer
+    extends AsyncHbaseEventSerializer {
+
+  /**
+   * Get the increments that should be made in hbase as a result of this
+   * event, on the table the serializer was initialized with. Called instead
+   * of {@link #getIncrements()} when increments are coalesced.
+   * @return List of {@link org.apache.hadoop.hbase.client.Increment} whose
+   * columns and amounts are summed per cell before they are written.
+   */
+  public List<Increment> getCoalescableIncrements();
+}
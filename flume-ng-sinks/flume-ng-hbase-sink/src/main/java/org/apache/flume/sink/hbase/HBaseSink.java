@@ -21,6 +21,9 @@ package org.apache.flume.sink.hbase;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
 import org.apache.flume.Channel;
 import org.apache.flume.Context;
@@ -36,6 +39,7 @@ import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Increment;
 import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,6 +71,10 @@ import com.google.common.base.Throwables;
  * maximum number of events the sink will commit per transaction. The default
  * batch size is 100 events.
  * <p>
+ * <tt>coalesceIncrements: </tt>If true, increments to the same cell within
+ * a transaction are summed, and each row is incremented with a single call.
+ * The default is false.
+ * <p>
  *
  * <strong>Note: </strong> While this sink flushes all events in a transaction
  * to HBase in one shot, Hbase does not guarantee atomic commits on multiple
@@ -89,6 +97,7 @@ public class HBaseSink extends AbstractSink implements Configurable {
   private HbaseEventSerializer serializer;
   private String eventSerializerType;
   private Context serializerContext;
+  private boolean coalesceIncrements;
 
   public HBaseSink(){
     this(HBaseConfiguration.create());
@@ -148,6 +157,9 @@ public class HBaseSink extends AbstractSink implements Configurable {
         HBaseSinkConfigurationConstants.CONFIG_COLUMN_FAMILY);
     batchSize = context.getLong(
         HBaseSinkConfigurationConstants.CONFIG_BATCHSIZE, new Long(100));
+    coalesceIncrements = context.getBoolean(
+        HBaseSinkConfigurationConstants.CONFIG_COALESCE_INCREMENTS,
+        HBaseSinkConfigurationConstants.DEFAULT_COALESCE_INCREMENTS);
     serializerContext = new Context();
     //If not specified, will use HBase defaults.
     eventSerializerType = context.getString(
@@ -197,10 +209,66 @@ public class HBaseSink extends AbstractSink implements Configurable {
         incs.addAll(serializer.getIncrements());
       }
     }
+    if (coalesceIncrements && incs.size() > 1) {
+      int received = incs.size();
+      incs = coalesceIncrements(incs);
+      counterGroup.addAndGet("increments.coalesced",
+          (long) (received - incs.size()));
+    }
     putEventsAndCommit(actions, incs, txn);
     return status;
   }
 
+  /**
+   * Sums the amounts of increments to the same row, family and qualifier and
+   * returns one increment per row, covering all of the row's columns.
+   * Only the row, columns and amounts of the given increments are kept.
+   */
+  static List<Increment> coalesceIncrements(List<Increment> incs) {
+    Map<byte[], Map<byte[], NavigableMap<byte[], Long>>> rows =
+        new TreeMap<byte[], Map<byte[], NavigableMap<byte[], Long>>>(
+            Bytes.BYTES_COMPARATOR);
+    for (Increment inc : incs) {
+      Map<byte[], NavigableMap<byte[], Long>> families = rows.get(inc.getRow());
+      if (families == null) {
+        families = new TreeMap<byte[], NavigableMap<byte[], Long>>(
+            Bytes.BYTES_COMPARATOR);
+        rows.put(inc.getRow(), families);
+      }
+      for (Map.Entry<byte[], NavigableMap<byte[], Long>> family :
+          inc.getFamilyMap().entrySet()) {
+        NavigableMap<byte[], Long> columns = families.get(family.getKey());
+        if (columns == null) {
+          columns = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+          families.put(family.getKey(), columns);
+        }
+        for (Map.Entry<byte[], Long> column : family.getValue().entrySet()) {
+          Long amount = columns.get(column.getKey());
+          columns.put(column.getKey(), amount == null ? column.getValue()
+              : amount + column.getValue());
+        }
+      }
+    }
+
+    List<Increment> coalesced = new LinkedList<Increment>();
+    for (Map.Entry<byte[], Map<byte[], NavigableMap<byte[], Long>>> row :
+        rows.entrySet()) {
+      Increment inc = new Increment(row.getKey());
+      for (Map.Entry<byte[], NavigableMap<byte[], Long>> family :
+          row.getValue().entrySet()) {
+        for (Map.Entry<byte[], Long> column : family.getValue().entrySet()) {
+          inc.addColumn(family.getKey(), column.getKey(), column.getValue());
+        }
+      }
+      coalesced.add(inc);
+    }
+    return coalesced;
+  }
+
+  CounterGroup getCounterGroup() {
+    return counterGroup;
+  }
+
   private void putEventsAndCommit(List<Row> actions, List<Increment> incs,
       Transaction txn) throws EventDeliveryException {
     try {
@@ -48,4 +48,21 @@ public class HBaseSinkConfigurationConstants {
 
   public static final long DEFAULT_TIMEOUT = Long.MAX_VALUE;
 
+  /**
+   * Whether increments to the same cell within a transaction should be
+   * summed and sent to HBase as one increment.
+   */
+  public static final String CONFIG_COALESCE_INCREMENTS = "coalesceIncrements";
+
+  public static final boolean DEFAULT_COALESCE_INCREMENTS = false;
+
+  /**
+   * The maximum number of transactions the async sink keeps waiting for
+   * HBase callbacks at any time.
+   */
+  public static final String CONFIG_MAX_IN_FLIGHT_BATCHES =
+      "maxInFlightBatches";
+
+  public static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 1;
+
 }
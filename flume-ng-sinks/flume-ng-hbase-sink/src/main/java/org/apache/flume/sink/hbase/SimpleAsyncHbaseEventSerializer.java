@@ -24,6 +24,7 @@ import java.util.List;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.FlumeException;
+import org.apache.hadoop.hbase.client.Increment;
 import org.hbase.async.AtomicIncrementRequest;
 import org.hbase.async.PutRequest;
 import org.apache.flume.conf.ComponentConfiguration;
@@ -50,7 +51,8 @@ import com.google.common.base.Charsets;
  * <tt>incrementColumn:</tt> Which column to increment. If this is absent, it
  *  means no column is incremented.
  */
-public class SimpleAsyncHbaseEventSerializer implements AsyncHbaseEventSerializer {
+public class SimpleAsyncHbaseEventSerializer
+    implements CoalescingAsyncHbaseEventSerializer {
   private byte[] table;
   private byte[] cf;
   private byte[] payload;
@@ -107,6 +109,16 @@ public class SimpleAsyncHbaseEventSerializer implements AsyncHbaseEventSerialize
     return actions;
   }
 
+  @Override
+  public List<Increment> getCoalescableIncrements() {
+    List<Increment> increments = new ArrayList<Increment>();
+    if(incrementColumn != null) {
+      increments.add(new Increment(incrementRow).addColumn(cf,
+          incrementColumn, 1L));
+    }
+    return increments;
+  }
+
   @Override
   public void cleanUp() {
     // TODO Auto-generated method stub
@@ -22,9 +22,15 @@ package org.apache.flume.sink.hbase;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.flume.Channel;
@@ -34,6 +40,7 @@ import org.apache.flume.EventDeliveryException;
 import org.apache.flume.FlumeException;
 import org.apache.flume.Transaction;
 import org.apache.flume.Sink.Status;
+import org.apache.flume.channel.AbstractChannel;
 import org.apache.flume.channel.MemoryChannel;
 import org.apache.flume.conf.Configurables;
 import org.apache.flume.event.EventBuilder;
@@ -43,12 +50,15 @@ import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.MiniHBaseCluster;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Increment;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.master.HMaster;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.zookeeper.MiniZooKeeperCluster;
+import org.hbase.async.AtomicIncrementRequest;
+import org.hbase.async.PutRequest;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -216,6 +226,34 @@ public class TestAsyncHBaseSink {
     testUtility.deleteTable(tableName.getBytes());
   }
 
+  @Test
+  public void testCoalesceIncrements() throws Exception {
+    byte[] family = columnFamily.getBytes();
+    List<Increment> incs = new ArrayList<Increment>();
+    for (int i = 0; i < 3; i++) {
+      incs.add(new Increment(Bytes.toBytes("row1"))
+          .addColumn(family, Bytes.toBytes("a"), 1L)
+          .addColumn(family, Bytes.toBytes("b"), 2L));
+      incs.add(new Increment(Bytes.toBytes("row2"))
+          .addColumn(family, Bytes.toBytes("a"), 5L));
+    }
+
+    Map<AsyncHBaseSink.CellIdentifier, Long> totals =
+        new LinkedHashMap<AsyncHBaseSink.CellIdentifier, Long>();
+    AsyncHBaseSink.coalesce(incs.subList(0, 2), totals);
+    AsyncHBaseSink.coalesce(incs.subList(2, incs.size()), totals);
+    Assert.assertEquals(3, totals.size());
+    Assert.assertEquals(Long.valueOf(3), totals.get(
+        new AsyncHBaseSink.CellIdentifier(Bytes.toBytes("row1"), family,
+            Bytes.toBytes("a"))));
+    Assert.assertEquals(Long.valueOf(6), totals.get(
+        new AsyncHBaseSink.CellIdentifier(Bytes.toBytes("row1"), family,
+            Bytes.toBytes("b"))));
+    Assert.assertEquals(Long.valueOf(15), totals.get(
+        new AsyncHBaseSink.CellIdentifier(Bytes.toBytes("row2"), family,
+            Bytes.toBytes("a"))));
+  }
+
   @Test
   public void testMultipleBatches() throws Exception {
     testUtility.createTable(tableName.getBytes(), columnFamily.getBytes());
@@ -262,6 +300,115 @@ public class TestAsyncHBaseSink {
     testUtility.deleteTable(tableName.getBytes());
   }
 
+  @Test
+  public void testMultipleBatchesPipelined() throws Exception {
+    testUtility.createTable(tableName.getBytes(), columnFamily.getBytes());
+    ctx.put("batchSize", "2");
+    ctx.put("maxInFlightBatches", "3");
+    AsyncHBaseSink sink = new AsyncHBaseSink(testUtility.getConfiguration());
+    Configurables.configure(sink, ctx);
+    //Reset the context
+    ctx.put("batchSize", "100");
+    ctx.put("maxInFlightBatches", "1");
+    Channel channel = new MemoryChannel();
+    Configurables.configure(channel, new Context());
+    sink.setChannel(channel);
+    sink.start();
+    Transaction tx = channel.getTransaction();
+    tx.begin();
+    for(int i = 0; i < 6; i++){
+      Event e = EventBuilder.withBody(Bytes.toBytes(valBase + "-" + i));
+      channel.put(e);
+    }
+    tx.commit();
+    tx.close();
+    int count = 0;
+    Status status = Status.READY;
+    while(status != Status.BACKOFF){
+      count++;
+      status = sink.process();
+    }
+    //Waits for the in-flight transactions to be committed
+    sink.stop();
+    Assert.assertEquals(4, count);
+    tx = channel.getTransaction();
+    tx.begin();
+    Assert.assertNull(channel.take());
+    tx.commit();
+    tx.close();
+    HTable table = new HTable(testUtility.getConfiguration(), tableName);
+    byte[][] results = getResults(table, 6);
+    byte[] out;
+    int found = 0;
+    for(int i = 0; i < 6; i++){
+      for(int j = 0; j < 6; j++){
+        if(Arrays.equals(results[j],Bytes.toBytes(valBase + "-" + i))){
+          found++;
+          break;
+        }
+      }
+    }
+    Assert.assertEquals(6, found);
+    out = results[6];
+    Assert.assertArrayEquals(Longs.toByteArray(6), out);
+    testUtility.deleteTable(tableName.getBytes());
+  }
+
+  @Test(timeout = 60000)
+  public void testFailedBatchRolledBackAlone() throws Exception {
+    testUtility.createTable(tableName.getBytes(), columnFamily.getBytes());
+    Context pipelinedCtx = new Context(ctx.getParameters());
+    pipelinedCtx.put("serializer", FailOnceEventSerializer.class.getName());
+    pipelinedCtx.put("batchSize", "2");
+    pipelinedCtx.put("maxInFlightBatches", "3");
+    FailOnceEventSerializer.failed.clear();
+    AsyncHBaseSink sink = new AsyncHBaseSink(testUtility.getConfiguration());
+    Configurables.configure(sink, pipelinedCtx);
+    Channel memoryChannel = new MemoryChannel();
+    Configurables.configure(memoryChannel, new Context());
+    RecordingChannel channel = new RecordingChannel(memoryChannel);
+    sink.setChannel(channel);
+    sink.start();
+    Transaction tx = channel.getTransaction();
+    tx.begin();
+    for(int i = 0; i < 6; i++){
+      String body = (i == 2 || i == 3) ? valBase + "-fail-" + i
+          : valBase + "-" + i;
+      channel.put(EventBuilder.withBody(Bytes.toBytes(body)));
+    }
+    tx.commit();
+    tx.close();
+    //The failure is reported by a later call, once the batch is rolled back
+    int failures = 0;
+    Status status = Status.READY;
+    while(status != Status.BACKOFF || failures == 0){
+      try {
+        status = sink.process();
+      } catch (EventDeliveryException e) {
+        failures++;
+      }
+    }
+    sink.stop();
+    Assert.assertEquals(1, failures);
+
+    //Only the second batch was rolled back, and its events written again
+    String first = "commit [" + valBase + "-0, " + valBase + "-1]";
+    String failed = "rollback [" + valBase + "-fail-2, " + valBase + "-fail-3]";
+    String retried = "commit [" + valBase + "-fail-2, " + valBase + "-fail-3]";
+    String third = "commit [" + valBase + "-4, " + valBase + "-5]";
+    List<String> completed = channel.completed;
+    Assert.assertEquals(4, completed.size());
+    Assert.assertEquals(first, completed.get(0));
+    Assert.assertEquals(failed, completed.get(1));
+    Assert.assertTrue(completed.contains(retried));
+    Assert.assertTrue(completed.contains(third));
+
+    HTable table = new HTable(testUtility.getConfiguration(), tableName);
+    byte[][] results = getResults(table, 6);
+    Assert.assertArrayEquals(Longs.toByteArray(6), results[6]);
+    testUtility.deleteTable(tableName.getBytes());
+  }
+
   @Test(expected = FlumeException.class)
   public void testMissingTable() throws Exception {
     ctx.put("batchSize", "2");
@@ -349,6 +496,113 @@ public class TestAsyncHBaseSink {
     sink.process();
     sink.stop();
   }
+  /**
+   * Writes an event whose body contains "-fail-" to a column family that does
+   * not exist the first time it is serialized, so that its batch fails.
+   */
+  public static class FailOnceEventSerializer
+      extends SimpleAsyncHbaseEventSerializer {
+    static final Set<String> failed =
+        Collections.synchronizedSet(new HashSet<String>());
+    private byte[] table;
+    private boolean failing;
+
+    @Override
+    public void initialize(byte[] table, byte[] cf) {
+      super.initialize(table, cf);
+      this.table = table;
+    }
+
+    @Override
+    public void setEvent(Event event) {
+      super.setEvent(event);
+      String body = Bytes.toString(event.getBody());
+      failing = body.contains("-fail-") && failed.add(body);
+    }
+
+    @Override
+    public List<PutRequest> getActions() {
+      if (failing) {
+        return Collections.singletonList(new PutRequest(table,
+            Bytes.toBytes("failRow"), Bytes.toBytes("missingFamily"),
+            plCol.getBytes(), Bytes.toBytes("fail")));
+      }
+      return super.getActions();
+    }
+
+    @Override
+    public List<AtomicIncrementRequest> getIncrements() {
+      if (failing) {
+        return Collections.emptyList();
+      }
+      return super.getIncrements();
+    }
+  }
+
+  /**
+   * Records the events taken in each transaction, in the order the
+   * transactions are committed or rolled back.
+   */
+  private static class RecordingChannel extends AbstractChannel {
+    private final Channel channel;
+    private final ThreadLocal<List<String>> taken =
+        new ThreadLocal<List<String>>();
+    final List<String> completed =
+        Collections.synchronizedList(new ArrayList<String>());
+
+    RecordingChannel(Channel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public void put(Event event) {
+      channel.put(event);
+    }
+
+    @Override
+    public Event take() {
+      Event event = channel.take();
+      if (event != null) {
+        taken.get().add(Bytes.toString(event.getBody()));
+      }
+      return event;
+    }
+
+    @Override
+    public Transaction getTransaction() {
+      final Transaction txn = channel.getTransaction();
+      final List<String> events = new ArrayList<String>();
+      taken.set(events);
+      return new Transaction() {
+        @Override
+        public void begin() {
+          txn.begin();
+        }
+
+        @Override
+        public void commit() {
+          txn.commit();
+          if (!events.isEmpty()) {
+            completed.add("commit " + events);
+          }
+        }
+
+        @Override
+        public void rollback() {
+          txn.rollback();
+          if (!events.isEmpty()) {
+            completed.add("rollback " + events);
+          }
+        }
+
+        @Override
+        public void close() {
+          txn.close();
+        }
+      };
+    }
+  }
+
   /**
    * Makes Hbase scans to get rows in the payload column and increment column
    * in the table given. Expensive, so tread lightly.
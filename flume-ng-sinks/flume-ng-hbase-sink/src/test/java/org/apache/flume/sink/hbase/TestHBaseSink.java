@@ -20,8 +20,10 @@ package org.apache.flume.sink.hbase;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 
@@ -38,6 +40,7 @@ import org.apache.flume.event.EventBuilder;
 import org.apache.flume.sink.hbase.HBaseSink;
 import org.apache.hadoop.hbase.*;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Increment;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
@@ -144,6 +147,63 @@ public class TestHBaseSink {
     testUtility.deleteTable(tableName.getBytes());
   }
 
+  @Test
+  public void testThreeEventsCoalesced() throws Exception {
+    testUtility.createTable(tableName.getBytes(), columnFamily.getBytes());
+    Context coalescingCtx = new Context(ctx.getParameters());
+    coalescingCtx.put("coalesceIncrements", "true");
+    HBaseSink sink = new HBaseSink(testUtility.getConfiguration());
+    Configurables.configure(sink, coalescingCtx);
+    Channel channel = new MemoryChannel();
+    Configurables.configure(channel, new Context());
+    sink.setChannel(channel);
+    sink.start();
+    Transaction tx = channel.getTransaction();
+    tx.begin();
+    for(int i = 0; i < 3; i++){
+      Event e = EventBuilder.withBody(Bytes.toBytes(valBase + "-" + i));
+      channel.put(e);
+    }
+    tx.commit();
+    tx.close();
+    sink.process();
+    sink.stop();
+    HTable table = new HTable(testUtility.getConfiguration(), tableName);
+    byte[][] results = getResults(table, 3);
+    Assert.assertArrayEquals(Longs.toByteArray(3), results[3]);
+    //All three increments to the counter were sent as one
+    Assert.assertEquals(Long.valueOf(2),
+        sink.getCounterGroup().get("increments.coalesced"));
+    testUtility.deleteTable(tableName.getBytes());
+  }
+
+  @Test
+  public void testCoalesceIncrements() throws Exception {
+    byte[] family = columnFamily.getBytes();
+    List<Increment> incs = new ArrayList<Increment>();
+    for (int i = 0; i < 3; i++) {
+      incs.add(new Increment(Bytes.toBytes("row1"))
+          .addColumn(family, Bytes.toBytes("a"), 1L));
+      incs.add(new Increment(Bytes.toBytes("row1"))
+          .addColumn(family, Bytes.toBytes("b"), 2L));
+      incs.add(new Increment(Bytes.toBytes("row2"))
+          .addColumn(family, Bytes.toBytes("a"), 5L));
+    }
+
+    List<Increment> coalesced = HBaseSink.coalesceIncrements(incs);
+    Assert.assertEquals(2, coalesced.size());
+    Increment row1 = coalesced.get(0);
+    Assert.assertArrayEquals(Bytes.toBytes("row1"), row1.getRow());
+    Assert.assertEquals(Long.valueOf(3),
+        row1.getFamilyMap().get(family).get(Bytes.toBytes("a")));
+    Assert.assertEquals(Long.valueOf(6),
+        row1.getFamilyMap().get(family).get(Bytes.toBytes("b")));
+    Increment row2 = coalesced.get(1);
+    Assert.assertArrayEquals(Bytes.toBytes("row2"), row2.getRow());
+    Assert.assertEquals(Long.valueOf(15),
+        row2.getFamilyMap().get(family).get(Bytes.toBytes("a")));
+  }
+
   @Test
   public void testMultipleBatches() throws Exception {
     testUtility.createTable(tableName.getBytes(), columnFamily.getBytes());